@@ -0,0 +1,14 @@
+package com.tienda.sockets;
+
+// Lo que el cliente puede pedir. CodecBinario manda el ordinal: las nuevas
+// van al final
+enum Accion {
+    BUSCAR,
+    LISTAR_TIPO,
+    AGREGAR_CARRITO,
+    EDITAR_CARRITO,
+    ELIMINAR_DEL_CARRITO,
+    VER_CARRITO,
+    CHECKOUT,
+    SALIR
+}
@@ -0,0 +1,131 @@
+package com.tienda.sockets;
+
+import java.util.*;
+
+// Unidades que el carrito de una sesión tiene apartadas en Existencias:
+// agregar al carrito ya las descuenta, así el checkout no falla por algo
+// que el cliente vio disponible. Si el carrito no se toca en 'duracionMs',
+// lo apartado vuelve al stock (el carrito queda igual y el checkout intenta
+// apartar de nuevo lo que falte).
+// Cada apartado usa un solo temporizador de la rueda. Tocar el carrito no
+// lo reprograma: solo mueve 'vence', y cuando el temporizador se cumple
+// antes de tiempo se vuelve a programar por lo que resta.
+// Lo usan el hilo de la sesión y el de la rueda, por eso todo es synchronized.
+class Apartado {
+
+    private final Existencias existencias;
+    private final RuedaTiempo rueda;
+    private final long duracionMs;
+    private final Map<String, Integer> apartadas = new HashMap<>();
+    private RuedaTiempo.Temporizador temporizador;
+    // Cambia con cada temporizador; uno viejo que se cumple mientras se
+    // cancelaba no debe tocar el apartado nuevo
+    private long turno;
+    private long vence;
+
+    Apartado(Existencias existencias, RuedaTiempo rueda, long duracionMs) {
+        this.existencias = existencias;
+        this.rueda = rueda;
+        this.duracionMs = duracionMs;
+    }
+
+    // Aparta 'cantidad' más del artículo; false si no alcanza
+    synchronized boolean apartar(String id, int cantidad) {
+        if (existencias.reservar(Collections.singletonMap(id, cantidad)) != null) {
+            return false;
+        }
+        apartadas.merge(id, cantidad, Integer::sum);
+        renovar();
+        return true;
+    }
+
+    // Deja apartadas exactamente 'cantidad' unidades del artículo (0 = nada);
+    // false si no alcanza para subir, y entonces no cambia nada
+    synchronized boolean ajustar(String id, int cantidad) {
+        int actual = apartadas.getOrDefault(id, 0);
+        if (cantidad > actual && existencias.reservar(Collections.singletonMap(id, cantidad - actual)) != null) {
+            return false;
+        }
+        if (cantidad < actual) {
+            existencias.devolver(Collections.singletonMap(id, actual - cantidad));
+        }
+        if (cantidad == 0) {
+            apartadas.remove(id);
+        } else {
+            apartadas.put(id, cantidad);
+        }
+        renovar();
+        return true;
+    }
+
+    // Checkout: aparta lo que el pedido tenga de más sobre lo ya apartado y,
+    // si alcanza, lo apartado pasa a vendido. Devuelve null o, como
+    // Existencias.reservar, el id que no alcanzó (lo apartado se conserva)
+    synchronized String confirmar(Map<String, Integer> pedido) {
+        Map<String, Integer> faltan = new HashMap<>();
+        Map<String, Integer> sobran = new HashMap<>();
+        for (Map.Entry<String, Integer> e : pedido.entrySet()) {
+            int diferencia = e.getValue() - apartadas.getOrDefault(e.getKey(), 0);
+            if (diferencia > 0) faltan.put(e.getKey(), diferencia);
+            if (diferencia < 0) sobran.put(e.getKey(), -diferencia);
+        }
+        for (Map.Entry<String, Integer> e : apartadas.entrySet()) {
+            if (!pedido.containsKey(e.getKey())) sobran.put(e.getKey(), e.getValue());
+        }
+        if (!faltan.isEmpty()) {
+            String faltante = existencias.reservar(faltan);
+            if (faltante != null) {
+                return faltante;
+            }
+        }
+        existencias.devolver(sobran);
+        apartadas.clear();
+        detener();
+        return null;
+    }
+
+    // Fin de la sesión: todo lo apartado vuelve al stock
+    synchronized void liberar() {
+        existencias.devolver(apartadas);
+        apartadas.clear();
+        detener();
+    }
+
+    private void renovar() {
+        vence = System.currentTimeMillis() + duracionMs;
+        if (temporizador == null && !apartadas.isEmpty()) {
+            programar(duracionMs);
+        }
+    }
+
+    private void programar(long ms) {
+        long mio = ++turno;
+        temporizador = rueda.programar(ms, () -> vencer(mio));
+    }
+
+    private void detener() {
+        if (temporizador != null) {
+            temporizador.cancelar();
+            temporizador = null;
+            turno++;
+        }
+    }
+
+    // En el hilo de la rueda
+    private synchronized void vencer(long suTurno) {
+        if (suTurno != turno) {
+            return;
+        }
+        temporizador = null;
+        if (apartadas.isEmpty()) {
+            return;
+        }
+        long resta = vence - System.currentTimeMillis();
+        if (resta > 0) {
+            programar(resta);
+            return;
+        }
+        existencias.devolver(apartadas);
+        apartadas.clear();
+    }
+}
@@ -1,3 +1,30 @@
-public class Articulo {
-    
+package com.tienda.sockets;
+
+import java.io.Serializable;
+
+// Un artículo del catálogo. Las existencias reales del servidor están en
+// Existencias; este campo es la foto que se manda al cliente
+public class Articulo implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final String id;
+    final String nombre;
+    final String marca;
+    final String tipo;
+    final double precio;
+    int existencias;
+
+    public Articulo(String id, String nombre, String marca, String tipo, double precio, int existencias) {
+        this.id = id;
+        this.nombre = nombre;
+        this.marca = marca;
+        this.tipo = tipo;
+        this.precio = precio;
+        this.existencias = existencias;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s | %s | %s | %s | $%,.2f | %d", id, nombre, marca, tipo, precio, existencias);
+    }
 }
@@ -0,0 +1,144 @@
+package com.tienda.sockets;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// RuedaTiempo y Apartado sin servidor ni sockets:
+//   precision:   muchos temporizadores de 0 a 3 s; ninguno debe correr antes
+//                de tiempo y ninguno cancelado debe correr
+//   escala:      N carritos con un apartado de 15 min cada uno; cuánto cuesta
+//                apartar, tocar el carrito (no reprograma) y la memoria por
+//                carrito; al liberar, todo el stock vuelve
+//   vencimiento: un apartado de 1 s renovado a los 0.6 s sigue vivo a los
+//                1.3 s y a los 2 s ya devolvió todo
+//   recarga:     registrar el mismo total con unidades apartadas no las
+//                regresa al stock
+// La salida es 1 si alguna comprobación falla.
+//   java com.tienda.sockets.BenchmarkApartados [--carritos=N] [--temporizadores=N]
+public class BenchmarkApartados {
+
+    private static final long QUINCE_MIN = 15 * 60 * 1000;
+
+    private static boolean fallo = false;
+
+    public static void main(String[] args) throws Exception {
+        int carritos = 300_000;
+        int temporizadores = 20_000;
+        for (String a : args) {
+            if (a.startsWith("--carritos=")) carritos = Integer.parseInt(a.substring(11));
+            if (a.startsWith("--temporizadores=")) temporizadores = Integer.parseInt(a.substring(17));
+        }
+        precision(temporizadores);
+        escala(carritos);
+        vencimiento();
+        recarga();
+        System.exit(fallo ? 1 : 0);
+    }
+
+    private static void precision(int n) throws InterruptedException {
+        RuedaTiempo rueda = new RuedaTiempo(10, "rueda-precision");
+        Random rnd = new Random(1);
+        AtomicLong peorRetraso = new AtomicLong();
+        AtomicInteger tempranos = new AtomicInteger();
+        AtomicInteger corridos = new AtomicInteger();
+        for (int i = 0; i < n; i++) {
+            long ms = rnd.nextInt(3000);
+            long inicio = System.nanoTime();
+            rueda.programar(ms, () -> {
+                long retraso = (System.nanoTime() - inicio) / 1_000_000 - ms;
+                if (retraso < 0) tempranos.incrementAndGet();
+                peorRetraso.accumulateAndGet(retraso, Math::max);
+                corridos.incrementAndGet();
+            });
+        }
+        AtomicInteger cancelados = new AtomicInteger();
+        int tarde = 0;
+        for (int i = 0; i < n; i++) {
+            RuedaTiempo.Temporizador t = rueda.programar(rnd.nextInt(3000), cancelados::incrementAndGet);
+            if (!t.cancelar()) tarde++;
+        }
+        Thread.sleep(3500);
+        comprobar(String.format("precision: %d corridos, %d antes de tiempo, peor retraso %d ms (tick 10 ms)",
+                corridos.get(), tempranos.get(), peorRetraso.get()),
+                corridos.get() == n && tempranos.get() == 0);
+        comprobar(String.format("precision: %d cancelados corrieron (cancelar() tarde: %d), pendientes %d",
+                cancelados.get(), tarde, rueda.pendientes()),
+                cancelados.get() == tarde && rueda.pendientes() == 0);
+    }
+
+    private static void escala(int n) throws InterruptedException {
+        Existencias existencias = new Existencias();
+        int stock = Integer.MAX_VALUE / 2;
+        existencias.registrar("X", stock);
+        RuedaTiempo rueda = new RuedaTiempo(100, "rueda-escala");
+
+        System.gc();
+        long memoria = usada();
+        long t0 = System.nanoTime();
+        List<Apartado> apartados = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            Apartado ap = new Apartado(existencias, rueda, QUINCE_MIN);
+            ap.apartar("X", 1);
+            apartados.add(ap);
+        }
+        long t1 = System.nanoTime();
+        for (Apartado ap : apartados) ap.ajustar("X", 2);
+        long t2 = System.nanoTime();
+        Thread.sleep(500);                     // la rueda ya tomó las altas
+        System.gc();
+        long porCarrito = (usada() - memoria) / n;
+        comprobar(String.format("escala: %,d carritos, apartar %.0f ms, tocar %.0f ms, %d temporizadores, ~%d B/carrito",
+                n, (t1 - t0) / 1e6, (t2 - t1) / 1e6, rueda.pendientes(), porCarrito),
+                rueda.pendientes() == n && existencias.disponibles("X") == stock - 2 * n);
+
+        for (Apartado ap : apartados) ap.liberar();
+        Thread.sleep(300);
+        comprobar("escala: tras liberar, pendientes " + rueda.pendientes(),
+                rueda.pendientes() == 0 && existencias.disponibles("X") == stock);
+    }
+
+    private static void vencimiento() throws InterruptedException {
+        Existencias existencias = new Existencias();
+        existencias.registrar("Y", 10);
+        RuedaTiempo rueda = new RuedaTiempo(100, "rueda-vencimiento");
+        Apartado ap = new Apartado(existencias, rueda, 1000);
+        ap.apartar("Y", 4);
+        Thread.sleep(600);
+        ap.ajustar("Y", 5);
+        Thread.sleep(700);
+        int aLos13 = existencias.disponibles("Y");
+        Thread.sleep(700);
+        int aLos20 = existencias.disponibles("Y");
+        String faltante = ap.confirmar(Collections.singletonMap("Y", 5));
+        comprobar(String.format("vencimiento: disponibles %d a 1.3 s, %d a 2 s, checkout después: %s, quedan %d",
+                aLos13, aLos20, faltante == null ? "OK" : "falta " + faltante, existencias.disponibles("Y")),
+                aLos13 == 5 && aLos20 == 10 && faltante == null && existencias.disponibles("Y") == 5);
+    }
+
+    private static void recarga() throws InterruptedException {
+        Existencias existencias = new Existencias();
+        existencias.registrar("Z", 10);
+        RuedaTiempo rueda = new RuedaTiempo(100, "rueda-recarga");
+        Apartado ap = new Apartado(existencias, rueda, 500);
+        ap.apartar("Z", 6);
+        existencias.registrar("Z", 10);
+        int trasRecarga = existencias.disponibles("Z");
+        existencias.registrar("Z", 12);
+        int trasReabasto = existencias.disponibles("Z");
+        Thread.sleep(800);
+        comprobar(String.format("recarga: con 6 apartados quedan %d, reabasto a 12 deja %d, al vencer %d",
+                trasRecarga, trasReabasto, existencias.disponibles("Z")),
+                trasRecarga == 4 && trasReabasto == 6 && existencias.disponibles("Z") == 12);
+    }
+
+    private static long usada() {
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    private static void comprobar(String mensaje, boolean ok) {
+        System.out.println(mensaje + " -> " + (ok ? "OK" : "ERROR"));
+        if (!ok) fallo = true;
+    }
+}
@@ -0,0 +1,113 @@
+package com.tienda.sockets;
+
+import java.util.*;
+
+// IndiceCatalogo con un catálogo sintético: cuánto tarda la carga en lote,
+// BUSCAR con consultas selectivas y con consultas que coinciden con medio
+// catálogo, y listar un tipo. Cada búsqueda se compara con un recorrido
+// completo (lo que hacía handleBuscar) y si alguna no coincide la salida
+// es 1. Al final se agrega un artículo suelto a un tipo ya grande, como
+// haría agregarArticulos, y se vuelve a registrar uno de cada diez con
+// otro nombre: las búsquedas se comparan otra vez con el recorrido, así
+// que un trigrama viejo que siguiera apuntando al artículo se nota.
+//   java com.tienda.sockets.BenchmarkCatalogo [--articulos=N] [--repeticiones=N]
+public class BenchmarkCatalogo {
+
+    private static final String[] NOMBRES = {"Mouse óptico", "Teclado mecánico", "Monitor", "Laptop", "SSD",
+            "Audífonos BT", "Webcam HD", "Tarjeta de video", "Cable USB", "Bocina"};
+    private static final String[] MARCAS = {"Logitech", "Redragon", "Samsung", "Lenovo", "Kingston",
+            "Sony", "NVIDIA", "Acer", "HP", "Dell"};
+    private static final String[] TIPOS = {"periferico", "display", "computo", "almacenamiento", "audio"};
+    private static final String[] CONSULTAS = {"audifonos", "AUDÍFONOS bt", "logitech", "so", "xk3", "a1b2", "zzzq"};
+
+    public static void main(String[] args) {
+        int articulos = 1_000_000;
+        int repeticiones = 20;
+        for (String a : args) {
+            if (a.startsWith("--articulos=")) articulos = Integer.parseInt(a.substring(12));
+            if (a.startsWith("--repeticiones=")) repeticiones = Integer.parseInt(a.substring(15));
+        }
+
+        Random r = new Random(1);
+        List<Articulo> todos = new ArrayList<>(articulos);
+        for (int i = 0; i < articulos; i++) {
+            todos.add(new Articulo(String.format("S%07d", i),
+                    NOMBRES[r.nextInt(NOMBRES.length)] + " " + Integer.toString(r.nextInt(1 << 30), 36),
+                    MARCAS[r.nextInt(MARCAS.length)], TIPOS[i % TIPOS.length], 100 + i % 1000, 1));
+        }
+
+        IndiceCatalogo indice = new IndiceCatalogo();
+        long t = System.nanoTime();
+        indice.cargar(todos);
+        System.out.printf("%,d artículos cargados en %.0f ms%n", articulos, (System.nanoTime() - t) / 1e6);
+
+        // Lo que comparaba handleBuscar antes del índice, ya normalizado
+        String[] textos = new String[articulos];
+        for (int i = 0; i < articulos; i++) {
+            Articulo a = todos.get(i);
+            textos[i] = IndiceCatalogo.normalizar(a.nombre) + "\u0001" + IndiceCatalogo.normalizar(a.marca);
+        }
+
+        int salida = comparar(indice, textos, CONSULTAS, repeticiones);
+
+        for (int i = 0; i < repeticiones; i++) indice.porTipo("Periférico");
+        t = System.nanoTime();
+        int largo = 0;
+        for (int i = 0; i < repeticiones; i++) largo = indice.porTipo("Periférico").length;
+        System.out.printf("porTipo(\"Periférico\"): %,d artículos en %.3f ms%n", largo,
+                (System.nanoTime() - t) / 1e6 / repeticiones);
+
+        t = System.nanoTime();
+        indice.agregar(new Articulo("Z0000000", "Nuevo", "Acer", "periferico", 1, 1));
+        System.out.printf("un artículo más en ese tipo: %.2f ms%n", (System.nanoTime() - t) / 1e6);
+        if (indice.porTipo("periferico").length != largo + 1) {
+            System.out.println("ERROR: el tipo no creció");
+            salida = 1;
+        }
+
+        List<Articulo> cambiados = new ArrayList<>();
+        for (int i = 0; i < articulos; i += 10) {
+            Articulo a = todos.get(i);
+            Articulo b = new Articulo(a.id, "Renombrado " + Integer.toString(i, 36), a.marca, a.tipo,
+                    a.precio, a.existencias);
+            cambiados.add(b);
+            textos[i] = IndiceCatalogo.normalizar(b.nombre) + "\u0001" + IndiceCatalogo.normalizar(b.marca);
+        }
+        t = System.nanoTime();
+        indice.cargar(cambiados);
+        System.out.printf("%,d artículos registrados otra vez con otro nombre en %.0f ms%n",
+                cambiados.size(), (System.nanoTime() - t) / 1e6);
+        String[] despues = Arrays.copyOf(CONSULTAS, CONSULTAS.length + 1);
+        despues[CONSULTAS.length] = "renombrado";
+        salida |= comparar(indice, textos, despues, repeticiones);
+        System.exit(salida);
+    }
+
+    // Cada consulta contra el índice y contra el recorrido completo; 1 si
+    // alguna no coincide
+    private static int comparar(IndiceCatalogo indice, String[] textos, String[] consultas,
+                                int repeticiones) {
+        int salida = 0;
+        System.out.printf("%-14s %10s %12s %12s%n", "consulta", "resultados", "índice ms", "recorrido ms");
+        for (String q : consultas) {
+            String nq = IndiceCatalogo.normalizar(q);
+            int n = 0;
+            for (int i = 0; i < repeticiones; i++) n = indice.buscar(q).size();   // calentamiento
+            long t = System.nanoTime();
+            for (int i = 0; i < repeticiones; i++) n = indice.buscar(q).size();
+            double msIndice = (System.nanoTime() - t) / 1e6 / repeticiones;
+
+            t = System.nanoTime();
+            int esperados = 0;
+            for (String texto : textos) {
+                if (texto.contains(nq)) esperados++;
+            }
+            double msRecorrido = (System.nanoTime() - t) / 1e6;
+
+            System.out.printf("%-14s %10d %12.3f %12.3f%s%n", q, n, msIndice, msRecorrido,
+                    n == esperados ? "" : "  ERROR: se esperaban " + esperados);
+            if (n != esperados) salida = 1;
+        }
+        return salida;
+    }
+}
@@ -0,0 +1,247 @@
+package com.tienda.sockets;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+// Una vuelta completa Request -> Response como la hace una sesión
+// (cliente codifica, servidor decodifica, responde y el cliente decodifica)
+// con serialización Java (reset + writeObject por mensaje, streams que
+// duran toda la sesión) y con CodecBinario. Sin red: cada sentido es un
+// tubo en memoria, así se mide solo el costo del formato. Sin JMH (el
+// proyecto no tiene build con dependencias): rondas de calentamiento y
+// luego rondas medidas; se reporta la mediana en ns por vuelta, los bytes
+// que irían por el socket y los bytes reservados por vuelta. La columna
+// "1a vuelta" son los bytes de la primera vuelta de la sesión, antes de
+// que la tabla de textos del binario conozca nombres y marcas.
+//   java com.tienda.sockets.BenchmarkProtocolo [--caso=buscar|pagina|carrito|ticket|salir]
+//                                             [--iteraciones=N] [--rondas=N]
+public class BenchmarkProtocolo {
+
+    private static final String[] MARCAS = {"Logitech", "Redragon", "Samsung", "Lenovo", "Kingston", "Sony"};
+    private static final String[] TIPOS = {"periferico", "display", "computo", "almacenamiento", "audio"};
+
+    // Petición y respuesta de cada caso
+    private static final Map<String, Object[]> CASOS = new LinkedHashMap<>();
+
+    static {
+        List<Articulo> todos = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            Articulo a = new Articulo(String.format("A%04d", i), "Artículo de prueba " + i,
+                    MARCAS[i % MARCAS.length], TIPOS[i % TIPOS.length], 199.0 + 10 * i, i % 40);
+            todos.add(a);
+        }
+        Carrito carrito = new Carrito();
+        carrito.put(todos.get(1), 2);
+        carrito.put(todos.get(7), 1);
+        carrito.put(todos.get(42), 3);
+
+        CASOS.put("buscar", new Object[]{
+                new Request(Accion.BUSCAR).put("q", "logitech"),
+                Response.ok(new ArrayList<>(todos.subList(0, 20)))});
+        CASOS.put("pagina", new Object[]{
+                new Request(Accion.LISTAR_TIPO).put("tipo", "periferico").put("desde", 50),
+                Response.ok(new Pagina(new ArrayList<>(todos.subList(50, 100)), 50, 100))});
+        CASOS.put("carrito", new Object[]{
+                new Request(Accion.AGREGAR_CARRITO).put("id", "A0042").put("cantidad", 1),
+                Response.ok(carrito)});
+        CASOS.put("ticket", new Object[]{
+                new Request(Accion.CHECKOUT),
+                Response.ok(new Ticket("T1760000000000-123", new Date(), new ArrayList<>(carrito.items()), carrito.total()))});
+        CASOS.put("salir", new Object[]{
+                new Request(Accion.SALIR),
+                Response.ok("Sesión finalizada")});
+    }
+
+    // Evita que el JIT elimine el trabajo
+    private static long sumidero;
+
+    public static void main(String[] args) throws Exception {
+        String filtro = "";
+        int iteraciones = 50_000;
+        int rondas = 10;
+        for (String a : args) {
+            if (a.startsWith("--caso=")) filtro = a.substring(7);
+            if (a.startsWith("--iteraciones=")) iteraciones = Integer.parseInt(a.substring(14));
+            if (a.startsWith("--rondas=")) rondas = Integer.parseInt(a.substring(9));
+        }
+
+        System.out.printf("%-9s %-8s %12s %12s %12s %12s%n", "caso", "formato", "ns/vuelta",
+                "1a vuelta", "bytes red", "B reservados");
+        for (Map.Entry<String, Object[]> e : CASOS.entrySet()) {
+            if (!e.getKey().startsWith(filtro)) {
+                continue;
+            }
+            Request req = (Request) e.getValue()[0];
+            Response res = (Response) e.getValue()[1];
+            for (Sesion s : new Sesion[]{new SesionJava(), new SesionBinaria()}) {
+                long primera = s.bytes();
+                s.vuelta(req, res);
+                primera = s.bytes() - primera;
+                for (int i = 0; i < 5; i++) {
+                    medir(s, req, res, iteraciones);           // calentamiento
+                }
+                double[] ns = new double[rondas];
+                double[] r = null;
+                for (int i = 0; i < rondas; i++) {
+                    r = medir(s, req, res, iteraciones);
+                    ns[i] = r[0];
+                }
+                Arrays.sort(ns);
+                System.out.printf("%-9s %-8s %12.0f %12d %12.0f %12.0f%n", e.getKey(), s.nombre(),
+                        ns[rondas / 2], primera, r[1], r[2]);
+            }
+        }
+        if (sumidero == 42) {
+            System.out.println();
+        }
+    }
+
+    // {ns, bytes por el socket, bytes reservados} por vuelta
+    private static double[] medir(Sesion s, Request req, Response res, int iteraciones) throws Exception {
+        com.sun.management.ThreadMXBean mx =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long hilo = Thread.currentThread().getId();
+
+        long red = s.bytes();
+        long bytesAntes = mx.getThreadAllocatedBytes(hilo);
+        long inicio = System.nanoTime();
+        for (int i = 0; i < iteraciones; i++) {
+            sumidero += s.vuelta(req, res).hashCode();
+        }
+        long ns = System.nanoTime() - inicio;
+        long reservados = mx.getThreadAllocatedBytes(hilo) - bytesAntes;
+        return new double[]{(double) ns / iteraciones, (double) (s.bytes() - red) / iteraciones,
+                (double) reservados / iteraciones};
+    }
+
+    // ==========================
+    // SESIONES
+    // ==========================
+
+    private interface Sesion {
+        String nombre();
+
+        // Manda req, lo lee "el servidor", que contesta res; devuelve lo que
+        // recibe el cliente
+        Object vuelta(Request req, Response res) throws Exception;
+
+        long bytes();
+    }
+
+    private static final class SesionJava implements Sesion {
+        private final Tubo ida = new Tubo(), vuelta = new Tubo();
+        private final ObjectOutputStream clienteOut, servidorOut;
+        private final ObjectInputStream clienteIn, servidorIn;
+
+        SesionJava() throws IOException {
+            clienteOut = new ObjectOutputStream(ida);
+            servidorOut = new ObjectOutputStream(vuelta);
+            clienteOut.flush();
+            servidorOut.flush();
+            servidorIn = new ObjectInputStream(ida.entrada());
+            clienteIn = new ObjectInputStream(vuelta.entrada());
+        }
+
+        public String nombre() {
+            return "java";
+        }
+
+        public Object vuelta(Request req, Response res) throws Exception {
+            clienteOut.reset();
+            clienteOut.writeObject(req);
+            clienteOut.flush();
+            sumidero += servidorIn.readObject().hashCode();
+            servidorOut.reset();
+            servidorOut.writeObject(res);
+            servidorOut.flush();
+            return clienteIn.readObject();
+        }
+
+        public long bytes() {
+            return ida.escritos + vuelta.escritos;
+        }
+    }
+
+    private static final class SesionBinaria implements Sesion {
+        private final Tubo ida = new Tubo(), vuelta = new Tubo();
+        private final CodecBinario clienteOut = new CodecBinario();
+        private final CodecBinario clienteIn = new CodecBinario();
+        private final CodecBinario servidorOut = new CodecBinario();
+        private final CodecBinario servidorIn = new CodecBinario();
+
+        public String nombre() {
+            return "binario";
+        }
+
+        public Object vuelta(Request req, Response res) throws Exception {
+            clienteOut.escribir(req, ida);
+            sumidero += servidorIn.leer(ida.entrada()).hashCode();
+            servidorOut.escribir(res, vuelta);
+            return clienteIn.leer(vuelta.entrada());
+        }
+
+        public long bytes() {
+            return ida.escritos + vuelta.escritos;
+        }
+    }
+
+    // Lo que se escribe se puede leer después, en el mismo hilo; cuando el
+    // lector alcanza al escritor el buffer vuelve a empezar
+    private static final class Tubo extends OutputStream {
+        private byte[] buf = new byte[1 << 16];
+        private int escrito, leido;
+        long escritos;
+
+        private final InputStream entrada = new InputStream() {
+            @Override
+            public int read() {
+                return leido < escrito ? buf[leido++] & 0xFF : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (leido == escrito) return -1;
+                int n = Math.min(len, escrito - leido);
+                System.arraycopy(buf, leido, b, off, n);
+                leido += n;
+                if (leido == escrito) leido = escrito = 0;
+                return n;
+            }
+
+            @Override
+            public int available() {
+                return escrito - leido;
+            }
+        };
+
+        InputStream entrada() {
+            return entrada;
+        }
+
+        @Override
+        public void write(int b) {
+            asegurar(1);
+            buf[escrito++] = (byte) b;
+            escritos++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            asegurar(len);
+            System.arraycopy(b, off, buf, escrito, len);
+            escrito += len;
+            escritos += len;
+        }
+
+        // ObjectInputStream puede dejar bytes sin leer hasta el siguiente
+        // mensaje: se recorre lo pendiente al inicio antes de crecer
+        private void asegurar(int n) {
+            if (escrito + n <= buf.length) return;
+            System.arraycopy(buf, leido, buf, 0, escrito - leido);
+            escrito -= leido;
+            leido = 0;
+            if (escrito + n > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, escrito + n));
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.tienda.sockets;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+
+// Muchas sesiones abiertas contra un Servidor ya levantado en el puerto
+// 9999: --inactivas=N clientes se conectan, hacen una búsqueda y se quedan
+// quietos (como alguien parado en el menú), y mientras tanto --activas=M
+// clientes buscan en lazo cerrado durante --duracion-ms. Cada sesión tiene
+// su ClienteHandler bloqueado en recibir(): con los hilos por defecto es
+// un hilo del sistema por sesión, con --hilos=virtual no. Se reporta
+// cuántas sesiones se pudieron abrir, búsquedas por segundo y latencia de
+// las activas; con --pid también Threads y VmRSS del servidor (Linux).
+// Las inactivas no usan hilos de este lado: solo se guarda su socket.
+//   java com.tienda.sockets.BenchmarkSesiones [--host=localhost] [--inactivas=N]
+//        [--activas=N] [--duracion-ms=N] [--pid=N]
+public class BenchmarkSesiones {
+
+    private static final int PUERTO = 9999;
+
+    public static void main(String[] args) throws Exception {
+        String host = "localhost";
+        int inactivas = 1000;
+        int activas = 8;
+        long duracion = 5000;
+        String pid = null;
+        for (String a : args) {
+            if (a.startsWith("--host=")) host = a.substring(7);
+            if (a.startsWith("--inactivas=")) inactivas = Integer.parseInt(a.substring(12));
+            if (a.startsWith("--activas=")) activas = Integer.parseInt(a.substring(10));
+            if (a.startsWith("--duracion-ms=")) duracion = Long.parseLong(a.substring(14));
+            if (a.startsWith("--pid=")) pid = a.substring(6);
+        }
+
+        // Sesiones inactivas, una tras otra
+        List<Transporte> abiertas = new ArrayList<>();
+        int fallidas = 0;
+        String primerError = null;
+        long t0 = System.nanoTime();
+        for (int i = 0; i < inactivas; i++) {
+            try {
+                Transporte t = Transporte.conectar(host, PUERTO);
+                abiertas.add(t);
+                buscar(t);
+            } catch (IOException | ClassNotFoundException e) {
+                fallidas++;
+                if (primerError == null) primerError = e.toString();
+            }
+        }
+        System.out.printf("%d sesiones inactivas abiertas en %.1f s, %d fallidas%s%n",
+                abiertas.size(), (System.nanoTime() - t0) / 1e9, fallidas,
+                primerError == null ? "" : " (" + primerError + ")");
+        if (pid != null) System.out.println("Servidor: " + estadoProceso(pid));
+
+        // Sesiones activas en lazo cerrado
+        long[][] latencias = new long[activas][];
+        int[] cuentas = new int[activas];
+        int[] errores = new int[activas];
+        CountDownLatch inicio = new CountDownLatch(1);
+        long[] fin = new long[1];
+        Thread[] hilos = new Thread[activas];
+        for (int h = 0; h < activas; h++) {
+            int indice = h;
+            String destino = host;
+            hilos[h] = new Thread(() -> {
+                long[] muestras = new long[1024];
+                int n = 0;
+                try (Transporte t = Transporte.conectar(destino, PUERTO)) {
+                    inicio.await();
+                    while (System.nanoTime() < fin[0]) {
+                        long antes = System.nanoTime();
+                        buscar(t);
+                        if (n == muestras.length) muestras = Arrays.copyOf(muestras, n * 2);
+                        muestras[n++] = System.nanoTime() - antes;
+                    }
+                } catch (Exception e) {
+                    errores[indice]++;
+                }
+                latencias[indice] = muestras;
+                cuentas[indice] = n;
+            });
+            hilos[h].start();
+        }
+        fin[0] = System.nanoTime() + duracion * 1_000_000;
+        long inicioMedicion = System.nanoTime();
+        inicio.countDown();
+        for (Thread t : hilos) t.join();
+        double segundos = (System.nanoTime() - inicioMedicion) / 1e9;
+
+        int total = 0;
+        int conError = 0;
+        for (int h = 0; h < activas; h++) {
+            total += cuentas[h];
+            conError += errores[h];
+        }
+        long[] todas = new long[total];
+        int k = 0;
+        for (int h = 0; h < activas; h++) {
+            System.arraycopy(latencias[h], 0, todas, k, cuentas[h]);
+            k += cuentas[h];
+        }
+        Arrays.sort(todas);
+        System.out.printf("%d sesiones activas: %,.0f búsquedas/s, mediana %.3f ms, p99 %.3f ms, %d con error%n",
+                activas, total / segundos, percentil(todas, 0.50), percentil(todas, 0.99), conError);
+        if (pid != null) System.out.println("Servidor: " + estadoProceso(pid));
+
+        for (Transporte t : abiertas) {
+            try {
+                t.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static void buscar(Transporte t) throws IOException, ClassNotFoundException {
+        t.enviar(new Request(Accion.BUSCAR).put("q", "logi"));
+        Response r = (Response) t.recibir();
+        if (!r.ok) throw new IOException(r.message);
+    }
+
+    private static double percentil(long[] ordenadas, double p) {
+        if (ordenadas.length == 0) return 0;
+        return ordenadas[(int) Math.min(ordenadas.length - 1, p * ordenadas.length)] / 1e6;
+    }
+
+    // Threads y VmRSS de /proc/<pid>/status
+    private static String estadoProceso(String pid) {
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (String linea : Files.readAllLines(Paths.get("/proc", pid, "status"))) {
+                if (linea.startsWith("Threads:") || linea.startsWith("VmRSS:")) {
+                    if (sb.length() > 0) sb.append(", ");
+                    sb.append(linea.replaceAll("\\s+", " "));
+                }
+            }
+            return sb.toString();
+        } catch (IOException e) {
+            return "sin /proc/" + pid;
+        }
+    }
+}
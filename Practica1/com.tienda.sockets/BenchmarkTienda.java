@@ -0,0 +1,156 @@
+package com.tienda.sockets;
+
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+
+// Compras por segundo contra el stock con 1, 2, 4... hilos: Existencias
+// (contadores atómicos) frente al esquema anterior, un solo lock para
+// todo el checkout. Cada compra aparta 3 artículos.
+//   disjuntos:   cada hilo compra sus propios artículos; con Existencias
+//                debería crecer con los núcleos y con el lock quedarse plano
+//   compartidos: todos los hilos compran los mismos 3 artículos (peor caso)
+// Al final se agota un artículo desde todos los hilos a la vez y se
+// comprueba que no se vendió ni una unidad de más.
+//   java com.tienda.sockets.BenchmarkTienda [--hilos=N] [--duracion-ms=N]
+public class BenchmarkTienda {
+
+    private static final int POR_COMPRA = 3;
+    private static final int STOCK_GRANDE = Integer.MAX_VALUE / 2;
+
+    // Lo que hace una compra; null = se apartó todo
+    private interface Motor {
+        String reservar(Map<String, Integer> pedido);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int maxHilos = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+        long duracion = 1000;
+        for (String a : args) {
+            if (a.startsWith("--hilos=")) maxHilos = Integer.parseInt(a.substring(8));
+            if (a.startsWith("--duracion-ms=")) duracion = Long.parseLong(a.substring(14));
+        }
+        System.out.println(Runtime.getRuntime().availableProcessors() + " núcleos");
+        System.out.printf("%-12s %-12s %6s %14s%n", "escenario", "motor", "hilos", "compras/s");
+
+        for (String escenario : new String[]{"disjuntos", "compartidos"}) {
+            for (int hilos = 1; hilos <= maxHilos; hilos *= 2) {
+                for (String nombre : new String[]{"atomico", "lock-global"}) {
+                    Motor motor = nombre.equals("atomico") ? atomico(hilos) : lockGlobal(hilos);
+                    medir(motor, hilos, escenario, duracion / 4);           // calentamiento
+                    double ops = medir(motor, hilos, escenario, duracion);
+                    System.out.printf("%-12s %-12s %6d %,14.0f%n", escenario, nombre, hilos, ops);
+                }
+            }
+        }
+        verificarSinSobreventa(maxHilos);
+    }
+
+    // Compras por segundo durante 'ms' milisegundos
+    private static double medir(Motor motor, int hilos, String escenario, long ms) throws Exception {
+        LongAdder compras = new LongAdder();
+        CountDownLatch inicio = new CountDownLatch(1);
+        long[] fin = new long[1];
+        Thread[] ts = new Thread[hilos];
+        for (int h = 0; h < hilos; h++) {
+            Map<String, Integer> pedido = new HashMap<>();
+            for (int i = 0; i < POR_COMPRA; i++) {
+                String id = escenario.equals("disjuntos") ? "H" + h + "-" + i : "C-" + i;
+                pedido.put(id, 1);
+            }
+            ts[h] = new Thread(() -> {
+                try {
+                    inicio.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                long n = 0;
+                while (System.nanoTime() < fin[0]) {
+                    if (motor.reservar(pedido) == null) n++;
+                }
+                compras.add(n);
+            });
+            ts[h].start();
+        }
+        fin[0] = System.nanoTime() + ms * 1_000_000;
+        long t0 = System.nanoTime();
+        inicio.countDown();
+        for (Thread t : ts) t.join();
+        return compras.sum() * 1e9 / (System.nanoTime() - t0);
+    }
+
+    private static Motor atomico(int hilos) {
+        Existencias e = new Existencias();
+        for (String id : ids(hilos)) e.registrar(id, STOCK_GRANDE);
+        return e::reservar;
+    }
+
+    // El checkout de antes: revisar y descontar todo bajo un solo monitor
+    private static Motor lockGlobal(int hilos) {
+        Map<String, int[]> stock = new HashMap<>();
+        for (String id : ids(hilos)) stock.put(id, new int[]{STOCK_GRANDE});
+        Object lock = new Object();
+        return pedido -> {
+            synchronized (lock) {
+                for (Map.Entry<String, Integer> p : pedido.entrySet()) {
+                    if (stock.get(p.getKey())[0] < p.getValue()) return p.getKey();
+                }
+                for (Map.Entry<String, Integer> p : pedido.entrySet()) {
+                    stock.get(p.getKey())[0] -= p.getValue();
+                }
+                return null;
+            }
+        };
+    }
+
+    private static List<String> ids(int hilos) {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i < POR_COMPRA; i++) {
+            ids.add("C-" + i);
+            for (int h = 0; h < hilos; h++) ids.add("H" + h + "-" + i);
+        }
+        return ids;
+    }
+
+    // Todos los hilos compran el mismo artículo escaso (junto con otro que
+    // sobra) hasta agotarlo: lo vendido tiene que ser exactamente el stock
+    // y el otro artículo no debe perder unidades por las compras fallidas.
+    // Mientras tanto otro hilo recarga el catálogo (registrar con los mismos
+    // totales), que no debe regresar unidades ya vendidas
+    private static void verificarSinSobreventa(int hilos) throws Exception {
+        int escaso = 100_000;
+        Existencias e = new Existencias();
+        e.registrar("escaso", escaso);
+        e.registrar("sobra", STOCK_GRANDE);
+        Map<String, Integer> pedido = new HashMap<>();
+        pedido.put("escaso", 3);
+        pedido.put("sobra", 1);
+
+        LongAdder vendidas = new LongAdder();
+        Thread[] ts = new Thread[hilos];
+        for (int h = 0; h < hilos; h++) {
+            ts[h] = new Thread(() -> {
+                while (e.disponibles("escaso") >= 3) {
+                    if (e.reservar(pedido) == null) vendidas.increment();
+                }
+            });
+            ts[h].start();
+        }
+        Thread recarga = new Thread(() -> {
+            while (e.disponibles("escaso") >= 3) {
+                e.registrar("escaso", escaso);
+                e.registrar("sobra", STOCK_GRANDE);
+            }
+        });
+        recarga.start();
+        for (Thread t : ts) t.join();
+        recarga.join();
+
+        long compras = vendidas.sum();
+        boolean ok = compras * 3 + e.disponibles("escaso") == escaso
+                && STOCK_GRANDE - e.disponibles("sobra") == compras;
+        System.out.printf("Sobreventa (con recargas): %d compras, quedan %d de %d -> %s%n",
+                compras, e.disponibles("escaso"), escaso, ok ? "OK" : "ERROR");
+        if (!ok) System.exit(1);
+    }
+}
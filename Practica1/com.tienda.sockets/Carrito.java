@@ -0,0 +1,72 @@
+package com.tienda.sockets;
+
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Carrito de una sesión, por id de artículo y en el orden en que se agregó
+class Carrito implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final Map<String, ItemCarrito> items = new LinkedHashMap<>();
+
+    ItemCarrito get(String id) {
+        return items.get(id);
+    }
+
+    // Suma 'cantidad' a lo que ya hubiera del artículo
+    void put(Articulo a, int cantidad) {
+        ItemCarrito it = items.get(a.id);
+        if (it == null) {
+            items.put(a.id, new ItemCarrito(a.id, a.nombre, a.precio, cantidad));
+        } else {
+            it.cantidad += cantidad;
+        }
+    }
+
+    void setCantidad(Articulo a, int cantidad) {
+        items.put(a.id, new ItemCarrito(a.id, a.nombre, a.precio, cantidad));
+    }
+
+    // El renglón tal cual, con su precio (al leer un carrito recibido)
+    void put(ItemCarrito it) {
+        items.put(it.articuloId, it);
+    }
+
+    void remove(String id) {
+        items.remove(id);
+    }
+
+    Collection<ItemCarrito> items() {
+        return items.values();
+    }
+
+    boolean isEmpty() {
+        return items.isEmpty();
+    }
+
+    double total() {
+        double total = 0;
+        for (ItemCarrito it : items.values()) {
+            total += it.subtotal();
+        }
+        return total;
+    }
+
+    void clear() {
+        items.clear();
+    }
+
+    @Override
+    public String toString() {
+        if (items.isEmpty()) {
+            return "El carrito está vacío.";
+        }
+        StringBuilder sb = new StringBuilder("===== CARRITO =====\n");
+        for (ItemCarrito it : items.values()) {
+            sb.append(it).append('\n');
+        }
+        return sb.append(String.format("TOTAL: $%,.2f", total())).toString();
+    }
+}
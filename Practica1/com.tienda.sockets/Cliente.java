@@ -1,7 +1,6 @@
 package com.tienda.sockets;
 
 import java.io.*;
-import java.net.*;
 import java.util.*;
 
 public class Cliente {
@@ -9,12 +8,9 @@ public class Cliente {
     private static final int PORT = 9999;
 
     public static void main(String[] args) {
-        try (Socket socket = new Socket(HOST, PORT)) {
-            System.out.println("Conectado a " + HOST + ":" + PORT);
-
-            ObjectOutputStream oos = new ObjectOutputStream(socket.getOutputStream());
-            oos.flush();
-            ObjectInputStream ois = new ObjectInputStream(socket.getInputStream());
+        // Binario si el servidor lo entiende; con uno viejo, serialización Java
+        try (Transporte conexion = Transporte.conectar(HOST, PORT)) {
+            System.out.println("Conectado a " + HOST + ":" + PORT + " (" + conexion.protocolo() + ")");
 
             Scanner sc = new Scanner(System.in);
             boolean salir = false;
@@ -26,15 +22,23 @@ public class Cliente {
                     case "1": // Buscar por nombre o marca
                         System.out.print("Texto a buscar (nombre o marca): ");
                         String q = sc.nextLine();
-                        enviar(oos, new Request(Accion.BUSCAR).put("q", q));
-                        mostrarRespuestaLista(recibir(ois));
+                        enviar(conexion, new Request(Accion.BUSCAR).put("q", q));
+                        mostrarRespuestaLista(recibir(conexion));
                         break;
 
                     case "2": // Listar por tipo
                         System.out.print("Tipo (periferico, display, computo, almacenamiento, audio...): ");
                         String tipo = sc.nextLine();
-                        enviar(oos, new Request(Accion.LISTAR_TIPO).put("tipo", tipo));
-                        mostrarRespuestaLista(recibir(ois));
+                        // Página por página hasta que no haya más o el usuario pare
+                        int desde = 0;
+                        while (true) {
+                            enviar(conexion, new Request(Accion.LISTAR_TIPO).put("tipo", tipo).put("desde", desde));
+                            Pagina pagina = mostrarRespuestaLista(recibir(conexion));
+                            if (pagina == null || !pagina.haySiguiente()) break;
+                            System.out.print("¿Ver más? (s/n): ");
+                            if (!sc.nextLine().trim().equalsIgnoreCase("s")) break;
+                            desde += pagina.articulos.size();
+                        }
                         break;
 
                     case "3": // Agregar al carrito
@@ -42,13 +46,13 @@ public class Cliente {
                         String id = sc.nextLine().trim();
                         System.out.print("Cantidad: ");
                         int cant = Integer.parseInt(sc.nextLine().trim());
-                        enviar(oos, new Request(Accion.AGREGAR_CARRITO).put("id", id).put("cantidad", cant));
-                        mostrarCarrito(recibir(ois));
+                        enviar(conexion, new Request(Accion.AGREGAR_CARRITO).put("id", id).put("cantidad", cant));
+                        mostrarCarrito(recibir(conexion));
                         break;
 
                     case "4": // Ver / editar carrito
-                        enviar(oos, new Request(Accion.VER_CARRITO));
-                        mostrarCarrito(recibir(ois));
+                        enviar(conexion, new Request(Accion.VER_CARRITO));
+                        mostrarCarrito(recibir(conexion));
                         System.out.print("¿Deseas editar? (s/n): ");
                         String ed = sc.nextLine().trim().toLowerCase();
                         if (ed.equals("s")) {
@@ -56,21 +60,21 @@ public class Cliente {
                             String idE = sc.nextLine().trim();
                             System.out.print("Nueva cantidad (0 elimina): ");
                             int nuevaC = Integer.parseInt(sc.nextLine().trim());
-                            enviar(oos, new Request(Accion.EDITAR_CARRITO).put("id", idE).put("cantidad", nuevaC));
-                            mostrarCarrito(recibir(ois));
+                            enviar(conexion, new Request(Accion.EDITAR_CARRITO).put("id", idE).put("cantidad", nuevaC));
+                            mostrarCarrito(recibir(conexion));
                         }
                         break;
 
                     case "5": // Eliminar del carrito
                         System.out.print("ID a eliminar: ");
                         String idDel = sc.nextLine().trim();
-                        enviar(oos, new Request(Accion.ELIMINAR_DEL_CARRITO).put("id", idDel));
-                        mostrarCarrito(recibir(ois));
+                        enviar(conexion, new Request(Accion.ELIMINAR_DEL_CARRITO).put("id", idDel));
+                        mostrarCarrito(recibir(conexion));
                         break;
 
                     case "6": // Finalizar compra
-                        enviar(oos, new Request(Accion.CHECKOUT));
-                        Response r = recibir(ois);
+                        enviar(conexion, new Request(Accion.CHECKOUT));
+                        Response r = recibir(conexion);
                         if (r.ok && r.payload instanceof Ticket) {
                             Ticket t = (Ticket) r.payload;
                             System.out.println(t.toString());
@@ -81,8 +85,8 @@ public class Cliente {
                         break;
 
                     case "0": // Salir
-                        enviar(oos, new Request(Accion.SALIR));
-                        System.out.println(recibir(ois).message);
+                        enviar(conexion, new Request(Accion.SALIR));
+                        System.out.println(recibir(conexion).message);
                         salir = true;
                         break;
 
@@ -109,27 +113,34 @@ public class Cliente {
         System.out.println("0) Salir");
     }
 
-    private static void enviar(ObjectOutputStream oos, Request req) throws IOException {
-        oos.reset();
-        oos.writeObject(req);
-        oos.flush();
+    private static void enviar(Transporte t, Request req) throws IOException {
+        t.enviar(req);
     }
 
-    private static Response recibir(ObjectInputStream ois) throws IOException, ClassNotFoundException {
-        Object obj = ois.readObject();
+    private static Response recibir(Transporte t) throws IOException, ClassNotFoundException {
+        Object obj = t.recibir();
         return (obj instanceof Response) ? (Response) obj : Response.fail("Respuesta inválida del servidor.");
     }
 
+    // Imprime la lista (de BUSCAR) o la página (de LISTAR_TIPO); devuelve
+    // la página mostrada, o null si no era una página
     @SuppressWarnings("unchecked")
-    private static void mostrarRespuestaLista(Response r) {
+    private static Pagina mostrarRespuestaLista(Response r) {
         if (!r.ok) {
             System.out.println("Error: " + r.message);
-            return;
+            return null;
+        }
+        Pagina pagina = null;
+        List<Articulo> lista;
+        if (r.payload instanceof Pagina) {
+            pagina = (Pagina) r.payload;
+            lista = pagina.articulos;
+        } else {
+            lista = (List<Articulo>) r.payload;
         }
-        List<Articulo> lista = (List<Articulo>) r.payload;
         if (lista == null || lista.isEmpty()) {
             System.out.println("No se encontraron artículos.");
-            return;
+            return pagina;
         }
         System.out.println(String.format("%-6s | %-18s | %-12s | %-10s | %-8s | %s",
                 "ID", "Nombre", "Marca", "Tipo", "Precio", "Exist"));
@@ -137,6 +148,10 @@ public class Cliente {
         for (Articulo a : lista) {
             System.out.println(String.format("%-6s | %-18s | %-12s | %-10s | $%,7.2f | %d", a.id, a.nombre, a.marca, a.tipo, a.precio, a.existencias));
         }
+        if (pagina != null) {
+            System.out.println(String.format("Mostrando %d-%d de %d", pagina.desde + 1,
+                    pagina.desde + lista.size(), pagina.total));
+        }        return pagina;
     }
 
     private static void mostrarCarrito(Response r) {
@@ -0,0 +1,427 @@
+package com.tienda.sockets;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+// Codificación binaria de Request y Response para el protocolo negociado
+// en Transporte. Cada mensaje va precedido de su longitud; los enteros van
+// como varint (los que pueden ser negativos en zigzag) y los precios en
+// centavos, también como varint (los 8 bytes del double solo si no son
+// centavos exactos). No hay descriptores de clase ni reflexión: el esquema
+// es este archivo y su versión (VERSION) se acuerda al conectar.
+// Los textos cortos entran a una tabla que cada lado de la conexión arma
+// igual y en el mismo orden (como la tabla dinámica de HPACK): la segunda
+// vez que pasa "Logitech" o el nombre de un artículo se manda su índice.
+// Por eso hay un CodecBinario por sentido y por conexión.
+//
+//   Request:  accion · máscara de parámetros presentes · sus valores
+//   Response: 0x40 | 1/0 (ok) · mensaje si falló · payload
+//   payload:  etiqueta · datos (texto, entero, artículos, página, carrito, ticket)
+//   renglón:  id · nombre · precio · cantidad (lo que guarda ItemCarrito)
+//
+// Un payload de otra clase no se manda (NotSerializableException): del
+// otro lado no hay ObjectInputStream que lo lea. Los textos que ese
+// mensaje ya había metido a la tabla se sacan, así que la conexión sigue
+// sirviendo para el siguiente.
+final class CodecBinario {
+
+    static final int VERSION = 1;
+    // Mensaje más grande que se acepta (una página de 500 artículos ronda 30 KB)
+    static final int MAXIMO = 16 << 20;
+    // Textos que recuerda cada sentido y el largo máximo de los que entran
+    private static final int TABLA = 1024;
+    private static final int TEXTO_TABLA = 64;
+
+    // Parámetros que puede llevar un Request, en el orden de la máscara
+    private static final String[] PARAMETROS = {"q", "tipo", "desde", "limite", "id", "cantidad"};
+    private static final Accion[] ACCIONES = Accion.values();
+
+    // Primer varint de una Response; el de un Request es el ordinal de su acción
+    private static final int RESPUESTA = 0x40;
+
+    private static final int NULO = 0;
+    private static final int TEXTO = 1;
+    private static final int ENTERO = 2;
+    private static final int ARTICULOS = 3;
+    private static final int PAGINA = 4;
+    private static final int CARRITO = 5;
+    private static final int TICKET = 6;
+
+    // Tabla de textos: al codificar, texto -> índice; al decodificar, índice -> texto
+    private final Map<String, Integer> enviados = new HashMap<>();
+    // Los que entraron a 'enviados' con el mensaje en curso
+    private final List<String> agregados = new ArrayList<>();
+    private final String[] recibidos = new String[TABLA];
+    private int nRecibidos;
+
+    private byte[] buf = new byte[512];
+    private int pos;
+    private int fin;
+
+    // ==========================
+    // CODIFICAR
+    // ==========================
+
+    // Escribe el mensaje como longitud + cuerpo; el buffer se reutiliza.
+    // La tabla solo se queda con los textos nuevos si el mensaje se escribió
+    void escribir(Object mensaje, OutputStream out) throws IOException {
+        pos = 0;
+        agregados.clear();
+        boolean escrito = false;
+        try {
+            if (mensaje instanceof Request) {
+                request((Request) mensaje);
+            } else {
+                response((Response) mensaje);
+            }
+            // La longitud va delante, como varint (out es un BufferedOutputStream)
+            int v = pos;
+            while ((v & ~0x7F) != 0) {
+                out.write((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            out.write(v);
+            out.write(buf, 0, pos);
+            escrito = true;
+        } finally {
+            if (!escrito) {
+                // Del otro lado nunca se leyeron: sus índices quedan libres
+                for (String s : agregados) enviados.remove(s);
+            }
+        }
+    }
+
+    private void request(Request r) throws IOException {
+        varint(r.accion.ordinal());
+        Object[] valores = new Object[PARAMETROS.length];
+        int mascara = 0;
+        for (int i = 0; i < PARAMETROS.length; i++) {
+            valores[i] = r.get(PARAMETROS[i]);
+            if (valores[i] != null) mascara |= 1 << i;
+        }
+        varint(mascara);
+        for (Object v : valores) {
+            if (v != null) valor(v);
+        }
+    }
+
+    private void response(Response r) throws IOException {
+        varint(RESPUESTA | (r.ok ? 1 : 0));
+        if (!r.ok) texto(r.message);
+        valor(r.ok ? r.payload : null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void valor(Object v) throws IOException {
+        if (v == null) {
+            octeto(NULO);
+        } else if (v instanceof String) {
+            octeto(TEXTO);
+            texto((String) v);
+        } else if (v instanceof Integer) {
+            octeto(ENTERO);
+            zigzag((Integer) v);
+        } else if (v instanceof List && sonArticulos((List<?>) v)) {
+            octeto(ARTICULOS);
+            articulos((List<Articulo>) v);
+        } else if (v instanceof Pagina) {
+            Pagina p = (Pagina) v;
+            octeto(PAGINA);
+            varint(p.desde);
+            varint(p.total);
+            articulos(p.articulos);
+        } else if (v instanceof Carrito) {
+            octeto(CARRITO);
+            renglones(((Carrito) v).items());
+        } else if (v instanceof Ticket) {
+            Ticket t = (Ticket) v;
+            octeto(TICKET);
+            texto(t.folio);
+            varintLargo(t.fecha.getTime());
+            renglones(t.items);
+            precio(t.total);
+        } else {
+            throw new NotSerializableException(v.getClass().getName());
+        }
+    }
+
+    private static boolean sonArticulos(List<?> l) {
+        for (Object o : l) {
+            if (!(o instanceof Articulo)) return false;
+        }
+        return true;
+    }
+
+    private void articulos(List<Articulo> l) {
+        varint(l.size());
+        for (Articulo a : l) articulo(a);
+    }
+
+    private void articulo(Articulo a) {
+        texto(a.id);
+        texto(a.nombre);
+        texto(a.marca);
+        texto(a.tipo);
+        precio(a.precio);
+        zigzag(a.existencias);
+    }
+
+    // Centavos exactos: (centavos << 1) como varint; si no, 1 y el double
+    private void precio(double p) {
+        long centavos = Math.round(p * 100);
+        if (centavos >= 0 && centavos < 1L << 53 && centavos / 100.0 == p) {
+            varintLargo(centavos << 1);
+        } else {
+            varintLargo(1);
+            long bits = Double.doubleToRawLongBits(p);
+            for (int i = 56; i >= 0; i -= 8) octeto((int) (bits >>> i));
+        }
+    }
+
+    private void renglones(Collection<ItemCarrito> l) {
+        varint(l.size());
+        for (ItemCarrito it : l) {
+            texto(it.articuloId);
+            texto(it.nombre);
+            precio(it.precio);
+            varint(it.cantidad);
+        }
+    }
+
+    // 0 = null, 1 = texto nuevo (longitud + UTF-8), 2 + i = el de la tabla
+    private void texto(String s) {
+        if (s == null) {
+            varint(0);
+            return;
+        }
+        Integer indice = enviados.get(s);
+        if (indice != null) {
+            varint(indice + 2);
+            return;
+        }
+        varint(1);
+        int n = s.length();
+        asegurar(5 + 3 * n);
+        int i = 0;
+        // Casi todo es ASCII: se copia sin pasar por getBytes
+        while (i < n && s.charAt(i) < 0x80) i++;
+        if (i == n) {
+            varint(n);
+            for (int j = 0; j < n; j++) buf[pos++] = (byte) s.charAt(j);
+        } else {
+            byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            varint(utf8.length);
+            System.arraycopy(utf8, 0, buf, pos, utf8.length);
+            pos += utf8.length;
+        }
+        // La misma regla que leerTexto(): llena, la tabla ya no cambia
+        if (enviados.size() < TABLA && n <= TEXTO_TABLA) {
+            enviados.put(s, enviados.size());
+            agregados.add(s);
+        }
+    }
+
+    private void zigzag(int v) {
+        varint((v << 1) ^ (v >> 31));
+    }
+
+    private void varintLargo(long v) {
+        asegurar(10);
+        while ((v & ~0x7FL) != 0) {
+            buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buf[pos++] = (byte) v;
+    }
+
+    private void varint(int v) {
+        asegurar(5);
+        while ((v & ~0x7F) != 0) {
+            buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buf[pos++] = (byte) v;
+    }
+
+    private void octeto(int b) {
+        asegurar(1);
+        buf[pos++] = (byte) b;
+    }
+
+    private void asegurar(int n) {
+        if (pos + n > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+        }
+    }
+
+    // ==========================
+    // DECODIFICAR
+    // ==========================
+
+    // Lee un mensaje completo; EOFException si la conexión se cerró entre mensajes
+    Object leer(InputStream in) throws IOException {
+        int primero = in.read();
+        if (primero < 0) throw new EOFException();
+        int largo = primero & 0x7F;
+        for (int corr = 7; (primero & 0x80) != 0; corr += 7) {
+            if (corr > 28) throw new StreamCorruptedException("Longitud inválida");
+            primero = in.read();
+            if (primero < 0) throw new EOFException();
+            largo |= (primero & 0x7F) << corr;
+        }
+        if (largo < 0 || largo > MAXIMO) throw new StreamCorruptedException("Mensaje demasiado grande: " + largo);
+        if (buf.length < largo) buf = new byte[Math.max(largo, buf.length * 2)];
+        int leidos = 0;
+        while (leidos < largo) {
+            int n = in.read(buf, leidos, largo - leidos);
+            if (n < 0) throw new EOFException("Mensaje incompleto");
+            leidos += n;
+        }
+        pos = 0;
+        fin = largo;
+        try {
+            return mensaje();
+        } catch (ArrayIndexOutOfBoundsException | IllegalArgumentException | ClassCastException e) {
+            throw new StreamCorruptedException("Mensaje mal formado: " + e);
+        }
+    }
+
+    private Object mensaje() throws IOException {
+        int tipo = leerVarint();
+        if ((tipo & RESPUESTA) != 0) {
+            boolean ok = (tipo & 1) != 0;
+            String mensaje = ok ? null : leerTexto();
+            Object payload = leerValor();
+            return ok ? Response.ok(payload) : Response.fail(mensaje);
+        }
+        if (tipo >= ACCIONES.length) throw new StreamCorruptedException("Acción desconocida: " + tipo);
+        Request r = new Request(ACCIONES[tipo]);
+        int mascara = leerVarint();
+        for (int i = 0; i < PARAMETROS.length; i++) {
+            if ((mascara & (1 << i)) != 0) r.put(PARAMETROS[i], leerValor());
+        }
+        return r;
+    }
+
+    private Object leerValor() throws IOException {
+        int etiqueta = leerByte();
+        switch (etiqueta) {
+            case NULO:
+                return null;
+            case TEXTO:
+                return leerTexto();
+            case ENTERO:
+                return leerZigzag();
+            case ARTICULOS:
+                return leerArticulos();
+            case PAGINA: {
+                int desde = leerVarint();
+                int total = leerVarint();
+                return new Pagina(leerArticulos(), desde, total);
+            }
+            case CARRITO: {
+                Carrito c = new Carrito();
+                for (ItemCarrito it : leerRenglones()) c.put(it);
+                return c;
+            }
+            case TICKET: {
+                String folio = leerTexto();
+                Date fecha = new Date(leerVarintLargo());
+                List<ItemCarrito> items = leerRenglones();
+                return new Ticket(folio, fecha, items, leerPrecio());
+            }
+            default:
+                throw new StreamCorruptedException("Etiqueta desconocida: " + etiqueta);
+        }
+    }
+
+    private List<Articulo> leerArticulos() {
+        int n = leerVarint();
+        // Cada artículo ocupa al menos 6 bytes: no reservar de más por un n falso
+        List<Articulo> l = new ArrayList<>(Math.min(n, (fin - pos) / 6));
+        for (int i = 0; i < n; i++) l.add(leerArticulo());
+        return l;
+    }
+
+    private List<ItemCarrito> leerRenglones() {
+        int n = leerVarint();
+        // Cada renglón ocupa al menos 4 bytes
+        List<ItemCarrito> l = new ArrayList<>(Math.min(n, (fin - pos) / 4));
+        for (int i = 0; i < n; i++) {
+            String id = leerTexto();
+            String nombre = leerTexto();
+            double precio = leerPrecio();
+            l.add(new ItemCarrito(id, nombre, precio, leerVarint()));
+        }
+        return l;
+    }
+
+    private Articulo leerArticulo() {
+        String id = leerTexto();
+        String nombre = leerTexto();
+        String marca = leerTexto();
+        String tipo = leerTexto();
+        return new Articulo(id, nombre, marca, tipo, leerPrecio(), leerZigzag());
+    }
+
+    private double leerPrecio() {
+        long v = leerVarintLargo();
+        if (v != 1) return (v >>> 1) / 100.0;
+        comprobar(8);
+        long bits = 0;
+        for (int i = 0; i < 8; i++) bits = (bits << 8) | (buf[pos++] & 0xFF);
+        return Double.longBitsToDouble(bits);
+    }
+
+    private String leerTexto() {
+        int v = leerVarint();
+        if (v == 0) return null;
+        if (v > 1) {
+            if (v - 2 >= nRecibidos) throw new IllegalArgumentException("Texto fuera de la tabla: " + (v - 2));
+            return recibidos[v - 2];
+        }
+        int n = leerVarint();
+        comprobar(n);
+        String s = new String(buf, pos, n, StandardCharsets.UTF_8);
+        pos += n;
+        if (nRecibidos < TABLA && s.length() <= TEXTO_TABLA) {
+            recibidos[nRecibidos++] = s;
+        }
+        return s;
+    }
+
+    private int leerZigzag() {
+        int v = leerVarint();
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private int leerVarint() {
+        int v = 0;
+        for (int corr = 0; corr < 35; corr += 7) {
+            int b = leerByte();
+            v |= (b & 0x7F) << corr;
+            if ((b & 0x80) == 0) return v;
+        }
+        throw new IllegalArgumentException("varint demasiado largo");
+    }
+
+    private long leerVarintLargo() {
+        long v = 0;
+        for (int corr = 0; corr < 70; corr += 7) {
+            int b = leerByte();
+            v |= (long) (b & 0x7F) << corr;
+            if ((b & 0x80) == 0) return v;
+        }
+        throw new IllegalArgumentException("varint demasiado largo");
+    }
+
+    private int leerByte() {
+        comprobar(1);
+        return buf[pos++] & 0xFF;
+    }
+
+    private void comprobar(int n) {
+        if (n < 0 || pos + n > fin) throw new IllegalArgumentException("Mensaje truncado");
+    }
+}
@@ -0,0 +1,81 @@
+package com.tienda.sockets;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Existencias por artículo, cada una en su propio contador atómico. Es la
+// única fuente de verdad del stock: Articulo.existencias solo lleva la
+// copia que se manda al cliente.
+// Una compra de varios artículos es todo o nada sin locks: se descuenta
+// artículo por artículo (en orden de id) con compareAndSet y, si alguno no
+// alcanza, se devuelve lo ya descontado. Dos compras que no comparten
+// artículos nunca tocan el mismo contador, así que corren en paralelo.
+// Mientras dura una compra que al final falla, otra puede ver esas
+// unidades como apartadas y fallar también; nunca se vende de más.
+class Existencias {
+
+    // Relleno para que dos contadores no caigan en la misma línea de caché
+    // (64 bytes) y las compras de artículos distintos no se estorben
+    @SuppressWarnings("unused")
+    private static final class Contador extends AtomicInteger {
+        private static final long serialVersionUID = 1L;
+
+        // Último total registrado; solo se toca con el monitor del contador
+        int registrado;
+        long p1, p2, p3, p4, p5, p6, p7;
+    }
+
+    private final Map<String, Contador> porId = new ConcurrentHashMap<>();
+
+    // Fija el total del artículo. Si ya existía, el contador se conserva y
+    // solo se le suma la diferencia con el total anterior: lo que esté
+    // apartado o en medio de una compra sigue descontado
+    void registrar(String id, int cantidad) {
+        Contador c = porId.computeIfAbsent(id, k -> new Contador());
+        synchronized (c) {
+            c.addAndGet(cantidad - c.registrado);
+            c.registrado = cantidad;
+        }
+    }
+
+    // -1 si el artículo no existe. Si el total se bajó por debajo de lo ya
+    // apartado, el contador queda negativo y aquí se ve como 0
+    int disponibles(String id) {
+        Contador c = porId.get(id);
+        return c == null ? -1 : Math.max(0, c.get());
+    }
+
+    // Descuenta todo el pedido (id → cantidad) o nada. Devuelve null si se
+    // apartó completo o el id del primer artículo que no alcanzó (o no existe)
+    String reservar(Map<String, Integer> pedido) {
+        String[] ids = pedido.keySet().toArray(new String[0]);
+        Arrays.sort(ids);
+        for (int i = 0; i < ids.length; i++) {
+            Contador c = porId.get(ids[i]);
+            if (c == null || !descontar(c, pedido.get(ids[i]))) {
+                for (int j = 0; j < i; j++) {
+                    porId.get(ids[j]).addAndGet(pedido.get(ids[j]));
+                }
+                return ids[i];
+            }
+        }
+        return null;
+    }
+
+    // Regresa unidades apartadas con reservar()
+    void devolver(Map<String, Integer> pedido) {
+        for (Map.Entry<String, Integer> e : pedido.entrySet()) {
+            Contador c = porId.get(e.getKey());
+            if (c != null) c.addAndGet(e.getValue());
+        }
+    }
+
+    private static boolean descontar(AtomicInteger c, int cantidad) {
+        while (true) {
+            int actual = c.get();
+            if (actual < cantidad) return false;
+            if (c.compareAndSet(actual, actual - cantidad)) return true;
+        }
+    }
+}
@@ -0,0 +1,395 @@
+package com.tienda.sockets;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+// Índice invertido de trigramas sobre nombre y marca (sin acentos y en
+// minúsculas) para BUSCAR. Cada artículo recibe un ordinal al agregarse y
+// cada trigrama guarda la lista ordenada de ordinales que lo contienen.
+// Volver a registrar un id conserva su ordinal y solo cambia las listas
+// de los trigramas que ganó o perdió; quitarlo lo saca de sus listas y
+// deja un hueco en el ordinal.
+// Una búsqueda de 3+ caracteres cruza las listas de sus trigramas
+// empezando por la más corta y solo compara el texto de esos candidatos;
+// con 1 o 2 caracteres se recorren los textos ya normalizados (sin
+// toLowerCase por artículo).
+// Además, por tipo: cada tipo normalizado apunta a un arreglo inmutable
+// de artículos ordenado por id, que se reemplaza entero cuando cambia; listar
+// un tipo es un get() y la página sale de un rango del arreglo.
+// Las búsquedas no toman ningún lock: un solo escritor a la vez agrega o
+// quita artículos y publica cada cambio con escrituras volatile, así que
+// quien lee ve el índice anterior o el nuevo, nunca uno a medias.
+class IndiceCatalogo {
+
+    private static final Pattern MARCAS = Pattern.compile("\\p{M}+");
+    // Separa nombre y marca en el texto: ninguna consulta normalizada lo contiene
+    private static final char SEPARADOR = '\u0001';
+
+    // Artículo y su texto normalizado "nombre\u0001marca"
+    private static final class Entrada {
+        final Articulo articulo;
+        final String texto;
+
+        Entrada(Articulo articulo, String texto) {
+            this.articulo = articulo;
+            this.texto = texto;
+        }
+    }
+
+    // Ordinales de un trigrama, crecientes. El escritor llena ids[n] y
+    // después publica n; quien lee toma n antes que ids
+    private static final class Lista {
+        volatile int[] ids;
+        volatile int n;
+
+        Lista() {
+            ids = new int[4];
+        }
+
+        private Lista(int[] ids, int n) {
+            this.ids = ids;
+            this.n = n;
+        }
+
+        void agregar(int ordinal) {
+            int[] actual = ids;
+            if (n == actual.length) {
+                actual = Arrays.copyOf(actual, actual.length * 2);
+                ids = actual;
+            }
+            actual[n] = ordinal;
+            n = n + 1;
+        }
+
+        // Copias con y sin los ordinales dados (crecientes): la lista ya
+        // publicada no se toca y quien la recorre la sigue viendo completa
+        Lista mas(int[] ordenados) {
+            int cuantos = n;
+            int[] actual = ids;
+            int[] nuevos = new int[Math.max(4, cuantos + ordenados.length)];
+            int i = 0, j = 0, k = 0;
+            while (i < cuantos || j < ordenados.length) {
+                if (j == ordenados.length || (i < cuantos && actual[i] < ordenados[j])) {
+                    nuevos[k++] = actual[i++];
+                } else {
+                    if (i < cuantos && actual[i] == ordenados[j]) i++;
+                    nuevos[k++] = ordenados[j++];
+                }
+            }
+            return new Lista(nuevos, k);
+        }
+
+        // null = la lista queda vacía
+        Lista menos(int[] ordenados) {
+            int cuantos = n;
+            int[] actual = ids;
+            int[] nuevos = new int[Math.max(4, cuantos)];
+            int j = 0, k = 0;
+            for (int i = 0; i < cuantos; i++) {
+                while (j < ordenados.length && ordenados[j] < actual[i]) j++;
+                if (j == ordenados.length || ordenados[j] != actual[i]) nuevos[k++] = actual[i];
+            }
+            return k == 0 ? null : new Lista(nuevos, k);
+        }
+    }
+
+    // Cambios de un lote a listas ya publicadas; cada lista se copia una
+    // sola vez por lote. Primero las que ganan ordinales, luego se publican
+    // las entradas nuevas y al final las que los pierden: mientras tanto
+    // contains() sobre el texto vigente filtra a los candidatos de más
+    private final class Cambios {
+        final Map<Long, List<Integer>> ganan = new HashMap<>();
+        final Map<Long, List<Integer>> pierden = new HashMap<>();
+        // Ordinal -> entrada que lo reemplaza (null = quitado)
+        final Map<Integer, Entrada> nuevas = new HashMap<>();
+
+        // Trigramas distintos de 'antes' que no están en 'despues' y al revés
+        void diferencia(int ordinal, long[] antes, long[] despues) {
+            int i = 0, j = 0;
+            while (i < antes.length || j < despues.length) {
+                if (j == despues.length || (i < antes.length && antes[i] < despues[j])) {
+                    long t = antes[i];
+                    pierden.computeIfAbsent(t, k -> new ArrayList<>()).add(ordinal);
+                    while (i < antes.length && antes[i] == t) i++;
+                } else if (i == antes.length || despues[j] < antes[i]) {
+                    long t = despues[j];
+                    ganan.computeIfAbsent(t, k -> new ArrayList<>()).add(ordinal);
+                    while (j < despues.length && despues[j] == t) j++;
+                } else {
+                    long t = antes[i];
+                    while (i < antes.length && antes[i] == t) i++;
+                    while (j < despues.length && despues[j] == t) j++;
+                }
+            }
+        }
+
+        void aplicar() {
+            for (Map.Entry<Long, List<Integer>> e : ganan.entrySet()) {
+                int[] ordenados = ordenados(e.getValue());
+                Lista l = trigramas.get(e.getKey());
+                trigramas.put(e.getKey(), l == null ? new Lista(ordenados, ordenados.length) : l.mas(ordenados));
+            }
+            Entrada[] actuales = entradas;
+            for (Map.Entry<Integer, Entrada> e : nuevas.entrySet()) {
+                actuales[e.getKey()] = e.getValue();
+            }
+            entradas = actuales;                   // escritura volatile: publica las entradas
+            for (Map.Entry<Long, List<Integer>> e : pierden.entrySet()) {
+                Lista l = trigramas.get(e.getKey());
+                if (l == null) continue;
+                Lista resto = l.menos(ordenados(e.getValue()));
+                if (resto == null) {
+                    trigramas.remove(e.getKey());
+                } else {
+                    trigramas.put(e.getKey(), resto);
+                }
+            }
+        }
+
+        private int[] ordenados(List<Integer> ordinales) {
+            int[] r = new int[ordinales.size()];
+            for (int i = 0; i < r.length; i++) r[i] = ordinales.get(i);
+            Arrays.sort(r);
+            return r;
+        }
+    }
+
+    private static final Articulo[] VACIO = new Articulo[0];
+    private static final Comparator<Articulo> POR_ID = Comparator.comparing(a -> a.id);
+
+    private final Map<Long, Lista> trigramas = new ConcurrentHashMap<>();
+    // Arreglos que nadie modifica después de publicarlos
+    private final Map<String, Articulo[]> porTipo = new ConcurrentHashMap<>();
+    private final Map<String, Integer> ordinales = new ConcurrentHashMap<>();
+    // Por ordinal; null = artículo quitado
+    private volatile Entrada[] entradas = new Entrada[16];
+    private volatile int usados;
+
+    // ==========================
+    // ESCRITURA
+    // ==========================
+
+    // Agrega (o reemplaza) un artículo. Se llama al cambiar el catálogo,
+    // no por cada búsqueda
+    synchronized void agregar(Articulo a) {
+        cargar(Collections.singletonList(a));
+    }
+
+    // Carga en lote: cada tipo afectado se vuelve a publicar una sola vez,
+    // no una copia del arreglo por artículo
+    synchronized void cargar(Collection<Articulo> articulos) {
+        Map<String, List<Articulo>> altas = new HashMap<>();
+        Map<String, Set<String>> bajas = new HashMap<>();
+        // Si el lote repite un id, queda el último
+        Map<String, Articulo> unicos = new LinkedHashMap<>();
+        for (Articulo a : articulos) unicos.put(a.id, a);
+        Cambios cambios = new Cambios();
+        for (Articulo a : unicos.values()) {
+            Integer ordinal = ordinales.get(a.id);
+            if (ordinal == null) {
+                indexar(a);
+            } else {
+                Articulo anterior = reemplazar(ordinal, a, cambios);
+                bajas.computeIfAbsent(normalizar(anterior.tipo), k -> new HashSet<>()).add(a.id);
+            }
+            altas.computeIfAbsent(normalizar(a.tipo), k -> new ArrayList<>()).add(a);
+        }
+        cambios.aplicar();
+        Set<String> tipos = new HashSet<>(altas.keySet());
+        tipos.addAll(bajas.keySet());
+        for (String tipo : tipos) {
+            publicarTipo(tipo, bajas.getOrDefault(tipo, Collections.emptySet()),
+                    altas.getOrDefault(tipo, Collections.emptyList()));
+        }
+    }
+
+    synchronized void quitar(String id) {
+        Cambios cambios = new Cambios();
+        Articulo anterior = desindexar(id, cambios);
+        cambios.aplicar();
+        if (anterior != null) {
+            publicarTipo(normalizar(anterior.tipo), Collections.singleton(id), Collections.emptyList());
+        }
+    }
+
+    private void indexar(Articulo a) {
+        String nombre = normalizar(a.nombre);
+        String marca = normalizar(a.marca);
+        int ordinal = usados;
+
+        Entrada[] actuales = entradas;
+        if (ordinal == actuales.length) {
+            actuales = Arrays.copyOf(actuales, actuales.length * 2);
+            entradas = actuales;
+        }
+        actuales[ordinal] = new Entrada(a, nombre + SEPARADOR + marca);
+        usados = ordinal + 1;
+
+        long[] vistos = trigramasDe(nombre, marca);
+        for (int i = 0; i < vistos.length; i++) {
+            // Una sola vez por artículo aunque el trigrama se repita
+            if (i == 0 || vistos[i] != vistos[i - 1]) {
+                poner(vistos[i], ordinal);
+            }
+        }
+        ordinales.put(a.id, ordinal);
+    }
+
+    // Mismo id con otros datos: conserva el ordinal (y su lugar en los
+    // resultados) y solo cambian las listas de los trigramas que ganó o perdió
+    private Articulo reemplazar(int ordinal, Articulo a, Cambios cambios) {
+        Entrada anterior = entradas[ordinal];
+        String nombre = normalizar(a.nombre);
+        String marca = normalizar(a.marca);
+        cambios.nuevas.put(ordinal, new Entrada(a, nombre + SEPARADOR + marca));
+        cambios.diferencia(ordinal, trigramasDe(anterior), trigramasDe(nombre, marca));
+        return anterior.articulo;
+    }
+
+    // Sale de sus listas; el ordinal queda como hueco. Una búsqueda en curso
+    // todavía puede devolver el artículo quitado
+    private Articulo desindexar(String id, Cambios cambios) {
+        Integer ordinal = ordinales.remove(id);
+        if (ordinal == null) {
+            return null;
+        }
+        Entrada anterior = entradas[ordinal];
+        cambios.nuevas.put(ordinal, null);
+        cambios.diferencia(ordinal, trigramasDe(anterior), new long[0]);
+        return anterior.articulo;
+    }
+
+    // Un ordinal nuevo es el mayor: va al final de la lista
+    private void poner(long trigrama, int ordinal) {
+        Lista l = trigramas.get(trigrama);
+        if (l == null) {
+            l = new Lista();
+            trigramas.put(trigrama, l);
+        }
+        l.agregar(ordinal);
+    }
+
+    // Arreglo nuevo para el tipo: el anterior sin las bajas mezclado con las
+    // altas ordenadas; O(n + k log k), sin reordenar lo que ya estaba
+    private void publicarTipo(String tipo, Set<String> bajas, List<Articulo> altas) {
+        Articulo[] actual = porTipo.getOrDefault(tipo, VACIO);
+        Articulo[] nuevas = altas.toArray(VACIO);
+        Arrays.sort(nuevas, POR_ID);
+
+        Articulo[] nuevo = new Articulo[actual.length + nuevas.length];
+        boolean hayBajas = !bajas.isEmpty();
+        int i = 0, j = 0, n = 0;
+        while (i < actual.length || j < nuevas.length) {
+            if (hayBajas && i < actual.length && bajas.contains(actual[i].id)) {
+                i++;
+            } else if (j == nuevas.length
+                    || (i < actual.length && POR_ID.compare(actual[i], nuevas[j]) <= 0)) {
+                nuevo[n++] = actual[i++];
+            } else {
+                nuevo[n++] = nuevas[j++];
+            }
+        }
+        if (n == 0) {
+            porTipo.remove(tipo);
+        } else {
+            porTipo.put(tipo, n == nuevo.length ? nuevo : Arrays.copyOf(nuevo, n));
+        }
+    }
+
+    // ==========================
+    // BÚSQUEDA
+    // ==========================
+
+    // Artículos cuyo nombre o marca contiene el texto, en el orden en que
+    // se agregaron
+    List<Articulo> buscar(String texto) {
+        String q = normalizar(texto);
+        List<Articulo> resultado = new ArrayList<>();
+        if (q.isEmpty()) {
+            return resultado;
+        }
+        if (q.length() < 3) {
+            int n = usados;
+            Entrada[] todas = entradas;
+            for (int i = 0; i < n; i++) {
+                Entrada e = todas[i];
+                if (e != null && e.texto.contains(q)) {
+                    resultado.add(e.articulo);
+                }
+            }
+            return resultado;
+        }
+
+        // La lista más corta de los trigramas de la consulta da los
+        // candidatos. Confirmar cada uno con contains() sale más barato que
+        // cruzarlo con las demás listas (una búsqueda binaria por lista) y
+        // además descarta los que tienen los trigramas en otro orden
+        Lista menor = null;
+        for (long t : trigramasDe(q, "")) {
+            Lista l = trigramas.get(t);
+            if (l == null) {
+                return resultado;              // un trigrama que nadie tiene
+            }
+            if (menor == null || l.n < menor.n) {
+                menor = l;
+            }
+        }
+
+        int n = menor.n;
+        int[] candidatos = menor.ids;
+        Entrada[] todas = entradas;
+        for (int i = 0; i < n; i++) {
+            Entrada e = todas[candidatos[i]];
+            if (e != null && e.texto.contains(q)) {
+                resultado.add(e.articulo);
+            }
+        }
+        return resultado;
+    }
+
+    // Artículos del tipo ordenados por id; el arreglo es compartido y no se
+    // debe modificar
+    Articulo[] porTipo(String tipo) {
+        return porTipo.getOrDefault(normalizar(tipo), VACIO);
+    }
+
+    // ==========================
+    // UTILIDADES
+    // ==========================
+
+    // "Audífonos BT" → "audifonos bt"
+    static String normalizar(String s) {
+        if (s == null) return "";
+        if (esAscii(s)) return s.toLowerCase(Locale.ROOT).replace(SEPARADOR, ' ');
+        String sinAcentos = MARCAS.matcher(Normalizer.normalize(s, Normalizer.Form.NFD)).replaceAll("");
+        return sinAcentos.toLowerCase(Locale.ROOT).replace(SEPARADOR, ' ');
+    }
+
+    private static boolean esAscii(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 0x80) return false;
+        }
+        return true;
+    }
+
+    // Trigramas de los dos textos, ordenados (con repetidos). Cada uno son
+    // tres chars de 16 bits empacados en un long
+    private static long[] trigramasDe(String a, String b) {
+        long[] t = new long[Math.max(0, a.length() - 2) + Math.max(0, b.length() - 2)];
+        int n = 0;
+        for (String s : new String[]{a, b}) {
+            for (int i = 0; i + 3 <= s.length(); i++) {
+                t[n++] = ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+            }
+        }
+        Arrays.sort(t);
+        return t;
+    }
+
+    private static long[] trigramasDe(Entrada e) {
+        int separador = e.texto.indexOf(SEPARADOR);
+        return trigramasDe(e.texto.substring(0, separador), e.texto.substring(separador + 1));
+    }
+}
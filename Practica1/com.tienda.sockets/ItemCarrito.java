@@ -0,0 +1,29 @@
+package com.tienda.sockets;
+
+import java.io.Serializable;
+
+// Un renglón del carrito o del ticket, con el precio del momento en que se agregó
+class ItemCarrito implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final String articuloId;
+    final String nombre;
+    final double precio;
+    int cantidad;
+
+    ItemCarrito(String articuloId, String nombre, double precio, int cantidad) {
+        this.articuloId = articuloId;
+        this.nombre = nombre;
+        this.precio = precio;
+        this.cantidad = cantidad;
+    }
+
+    double subtotal() {
+        return precio * cantidad;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%-6s | %-18s | %3d x $%,9.2f = $%,10.2f", articuloId, nombre, cantidad, precio, subtotal());
+    }
+}
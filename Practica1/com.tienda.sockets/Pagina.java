@@ -0,0 +1,24 @@
+package com.tienda.sockets;
+
+import java.io.Serializable;
+import java.util.List;
+
+// Una página de LISTAR_TIPO: los artículos desde la posición "desde" y
+// cuántos tiene el tipo en total, para pedir la siguiente
+class Pagina implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final List<Articulo> articulos;
+    final int desde;
+    final int total;
+
+    Pagina(List<Articulo> articulos, int desde, int total) {
+        this.articulos = articulos;
+        this.desde = desde;
+        this.total = total;
+    }
+
+    boolean haySiguiente() {
+        return desde + articulos.size() < total;
+    }
+}
@@ -0,0 +1,28 @@
+package com.tienda.sockets;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+// Petición del cliente: la acción y sus parámetros por nombre
+// ("q", "tipo", "desde", "id", "cantidad"...)
+class Request implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final Accion accion;
+    final Map<String, Object> params = new HashMap<>();
+
+    Request(Accion accion) {
+        this.accion = accion;
+    }
+
+    Request put(String nombre, Object valor) {
+        params.put(nombre, valor);
+        return this;
+    }
+
+    @SuppressWarnings("unchecked")
+    <T> T get(String nombre) {
+        return (T) params.get(nombre);
+    }
+}
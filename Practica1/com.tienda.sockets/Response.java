@@ -0,0 +1,27 @@
+package com.tienda.sockets;
+
+import java.io.Serializable;
+
+// Respuesta del servidor: si salió bien, el resultado (lista de artículos,
+// Pagina, Carrito, Ticket o un texto); si no, el mensaje de error
+class Response implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final boolean ok;
+    final String message;
+    final Object payload;
+
+    private Response(boolean ok, String message, Object payload) {
+        this.ok = ok;
+        this.message = message;
+        this.payload = payload;
+    }
+
+    static Response ok(Object payload) {
+        return new Response(true, "OK", payload);
+    }
+
+    static Response fail(String message) {
+        return new Response(false, message, null);
+    }
+}
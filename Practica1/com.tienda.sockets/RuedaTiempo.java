@@ -0,0 +1,195 @@
+package com.tienda.sockets;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// Rueda de tiempo jerárquica para vencimientos que casi nunca se cumplen
+// (apartados de carritos): programar y cancelar son O(1), sin un hilo ni
+// un ScheduledFuture por temporizador. Un solo hilo avanza la rueda cada
+// tick; el nivel 0 tiene una ranura por tick y cada nivel de arriba cubre
+// 64 veces más tiempo. Cuando el nivel 0 da la vuelta, la ranura que toca
+// del nivel 1 se reparte hacia abajo según el vencimiento exacto, y así
+// sucesivamente (como los timers del kernel de Linux).
+// Los demás hilos no tocan las ranuras: dejan altas y cancelaciones en
+// colas que el hilo de la rueda vacía en cada tick. Un temporizador vence
+// como mucho un tick después de lo pedido, nunca antes.
+class RuedaTiempo {
+
+    private static final int BITS = 6;
+    private static final int RANURAS = 1 << BITS;
+    private static final int MASCARA = RANURAS - 1;
+    private static final int NIVELES = 4;                 // 64^4 ticks: con 100 ms, ~19 días
+
+    private static final int PENDIENTE = 0;
+    private static final int CANCELADO = 1;
+    private static final int VENCIDO = 2;
+
+    final class Temporizador {
+        private final Runnable tarea;
+        private final long tick;                          // tick en el que vence
+        private final AtomicInteger estado = new AtomicInteger(PENDIENTE);
+        // Lista de su ranura; solo los toca el hilo de la rueda
+        private Temporizador anterior, siguiente;
+        private int nivel = -1, ranura;
+
+        private Temporizador(Runnable tarea, long tick) {
+            this.tarea = tarea;
+            this.tick = tick;
+        }
+
+        // false si ya venció (la tarea corrió o está corriendo)
+        boolean cancelar() {
+            if (!estado.compareAndSet(PENDIENTE, CANCELADO)) {
+                return estado.get() == CANCELADO;
+            }
+            cancelados.add(this);
+            return true;
+        }
+    }
+
+    private final long tickNanos;
+    private final long inicio = System.nanoTime();
+    private final Temporizador[][] ranuras = new Temporizador[NIVELES][RANURAS];
+    private final Queue<Temporizador> altas = new ConcurrentLinkedQueue<>();
+    private final Queue<Temporizador> cancelados = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendientes = new AtomicInteger();
+    // Último tick procesado; solo lo escribe el hilo de la rueda
+    private long actual;
+
+    RuedaTiempo(long tickMs, String nombreHilo) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        Thread hilo = new Thread(this::girar, nombreHilo);
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    // La tarea corre en el hilo de la rueda: debe ser corta y no bloquear
+    Temporizador programar(long retrasoMs, Runnable tarea) {
+        long retraso = TimeUnit.MILLISECONDS.toNanos(Math.max(0, retrasoMs));
+        long tick = (System.nanoTime() - inicio + retraso + tickNanos - 1) / tickNanos;
+        Temporizador t = new Temporizador(tarea, tick);
+        pendientes.incrementAndGet();
+        altas.add(t);
+        return t;
+    }
+
+    // Temporizadores programados que no han vencido ni se cancelaron
+    int pendientes() {
+        return pendientes.get();
+    }
+
+    // ==========================
+    // HILO DE LA RUEDA
+    // ==========================
+
+    private void girar() {
+        while (true) {
+            long espera = inicio + (actual + 1) * tickNanos - System.nanoTime();
+            if (espera > 0) {
+                LockSupport.parkNanos(espera);
+                continue;
+            }
+            // Si el hilo se atrasó (GC, CPU ocupado) se ponen al día todos los ticks
+            atenderColas();
+            actual++;
+            int indice = (int) (actual & MASCARA);
+            if (indice == 0) {
+                bajar(1);
+            }
+            vencerRanura(indice);
+        }
+    }
+
+    private void atenderColas() {
+        Temporizador t;
+        while ((t = altas.poll()) != null) {
+            if (t.estado.get() == PENDIENTE) {
+                colocar(t);
+            }
+        }
+        while ((t = cancelados.poll()) != null) {
+            if (t.nivel >= 0) {
+                quitar(t);
+            }
+            pendientes.decrementAndGet();
+        }
+    }
+
+    // Reparte la ranura actual del nivel hacia los niveles de abajo; si
+    // ese nivel también dio la vuelta, primero baja el de arriba
+    private void bajar(int nivel) {
+        if (nivel >= NIVELES) {
+            return;
+        }
+        int indice = (int) ((actual >>> (BITS * nivel)) & MASCARA);
+        if (indice == 0) {
+            bajar(nivel + 1);
+        }
+        Temporizador t = ranuras[nivel][indice];
+        ranuras[nivel][indice] = null;
+        while (t != null) {
+            Temporizador sig = t.siguiente;
+            t.anterior = t.siguiente = null;
+            t.nivel = -1;
+            colocar(t);
+            t = sig;
+        }
+    }
+
+    private void vencerRanura(int indice) {
+        Temporizador t = ranuras[0][indice];
+        ranuras[0][indice] = null;
+        while (t != null) {
+            Temporizador sig = t.siguiente;
+            t.anterior = t.siguiente = null;
+            t.nivel = -1;
+            if (t.estado.compareAndSet(PENDIENTE, VENCIDO)) {
+                pendientes.decrementAndGet();
+                try {
+                    t.tarea.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+            t = sig;
+        }
+    }
+
+    // El nivel lo da cuánto falta; lo que ya venció va al siguiente tick y
+    // lo que pasa del último nivel espera en él hasta bajar
+    private void colocar(Temporizador t) {
+        long falta = t.tick - actual;
+        long tick = falta <= 0 ? actual + 1 : t.tick;
+        int nivel = 0;
+        while (nivel < NIVELES - 1 && falta >= 1L << (BITS * (nivel + 1))) {
+            nivel++;
+        }
+        if (falta >= 1L << (BITS * NIVELES)) {
+            tick = actual + (1L << (BITS * NIVELES)) - 1;
+        }
+        int indice = (int) ((tick >>> (BITS * nivel)) & MASCARA);
+        t.nivel = nivel;
+        t.ranura = indice;
+        t.siguiente = ranuras[nivel][indice];
+        if (t.siguiente != null) {
+            t.siguiente.anterior = t;
+        }
+        ranuras[nivel][indice] = t;
+    }
+
+    private void quitar(Temporizador t) {
+        if (t.anterior != null) {
+            t.anterior.siguiente = t.siguiente;
+        } else {
+            ranuras[t.nivel][t.ranura] = t.siguiente;
+        }
+        if (t.siguiente != null) {
+            t.siguiente.anterior = t.anterior;
+        }
+        t.anterior = t.siguiente = null;
+        t.nivel = -1;
+    }
+}
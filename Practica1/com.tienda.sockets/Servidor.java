@@ -3,53 +3,88 @@ package com.tienda.sockets;
 import java.io.*;
 import java.net.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 public class Servidor {
     private static final int PORT = 9999;
-    //Catálogo 
-    private static final Map<String, Articulo> CATALOGO = new LinkedHashMap<>();
-    // Lock para operaciones que modifican existencias en lote (checkout)
-    private static final Object STOCK_LOCK = new Object();
+    //Catálogo (ordenado por id); se consulta sin lock
+    private static final Map<String, Articulo> CATALOGO = new ConcurrentSkipListMap<>();
+    // Trigramas de nombre y marca para BUSCAR; se consulta sin el lock del catálogo
+    private static final IndiceCatalogo INDICE = new IndiceCatalogo();
+    // Artículos por respuesta de LISTAR_TIPO
+    private static final int PAGINA_DEFECTO = 50;
+    private static final int PAGINA_MAXIMA = 500;
+    // Stock por artículo con contadores atómicos; el checkout no toma locks
+    private static final Existencias EXISTENCIAS = new Existencias();
+    // Con "--apartar=SEGUNDOS" agregar al carrito aparta las unidades por ese
+    // tiempo desde el último cambio al carrito; 0 = solo se valida, como antes
+    private static long apartadoMs = 0;
+    private static RuedaTiempo rueda;
+    private static final long TICK_APARTADOS_MS = 100;
 
     public static void main(String[] args) {
+        for (String a : args) {
+            if (a.startsWith("--apartar=")) apartadoMs = Long.parseLong(a.substring(10)) * 1000;
+        }
+        if (apartadoMs > 0) {
+            rueda = new RuedaTiempo(TICK_APARTADOS_MS, "vencimiento-apartados");
+            System.out.println("Los carritos apartan existencias por " + apartadoMs / 1000 + " s.");
+        }
         seedCatalogo();
         System.out.println("Catálogo inicial:");
         CATALOGO.values().forEach(a -> System.out.println("  " + a));
 
+        ExecutorService ejecutor = crearEjecutor(args);
         try (ServerSocket server = new ServerSocket(PORT)) {
             System.out.println("Servidor iniciado en puerto " + PORT + ". Esperando clientes...");
             while (true) {
                 Socket cl = server.accept();
                 System.out.println("Cliente conectado desde " + cl.getInetAddress() + ":" + cl.getPort());
-                new Thread(new ClienteHandler(cl)).start();
+                ejecutor.execute(new ClienteHandler(cl));
             }
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    // Con "--hilos=virtual" cada ClienteHandler corre en un hilo virtual (Java 21+),
+    // así miles de sesiones bloqueadas en readObject no ocupan hilos del sistema.
+    // Por defecto, un hilo de plataforma por cliente como antes.
+    private static ExecutorService crearEjecutor(String[] args) {
+        if (Arrays.asList(args).contains("--hilos=virtual")) {
+            try {
+                return (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.out.println("Hilos virtuales no disponibles en esta JVM, se usan hilos de plataforma.");
+            }
+        }
+        return Executors.newCachedThreadPool();
+    }
+
     // Clase interna para manejar cada cliente 
     static class ClienteHandler implements Runnable {
         private final Socket socket;
-        private ObjectOutputStream oos;
-        private ObjectInputStream ois;
+        // Binario o serialización Java, según lo que hable el cliente
+        private Transporte transporte;
         private final Carrito carrito = new Carrito();
+        // null si los carritos no apartan existencias
+        private final Apartado apartado;
 
         ClienteHandler(Socket socket) {
             this.socket = socket;
+            this.apartado = apartadoMs > 0 ? new Apartado(EXISTENCIAS, rueda, apartadoMs) : null;
         }
 
         @Override
         public void run() {
             try {
-                //Crear OOS antes que OIS para evitar deadlock
-                oos = new ObjectOutputStream(socket.getOutputStream());
-                oos.flush();
-                ois = new ObjectInputStream(socket.getInputStream());
+                transporte = Transporte.aceptar(socket);
+                System.out.println("Protocolo con " + socket.getPort() + ": " + transporte.protocolo());
 
                 boolean activo = true;
                 while (activo) {
-                    Object obj = ois.readObject();
+                    Object obj = transporte.recibir();
                     if (!(obj instanceof Request)) {
                         send(Response.fail("Petición inválida"));
                         continue;
@@ -90,46 +125,47 @@ public class Servidor {
             } catch (Exception e) {
                 e.printStackTrace();
             } finally {
-                try { if (ois != null) ois.close(); } catch (Exception ignored) {}
-                try { if (oos != null) oos.close(); } catch (Exception ignored) {}
+                if (apartado != null) apartado.liberar();
+                try { if (transporte != null) transporte.close(); } catch (Exception ignored) {}
                 try { socket.close(); } catch (Exception ignored) {}
                 System.out.println("Conexión cerrada: " + socket);
             }
         }
 
         private void send(Response r) throws IOException {
-            oos.reset();
-            oos.writeObject(r);
-            oos.flush();
+            transporte.enviar(r);
         }
 
         //Validar existencias antes de agregar artículos al carrito
+        // Sin recorrer el catálogo ni tomar su lock: el índice da los candidatos
+        // y no distingue acentos ("audifonos" encuentra "Audífonos")
         private Response handleBuscar(Request req) {
-            String texto = Optional.ofNullable(req.<String>get("q")).orElse("").toLowerCase(Locale.ROOT);
-            if (texto.isEmpty()) return Response.fail("Escribe un nombre o marca para buscar.");
+            String texto = Optional.ofNullable(req.<String>get("q")).orElse("");
+            if (IndiceCatalogo.normalizar(texto).isEmpty()) return Response.fail("Escribe un nombre o marca para buscar.");
             List<Articulo> result = new ArrayList<>();
-            synchronized (CATALOGO) {
-                for (Articulo a : CATALOGO.values()) {
-                    if (a.nombre.toLowerCase(Locale.ROOT).contains(texto)|| a.marca.toLowerCase(Locale.ROOT).contains(texto)) {
-                        result.add(cloneArticulo(a));
-                    }
-                }
+            for (Articulo a : INDICE.buscar(texto)) {
+                result.add(cloneArticulo(a));
             }
             return Response.ok(result);
         }
 
+        // Una página del tipo ("desde" y "limite" opcionales) sacada del
+        // arreglo ya ordenado del índice, sin recorrer el catálogo
         private Response handleListarTipo(Request req) {
-            String tipo = Optional.ofNullable(req.<String>get("tipo")).orElse("").toLowerCase(Locale.ROOT);
-            if (tipo.isEmpty()) return Response.fail("Proporciona un tipo para listar.");
+            String tipo = Optional.ofNullable(req.<String>get("tipo")).orElse("");
+            if (IndiceCatalogo.normalizar(tipo).trim().isEmpty()) return Response.fail("Proporciona un tipo para listar.");
+            int desde = Optional.ofNullable(req.<Integer>get("desde")).orElse(0);
+            int limite = Optional.ofNullable(req.<Integer>get("limite")).orElse(PAGINA_DEFECTO);
+            if (desde < 0 || limite <= 0) return Response.fail("Página inválida.");
+            limite = Math.min(limite, PAGINA_MAXIMA);
+
+            Articulo[] todos = INDICE.porTipo(tipo);
+            int hasta = (int) Math.min(todos.length, (long) desde + limite);
             List<Articulo> result = new ArrayList<>();
-            synchronized (CATALOGO) {
-                for (Articulo a : CATALOGO.values()) {
-                    if (a.tipo.toLowerCase(Locale.ROOT).equals(tipo)) {
-                        result.add(cloneArticulo(a));
-                    }
-                }
+            for (int i = desde; i < hasta; i++) {
+                result.add(cloneArticulo(todos[i]));
             }
-            return Response.ok(result);
+            return Response.ok(new Pagina(result, desde, todos.length));
         }
 
         private Response handleAgregarCarrito(Request req) {
@@ -137,15 +173,21 @@ public class Servidor {
             Integer cantidad = req.get("cantidad");
             if (id == null || cantidad == null || cantidad <= 0)
                 return Response.fail("Datos inválidos para agregar al carrito.");
-            synchronized (CATALOGO) {
-                Articulo a = CATALOGO.get(id);
-                if (a == null) return Response.fail("Artículo no encontrado.");
-                int enCarrito = Optional.ofNullable(carrito.get(id)).map(it -> it.cantidad).orElse(0);
-                if (cantidad + enCarrito > a.existencias)
-                    return Response.fail("No hay existencias suficientes. Disponibles: " + a.existencias);
+            Articulo a = CATALOGO.get(id);
+            if (a == null) return Response.fail("Artículo no encontrado.");
+            if (apartado != null) {
+                if (!apartado.apartar(id, cantidad))
+                    return Response.fail("No hay existencias suficientes. Disponibles: " + EXISTENCIAS.disponibles(id));
                 carrito.put(a, cantidad);
                 return Response.ok(carrito);
             }
+            // Solo orienta al cliente: lo que vale es el descuento del checkout
+            int disponibles = EXISTENCIAS.disponibles(id);
+            int enCarrito = Optional.ofNullable(carrito.get(id)).map(it -> it.cantidad).orElse(0);
+            if (cantidad + enCarrito > disponibles)
+                return Response.fail("No hay existencias suficientes. Disponibles: " + disponibles);
+            carrito.put(a, cantidad);
+            return Response.ok(carrito);
         }
 
         private Response handleEditarCarrito(Request req) {
@@ -153,62 +195,83 @@ public class Servidor {
             Integer nuevaCantidad = req.get("cantidad");
             if (id == null || nuevaCantidad == null || nuevaCantidad < 0)
                 return Response.fail("Datos inválidos para editar el carrito.");
-            synchronized (CATALOGO) {
-                Articulo a = CATALOGO.get(id);
-                if (a == null) return Response.fail("Artículo no encontrado.");
-                if (nuevaCantidad == 0) {
-                    carrito.remove(id);
-                    return Response.ok(carrito);
-                }
-                if (nuevaCantidad > a.existencias)
-                    return Response.fail("No hay existencias suficientes. Disponibles: " + a.existencias);
+            Articulo a = CATALOGO.get(id);
+            if (a == null) return Response.fail("Artículo no encontrado.");
+            if (nuevaCantidad == 0) {
+                if (apartado != null) apartado.ajustar(id, 0);
+                carrito.remove(id);
+                return Response.ok(carrito);
+            }
+            if (apartado != null) {
+                if (!apartado.ajustar(id, nuevaCantidad))
+                    return Response.fail("No hay existencias suficientes. Disponibles: " + EXISTENCIAS.disponibles(id));
                 carrito.setCantidad(a, nuevaCantidad);
                 return Response.ok(carrito);
             }
+            int disponibles = EXISTENCIAS.disponibles(id);
+            if (nuevaCantidad > disponibles)
+                return Response.fail("No hay existencias suficientes. Disponibles: " + disponibles);
+            carrito.setCantidad(a, nuevaCantidad);
+            return Response.ok(carrito);
         }
 
         private Response handleEliminarDelCarrito(Request req) {
             String id = req.get("id");
             if (id == null) return Response.fail("Proporciona un id válido.");
+            if (apartado != null) apartado.ajustar(id, 0);
             carrito.remove(id);
             return Response.ok(carrito);
         }
 
+        // Todo el carrito se descuenta de una vez o no se descuenta nada; con
+        // apartados solo falta descontar lo que se haya vencido
         private Response handleCheckout() {
-            synchronized (STOCK_LOCK) {
-                for (ItemCarrito it : carrito.items()) {
-                    Articulo a = CATALOGO.get(it.articuloId);
-                    if (a == null) return Response.fail("Artículo no encontrado: " + it.articuloId);
-                    if (it.cantidad > a.existencias)
-                        return Response.fail("Existencias insuficientes para " + a.nombre);
-                }
-                for (ItemCarrito it : carrito.items()) {
-                    Articulo a = CATALOGO.get(it.articuloId);
-                    a.existencias -= it.cantidad;
-                }
-                String folio = "T" + System.currentTimeMillis() + "-" + (int) (Math.random() * 900 + 100);
-                Ticket t = new Ticket(folio, new Date(), new ArrayList<>(carrito.items()), carrito.total());
-                carrito.clear();
-                return Response.ok(t);
+            Map<String, Integer> pedido = new HashMap<>();
+            for (ItemCarrito it : carrito.items()) {
+                pedido.merge(it.articuloId, it.cantidad, Integer::sum);
             }
+            String faltante = apartado != null ? apartado.confirmar(pedido) : EXISTENCIAS.reservar(pedido);
+            if (faltante != null) {
+                Articulo a = CATALOGO.get(faltante);
+                if (a == null) return Response.fail("Artículo no encontrado: " + faltante);
+                return Response.fail("Existencias insuficientes para " + a.nombre);
+            }
+            String folio = "T" + System.currentTimeMillis() + "-" + (int) (Math.random() * 900 + 100);
+            Ticket t = new Ticket(folio, new Date(), new ArrayList<>(carrito.items()), carrito.total());
+            carrito.clear();
+            return Response.ok(t);
         }
 
+        // Copia con las existencias de este momento
         private Articulo cloneArticulo(Articulo a) {
-            return new Articulo(a.id, a.nombre, a.marca, a.tipo, a.precio, a.existencias);
+            return new Articulo(a.id, a.nombre, a.marca, a.tipo, a.precio, EXISTENCIAS.disponibles(a.id));
+        }
+    }
+
+    // Todo alta al catálogo pasa por aquí para que el índice quede al día;
+    // en lote, cada tipo se vuelve a publicar una sola vez
+    private static void agregarArticulos(Articulo... nuevos) {
+        synchronized (CATALOGO) {
+            for (Articulo a : nuevos) {
+                EXISTENCIAS.registrar(a.id, a.existencias);
+                CATALOGO.put(a.id, a);
+            }
+            INDICE.cargar(Arrays.asList(nuevos));
         }
     }
 
     //MÉTODO SEEDCATALOGO EN EL NIVEL DE LA CLASE, NO DENTRO DE CATCH
     private static void seedCatalogo() {
         synchronized (CATALOGO) {
-            CATALOGO.put("A001", new Articulo("A001", "Mouse óptico", "Logitech", "periferico", 249.00, 15));
-            CATALOGO.put("A002", new Articulo("A002", "Teclado mecánico", "Redragon", "periferico", 899.00, 8));
-            CATALOGO.put("A003", new Articulo("A003", "Monitor 24\"", "Samsung", "display", 2899.00, 5));
-            CATALOGO.put("A004", new Articulo("A004", "Laptop 14\"", "Lenovo", "computo", 12999.00, 4));
-            CATALOGO.put("A005", new Articulo("A005", "SSD 1TB", "Kingston", "almacenamiento", 1599.00, 10));
-            CATALOGO.put("A006", new Articulo("A006", "Audífonos BT", "Sony", "audio", 1999.00, 7));
-            CATALOGO.put("A007", new Articulo("A007", "Webcam HD", "Logitech", "periferico", 749.00, 12));
-            CATALOGO.put("A008", new Articulo("A008", "Tarjeta de video", "NVIDIA", "computo", 6999.00, 2));
+            agregarArticulos(
+                    new Articulo("A001", "Mouse óptico", "Logitech", "periferico", 249.00, 15),
+                    new Articulo("A002", "Teclado mecánico", "Redragon", "periferico", 899.00, 8),
+                    new Articulo("A003", "Monitor 24\"", "Samsung", "display", 2899.00, 5),
+                    new Articulo("A004", "Laptop 14\"", "Lenovo", "computo", 12999.00, 4),
+                    new Articulo("A005", "SSD 1TB", "Kingston", "almacenamiento", 1599.00, 10),
+                    new Articulo("A006", "Audífonos BT", "Sony", "audio", 1999.00, 7),
+                    new Articulo("A007", "Webcam HD", "Logitech", "periferico", 749.00, 12),
+                    new Articulo("A008", "Tarjeta de video", "NVIDIA", "computo", 6999.00, 2));
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,35 @@
+package com.tienda.sockets;
+
+import java.io.Serializable;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+// Comprobante de un checkout; el cliente lo imprime y lo guarda como
+// ticket_<folio>.txt
+class Ticket implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    final String folio;
+    final Date fecha;
+    final List<ItemCarrito> items;
+    final double total;
+
+    Ticket(String folio, Date fecha, List<ItemCarrito> items, double total) {
+        this.folio = folio;
+        this.fecha = fecha;
+        this.items = items;
+        this.total = total;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("===== TICKET DE COMPRA =====\n");
+        sb.append("Folio: ").append(folio).append('\n');
+        sb.append("Fecha: ").append(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(fecha)).append('\n');
+        for (ItemCarrito it : items) {
+            sb.append(it).append('\n');
+        }
+        return sb.append(String.format("TOTAL: $%,.2f%n", total)).toString();
+    }
+}
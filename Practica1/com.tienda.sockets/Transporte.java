@@ -0,0 +1,166 @@
+package com.tienda.sockets;
+
+import java.io.*;
+import java.net.*;
+import java.util.Arrays;
+
+// Cómo viajan Request y Response por el socket. Al conectar, el cliente
+// manda MAGIA y la versión más alta de CodecBinario que entiende; si el
+// servidor la acepta responde MAGIA y la versión acordada, y desde ahí
+// todo va en binario.
+// La serialización Java sigue como respaldo en los dos sentidos: un
+// cliente viejo empieza directo con la cabecera de ObjectOutputStream
+// (AC ED) y el servidor la reconoce; un servidor viejo contesta con su
+// propia cabecera en lugar de MAGIA, y el cliente se vuelve a conectar
+// con serialización Java.
+interface Transporte extends Closeable {
+
+    byte[] MAGIA = {'T', 'N', 'D', 'B'};
+
+    void enviar(Object mensaje) throws IOException;
+
+    // Request o Response; EOFException si el otro lado cerró
+    Object recibir() throws IOException, ClassNotFoundException;
+
+    String protocolo();
+
+    // ==========================
+    // NEGOCIACIÓN
+    // ==========================
+
+    // Lado servidor: decide por los primeros bytes que manda el cliente
+    static Transporte aceptar(Socket socket) throws IOException {
+        BufferedInputStream in = new BufferedInputStream(socket.getInputStream());
+        in.mark(MAGIA.length);
+        byte[] inicio = leerCompleto(in, MAGIA.length);
+        if (!Arrays.equals(inicio, MAGIA)) {
+            in.reset();
+            return new Java(socket, in);
+        }
+        int version = Math.min(in.read(), CodecBinario.VERSION);
+        if (version < 1) throw new StreamCorruptedException("Versión de protocolo inválida: " + version);
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+        out.write(MAGIA);
+        out.write(version);
+        out.flush();
+        return new Binario(socket, in, out, version);
+    }
+
+    // Lado cliente: binario si el servidor lo entiende, si no serialización Java
+    static Transporte conectar(String host, int port) throws IOException {
+        Socket socket = new Socket(host, port);
+        try {
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            out.write(MAGIA);
+            out.write(CodecBinario.VERSION);
+            out.flush();
+            BufferedInputStream in = new BufferedInputStream(socket.getInputStream());
+            byte[] respuesta = leerCompleto(in, MAGIA.length);
+            if (Arrays.equals(respuesta, MAGIA)) {
+                int version = in.read();
+                if (version < 1 || version > CodecBinario.VERSION)
+                    throw new StreamCorruptedException("Versión de protocolo inválida: " + version);
+                return new Binario(socket, in, out, version);
+            }
+        } catch (IOException e) {
+            // Un servidor viejo puede cerrar al no entender MAGIA
+        }
+        socket.close();
+        return new Java(new Socket(host, port), null);
+    }
+
+    static byte[] leerCompleto(InputStream in, int n) throws IOException {
+        byte[] b = new byte[n];
+        int leidos = 0;
+        while (leidos < n) {
+            int r = in.read(b, leidos, n - leidos);
+            if (r < 0) throw new EOFException();
+            leidos += r;
+        }
+        return b;
+    }
+
+    // ==========================
+    // IMPLEMENTACIONES
+    // ==========================
+
+    // Como antes: reset() + writeObject por mensaje
+    final class Java implements Transporte {
+        private final Socket socket;
+        private final ObjectOutputStream oos;
+        private final ObjectInputStream ois;
+
+        // 'in' trae lo que ya se leyó para negociar (null = el socket tal cual)
+        Java(Socket socket, InputStream in) throws IOException {
+            this.socket = socket;
+            //Crear OOS antes que OIS para evitar deadlock
+            oos = new ObjectOutputStream(socket.getOutputStream());
+            oos.flush();
+            ois = new ObjectInputStream(in != null ? in : socket.getInputStream());
+        }
+
+        @Override
+        public void enviar(Object mensaje) throws IOException {
+            oos.reset();
+            oos.writeObject(mensaje);
+            oos.flush();
+        }
+
+        @Override
+        public Object recibir() throws IOException, ClassNotFoundException {
+            return ois.readObject();
+        }
+
+        @Override
+        public String protocolo() {
+            return "serialización Java";
+        }
+
+        @Override
+        public void close() throws IOException {
+            try { ois.close(); } catch (Exception ignored) {}
+            try { oos.close(); } catch (Exception ignored) {}
+            socket.close();
+        }
+    }
+
+    final class Binario implements Transporte {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private final int version;
+        // Uno para cada sentido: cada uno reutiliza su buffer
+        private final CodecBinario entrada;
+        private final CodecBinario salida;
+
+        Binario(Socket socket, InputStream in, OutputStream out, int version) {
+            this.socket = socket;
+            this.in = in;
+            this.out = out;
+            this.version = version;
+            this.entrada = new CodecBinario();
+            this.salida = new CodecBinario();
+        }
+
+        @Override
+        public void enviar(Object mensaje) throws IOException {
+            salida.escribir(mensaje, out);
+            out.flush();
+        }
+
+        @Override
+        public Object recibir() throws IOException {
+            return entrada.leer(in);
+        }
+
+        @Override
+        public String protocolo() {
+            return "binario v" + version;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
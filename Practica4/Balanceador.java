@@ -0,0 +1,548 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Proxy inverso hacia uno o mas ServidorHTTP2. En lugar de mandar un 302 al
+// cliente, el PRINCIPAL reenvia la peticion por una conexion persistente
+// (reutilizada de un pool) al backend con menos carga y devuelve su respuesta.
+//   --backends=localhost:9000,localhost:9001
+//   --algoritmo=pendientes | ewma
+public class Balanceador {
+
+    private static final int TIEMPO_CONEXION = 1000;
+    private static final int TIEMPO_RESPUESTA = 30000;
+    private static final int INTERVALO_SALUD = 2000;
+    // Menor que el keep-alive del backend para no reutilizar sockets que el
+    // otro lado ya cerro
+    private static final long MAX_OCIOSA = ManejadorCliente.TIEMPO_INACTIVO - 1000;
+    private static final double ALFA_EWMA = 0.3;
+    private static final byte[] FIN_LINEA = "\r\n".getBytes();
+    private static final byte[] ULTIMO_CHUNK = "0\r\n\r\n".getBytes();
+    // Headers de la peticion que importan al backend (el resto son de salto)
+    private static final String[] HEADERS_REENVIADOS = {
+        "Content-Type", "Accept", "Accept-Encoding", "Range", "If-Range",
+        "If-None-Match", "If-Modified-Since"
+    };
+    // Headers de la respuesta que valen solo entre el backend y este proxy
+    // (RFC 7230 6.1); el motor pone los suyos hacia el cliente
+    private static final Set<String> HOP_POR_HOP = new HashSet<>(Arrays.asList(
+        "connection", "keep-alive", "transfer-encoding", "te", "trailer", "upgrade",
+        "proxy-authenticate", "proxy-authorization", "proxy-connection", "content-length"
+    ));
+
+    private final List<Backend> backends = new ArrayList<>();
+    private final boolean usarEwma;
+
+    public Balanceador(String lista, String algoritmo) {
+        for (String direccion : lista.split(",")) {
+            String[] partes = direccion.trim().split(":");
+            backends.add(new Backend(partes[0], Integer.parseInt(partes[1])));
+        }
+        this.usarEwma = algoritmo.equals("ewma");
+
+        ScheduledExecutorService salud = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "salud-backends");
+            t.setDaemon(true);
+            return t;
+        });
+        salud.scheduleWithFixedDelay(this::revisarSalud, 0, INTERVALO_SALUD, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean hayDisponible() {
+        for (Backend b : backends) {
+            if (b.sano) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // pendientes: el backend con menos peticiones en curso (empate -> menor latencia)
+    // ewma: menor latencia esperada, latencia media * (pendientes + 1)
+    private Backend elegir() {
+        Backend mejor = null;
+        double mejorCosto = Double.MAX_VALUE;
+        for (Backend b : backends) {
+            if (!b.sano) {
+                continue;
+            }
+            int pendientes = b.pendientes.get();
+            double costo = usarEwma
+                    ? b.ewma * (pendientes + 1)
+                    : pendientes + b.ewma / 1e9;
+            if (costo < mejorCosto) {
+                mejorCosto = costo;
+                mejor = b;
+            }
+        }
+        return mejor;
+    }
+
+    // Devuelve la respuesta del backend, o null si no hay ninguno disponible
+    // y la peticion se debe atender localmente. Un cuerpo con chunks
+    // invalidos es culpa del cliente, no del backend: se propaga
+    public Respuesta reenviar(Peticion peticion) throws CuerpoPeticion.Malformado {
+        Backend backend;
+        while ((backend = elegir()) != null) {
+            try {
+                Respuesta r = backend.reenviar(peticion);
+                if (r.getEstado() == 503 && !peticion.tieneCuerpo()) {
+                    // El backend esta descartando carga (ControlAdmision): se
+                    // atiende aqui en lugar de pasarle el 503 al cliente
+                    r.cerrar();
+                    return null;
+                }
+                return r;
+            } catch (CuerpoPeticion.Malformado e) {
+                throw e;
+            } catch (IOException e) {
+                backend.sano = false;
+                System.out.println("Backend " + backend + " fuera de servicio: " + e.getMessage());
+                if (peticion.tieneCuerpo()) {
+                    // El cuerpo ya se empezo a consumir: no se puede repetir
+                    Respuesta r = new Respuesta(502, "Bad Gateway");
+                    r.setCerrarConexion(true);
+                    return r;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void revisarSalud() {
+        for (Backend b : backends) {
+            boolean antes = b.sano;
+            b.sano = b.responde();
+            if (antes != b.sano) {
+                System.out.println("Backend " + b + (b.sano ? " disponible" : " fuera de servicio"));
+            }
+        }
+    }
+
+    // ==========================
+    // BACKEND
+    // ==========================
+    private static class Backend {
+
+        final String host;
+        final int puerto;
+        final AtomicInteger pendientes = new AtomicInteger();
+        final ConcurrentLinkedDeque<ConexionBackend> libres = new ConcurrentLinkedDeque<>();
+        volatile boolean sano = true;
+        volatile double ewma = 0;
+
+        Backend(String host, int puerto) {
+            this.host = host;
+            this.puerto = puerto;
+        }
+
+        // La peticion cuenta en 'pendientes' hasta que su conexion vuelve al
+        // pool o se descarta, es decir, hasta que el cuerpo de la respuesta
+        // se termino de pasar al cliente (o fallo), no solo hasta los headers
+        Respuesta reenviar(Peticion peticion) throws IOException {
+            ConexionBackend con = tomarConexion();
+            try {
+                return intentar(con, peticion);
+            } catch (IOException e) {
+                con.descartar();
+                if (!con.reutilizada || peticion.tieneCuerpo()) {
+                    throw e;
+                }
+                // El backend cerro una conexion del pool: un reintento con una nueva
+                ConexionBackend nueva = new ConexionBackend(this, abrir());
+                try {
+                    return intentar(nueva, peticion);
+                } catch (IOException e2) {
+                    nueva.descartar();
+                    throw e2;
+                }
+            }
+        }
+
+        private Respuesta intentar(ConexionBackend con, Peticion peticion) throws IOException {
+            con.enCurso = true;
+            pendientes.incrementAndGet();
+            long inicio = System.nanoTime();
+            con.enviar(peticion);
+            Respuesta r = con.recibir(peticion);
+            registrarLatencia(System.nanoTime() - inicio);
+            return r;
+        }
+
+        private synchronized void registrarLatencia(long nanos) {
+            ewma = ewma == 0 ? nanos : ALFA_EWMA * nanos + (1 - ALFA_EWMA) * ewma;
+        }
+
+        private ConexionBackend tomarConexion() throws IOException {
+            ConexionBackend con;
+            while ((con = libres.pollFirst()) != null) {
+                if (System.currentTimeMillis() - con.ultimoUso < MAX_OCIOSA) {
+                    con.reutilizada = true;
+                    return con;
+                }
+                con.descartar();
+            }
+            return new ConexionBackend(this, abrir());
+        }
+
+        private Socket abrir() throws IOException {
+            Socket s = new Socket();
+            s.connect(new InetSocketAddress(host, puerto), TIEMPO_CONEXION);
+            s.setSoTimeout(TIEMPO_RESPUESTA);
+            s.setTcpNoDelay(true);
+            return s;
+        }
+
+        void devolver(ConexionBackend con) {
+            con.terminar();
+            con.ultimoUso = System.currentTimeMillis();
+            libres.offerFirst(con);
+        }
+
+        // Chequeo activo: un OPTIONS debe contestar 200
+        boolean responde() {
+            try (Socket s = new Socket()) {
+                s.connect(new InetSocketAddress(host, puerto), TIEMPO_CONEXION);
+                s.setSoTimeout(TIEMPO_CONEXION);
+                s.getOutputStream().write(
+                        "OPTIONS / HTTP/1.1\r\nConnection: close\r\n\r\n".getBytes());
+                String status = ConexionBackend.leerLinea(
+                        new BufferedInputStream(s.getInputStream()));
+                return status != null && status.startsWith("HTTP/1.1 200");
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + puerto;
+        }
+    }
+
+    // ==========================
+    // CONEXION PERSISTENTE AL BACKEND
+    // ==========================
+    private static class ConexionBackend {
+
+        final Backend backend;
+        final Socket socket;
+        final InputStream in;
+        final OutputStream out;
+        long ultimoUso = System.currentTimeMillis();
+        boolean reutilizada = false;
+        // Contada en backend.pendientes
+        boolean enCurso = false;
+
+        ConexionBackend(Backend backend, Socket socket) throws IOException {
+            this.backend = backend;
+            this.socket = socket;
+            this.in = new BufferedInputStream(socket.getInputStream());
+            this.out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        // El cuerpo pasa del cliente al backend por bloques; si llego en
+        // chunks se reenvia igual, con Content-Length si se conocia
+        void enviar(Peticion p) throws IOException {
+            StringBuilder sb = new StringBuilder(256);
+            sb.append(p.getMetodo()).append(' ').append(p.getRecurso()).append(" HTTP/1.1\r\n");
+            sb.append("Host: ").append(backend).append("\r\n");
+            for (String nombre : HEADERS_REENVIADOS) {
+                String valor = p.getHeader(nombre);
+                if (valor != null) {
+                    sb.append(nombre).append(": ").append(valor).append("\r\n");
+                }
+            }
+            if (p.esChunked()) {
+                sb.append("Transfer-Encoding: chunked\r\n");
+            } else {
+                sb.append("Content-Length: ").append(p.getContentLength()).append("\r\n");
+            }
+            sb.append("Connection: keep-alive\r\n\r\n");
+            out.write(sb.toString().getBytes());
+
+            if (p.esChunked()) {
+                byte[] bloque = new byte[16 * 1024];
+                int n;
+                while ((n = p.getCuerpo().read(bloque)) > 0) {
+                    out.write((Integer.toHexString(n) + "\r\n").getBytes());
+                    out.write(bloque, 0, n);
+                    out.write(FIN_LINEA);
+                }
+                out.write(ULTIMO_CHUNK);
+            } else {
+                p.getCuerpo().transferTo(out);
+            }
+            out.flush();
+        }
+
+        // Lee status line y headers; el cuerpo se pasa al cliente en streaming
+        // desde este socket y la conexion vuelve al pool al terminar de leerlo.
+        // Nunca se espera al cierre de una conexion que el backend mantiene
+        // abierta: sin cuerpo (HEAD, 1xx, 204, 304) vuelve al pool de
+        // inmediato, y chunked se decodifica hasta el ultimo chunk
+        Respuesta recibir(Peticion peticion) throws IOException {
+            String status;
+            int estado;
+            do {
+                status = leerLinea(in);
+                if (status == null) {
+                    throw new EOFException("El backend cerro la conexion");
+                }
+                estado = Integer.parseInt(status.split(" ", 3)[1]);
+                if (estado >= 100 && estado < 200 && estado != 101) {
+                    // Respuesta intermedia (100 Continue): sus headers se
+                    // descartan y sigue la definitiva
+                    String linea;
+                    while ((linea = leerLinea(in)) != null && !linea.isEmpty()) {
+                        // se descarta
+                    }
+                }
+            } while (estado >= 100 && estado < 200 && estado != 101);
+            String[] partes = status.split(" ", 3);
+            Respuesta r = new Respuesta(estado, partes.length > 2 ? partes[2] : "");
+            boolean esHead = peticion.getMetodo().equals("HEAD");
+
+            long largo = -1;
+            boolean chunked = false;
+            boolean reutilizable = true;
+            // Ademas de los fijos, Connection puede nombrar otros de salto
+            Set<String> deSalto = new HashSet<>(HOP_POR_HOP);
+            List<String[]> recibidos = new ArrayList<>();
+            String linea;
+            while ((linea = leerLinea(in)) != null && !linea.isEmpty()) {
+                int dosPuntos = linea.indexOf(':');
+                if (dosPuntos <= 0) {
+                    continue;
+                }
+                String nombre = linea.substring(0, dosPuntos).trim();
+                String valor = linea.substring(dosPuntos + 1).trim();
+                if (nombre.equalsIgnoreCase("Content-Length")) {
+                    largo = Long.parseLong(valor);
+                    if (esHead) {
+                        // Sin cuerpo, pero el cliente debe ver el largo del GET
+                        r.header("Content-Length", valor);
+                    }
+                } else if (nombre.equalsIgnoreCase("Transfer-Encoding")) {
+                    chunked = valor.toLowerCase().endsWith("chunked");
+                } else if (nombre.equalsIgnoreCase("Connection")) {
+                    for (String opcion : valor.toLowerCase().split(",")) {
+                        opcion = opcion.trim();
+                        if (opcion.equals("close")) {
+                            reutilizable = false;
+                        }
+                        deSalto.add(opcion);
+                    }
+                } else {
+                    recibidos.add(new String[]{nombre, valor});
+                }
+            }
+            for (String[] h : recibidos) {
+                if (!deSalto.contains(h[0].toLowerCase())) {
+                    r.header(h[0], h[1]);
+                }
+            }
+
+            if (esHead || estado < 200 || estado == 204 || estado == 304) {
+                // Tras un 101 la conexion ya no habla HTTP
+                if (reutilizable && estado != 101) {
+                    backend.devolver(this);
+                } else {
+                    descartar();
+                }
+                return r;
+            }
+            if (chunked || largo < 0) {
+                // Se reenvia en chunks al cliente (o hasta cerrar, si es
+                // HTTP/1.0) a medida que llega, sin juntarlo en memoria
+                r.generado(new CuerpoGenerado(this, chunked, reutilizable));
+                if (peticion.getVersion().equals("HTTP/1.0")) {
+                    r.delimitarPorCierre();
+                }
+                return r;
+            }
+            return r.flujo(new CuerpoBackend(this, largo, reutilizable), largo);
+        }
+
+        void descartar() {
+            terminar();
+            try { socket.close(); } catch (IOException ignored) {}
+        }
+
+        // Fin de la peticion en curso, con exito o no: deja de contar
+        void terminar() {
+            if (enCurso) {
+                enCurso = false;
+                backend.pendientes.decrementAndGet();
+            }
+        }
+
+        static String leerLinea(InputStream in) throws IOException {
+            StringBuilder sb = new StringBuilder();
+            int c;
+            while ((c = in.read()) != -1) {
+                if (c == '\n') {
+                    int n = sb.length();
+                    if (n > 0 && sb.charAt(n - 1) == '\r') {
+                        sb.setLength(n - 1);
+                    }
+                    return sb.toString();
+                }
+                sb.append((char) c);
+            }
+            return sb.length() == 0 ? null : sb.toString();
+        }
+    }
+
+    // Cuerpo de la respuesta del backend limitado a Content-Length. Al
+    // cerrarlo la conexion vuelve al pool solo si se leyo completo
+    private static class CuerpoBackend extends InputStream {
+
+        private final ConexionBackend con;
+        private final boolean reutilizable;
+        private long restante;
+        private boolean cerrado = false;
+
+        CuerpoBackend(ConexionBackend con, long largo, boolean reutilizable) {
+            this.con = con;
+            this.restante = largo;
+            this.reutilizable = reutilizable;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (restante <= 0) {
+                return -1;
+            }
+            int n = con.in.read(b, off, (int) Math.min(len, restante));
+            if (n < 0) {
+                throw new EOFException("Cuerpo del backend incompleto");
+            }
+            restante -= n;
+            return n;
+        }
+
+        @Override
+        public void close() {
+            if (cerrado) {
+                return;
+            }
+            cerrado = true;
+            if (restante == 0 && reutilizable) {
+                con.backend.devolver(con);
+            } else {
+                con.descartar();
+            }
+        }
+    }
+
+    // Cuerpo sin Content-Length: en chunks (se quitan los tamanos, el
+    // motor vuelve a enmarcarlo hacia el cliente) o, sin chunked, hasta que
+    // el backend cierra. Solo un chunked leido hasta el ultimo chunk deja la
+    // conexion lista para el pool
+    private static class CuerpoGenerado implements Respuesta.Generador {
+
+        private final ConexionBackend con;
+        private final boolean chunked;
+        private final boolean reutilizable;
+        private final byte[] bloque = new byte[16 * 1024];
+        // Lo que falta del chunk actual
+        private long restante = 0;
+        private boolean completo = false;
+        private boolean cerrado = false;
+
+        CuerpoGenerado(ConexionBackend con, boolean chunked, boolean reutilizable) {
+            this.con = con;
+            this.chunked = chunked;
+            this.reutilizable = reutilizable;
+        }
+
+        @Override
+        public ByteBuffer siguiente() throws IOException {
+            if (completo) {
+                return null;
+            }
+            if (!chunked) {
+                int n = con.in.read(bloque);
+                if (n < 0) {
+                    completo = true;
+                    return null;
+                }
+                return ByteBuffer.wrap(bloque, 0, n);
+            }
+            if (restante == 0) {
+                restante = leerTamano();
+                if (restante == 0) {
+                    // Trailers hasta la linea vacia
+                    String linea;
+                    while ((linea = ConexionBackend.leerLinea(con.in)) != null && !linea.isEmpty()) {
+                        // se descartan
+                    }
+                    if (linea == null) {
+                        throw new EOFException("Cuerpo del backend incompleto");
+                    }
+                    completo = true;
+                    return null;
+                }
+            }
+            int n = con.in.read(bloque, 0, (int) Math.min(bloque.length, restante));
+            if (n < 0) {
+                throw new EOFException("Cuerpo del backend incompleto");
+            }
+            restante -= n;
+            if (restante == 0 && !"".equals(ConexionBackend.leerLinea(con.in))) {
+                throw new IOException("Chunk del backend mal terminado");
+            }
+            return ByteBuffer.wrap(bloque, 0, n);
+        }
+
+        // Linea "tamano-hex[;extension]"
+        private long leerTamano() throws IOException {
+            String linea = ConexionBackend.leerLinea(con.in);
+            if (linea == null) {
+                throw new EOFException("Cuerpo del backend incompleto");
+            }
+            int puntoComa = linea.indexOf(';');
+            String hex = (puntoComa < 0 ? linea : linea.substring(0, puntoComa)).trim();
+            try {
+                long tamano = Long.parseLong(hex, 16);
+                if (tamano < 0) {
+                    throw new NumberFormatException();
+                }
+                return tamano;
+            } catch (NumberFormatException e) {
+                throw new IOException("Tamano de chunk invalido del backend: " + linea);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (cerrado) {
+                return;
+            }
+            cerrado = true;
+            if (completo && chunked && reutilizable) {
+                con.backend.devolver(con);
+            } else {
+                con.descartar();
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+// Compara como se mandaba el cuerpo de un GET antes (readAllBytes del
+// archivo completo y write al socket) contra FileChannel.transferTo, que
+// es lo que hace ahora Respuesta con las regiones de archivo. Cada archivo
+// se manda muchas veces por una conexion de loopback; un hilo aparte lee y
+// descarta del otro lado. Reporta MB/s y bytes reservados en el heap por
+// envio (solo en el hilo que manda, que es el que seria el del servidor).
+//   java BenchmarkEnvio [--archivos=pdf.pdf,rfc2616.txt] [--grande-mb=64]
+//                       [--segundos=3] [--rondas=3]
+// Con --grande-mb se crea ademas un archivo de ese tamano en el directorio
+// temporal, para ver que el heap por envio no crece con el archivo.
+public class BenchmarkEnvio {
+
+    private interface Envio {
+        void enviar(Path archivo, OutputStream out, SocketChannel canal) throws IOException;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Opciones opciones = new Opciones(args);
+        String[] nombres = opciones.texto("archivos", "pdf.pdf,rfc2616.txt").split(",");
+        int grandeMb = opciones.entero("grande-mb", 64);
+        int segundos = opciones.entero("segundos", 3);
+        int rondas = opciones.entero("rondas", 3);
+
+        Path grande = null;
+        if (grandeMb > 0) {
+            grande = Files.createTempFile("benchmark-envio", ".bin");
+            grande.toFile().deleteOnExit();
+            byte[] bloque = new byte[1 << 20];
+            try (OutputStream out = Files.newOutputStream(grande)) {
+                for (int i = 0; i < grandeMb; i++) {
+                    out.write(bloque);
+                }
+            }
+        }
+
+        try (ServerSocketChannel servidor = ServerSocketChannel.open()
+                .bind(new InetSocketAddress("localhost", 0))) {
+            Socket lector = new Socket("localhost", servidor.socket().getLocalPort());
+            SocketChannel canal = servidor.accept();
+            Thread descarte = new Thread(() -> descartar(lector), "descarte");
+            descarte.setDaemon(true);
+            descarte.start();
+            OutputStream out = canal.socket().getOutputStream();
+
+            System.out.printf("%-22s %-14s %10s %14s%n", "archivo", "envio", "MB/s", "B heap/envio");
+            for (int r = 1; r <= rondas; r++) {
+                for (String nombre : nombres) {
+                    Path archivo = Paths.get(nombre.trim());
+                    medir(archivo, "readAllBytes", BenchmarkEnvio::anterior, out, canal, segundos);
+                    medir(archivo, "transferTo", BenchmarkEnvio::nuevo, out, canal, segundos);
+                }
+                if (grande != null) {
+                    medir(grande, "readAllBytes", BenchmarkEnvio::anterior, out, canal, segundos);
+                    medir(grande, "transferTo", BenchmarkEnvio::nuevo, out, canal, segundos);
+                }
+            }
+        }
+    }
+
+    private static void medir(Path archivo, String nombre, Envio envio, OutputStream out,
+                              SocketChannel canal, int segundos) throws IOException {
+        com.sun.management.ThreadMXBean mx =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long hilo = Thread.currentThread().getId();
+
+        long tamano = Files.size(archivo);
+        long envios = 0;
+        long bytesAntes = mx.getThreadAllocatedBytes(hilo);
+        long inicio = System.nanoTime();
+        long fin = inicio + segundos * 1_000_000_000L;
+        while (System.nanoTime() < fin) {
+            envio.enviar(archivo, out, canal);
+            envios++;
+        }
+        long ns = System.nanoTime() - inicio;
+        long reservados = mx.getThreadAllocatedBytes(hilo) - bytesAntes;
+
+        String etiqueta = archivo.getFileName() + " (" + tamano / 1024 + " KB)";
+        System.out.printf("%-22s %-14s %10.0f %14.0f%n", etiqueta, nombre,
+                envios * tamano / 1e6 / (ns / 1e9), (double) reservados / envios);
+    }
+
+    // Como lo hacia manejarGET: el archivo entero al heap y un write
+    private static void anterior(Path archivo, OutputStream out, SocketChannel canal)
+            throws IOException {
+        byte[] datos;
+        try (InputStream in = new FileInputStream(archivo.toFile())) {
+            datos = in.readAllBytes();
+        }
+        out.write(datos);
+    }
+
+    // Como Respuesta.escribir con una Region: el kernel copia archivo -> socket
+    private static void nuevo(Path archivo, OutputStream out, SocketChannel canal)
+            throws IOException {
+        try (FileChannel fc = FileChannel.open(archivo, StandardOpenOption.READ)) {
+            long longitud = fc.size();
+            long enviado = 0;
+            while (enviado < longitud) {
+                enviado += fc.transferTo(enviado, longitud - enviado, canal);
+            }
+        }
+    }
+
+    private static void descartar(Socket lector) {
+        byte[] buffer = new byte[256 * 1024];
+        try (InputStream in = lector.getInputStream()) {
+            while (in.read(buffer) >= 0) {
+                // se descarta
+            }
+        } catch (IOException ignored) {}
+    }
+}
@@ -0,0 +1,173 @@
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Microbenchmarks del camino de una peticion: parseo de la cabecera,
+// busqueda del tipo MIME y armado de la cabecera de respuesta (HTTP/1.1 y
+// HPACK). Sin JMH (el proyecto no tiene build con dependencias): cada caso
+// corre rondas de calentamiento para que el JIT compile y despues rondas
+// medidas; se reporta la mediana y la mejor ronda en ns/op y los bytes
+// reservados por operacion. El resultado de cada operacion va a un
+// sumidero para que el JIT no la elimine.
+//   java BenchmarkMicro [--caso=parser|mime|cabecera|hpack] [--iteraciones=N]
+//                       [--calentamiento=N] [--rondas=N]
+public class BenchmarkMicro {
+
+    private static final byte[] PETICION = (
+            "GET /imagenes/logo.png?v=3 HTTP/1.1\r\n" +
+            "Host: localhost:8000\r\n" +
+            "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:120.0) Gecko/20100101 Firefox/120.0\r\n" +
+            "Accept: image/avif,image/webp,*/*\r\n" +
+            "Accept-Language: es-MX,es;q=0.8,en-US;q=0.5,en;q=0.3\r\n" +
+            "Accept-Encoding: gzip, deflate, br\r\n" +
+            "Connection: keep-alive\r\n" +
+            "Referer: http://localhost:8000/index.htm\r\n" +
+            "If-None-Match: \"1a2b-18c3f\"\r\n" +
+            "\r\n").getBytes();
+
+    private static final String[] NOMBRES = {
+            "index.htm", "Hola.txt", "pdf.pdf", "logo.PNG", "foto.jpeg", "app.js",
+            "estilos.css", "datos.json", "sin_extension", "archivo.desconocida"
+    };
+
+    private static final byte[] BLOQUE = ("Content-Type: text/html\r\n"
+            + "Last-Modified: Tue, 14 Oct 2025 18:02:11 GMT\r\n"
+            + "ETag: \"19a1-1760464931000\"\r\n"
+            + "Accept-Ranges: bytes\r\n"
+            + "Access-Control-Allow-Origin: *\r\n"
+            + "X-Servidor: SECUNDARIO\r\n").getBytes();
+
+    private static final ByteBuffer CUERPO = ByteBuffer.wrap(new byte[6561]);
+
+    private interface Caso {
+        long ejecutar() throws Exception;
+    }
+
+    private static final Map<String, Caso> CASOS = new LinkedHashMap<>();
+
+    static {
+        CASOS.put("parser", BenchmarkMicro::parser);
+        CASOS.put("mime", BenchmarkMicro::mime);
+        CASOS.put("cabecera-mapa", BenchmarkMicro::cabeceraMapa);
+        CASOS.put("cabecera-bloques", BenchmarkMicro::cabeceraBloques);
+        CASOS.put("hpack", BenchmarkMicro::hpack);
+    }
+
+    // Evita que el JIT elimine el trabajo
+    private static long sumidero;
+
+    public static void main(String[] args) throws Exception {
+        Opciones opciones = new Opciones(args);
+        String filtro = opciones.texto("caso", "");
+        int iteraciones = opciones.entero("iteraciones", 200_000);
+        int calentamiento = opciones.entero("calentamiento", 5);
+        int rondas = opciones.entero("rondas", 10);
+
+        System.out.printf("%-18s %12s %12s %10s%n", "caso", "mediana ns", "mejor ns", "B/op");
+        for (Map.Entry<String, Caso> e : CASOS.entrySet()) {
+            if (!e.getKey().startsWith(filtro)) {
+                continue;
+            }
+            for (int i = 0; i < calentamiento; i++) {
+                medir(iteraciones, e.getValue());
+            }
+            double[] ns = new double[rondas];
+            double bytes = 0;
+            for (int i = 0; i < rondas; i++) {
+                double[] r = medir(iteraciones, e.getValue());
+                ns[i] = r[0];
+                bytes += r[1];
+            }
+            Arrays.sort(ns);
+            System.out.printf("%-18s %12.1f %12.1f %10.1f%n", e.getKey(),
+                    ns[rondas / 2], ns[0], bytes / rondas);
+        }
+        if (sumidero == 42) {
+            System.out.println();
+        }
+    }
+
+    // {ns/op, B/op} de una ronda
+    private static double[] medir(int iteraciones, Caso caso) throws Exception {
+        com.sun.management.ThreadMXBean mx =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long hilo = Thread.currentThread().getId();
+
+        long bytesAntes = mx.getThreadAllocatedBytes(hilo);
+        long inicio = System.nanoTime();
+        for (int i = 0; i < iteraciones; i++) {
+            sumidero += caso.ejecutar();
+        }
+        long ns = System.nanoTime() - inicio;
+        long bytes = mx.getThreadAllocatedBytes(hilo) - bytesAntes;
+        return new double[]{(double) ns / iteraciones, (double) bytes / iteraciones};
+    }
+
+    // ==========================
+    // CASOS
+    // ==========================
+
+    private static final ParserHTTP PARSER = new ParserHTTP();
+
+    // Cabecera completa y las consultas que hace el servidor para un GET
+    private static long parser() {
+        PARSER.reiniciar();
+        PARSER.alimentar(PETICION, 0, PETICION.length);
+        Peticion p = new Peticion(PARSER);
+        return p.getRuta().length() + (p.aceptaKeepAlive() ? 1 : 0)
+                + (PARSER.buscar("if-none-match") >= 0 ? 1 : 0);
+    }
+
+    private static int siguienteNombre = 0;
+
+    private static long mime() {
+        siguienteNombre = (siguienteNombre + 1) % NOMBRES.length;
+        return TiposMime.compartido().buscar(NOMBRES[siguienteNombre]).length();
+    }
+
+    // Respuesta armada header por header, como los manejadores dinamicos
+    private static long cabeceraMapa() {
+        Respuesta r = new Respuesta(200, "OK")
+                .header("Content-Type", "text/html")
+                .header("Last-Modified", "Tue, 14 Oct 2025 18:02:11 GMT")
+                .header("ETag", "\"19a1-1760464931000\"")
+                .header("Accept-Ranges", "bytes")
+                .cuerpo(CUERPO.duplicate());
+        ManejadorCliente.headersConexion(r, true, 1);
+        return largo(r.cabecera());
+    }
+
+    // Respuesta con los headers ya renderizados, como sale de CacheArchivos
+    private static long cabeceraBloques() {
+        Respuesta r = new Respuesta(200, "OK").headers(BLOQUE).cuerpo(CUERPO.duplicate());
+        ManejadorCliente.headersConexion(r, true, 1);
+        return largo(r.cabecera());
+    }
+
+    private static final HPACK.Codificador CODIFICADOR = new HPACK.Codificador();
+    private static final ByteArrayOutputStream BLOQUE_HPACK = new ByteArrayOutputStream(256);
+
+    // La misma respuesta codificada para un flujo HTTP/2; desde la segunda
+    // vez casi todo sale de la tabla dinamica
+    private static long hpack() {
+        Respuesta r = new Respuesta(200, "OK").headers(BLOQUE).cuerpo(CUERPO.duplicate());
+        BLOQUE_HPACK.reset();
+        CODIFICADOR.codificar(":status", "200", BLOQUE_HPACK);
+        r.recorrerHeaders((nombre, valor) ->
+                CODIFICADOR.codificar(nombre.toLowerCase(Locale.ROOT), valor, BLOQUE_HPACK));
+        CODIFICADOR.codificar("content-length", String.valueOf(r.getLongitud()), BLOQUE_HPACK);
+        return BLOQUE_HPACK.size();
+    }
+
+    private static long largo(ByteBuffer[] buffers) {
+        long n = 0;
+        for (ByteBuffer b : buffers) {
+            n += b.remaining();
+        }
+        return n;
+    }
+}
@@ -0,0 +1,131 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+
+// Compara el parseo anterior (BufferedReader.readLine + split + HashMap)
+// contra ParserHTTP sobre la misma peticion tipica de un navegador.
+// Reporta ns por peticion y bytes reservados por peticion.
+//   java BenchmarkParser [--iteraciones=N] [--rondas=N]
+public class BenchmarkParser {
+
+    private static final byte[] PETICION = (
+            "GET /index.htm HTTP/1.1\r\n" +
+            "Host: localhost:8000\r\n" +
+            "User-Agent: Mozilla/5.0 (X11; Linux x86_64; rv:120.0) Gecko/20100101 Firefox/120.0\r\n" +
+            "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n" +
+            "Accept-Language: es-MX,es;q=0.8,en-US;q=0.5,en;q=0.3\r\n" +
+            "Accept-Encoding: gzip, deflate, br\r\n" +
+            "Connection: keep-alive\r\n" +
+            "Upgrade-Insecure-Requests: 1\r\n" +
+            "If-None-Match: \"1a2b-18c3f\"\r\n" +
+            "Cache-Control: max-age=0\r\n" +
+            "\r\n").getBytes();
+
+    // Evita que el JIT elimine el trabajo
+    private static long sumidero;
+
+    public static void main(String[] args) throws IOException {
+        Opciones opciones = new Opciones(args);
+        int iteraciones = opciones.entero("iteraciones", 500_000);
+        int rondas = opciones.entero("rondas", 5);
+
+        System.out.println("Peticion de " + PETICION.length + " bytes, "
+                + iteraciones + " iteraciones por ronda");
+        for (int r = 1; r <= rondas; r++) {
+            medir("readLine+split", iteraciones, BenchmarkParser::anterior);
+            medir("ParserHTTP    ", iteraciones, BenchmarkParser::nuevo);
+        }
+    }
+
+    private interface Caso {
+        long ejecutar() throws IOException;
+    }
+
+    private static void medir(String nombre, int iteraciones, Caso caso) throws IOException {
+        com.sun.management.ThreadMXBean mx =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long hilo = Thread.currentThread().getId();
+
+        long bytesAntes = mx.getThreadAllocatedBytes(hilo);
+        long inicio = System.nanoTime();
+        for (int i = 0; i < iteraciones; i++) {
+            sumidero += caso.ejecutar();
+        }
+        long ns = System.nanoTime() - inicio;
+        long bytes = mx.getThreadAllocatedBytes(hilo) - bytesAntes;
+
+        System.out.printf("%s  %8.1f ns/op  %8.1f B/op%n", nombre,
+                (double) ns / iteraciones, (double) bytes / iteraciones);
+    }
+
+    // Como lo hacia ManejadorCliente: un Reader por conexion (aqui una
+    // conexion infinita que repite la peticion), una String por linea y un
+    // split por header. El servidor ya no tiene este parser: vive aqui
+    // solo como referencia
+    private static final BufferedReader LECTOR = new BufferedReader(
+            new InputStreamReader(new Repetida(PETICION)));
+
+    private static long anterior() throws IOException {
+        BufferedReader in = LECTOR;
+        String[] partes = in.readLine().split(" ");
+        Peticion p = new Peticion(partes[0],
+                partes.length > 1 ? partes[1] : "/",
+                partes.length > 2 ? partes[2] : "HTTP/1.0");
+        String linea;
+        while ((linea = in.readLine()) != null && !linea.isEmpty()) {
+            int dosPuntos = linea.indexOf(':');
+            if (dosPuntos > 0) {
+                p.agregarHeader(linea.substring(0, dosPuntos).trim(),
+                        linea.substring(dosPuntos + 1).trim());
+            }
+        }
+        return consultar(p);
+    }
+
+    private static final ParserHTTP PARSER = new ParserHTTP();
+
+    private static long nuevo() {
+        PARSER.reiniciar();
+        PARSER.alimentar(PETICION, 0, PETICION.length);
+        return consultar(new Peticion(PARSER));
+    }
+
+    // Devuelve los mismos bytes una y otra vez, como pipelining sin fin
+    private static class Repetida extends InputStream {
+        private final byte[] datos;
+        private int pos;
+
+        Repetida(byte[] datos) {
+            this.datos = datos;
+        }
+
+        @Override
+        public int read() {
+            int b = datos[pos] & 0xff;
+            pos = (pos + 1) % datos.length;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            int n = Math.min(len, datos.length - pos);
+            System.arraycopy(datos, pos, b, off, n);
+            pos = (pos + n) % datos.length;
+            return n;
+        }
+    }
+
+    // Las consultas que hace el servidor para un GET
+    private static long consultar(Peticion p) {
+        long n = p.getContentLength();
+        if (p.esChunked()) {
+            n++;
+        }
+        if (p.aceptaKeepAlive()) {
+            n++;
+        }
+        return n + p.getRecurso().length();
+    }
+}
@@ -0,0 +1,215 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Cache LRU de archivos estaticos limitada por el total de bytes. Cada
+// entrada guarda los headers ya renderizados y el cuerpo; los cuerpos
+// grandes van fuera del heap (ByteBuffer directo). Una entrada se invalida
+// si cambia la fecha de modificacion o el tamano del archivo, o cuando
+// PUT/DELETE la quitan explicitamente. Ademas del archivo tal cual se
+// guardan variantes: comprimidas al vuelo ("gzip", "deflate") o un hermano
+// .gz/.br servido como Content-Encoding de otro recurso.
+public class CacheArchivos {
+
+    private static final long TAM_DEFECTO = 64L * 1024 * 1024;
+    // Cuerpos desde este tamano se guardan en memoria directa
+    private static final int MIN_DIRECTO = 64 * 1024;
+    // Un ByteBuffer no pasa de un int (con margen para el encabezado del arreglo)
+    private static final long MAX_BUFFER = Integer.MAX_VALUE - 8;
+
+    private static final String[] VARIANTES = {"", "gzip", "deflate", "br"};
+
+    private static volatile CacheArchivos compartida = new CacheArchivos(TAM_DEFECTO);
+
+    public static class Entrada {
+        final byte[] headers;
+        final ByteBuffer cuerpo;
+        final String mime;
+        // Fecha y tamano del archivo de origen, para validar la entrada
+        final long modificado;
+        final long tamano;
+
+        Entrada(byte[] headers, ByteBuffer cuerpo, String mime, long modificado, long tamano) {
+            this.headers = headers;
+            this.cuerpo = cuerpo;
+            this.mime = mime;
+            this.modificado = modificado;
+            this.tamano = tamano;
+        }
+
+        // Cada respuesta lee su propia vista del cuerpo
+        public ByteBuffer cuerpo() {
+            return cuerpo.duplicate();
+        }
+
+        public byte[] getHeaders() {
+            return headers;
+        }
+
+        public String getMime() {
+            return mime;
+        }
+
+        public long getModificado() {
+            return modificado;
+        }
+
+        public long getTamano() {
+            return tamano;
+        }
+    }
+
+    private final long maxBytes;
+    private final long maxEntrada;
+    private long bytesUsados = 0;
+
+    // accessOrder = true: iterar empieza por la entrada menos usada
+    private final LinkedHashMap<String, Entrada> entradas = new LinkedHashMap<>(64, 0.75f, true);
+
+    public CacheArchivos(long maxBytes) {
+        this.maxBytes = maxBytes;
+        // Un solo archivo no puede desplazar a todo lo demas
+        this.maxEntrada = Math.min(maxBytes / 8, MAX_BUFFER);
+    }
+
+    public static CacheArchivos compartida() {
+        return compartida;
+    }
+
+    // --cache-mb=N en los servidores; 0 desactiva la cache
+    public static void configurar(long maxBytes) {
+        compartida = new CacheArchivos(maxBytes);
+    }
+
+    // Cache propia para cada uno de 'partes' oyentes (--oyentes=N): el
+    // mismo presupuesto total repartido, sin lock compartido entre ellos
+    public CacheArchivos particion(int partes) {
+        return new CacheArchivos(maxBytes / partes);
+    }
+
+    public boolean admite(long tamano) {
+        return tamano <= maxEntrada;
+    }
+
+    private static String clave(Path ruta, String variante) {
+        return variante.isEmpty() ? ruta.toString() : ruta + "#" + variante;
+    }
+
+    // Fecha y tamano de un archivo regular con una sola consulta al disco;
+    // null si no existe o no es un archivo
+    public static BasicFileAttributes atributos(Path ruta) {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(ruta, BasicFileAttributes.class);
+            return attrs.isRegularFile() ? attrs : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public Entrada obtener(Path ruta) {
+        return obtener(ruta, "");
+    }
+
+    // Devuelve la entrada si sigue vigente respecto al archivo en disco
+    public Entrada obtener(Path ruta, String variante) {
+        Entrada e;
+        synchronized (this) {
+            e = entradas.get(clave(ruta, variante));
+        }
+        if (e == null) {
+            return null;
+        }
+
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(ruta, BasicFileAttributes.class);
+            if (attrs.lastModifiedTime().toMillis() == e.modificado && attrs.size() == e.tamano) {
+                return e;
+            }
+        } catch (NoSuchFileException borrado) {
+            // se invalida abajo
+        } catch (IOException ex) {
+            return null;
+        }
+        quitar(clave(ruta, variante));
+        return null;
+    }
+
+    // Lee el archivo completo desde el canal ya abierto y lo guarda. La fecha
+    // de modificacion es la que el llamador uso para armar los headers
+    public Entrada cargar(Path ruta, String variante, FileChannel canal, String mime,
+                          long modificado, byte[] headers) throws IOException {
+
+        // El archivo pudo crecer desde que el llamador reviso admite()
+        long largo = canal.size();
+        if (largo > maxEntrada) {
+            throw new IOException("Archivo demasiado grande para la cache: " + ruta);
+        }
+        int tamano = (int) largo;
+
+        ByteBuffer cuerpo = tamano >= MIN_DIRECTO
+                ? ByteBuffer.allocateDirect(tamano)
+                : ByteBuffer.allocate(tamano);
+        while (cuerpo.hasRemaining()) {
+            if (canal.read(cuerpo, cuerpo.position()) < 0) {
+                break;
+            }
+        }
+        cuerpo.flip();
+
+        Entrada e = new Entrada(headers, cuerpo.asReadOnlyBuffer(),
+                mime, modificado, cuerpo.limit());
+        guardar(clave(ruta, variante), e);
+        return e;
+    }
+
+    // Guarda una version derivada del archivo (p. ej. comprimida). Si no cabe
+    // se devuelve igual para atender la peticion, pero no se retiene
+    public Entrada guardarVariante(Path ruta, String variante, byte[] datos, byte[] headers,
+                                   String mime, long modificado, long tamanoOrigen) {
+
+        ByteBuffer cuerpo = datos.length >= MIN_DIRECTO
+                ? ByteBuffer.allocateDirect(datos.length).put(datos).flip()
+                : ByteBuffer.wrap(datos);
+        Entrada e = new Entrada(headers, cuerpo.asReadOnlyBuffer(), mime, modificado, tamanoOrigen);
+        if (admite(datos.length)) {
+            guardar(clave(ruta, variante), e);
+        }
+        return e;
+    }
+
+    private synchronized void guardar(String clave, Entrada e) {
+        Entrada anterior = entradas.put(clave, e);
+        if (anterior != null) {
+            bytesUsados -= anterior.cuerpo.capacity();
+        }
+        bytesUsados += e.cuerpo.capacity();
+
+        Iterator<Map.Entry<String, Entrada>> it = entradas.entrySet().iterator();
+        while (bytesUsados > maxBytes && it.hasNext()) {
+            Map.Entry<String, Entrada> lru = it.next();
+            bytesUsados -= lru.getValue().cuerpo.capacity();
+            it.remove();
+        }
+    }
+
+    // Quita el archivo y todas sus variantes
+    public void invalidar(Path ruta) {
+        for (String variante : VARIANTES) {
+            quitar(clave(ruta, variante));
+        }
+    }
+
+    private synchronized void quitar(String clave) {
+        Entrada e = entradas.remove(clave);
+        if (e != null) {
+            bytesUsados -= e.cuerpo.capacity();
+        }
+    }
+}
@@ -0,0 +1,269 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+
+// TLS con SSLEngine sobre un SocketChannel no bloqueante, para ServidorNIO.
+// Por fuera se usa como el socket: read() devuelve texto en claro y
+// write() cifra lo que el socket alcance a llevar; ninguno bloquea. El
+// handshake avanza solo dentro de read() a medida que llegan registros.
+// write() solo acepta texto nuevo cuando ya salio todo lo cifrado antes,
+// asi lo que devuelve es exactamente lo que se consumio (lo que espera
+// FileChannel.transferTo). Las tareas delegadas del handshake (firmas,
+// claves) se corren en el mismo hilo del trabajador.
+public class CanalTLS implements ReadableByteChannel, GatheringByteChannel {
+
+    private final SocketChannel canal;
+    private final SSLEngine motor;
+
+    // Registros recibidos sin descifrar (modo escritura)
+    private ByteBuffer redEntrada;
+    // Texto en claro ya descifrado y no entregado (modo lectura)
+    private ByteBuffer claro;
+    // Registros cifrados pendientes de salir (modo lectura)
+    private ByteBuffer redSalida;
+
+    private final long inicio = System.nanoTime();
+    private boolean establecido = false;
+    private boolean finRemoto = false;
+
+    public CanalTLS(SocketChannel canal, SSLEngine motor) throws SSLException {
+        this.canal = canal;
+        this.motor = motor;
+        int registro = motor.getSession().getPacketBufferSize();
+        this.redEntrada = ByteBuffer.allocate(registro);
+        this.claro = ByteBuffer.allocate(motor.getSession().getApplicationBufferSize());
+        this.claro.flip();
+        this.redSalida = ByteBuffer.allocate(registro);
+        this.redSalida.flip();
+        motor.beginHandshake();
+    }
+
+    // ==========================
+    // LECTURA
+    // ==========================
+
+    // Llena dst con lo que ya este descifrado o se pueda descifrar de lo
+    // que hay en el socket. 0 = nada todavia (o handshake en curso)
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        int n = 0;
+        while (dst.hasRemaining()) {
+            if (claro.hasRemaining()) {
+                n += copiar(claro, dst);
+                continue;
+            }
+            if (finRemoto) {
+                return n > 0 ? n : -1;
+            }
+            if (!descifrar()) {
+                break;
+            }
+        }
+        return n;
+    }
+
+    // true si descifrar de nuevo puede dar algo sin esperar al socket
+    public boolean hayDatos() {
+        return claro.hasRemaining() || redEntrada.position() > 0;
+    }
+
+    // Un paso: unwrap de lo que haya y, si falta un registro completo, una
+    // lectura del socket. false = no se puede avanzar sin mas bytes
+    private boolean descifrar() throws IOException {
+        redEntrada.flip();
+        claro.compact();
+        SSLEngineResult r;
+        try {
+            r = motor.unwrap(redEntrada, claro);
+        } finally {
+            redEntrada.compact();
+            claro.flip();
+        }
+        avanzarHandshake(r.getHandshakeStatus());
+
+        switch (r.getStatus()) {
+            case OK:
+                return true;
+            case CLOSED:
+                finRemoto = true;
+                return true;
+            case BUFFER_OVERFLOW:
+                claro = agrandar(claro, motor.getSession().getApplicationBufferSize(), true);
+                return true;
+            case BUFFER_UNDERFLOW:
+            default:
+                if (!redEntrada.hasRemaining()) {
+                    redEntrada = agrandar(redEntrada, motor.getSession().getPacketBufferSize(), false);
+                }
+                int leidos = canal.read(redEntrada);
+                if (leidos < 0) {
+                    finRemoto = true;
+                    return true;
+                }
+                return leidos > 0;
+        }
+    }
+
+    // ==========================
+    // ESCRITURA
+    // ==========================
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        return (int) write(new ByteBuffer[]{src}, 0, 1);
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException {
+        return write(srcs, 0, srcs.length);
+    }
+
+    // Cifra registros mientras el socket los acepte completos; devuelve los
+    // bytes en claro consumidos
+    @Override
+    public long write(ByteBuffer[] srcs, int desde, int cuantos) throws IOException {
+        long consumidos = 0;
+        while (vaciar() && quedan(srcs, desde, cuantos)) {
+            redSalida.compact();
+            SSLEngineResult r;
+            try {
+                r = motor.wrap(srcs, desde, cuantos, redSalida);
+            } finally {
+                redSalida.flip();
+            }
+            consumidos += r.bytesConsumed();
+            if (r.getStatus() == SSLEngineResult.Status.CLOSED) {
+                throw new ClosedChannelException();
+            }
+            if (r.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                redSalida = agrandar(redSalida, motor.getSession().getPacketBufferSize(), true);
+                continue;
+            }
+            avanzarHandshake(r.getHandshakeStatus());
+            if (r.bytesConsumed() == 0 && r.bytesProduced() == 0) {
+                // Handshake sin terminar: hay que esperar registros del cliente
+                break;
+            }
+        }
+        return consumidos;
+    }
+
+    // Manda lo cifrado pendiente; true si ya no queda nada
+    public boolean vaciar() throws IOException {
+        while (redSalida.hasRemaining()) {
+            if (canal.write(redSalida) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean quedan(ByteBuffer[] srcs, int desde, int cuantos) {
+        for (int i = desde; i < desde + cuantos; i++) {
+            if (srcs[i].hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ==========================
+    // HANDSHAKE
+    // ==========================
+
+    // Lo que el motor necesite para seguir: correr tareas o mandar registros
+    // propios (ServerHello, Finished, tickets de TLS 1.3)
+    private void avanzarHandshake(SSLEngineResult.HandshakeStatus estado) throws IOException {
+        while (true) {
+            switch (estado) {
+                case NEED_TASK:
+                    Runnable tarea;
+                    while ((tarea = motor.getDelegatedTask()) != null) {
+                        tarea.run();
+                    }
+                    estado = motor.getHandshakeStatus();
+                    break;
+                case NEED_WRAP:
+                    redSalida.compact();
+                    SSLEngineResult r;
+                    try {
+                        r = motor.wrap(ByteBuffer.allocate(0), redSalida);
+                    } finally {
+                        redSalida.flip();
+                    }
+                    if (r.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                        redSalida = agrandar(redSalida, motor.getSession().getPacketBufferSize(), true);
+                    } else if (r.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        vaciar();
+                        return;
+                    }
+                    vaciar();
+                    estado = r.getHandshakeStatus();
+                    break;
+                case FINISHED:
+                    if (!establecido) {
+                        establecido = true;
+                        ServidorTLS.registrarHandshake(motor.getSession(), System.nanoTime() - inicio);
+                    }
+                    return;
+                default:
+                    // NEED_UNWRAP: hacen falta registros del cliente
+                    return;
+            }
+        }
+    }
+
+    // Lo cifrado que no salio en avanzarHandshake queda para OP_WRITE
+    public boolean haySalida() {
+        return redSalida.hasRemaining();
+    }
+
+    // ==========================
+    // UTILIDADES
+    // ==========================
+
+    private static int copiar(ByteBuffer desde, ByteBuffer hacia) {
+        int n = Math.min(desde.remaining(), hacia.remaining());
+        ByteBuffer trozo = desde.duplicate();
+        trozo.limit(trozo.position() + n);
+        hacia.put(trozo);
+        desde.position(desde.position() + n);
+        return n;
+    }
+
+    // Buffer mas grande con el mismo contenido; 'lectura' = esta en modo lectura
+    private static ByteBuffer agrandar(ByteBuffer buf, int minimo, boolean lectura) {
+        ByteBuffer nuevo = ByteBuffer.allocate(Math.max(minimo, buf.capacity()) + buf.capacity());
+        if (!lectura) {
+            buf.flip();
+        }
+        nuevo.put(buf);
+        if (lectura) {
+            nuevo.flip();
+        }
+        return nuevo;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return canal.isOpen();
+    }
+
+    // close_notify de cortesia, sin esperar la respuesta del cliente
+    @Override
+    public void close() throws IOException {
+        try {
+            motor.closeOutbound();
+            avanzarHandshake(motor.getHandshakeStatus());
+        } catch (IOException ignored) {
+        } finally {
+            canal.close();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Negociacion de Accept-Encoding para los tipos de texto. br solo se sirve
+// si existe el hermano precomprimido (.br); gzip tambien puede venir de un
+// .gz o generarse al vuelo, y deflate siempre se genera al vuelo.
+public class Compresion {
+
+    // Respuestas pequenas no ganan nada: el header ocupa mas que el ahorro
+    public static final long MIN_TAMANO = 1024;
+    // Lo comprimido al vuelo se arma en memoria para guardarlo en la cache
+    public static final long MAX_AL_VUELO = 16L * 1024 * 1024;
+
+    // En orden de preferencia del servidor
+    public static final String[] PRECOMPRIMIDAS = {"br", "gzip"};
+    public static final String[] AL_VUELO = {"gzip", "deflate"};
+
+    public static boolean esComprimible(String mime) {
+        return mime.startsWith("text/")
+                || mime.equals("application/json")
+                || mime.equals("application/javascript")
+                || mime.equals("application/xml")
+                || mime.equals("image/svg+xml");
+    }
+
+    // true si el cliente acepta la codificacion (q > 0, directa o por "*")
+    public static boolean acepta(String acceptEncoding, String codificacion) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        boolean porComodin = false;
+        for (String opcion : acceptEncoding.split(",")) {
+            String[] partes = opcion.trim().split(";");
+            String nombre = partes[0].trim().toLowerCase();
+            boolean permitida = calidad(partes) > 0;
+            if (nombre.equals(codificacion)) {
+                return permitida;
+            }
+            if (nombre.equals("*")) {
+                porComodin = permitida;
+            }
+        }
+        return porComodin;
+    }
+
+    private static double calidad(String[] partes) {
+        for (int i = 1; i < partes.length; i++) {
+            String p = partes[i].trim();
+            if (p.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(p.substring(2));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    public static String extension(String codificacion) {
+        return codificacion.equals("br") ? ".br" : ".gz";
+    }
+
+    public static byte[] comprimir(Path archivo, String codificacion) throws IOException {
+        ByteArrayOutputStream destino = new ByteArrayOutputStream();
+        try (InputStream in = Files.newInputStream(archivo);
+             OutputStream out = codificacion.equals("gzip")
+                     ? new GZIPOutputStream(destino, 16 * 1024)
+                     : new DeflaterOutputStream(destino)) {
+            in.transferTo(out);
+        }
+        return destino.toByteArray();
+    }
+}
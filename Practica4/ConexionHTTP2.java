@@ -0,0 +1,1059 @@
+import java.io.*;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// HTTP/2 (RFC 9113) sobre el socket de un ManejadorCliente: h2c en claro o
+// h2 negociado por ALPN en el puerto TLS (ServidorTLS).
+// El hilo de la conexion solo lee frames; cada flujo (peticion) se atiende
+// en otro hilo con el mismo ManejadorCliente.atender() de HTTP/1.1, asi
+// varias descargas comparten un socket. Las respuestas salen intercaladas
+// en frames DATA de a lo sumo 16 KB, respetando las ventanas de control
+// de flujo del cliente; las del cliente se reabren a medida que los
+// manejadores leen los cuerpos.
+public class ConexionHTTP2 {
+
+    public static final String VERSION = "HTTP/2.0";
+
+    // "PRI * HTTP/2.0\r\n\r\n" lo lee ParserHTTP como una peticion sin
+    // headers; lo que sigue es el resto del prefacio
+    private static final byte[] PREFACIO = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes();
+    private static final int RESTO_PREFACIO = 6;
+
+    // Tipos de frame
+    private static final int DATA = 0x0;
+    private static final int HEADERS = 0x1;
+    private static final int PRIORITY = 0x2;
+    private static final int RST_STREAM = 0x3;
+    private static final int SETTINGS = 0x4;
+    private static final int PUSH_PROMISE = 0x5;
+    private static final int PING = 0x6;
+    private static final int GOAWAY = 0x7;
+    private static final int WINDOW_UPDATE = 0x8;
+    private static final int CONTINUATION = 0x9;
+
+    // Flags
+    private static final int FIN_FLUJO = 0x1;      // END_STREAM (ACK en SETTINGS y PING)
+    private static final int FIN_HEADERS = 0x4;
+    private static final int RELLENO = 0x8;
+    private static final int PRIORIDAD = 0x20;
+
+    // Codigos de error
+    private static final int SIN_ERROR = 0x0;
+    private static final int ERROR_PROTOCOLO = 0x1;
+    private static final int ERROR_INTERNO = 0x2;
+    private static final int ERROR_CONTROL_FLUJO = 0x3;
+    private static final int FLUJO_CERRADO = 0x5;
+    private static final int ERROR_TAMANO_FRAME = 0x6;
+    private static final int FLUJO_RECHAZADO = 0x7;
+    private static final int ERROR_COMPRESION = 0x9;
+    private static final int CALMA = 0xb;          // ENHANCE_YOUR_CALM
+
+    // SETTINGS
+    private static final int AJUSTE_TAM_TABLA = 0x1;
+    private static final int AJUSTE_MAX_FLUJOS = 0x3;
+    private static final int AJUSTE_VENTANA_INICIAL = 0x4;
+    private static final int AJUSTE_TAM_FRAME = 0x5;
+    private static final int AJUSTE_MAX_LISTA = 0x6;
+
+    private static final int TAM_FRAME = 16 * 1024;
+    private static final int MAX_FLUJOS = 100;
+    private static final int VENTANA_DEFECTO = 65535;
+    private static final long VENTANA_MAXIMA = Integer.MAX_VALUE;
+    // Lo que un cliente puede mandar sin que nadie lo lea: por flujo y en
+    // total. Se reabre al consumir la mitad
+    private static final int VENTANA_FLUJO = 1024 * 1024;
+    private static final int VENTANA_CONEXION = 8 * 1024 * 1024;
+    private static final int MAX_LISTA_HEADERS = ParserHTTP.MAX_CABECERA;
+    private static final int MAX_BLOQUE_HEADERS = 4 * MAX_LISTA_HEADERS;
+    // Cuanto espera un envio a que el cliente abra la ventana
+    private static final long TIEMPO_VENTANA = 30000;
+
+    // Headers de HTTP/1.1 que no existen en HTTP/2 (RFC 9113, 8.2.2)
+    private static final String[] DE_CONEXION = {
+        "connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade"
+    };
+
+    // Los flujos de todas las conexiones comparten hilos; cada conexion
+    // tiene a lo sumo MAX_FLUJOS en curso
+    private static final ExecutorService flujosEnCurso = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "h2-flujo");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Socket socket;
+    private final EntradaHTTP in;
+    private final OutputStream out;
+    private final ManejadorCliente manejador;
+
+    private final Map<Integer, Flujo> flujos = new ConcurrentHashMap<>();
+    private int ultimoId = 0;
+
+    // Lectura (solo el hilo de la conexion)
+    private final byte[] cabecera = new byte[9];
+    private final byte[] carga = new byte[TAM_FRAME];
+    private final HPACK.Decodificador decodificador = new HPACK.Decodificador();
+    private final ByteArrayOutputStream bloque = new ByteArrayOutputStream();
+    private int flujoBloque;          // flujo cuyo bloque de headers sigue en CONTINUATION
+    private int flagsBloque;
+
+    // Escritura: un frame completo a la vez, bajo este lock
+    private final Object salida = new Object();
+    private final byte[] cabeceraSalida = new byte[9];
+    private final HPACK.Codificador codificador = new HPACK.Codificador();
+    private final ByteArrayOutputStream bloqueSalida = new ByteArrayOutputStream();
+
+    // Control de flujo, bajo el lock de la conexion (this)
+    private long ventanaEnvio = VENTANA_DEFECTO;
+    private long ventanaInicialEnvio = VENTANA_DEFECTO;
+    private long ventanaRecepcion = VENTANA_CONEXION;
+    private int consumidoSinAvisar = 0;
+    // El cliente mando GOAWAY: no abrira mas flujos
+    private boolean finCliente = false;
+    private volatile boolean cerrada = false;
+
+    public ConexionHTTP2(Socket socket, EntradaHTTP in, OutputStream out,
+                         ManejadorCliente manejador) {
+        this.socket = socket;
+        this.in = in;
+        this.out = out;
+        this.manejador = manejador;
+    }
+
+    // Atiende la conexion hasta que el cliente la cierra, manda GOAWAY o
+    // queda inactiva. Con Upgrade: h2c, 'inicial' es la peticion HTTP/1.1
+    // que la abrio (flujo 1) y 'ajustes' su header HTTP2-Settings
+    public void servir(Peticion inicial, String ajustes) throws IOException {
+        Metricas.global().conexionHTTP2();
+        try {
+            if (ajustes != null) {
+                byte[] datos = Base64.getUrlDecoder().decode(ajustes.trim());
+                aplicarAjustes(datos, datos.length);
+            }
+            enviarAjustes();
+            if (inicial != null) {
+                // La respuesta puede salir antes de que llegue el prefacio
+                ultimoId = 1;
+                Flujo f = new Flujo(1);
+                terminarCuerpo(f);
+                flujos.put(1, f);
+                despachar(f, inicial, 0);
+                leerPrefacio(0);
+            } else {
+                leerPrefacio(PREFACIO.length - RESTO_PREFACIO);
+            }
+
+            while (!(finCliente && flujos.isEmpty()) && leerFrame()) {
+                procesarFrame();
+            }
+            goaway(SIN_ERROR);
+        } catch (ErrorConexion e) {
+            goaway(e.codigo);
+        } catch (IllegalArgumentException e) {
+            // HTTP2-Settings que no es base64url
+            goaway(ERROR_PROTOCOLO);
+        } finally {
+            synchronized (this) {
+                cerrada = true;
+                notifyAll();
+            }
+            // Un cuerpo que no termino de llegar ya no va a llegar
+            for (Flujo f : flujos.values()) {
+                if (!f.finRemoto) {
+                    f.cuerpo.cancelar();
+                }
+            }
+            esperarFlujos();
+        }
+    }
+
+    private void leerPrefacio(int desde) throws IOException {
+        byte[] leido = new byte[PREFACIO.length - desde];
+        leerCompleto(leido, leido.length);
+        for (int i = 0; i < leido.length; i++) {
+            if (leido[i] != PREFACIO[desde + i]) {
+                throw new ErrorConexion(ERROR_PROTOCOLO);
+            }
+        }
+    }
+
+    // ==========================
+    // LECTURA DE FRAMES
+    // ==========================
+
+    // false si el cliente cerro o la conexion quedo inactiva sin flujos
+    private boolean leerFrame() throws IOException {
+        int primero;
+        while (true) {
+            try {
+                primero = in.read();
+                break;
+            } catch (SocketTimeoutException e) {
+                // Con flujos en curso el cliente puede estar solo esperando
+                if (flujos.isEmpty()) {
+                    return false;
+                }
+            }
+        }
+        if (primero < 0) {
+            return false;
+        }
+        cabecera[0] = (byte) primero;
+        leerCompleto(cabecera, 1, 8);
+        int largo = largo();
+        if (largo > TAM_FRAME) {
+            throw new ErrorConexion(ERROR_TAMANO_FRAME);
+        }
+        leerCompleto(carga, largo);
+        return true;
+    }
+
+    private void leerCompleto(byte[] b, int n) throws IOException {
+        leerCompleto(b, 0, n);
+    }
+
+    // A mitad de un frame se sigue esperando aunque venza el timeout
+    private void leerCompleto(byte[] b, int desde, int n) throws IOException {
+        while (n > 0) {
+            int leidos;
+            try {
+                leidos = in.read(b, desde, n);
+            } catch (SocketTimeoutException e) {
+                continue;
+            }
+            if (leidos < 0) {
+                throw new EOFException("Conexion HTTP/2 cerrada a mitad de un frame");
+            }
+            desde += leidos;
+            n -= leidos;
+        }
+    }
+
+    private int largo() {
+        return (cabecera[0] & 0xff) << 16 | (cabecera[1] & 0xff) << 8 | (cabecera[2] & 0xff);
+    }
+
+    private int tipo() {
+        return cabecera[3] & 0xff;
+    }
+
+    private int flags() {
+        return cabecera[4] & 0xff;
+    }
+
+    private int idFlujo() {
+        return entero(cabecera, 5) & 0x7fffffff;
+    }
+
+    private static int entero(byte[] b, int i) {
+        return (b[i] & 0xff) << 24 | (b[i + 1] & 0xff) << 16 | (b[i + 2] & 0xff) << 8 | (b[i + 3] & 0xff);
+    }
+
+    private void procesarFrame() throws IOException {
+        int tipo = tipo();
+        int id = idFlujo();
+        int largo = largo();
+
+        // Un bloque de headers partido no admite otros frames en medio
+        if (flujoBloque != 0 && (tipo != CONTINUATION || id != flujoBloque)) {
+            throw new ErrorConexion(ERROR_PROTOCOLO);
+        }
+
+        switch (tipo) {
+            case DATA:
+                recibirDatos(id, largo);
+                break;
+            case HEADERS:
+                recibirHeaders(id, largo);
+                break;
+            case CONTINUATION:
+                if (flujoBloque == 0) {
+                    throw new ErrorConexion(ERROR_PROTOCOLO);
+                }
+                agregarBloque(0, largo);
+                break;
+            case PRIORITY:
+                // Se atiende en orden de llegada: la prioridad se ignora
+                if (id == 0) {
+                    throw new ErrorConexion(ERROR_PROTOCOLO);
+                }
+                break;
+            case RST_STREAM:
+                recibirReset(id, largo);
+                break;
+            case SETTINGS:
+                recibirAjustes(id, largo);
+                break;
+            case PUSH_PROMISE:
+                throw new ErrorConexion(ERROR_PROTOCOLO);
+            case PING:
+                if (id != 0) {
+                    throw new ErrorConexion(ERROR_PROTOCOLO);
+                }
+                if (largo != 8) {
+                    throw new ErrorConexion(ERROR_TAMANO_FRAME);
+                }
+                if ((flags() & FIN_FLUJO) == 0) {
+                    escribirFrame(PING, FIN_FLUJO, 0, carga, 0, 8);
+                }
+                break;
+            case GOAWAY:
+                // Se terminan los flujos que hay (leyendo sus WINDOW_UPDATE)
+                // y se cierra
+                finCliente = true;
+                break;
+            case WINDOW_UPDATE:
+                recibirVentana(id, largo);
+                break;
+            default:
+                // Tipos desconocidos se ignoran (RFC 9113, 4.1)
+                break;
+        }
+    }
+
+    private void recibirHeaders(int id, int largo) throws IOException {
+        if (id == 0 || id % 2 == 0) {
+            throw new ErrorConexion(ERROR_PROTOCOLO);
+        }
+        int flags = flags();
+        int desde = 0;
+        if ((flags & RELLENO) != 0) {
+            if (largo < 1) {
+                throw new ErrorConexion(ERROR_PROTOCOLO);
+            }
+            largo -= carga[0] & 0xff;
+            desde = 1;
+        }
+        if ((flags & PRIORIDAD) != 0) {
+            desde += 5;
+        }
+        if (largo < desde) {
+            throw new ErrorConexion(ERROR_PROTOCOLO);
+        }
+        bloque.reset();
+        flujoBloque = id;
+        flagsBloque = flags;
+        agregarBloque(desde, largo);
+    }
+
+    // HEADERS + CONTINUATION se juntan antes de decodificar
+    private void agregarBloque(int desde, int hasta) throws IOException {
+        if (bloque.size() + hasta - desde > MAX_BLOQUE_HEADERS) {
+            throw new ErrorConexion(CALMA);
+        }
+        bloque.write(carga, desde, hasta - desde);
+        if ((flags() & FIN_HEADERS) != 0) {
+            int id = flujoBloque;
+            flujoBloque = 0;
+            terminarHeaders(id, (flagsBloque & FIN_FLUJO) != 0);
+        }
+    }
+
+    private void terminarHeaders(int id, boolean finFlujo) throws IOException {
+        List<String[]> headers;
+        try {
+            headers = decodificador.decodificar(bloque.toByteArray(), bloque.size());
+        } catch (IOException e) {
+            throw new ErrorConexion(ERROR_COMPRESION);
+        }
+
+        if (id <= ultimoId) {
+            // Trailers de un cuerpo: solo marcan el fin
+            Flujo f = flujos.get(id);
+            if (f == null || f.finRemoto || !finFlujo) {
+                reset(id, f == null ? FLUJO_CERRADO : ERROR_PROTOCOLO);
+                return;
+            }
+            terminarCuerpo(f);
+            return;
+        }
+        ultimoId = id;
+
+        if (flujos.size() >= MAX_FLUJOS) {
+            reset(id, FLUJO_RECHAZADO);
+            return;
+        }
+        Peticion peticion = peticion(headers);
+        if (peticion == null) {
+            reset(id, ERROR_PROTOCOLO);
+            return;
+        }
+
+        Flujo f = new Flujo(id);
+        flujos.put(id, f);
+        if (finFlujo) {
+            terminarCuerpo(f);
+        } else if (peticion.getHeader("content-length") == null) {
+            // Cuerpo de largo desconocido: los manejadores lo tratan igual
+            // que uno chunked (POST a disco, el proxy lo reenvia en chunks)
+            peticion.agregarHeader("transfer-encoding", "chunked");
+        }
+        peticion.setCuerpo(f.cuerpo);
+        despachar(f, peticion, decodificador.tamanoLista() > MAX_LISTA_HEADERS
+                ? ParserHTTP.CABECERA_GRANDE : 0);
+    }
+
+    // Pseudo-headers primero, nombres en minusculas y sin headers de
+    // conexion; si no, la peticion esta mal formada (null)
+    private static Peticion peticion(List<String[]> headers) {
+        String metodo = null;
+        String ruta = null;
+        String autoridad = null;
+        int i = 0;
+        for (; i < headers.size() && headers.get(i)[0].startsWith(":"); i++) {
+            String[] h = headers.get(i);
+            switch (h[0]) {
+                case ":method":
+                    metodo = h[1];
+                    break;
+                case ":path":
+                    ruta = h[1];
+                    break;
+                case ":authority":
+                    autoridad = h[1];
+                    break;
+                case ":scheme":
+                    break;
+                default:
+                    return null;
+            }
+        }
+        if (metodo == null || ruta == null || ruta.isEmpty()) {
+            return null;
+        }
+
+        // HPACK entrega octetos; la ruta se interpreta como en ParserHTTP
+        ruta = new String(ruta.getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+        Peticion p = new Peticion(metodo, ruta, VERSION);
+        if (autoridad != null) {
+            p.agregarHeader("host", autoridad);
+        }
+        for (; i < headers.size(); i++) {
+            String nombre = headers.get(i)[0];
+            String valor = headers.get(i)[1];
+            if (nombre.startsWith(":") || !nombre.equals(nombre.toLowerCase(Locale.ROOT))
+                    || esDeConexion(nombre)
+                    || (nombre.equals("te") && !valor.equals("trailers"))) {
+                return null;
+            }
+            p.agregarHeader(nombre, valor);
+        }
+        return p;
+    }
+
+    private static boolean esDeConexion(String nombre) {
+        for (String h : DE_CONEXION) {
+            if (h.equals(nombre)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void recibirDatos(int id, int largo) throws IOException {
+        if (id == 0 || id > ultimoId) {
+            throw new ErrorConexion(ERROR_PROTOCOLO);
+        }
+        int desde = 0;
+        int hasta = largo;
+        if ((flags() & RELLENO) != 0) {
+            if (largo < 1 || (carga[0] & 0xff) >= largo) {
+                throw new ErrorConexion(ERROR_PROTOCOLO);
+            }
+            desde = 1;
+            hasta = largo - (carga[0] & 0xff);
+        }
+
+        Flujo f = flujos.get(id);
+        synchronized (this) {
+            ventanaRecepcion -= largo;
+            if (ventanaRecepcion < 0) {
+                throw new ErrorConexion(ERROR_CONTROL_FLUJO);
+            }
+            if (f != null) {
+                f.ventanaRecepcion -= largo;
+            }
+        }
+
+        if (f == null || f.finRemoto) {
+            // Flujo ya respondido (o reseteado): los datos se tiran, pero
+            // siguen contando para la ventana de la conexion
+            consumido(null, largo);
+            if (f != null) {
+                reset(id, FLUJO_CERRADO);
+            }
+            return;
+        }
+        if (f.ventanaRecepcion < 0) {
+            consumido(null, largo);
+            reset(id, ERROR_CONTROL_FLUJO);
+            cancelar(f);
+            return;
+        }
+
+        // El relleno se da por leido en el momento
+        if (hasta - desde > 0) {
+            f.cuerpo.recibir(Arrays.copyOfRange(carga, desde, hasta));
+        }
+        if (largo - (hasta - desde) > 0) {
+            consumido(f, largo - (hasta - desde));
+        }
+        if ((flags() & FIN_FLUJO) != 0) {
+            terminarCuerpo(f);
+        }
+    }
+
+    private void recibirReset(int id, int largo) throws IOException {
+        if (id == 0 || id > ultimoId) {
+            throw new ErrorConexion(ERROR_PROTOCOLO);
+        }
+        if (largo != 4) {
+            throw new ErrorConexion(ERROR_TAMANO_FRAME);
+        }
+        Flujo f = flujos.get(id);
+        if (f != null) {
+            cancelar(f);
+        }
+    }
+
+    private void recibirAjustes(int id, int largo) throws IOException {
+        if (id != 0) {
+            throw new ErrorConexion(ERROR_PROTOCOLO);
+        }
+        if ((flags() & FIN_FLUJO) != 0) {
+            // ACK de los nuestros
+            if (largo != 0) {
+                throw new ErrorConexion(ERROR_TAMANO_FRAME);
+            }
+            return;
+        }
+        aplicarAjustes(carga, largo);
+        escribirFrame(SETTINGS, FIN_FLUJO, 0, carga, 0, 0);
+    }
+
+    private void aplicarAjustes(byte[] datos, int largo) throws IOException {
+        if (largo % 6 != 0) {
+            throw new ErrorConexion(ERROR_TAMANO_FRAME);
+        }
+        for (int i = 0; i < largo; i += 6) {
+            int ajuste = (datos[i] & 0xff) << 8 | (datos[i + 1] & 0xff);
+            long valor = entero(datos, i + 2) & 0xffffffffL;
+            switch (ajuste) {
+                case AJUSTE_TAM_TABLA:
+                    synchronized (salida) {
+                        codificador.limite((int) Math.min(valor, HPACK.TAM_TABLA));
+                    }
+                    break;
+                case AJUSTE_VENTANA_INICIAL:
+                    if (valor > VENTANA_MAXIMA) {
+                        throw new ErrorConexion(ERROR_CONTROL_FLUJO);
+                    }
+                    synchronized (this) {
+                        // El cambio se aplica tambien a los flujos abiertos
+                        long delta = valor - ventanaInicialEnvio;
+                        ventanaInicialEnvio = valor;
+                        for (Flujo f : flujos.values()) {
+                            f.ventanaEnvio += delta;
+                        }
+                        notifyAll();
+                    }
+                    break;
+                case AJUSTE_TAM_FRAME:
+                    // Siempre se manda <= 16 KB, que todo cliente acepta
+                    if (valor < TAM_FRAME || valor > 0xffffff) {
+                        throw new ErrorConexion(ERROR_PROTOCOLO);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private void recibirVentana(int id, int largo) throws IOException {
+        if (largo != 4) {
+            throw new ErrorConexion(ERROR_TAMANO_FRAME);
+        }
+        long incremento = entero(carga, 0) & 0x7fffffff;
+        if (incremento == 0) {
+            if (id == 0) {
+                throw new ErrorConexion(ERROR_PROTOCOLO);
+            }
+            reset(id, ERROR_PROTOCOLO);
+            return;
+        }
+        Flujo desbordado = null;
+        synchronized (this) {
+            if (id == 0) {
+                ventanaEnvio += incremento;
+                if (ventanaEnvio > VENTANA_MAXIMA) {
+                    throw new ErrorConexion(ERROR_CONTROL_FLUJO);
+                }
+            } else {
+                Flujo f = flujos.get(id);
+                if (f != null) {
+                    f.ventanaEnvio += incremento;
+                    if (f.ventanaEnvio > VENTANA_MAXIMA) {
+                        desbordado = f;
+                    }
+                }
+            }
+            notifyAll();
+        }
+        if (desbordado != null) {
+            reset(id, ERROR_CONTROL_FLUJO);
+            cancelar(desbordado);
+        }
+    }
+
+    // ==========================
+    // FLUJOS
+    // ==========================
+
+    private void despachar(Flujo f, Peticion peticion, int error) {
+        flujosEnCurso.execute(() -> responder(f, peticion, error));
+    }
+
+    private void responder(Flujo f, Peticion peticion, int error) {
+        long inicio = System.nanoTime();
+        Respuesta r = null;
+        try {
+            r = error != 0 ? manejador.respuestaError(error) : manejador.atender(peticion);
+            enviar(f, r);
+            manejador.registrar(peticion, r, System.nanoTime() - inicio);
+        } catch (Exception e) {
+            if (!f.reseteado && !cerrada) {
+                if (!(e instanceof IOException)) {
+                    e.printStackTrace();
+                }
+                try {
+                    reset(f.id, ERROR_INTERNO);
+                } catch (IOException ignored) {}
+            }
+        } finally {
+            if (r != null) {
+                r.cerrar();
+            }
+            terminarFlujo(f);
+        }
+    }
+
+    // Respondido: lo que el manejador no leyo del cuerpo se devuelve a la
+    // ventana de la conexion y, si el cliente aun manda, se le pide parar
+    private void terminarFlujo(Flujo f) {
+        flujos.remove(f.id);
+        int sinLeer = f.cuerpo.cancelar();
+        try {
+            if (!f.finRemoto && !f.reseteado) {
+                f.finRemoto = true;
+                reset(f.id, SIN_ERROR);
+            }
+            if (sinLeer > 0) {
+                consumido(null, sinLeer);
+            }
+        } catch (IOException ignored) {
+            // El socket ya no sirve; lo cierra el hilo de la conexion
+        }
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    private void terminarCuerpo(Flujo f) {
+        f.finRemoto = true;
+        f.cuerpo.terminar();
+    }
+
+    private void cancelar(Flujo f) {
+        f.reseteado = true;
+        f.finRemoto = true;
+        f.cuerpo.cancelar();
+        synchronized (this) {
+            notifyAll();
+        }
+    }
+
+    // Al salir, los flujos en curso terminan de responder (o fallan al
+    // escribir si el cliente ya no esta) antes de cerrar el socket
+    private synchronized void esperarFlujos() {
+        long limite = System.currentTimeMillis() + TIEMPO_VENTANA;
+        while (!flujos.isEmpty()) {
+            long resta = limite - System.currentTimeMillis();
+            if (resta <= 0) {
+                break;
+            }
+            try {
+                wait(resta);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    // ==========================
+    // ENVIO
+    // ==========================
+
+    private void enviar(Flujo f, Respuesta r) throws IOException {
+        // Largo desconocido (Generador): el fin lo marca un DATA vacio
+        boolean conocido = r.isLargoConocido();
+        long largo = r.getEstado() == 304 ? 0 : conocido ? r.getLongitud() : Long.MAX_VALUE;
+
+        synchronized (salida) {
+            bloqueSalida.reset();
+            codificador.codificar(":status", String.valueOf(r.getEstado()), bloqueSalida);
+            boolean[] conLargo = {false};
+            r.recorrerHeaders((nombre, valor) -> {
+                nombre = nombre.toLowerCase(Locale.ROOT);
+                if (esDeConexion(nombre)) {
+                    return;
+                }
+                conLargo[0] |= nombre.equals("content-length");
+                codificador.codificar(nombre, valor, bloqueSalida);
+            });
+            if (!conLargo[0] && r.getEstado() != 304 && conocido) {
+                codificador.codificar("content-length", String.valueOf(largo), bloqueSalida);
+            }
+            escribirHeaders(f.id, largo == 0);
+        }
+        if (largo == 0) {
+            return;
+        }
+
+        byte[] trozo = new byte[TAM_FRAME];
+        long restante = largo;
+        for (Object parte : r.getPartes()) {
+            if (parte instanceof ByteBuffer) {
+                restante = enviarBuffer(f, ((ByteBuffer) parte).duplicate(), trozo, restante);
+            } else if (parte instanceof Respuesta.Generador) {
+                ByteBuffer generado;
+                while ((generado = ((Respuesta.Generador) parte).siguiente()) != null) {
+                    r.sumarGenerado(generado.remaining());
+                    enviarBuffer(f, generado, trozo, restante);
+                }
+                escribirFrame(DATA, FIN_FLUJO, f.id, trozo, 0, 0);
+            } else if (parte instanceof Respuesta.Region) {
+                Respuesta.Region region = (Respuesta.Region) parte;
+                long enviado = 0;
+                while (enviado < region.longitud) {
+                    int n = reservar(f, (int) Math.min(region.longitud - enviado, TAM_FRAME));
+                    ByteBuffer destino = ByteBuffer.wrap(trozo, 0, n);
+                    while (destino.hasRemaining()) {
+                        if (region.canal.read(destino, region.posicion + enviado
+                                + destino.position()) < 0) {
+                            throw new EOFException("Archivo truncado durante el envio");
+                        }
+                    }
+                    enviado += n;
+                    restante -= n;
+                    escribirFrame(DATA, restante == 0 ? FIN_FLUJO : 0, f.id, trozo, 0, n);
+                }
+            } else {
+                Respuesta.Flujo flujo = (Respuesta.Flujo) parte;
+                long enviado = 0;
+                while (enviado < flujo.longitud) {
+                    int n = reservar(f, (int) Math.min(flujo.longitud - enviado, TAM_FRAME));
+                    int leidos = flujo.entrada.readNBytes(trozo, 0, n);
+                    if (leidos < n) {
+                        throw new EOFException("Flujo truncado durante el envio");
+                    }
+                    enviado += n;
+                    restante -= n;
+                    escribirFrame(DATA, restante == 0 ? FIN_FLUJO : 0, f.id, trozo, 0, n);
+                }
+            }
+        }
+    }
+
+    // Devuelve lo que queda del cuerpo; el ultimo frame lleva END_STREAM
+    private long enviarBuffer(Flujo f, ByteBuffer datos, byte[] trozo, long restante)
+            throws IOException {
+        while (datos.hasRemaining()) {
+            int n = reservar(f, Math.min(datos.remaining(), TAM_FRAME));
+            restante -= n;
+            if (datos.hasArray()) {
+                escribirFrame(DATA, restante == 0 ? FIN_FLUJO : 0, f.id, datos.array(),
+                        datos.arrayOffset() + datos.position(), n);
+                datos.position(datos.position() + n);
+            } else {
+                datos.get(trozo, 0, n);
+                escribirFrame(DATA, restante == 0 ? FIN_FLUJO : 0, f.id, trozo, 0, n);
+            }
+        }
+        return restante;
+    }
+
+    // Bloque ya codificado en bloqueSalida; si no cabe en un frame sigue
+    // en CONTINUATION. Se llama con el lock de salida tomado
+    private void escribirHeaders(int id, boolean finFlujo) throws IOException {
+        byte[] datos = bloqueSalida.toByteArray();
+        int desde = 0;
+        int tipo = HEADERS;
+        do {
+            int n = Math.min(datos.length - desde, TAM_FRAME);
+            int flags = desde + n == datos.length ? FIN_HEADERS : 0;
+            if (tipo == HEADERS && finFlujo) {
+                flags |= FIN_FLUJO;
+            }
+            escribirFrame(tipo, flags, id, datos, desde, n);
+            desde += n;
+            tipo = CONTINUATION;
+        } while (desde < datos.length);
+    }
+
+    // Espera hasta que las ventanas del flujo y de la conexion permitan
+    // mandar algo; devuelve cuanto (entre 1 y maximo) y lo descuenta
+    private synchronized int reservar(Flujo f, int maximo) throws IOException {
+        long limite = System.currentTimeMillis() + TIEMPO_VENTANA;
+        while (true) {
+            if (f.reseteado || cerrada) {
+                throw new IOException("Flujo " + f.id + " cancelado");
+            }
+            long disponible = Math.min(ventanaEnvio, f.ventanaEnvio);
+            if (disponible > 0) {
+                int n = (int) Math.min(maximo, disponible);
+                ventanaEnvio -= n;
+                f.ventanaEnvio -= n;
+                return n;
+            }
+            long resta = limite - System.currentTimeMillis();
+            if (resta <= 0) {
+                throw new SocketTimeoutException("El cliente no abrio la ventana del flujo " + f.id);
+            }
+            try {
+                wait(resta);
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    // El manejador leyo (o se descartaron) n bytes del cuerpo: cuando se
+    // junta media ventana se le devuelve al cliente con WINDOW_UPDATE
+    private void consumido(Flujo f, int n) throws IOException {
+        int paraConexion = 0;
+        int paraFlujo = 0;
+        synchronized (this) {
+            consumidoSinAvisar += n;
+            if (consumidoSinAvisar >= VENTANA_CONEXION / 2) {
+                paraConexion = consumidoSinAvisar;
+                ventanaRecepcion += paraConexion;
+                consumidoSinAvisar = 0;
+            }
+            if (f != null && !f.finRemoto) {
+                f.consumidoSinAvisar += n;
+                if (f.consumidoSinAvisar >= VENTANA_FLUJO / 2) {
+                    paraFlujo = f.consumidoSinAvisar;
+                    f.ventanaRecepcion += paraFlujo;
+                    f.consumidoSinAvisar = 0;
+                }
+            }
+        }
+        if (paraConexion > 0) {
+            ventana(0, paraConexion);
+        }
+        if (paraFlujo > 0) {
+            ventana(f.id, paraFlujo);
+        }
+    }
+
+    private void enviarAjustes() throws IOException {
+        byte[] ajustes = new byte[4 * 6];
+        int n = 0;
+        n = ajuste(ajustes, n, AJUSTE_MAX_FLUJOS, MAX_FLUJOS);
+        n = ajuste(ajustes, n, AJUSTE_VENTANA_INICIAL, VENTANA_FLUJO);
+        n = ajuste(ajustes, n, AJUSTE_TAM_FRAME, TAM_FRAME);
+        n = ajuste(ajustes, n, AJUSTE_MAX_LISTA, MAX_LISTA_HEADERS);
+        escribirFrame(SETTINGS, 0, 0, ajustes, 0, n);
+        // La ventana de la conexion arranca en 64 KB; se agranda de una vez
+        ventana(0, VENTANA_CONEXION - VENTANA_DEFECTO);
+    }
+
+    private static int ajuste(byte[] b, int i, int ajuste, int valor) {
+        b[i] = (byte) (ajuste >>> 8);
+        b[i + 1] = (byte) ajuste;
+        escribirEntero(b, i + 2, valor);
+        return i + 6;
+    }
+
+    private void ventana(int id, int incremento) throws IOException {
+        byte[] datos = new byte[4];
+        escribirEntero(datos, 0, incremento);
+        escribirFrame(WINDOW_UPDATE, 0, id, datos, 0, 4);
+    }
+
+    private void reset(int id, int codigo) throws IOException {
+        byte[] datos = new byte[4];
+        escribirEntero(datos, 0, codigo);
+        escribirFrame(RST_STREAM, 0, id, datos, 0, 4);
+    }
+
+    private void goaway(int codigo) {
+        byte[] datos = new byte[8];
+        escribirEntero(datos, 0, ultimoId);
+        escribirEntero(datos, 4, codigo);
+        try {
+            escribirFrame(GOAWAY, 0, 0, datos, 0, 8);
+        } catch (IOException ignored) {
+            // El cliente ya cerro
+        }
+    }
+
+    private void escribirFrame(int tipo, int flags, int id, byte[] datos, int desde, int largo)
+            throws IOException {
+        synchronized (salida) {
+            cabeceraSalida[0] = (byte) (largo >>> 16);
+            cabeceraSalida[1] = (byte) (largo >>> 8);
+            cabeceraSalida[2] = (byte) largo;
+            cabeceraSalida[3] = (byte) tipo;
+            cabeceraSalida[4] = (byte) flags;
+            escribirEntero(cabeceraSalida, 5, id);
+            out.write(cabeceraSalida);
+            out.write(datos, desde, largo);
+            out.flush();
+        }
+    }
+
+    private static void escribirEntero(byte[] b, int i, int valor) {
+        b[i] = (byte) (valor >>> 24);
+        b[i + 1] = (byte) (valor >>> 16);
+        b[i + 2] = (byte) (valor >>> 8);
+        b[i + 3] = (byte) valor;
+    }
+
+    // ==========================
+    // ESTADO POR FLUJO
+    // ==========================
+    private class Flujo {
+        final int id;
+        final EntradaFlujo cuerpo = new EntradaFlujo(this);
+        // Bajo el lock de la conexion
+        long ventanaEnvio;
+        long ventanaRecepcion = VENTANA_FLUJO;
+        int consumidoSinAvisar;
+        // El cliente ya no manda mas DATA
+        volatile boolean finRemoto;
+        volatile boolean reseteado;
+
+        Flujo(int id) {
+            this.id = id;
+            synchronized (ConexionHTTP2.this) {
+                this.ventanaEnvio = ventanaInicialEnvio;
+            }
+        }
+    }
+
+    // Cuerpo de la peticion tal como llega en frames DATA. El manejador lo
+    // lee como cualquier InputStream; cada lectura libera ventana
+    private class EntradaFlujo extends InputStream {
+
+        private final Flujo flujo;
+        private final ArrayDeque<byte[]> trozos = new ArrayDeque<>();
+        private int posicion;           // dentro del primer trozo
+        private int pendiente;          // bytes recibidos sin leer
+        private boolean fin;
+        private boolean cancelada;
+
+        EntradaFlujo(Flujo flujo) {
+            this.flujo = flujo;
+        }
+
+        synchronized void recibir(byte[] datos) {
+            if (cancelada) {
+                return;
+            }
+            trozos.add(datos);
+            pendiente += datos.length;
+            notifyAll();
+        }
+
+        synchronized void terminar() {
+            fin = true;
+            notifyAll();
+        }
+
+        // Devuelve lo que quedo sin leer
+        synchronized int cancelar() {
+            cancelada = true;
+            int sinLeer = pendiente;
+            trozos.clear();
+            pendiente = 0;
+            notifyAll();
+            return sinLeer;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            int n;
+            synchronized (this) {
+                long limite = System.currentTimeMillis() + ManejadorCliente.TIEMPO_INACTIVO;
+                while (trozos.isEmpty() && !fin && !cancelada) {
+                    long resta = limite - System.currentTimeMillis();
+                    if (resta <= 0) {
+                        throw new SocketTimeoutException("Cuerpo HTTP/2 incompleto");
+                    }
+                    try {
+                        wait(resta);
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                }
+                if (cancelada) {
+                    throw new IOException("Flujo " + flujo.id + " cancelado");
+                }
+                if (trozos.isEmpty()) {
+                    return -1;
+                }
+                byte[] primero = trozos.peek();
+                n = Math.min(len, primero.length - posicion);
+                System.arraycopy(primero, posicion, b, off, n);
+                posicion += n;
+                pendiente -= n;
+                if (posicion == primero.length) {
+                    trozos.poll();
+                    posicion = 0;
+                }
+            }
+            consumido(flujo, n);
+            return n;
+        }
+
+        @Override
+        public synchronized int available() {
+            return pendiente;
+        }
+    }
+
+    // Error de conexion: se manda GOAWAY con el codigo y se cierra
+    private static class ErrorConexion extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final int codigo;
+
+        ErrorConexion(int codigo) {
+            super("HTTP/2: error " + codigo);
+            this.codigo = codigo;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SSLSocket;
+
+// Control de admision de conexiones frente al pool. Dos defensas:
+//  - cola acotada (Ejecutores): si esta llena la conexion se rechaza al
+//    momento con 503 en lugar de acumular sockets sin limite;
+//  - CoDel (estilo del de Facebook/Wangle): si durante toda una ventana
+//    la espera minima en cola supero el objetivo, la cola no se esta
+//    vaciando. Mientras dure eso, las conexiones que esperaron mas de
+//    2 x objetivo se contestan con 503 en cuanto salen de la cola, asi la
+//    latencia de las que si se atienden queda acotada.
+//   --cola=N  --cola-objetivo-ms=N  --cola-intervalo-ms=N
+public class ControlAdmision {
+
+    // Segundos que se sugieren al cliente en Retry-After
+    private static final int REINTENTAR = 1;
+    // Cuanto se espera el resto de la peticion antes de cerrar un rechazo
+    private static final long ESPERA_CIERRE_MS = 200;
+
+    // Un solo hilo cierra los sockets rechazados sin frenar al que acepta
+    private static final ScheduledExecutorService cierres =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "cierre-rechazos");
+                t.setDaemon(true);
+                return t;
+            });
+
+    private final long objetivo;     // nanos
+    private final long intervalo;    // nanos
+    private final byte[] respuesta503;
+
+    // Estado de CoDel
+    private long finVentana;
+    private long minimoVentana = Long.MAX_VALUE;
+    private volatile boolean sobrecargado;
+
+    public ControlAdmision(String nombreServidor, long objetivoMs, long intervaloMs) {
+        this.objetivo = TimeUnit.MILLISECONDS.toNanos(objetivoMs);
+        this.intervalo = TimeUnit.MILLISECONDS.toNanos(intervaloMs);
+        this.finVentana = System.nanoTime() + intervalo;
+        String cuerpo = "Servidor saturado, intente de nuevo";
+        this.respuesta503 = ("HTTP/1.1 503 Service Unavailable\r\n" +
+                "Retry-After: " + REINTENTAR + "\r\n" +
+                "Content-Type: text/plain\r\n" +
+                "Content-Length: " + cuerpo.length() + "\r\n" +
+                "Connection: close\r\n" +
+                "X-Servidor: " + nombreServidor + "\r\n\r\n" + cuerpo).getBytes();
+    }
+
+    public static ControlAdmision desdeOpciones(String nombreServidor, Opciones opciones) {
+        return new ControlAdmision(nombreServidor,
+                opciones.entero("cola-objetivo-ms", 50),
+                opciones.entero("cola-intervalo-ms", 500));
+    }
+
+    // Manda la conexion al executor; si la cola esta llena la rechaza ya
+    public void despachar(Executor executor, Socket cliente, Runnable tarea) {
+        long encolada = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                if (admitir(System.nanoTime() - encolada)) {
+                    tarea.run();
+                } else {
+                    Metricas.global().descarte();
+                    rechazar(cliente);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Metricas.global().rechazo();
+            rechazar(cliente);
+        }
+    }
+
+    // Decide con la espera en cola de una conexion que acaba de salir
+    synchronized boolean admitir(long espera) {
+        long ahora = System.nanoTime();
+        if (ahora >= finVentana) {
+            // Una ventana sin muestras (servidor ocioso) no dice nada
+            sobrecargado = minimoVentana != Long.MAX_VALUE && minimoVentana > objetivo;
+            minimoVentana = Long.MAX_VALUE;
+            finVentana = ahora + intervalo;
+        }
+        minimoVentana = Math.min(minimoVentana, espera);
+        // Si ninguna conexion salio en toda la ventana (pool trabado), el
+        // minimo de la ventana anterior es viejo; una espera de una ventana
+        // completa ya prueba que la cola no se vacio en ese tiempo
+        if (espera >= intervalo) {
+            sobrecargado = true;
+        }
+        return !(sobrecargado && espera > 2 * objetivo);
+    }
+
+    public boolean isSobrecargado() {
+        return sobrecargado;
+    }
+
+    // 503 + Retry-After y cierre. El envio es pequeno y cabe en el buffer
+    // del socket; el cierre real se difiere un poco para leer lo que el
+    // cliente ya mando y que no reciba un RST antes de leer el 503
+    public void rechazar(Socket cliente) {
+        if (cliente instanceof SSLSocket) {
+            // Un 503 en claro no sirve en el puerto TLS y cifrarlo obligaria
+            // a hacer el handshake en este hilo: se cierra sin mas
+            cerrar(cliente);
+            return;
+        }
+        try {
+            cliente.getOutputStream().write(respuesta503);
+            cliente.shutdownOutput();
+        } catch (IOException e) {
+            cerrar(cliente);
+            return;
+        }
+        cierres.schedule(() -> {
+            try {
+                InputStream in = cliente.getInputStream();
+                in.skip(in.available());
+            } catch (IOException ignored) {
+            }
+            cerrar(cliente);
+        }, ESPERA_CIERRE_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private static void cerrar(Socket cliente) {
+        try { cliente.close(); } catch (IOException ignored) {}
+    }
+}
@@ -0,0 +1,140 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+// Cuerpo de una peticion leido en streaming desde la conexion: termina
+// donde indica Content-Length o donde lo marca Transfer-Encoding: chunked,
+// sin leer ni un byte de la peticion siguiente.
+public class CuerpoPeticion extends InputStream {
+
+    private final InputStream in;
+    private final boolean chunked;
+    private long restante;       // del cuerpo o del chunk actual
+    private boolean terminado;
+
+    private CuerpoPeticion(InputStream in, long longitud, boolean chunked) {
+        this.in = in;
+        this.chunked = chunked;
+        this.restante = chunked ? 0 : longitud;
+        this.terminado = !chunked && longitud == 0;
+    }
+
+    // Elige el formato segun los headers; Content-Length invalido -> NumberFormatException
+    public static CuerpoPeticion de(Peticion peticion, InputStream in) {
+        if (peticion.esChunked()) {
+            return new CuerpoPeticion(in, 0, true);
+        }
+        long largo = peticion.getContentLength();
+        if (largo < 0) {
+            throw new NumberFormatException("Content-Length negativo");
+        }
+        return new CuerpoPeticion(in, largo, false);
+    }
+
+    public boolean estaVacio() {
+        return terminado;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (terminado) {
+            return -1;
+        }
+        if (restante == 0 && !siguienteChunk()) {
+            return -1;
+        }
+        int n = in.read(b, off, (int) Math.min(len, restante));
+        if (n < 0) {
+            throw new EOFException("Cuerpo incompleto");
+        }
+        restante -= n;
+        if (restante == 0 && !chunked) {
+            terminado = true;
+        }
+        return n;
+    }
+
+    // "tamano-hex[;extension]\r\n datos \r\n"; el chunk 0 cierra el cuerpo
+    // y le siguen trailers opcionales hasta una linea vacia
+    private boolean siguienteChunk() throws IOException {
+        if (!chunked) {
+            terminado = true;
+            return false;
+        }
+        String linea = leerLinea();
+        if (linea.isEmpty()) {
+            linea = leerLinea(); // CRLF que cierra el chunk anterior
+        }
+        int puntoComa = linea.indexOf(';');
+        String hex = (puntoComa < 0 ? linea : linea.substring(0, puntoComa)).trim();
+        try {
+            restante = Long.parseLong(hex, 16);
+        } catch (NumberFormatException e) {
+            throw new Malformado("Tamano de chunk invalido: " + hex);
+        }
+        // parseLong acepta el signo: "-5" no es un tamano
+        if (restante < 0) {
+            throw new Malformado("Tamano de chunk negativo: " + hex);
+        }
+        if (restante == 0) {
+            while (!leerLinea().isEmpty()) {
+                // trailers: se ignoran
+            }
+            terminado = true;
+            return false;
+        }
+        return true;
+    }
+
+    private String leerLinea() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                throw new EOFException("Chunk incompleto");
+            }
+            if (c != '\r') {
+                sb.append((char) c);
+            }
+            if (sb.length() > 1024) {
+                throw new Malformado("Linea de chunk demasiado larga");
+            }
+        }
+        return sb.toString();
+    }
+
+    // Lee y tira lo que el manejador no consumio para que la conexion quede
+    // alineada con la siguiente peticion. false = quedaba demasiado y hay
+    // que cerrar la conexion en lugar de seguir leyendo
+    public boolean descartar(long maximo) throws IOException {
+        byte[] basura = new byte[8 * 1024];
+        long descartado = 0;
+        while (!terminado) {
+            if (descartado >= maximo) {
+                return false;
+            }
+            int n = read(basura, 0, basura.length);
+            if (n < 0) {
+                break;
+            }
+            descartado += n;
+        }
+        return true;
+    }
+
+    // El cliente mando chunks invalidos: se contesta 400 y se cierra, porque
+    // ya no se sabe donde empieza la peticion siguiente
+    public static class Malformado extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        Malformado(String mensaje) {
+            super(mensaje);
+        }
+    }
+}
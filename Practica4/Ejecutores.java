@@ -0,0 +1,43 @@
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Crea el executor que corre cada ManejadorCliente segun --hilos:
+//   pool    -> pool fijo de hilos de plataforma con una cola acotada de
+//              tamCola conexiones; si se llena, execute() lanza
+//              RejectedExecutionException (ver ControlAdmision)
+//   virtual -> un hilo virtual por conexion; el codigo bloqueante no cambia
+//              y cada conexion inactiva ya no ocupa un hilo del sistema.
+//              En un JDK sin hilos virtuales (antes de 21) se avisa y se usa
+//              el mismo pool acotado que con 'pool', nunca un pool sin limite
+public class Ejecutores {
+
+    public static ExecutorService crear(String modo, int tamPool, int tamCola) {
+        if (modo.equals("virtual")) {
+            ExecutorService virtual = virtual();
+            if (virtual != null) {
+                return virtual;
+            }
+            System.out.println("AVISO: --hilos=virtual requiere Java 21 (esta es Java "
+                    + Runtime.version().feature() + "); se usa el pool de " + tamPool
+                    + " hilos con cola de " + tamCola);
+        }
+        return new ThreadPoolExecutor(tamPool, tamPool, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(tamCola));
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor existe desde Java 21; se busca
+    // por reflexion para que el proyecto siga compilando con JDK anteriores;
+    // null si no esta
+    private static ExecutorService virtual() {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+import java.io.IOException;
+import java.io.InputStream;
+
+// Lectura por bytes del socket con un buffer propio. La cabecera se
+// entrega a ParserHTTP y el cuerpo sale del mismo buffer, asi el cuerpo
+// binario no pasa por un Reader y lo que sobra queda listo para la
+// siguiente peticion.
+public class EntradaHTTP extends InputStream {
+
+    private static final int TAM_BUFFER = 8 * 1024;
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[TAM_BUFFER];
+    private int pos = 0;
+    private int lim = 0;
+
+    public EntradaHTTP(InputStream in) {
+        this.in = in;
+    }
+
+    private boolean llenar() throws IOException {
+        if (pos < lim) {
+            return true;
+        }
+        int n = in.read(buffer, 0, buffer.length);
+        if (n <= 0) {
+            return false;
+        }
+        pos = 0;
+        lim = n;
+        return true;
+    }
+
+    // Pasa bytes al parser hasta completar la cabecera o detectar un error.
+    // false si el socket se cerro antes de terminar la cabecera
+    public boolean leerCabecera(ParserHTTP parser) throws IOException {
+        parser.reiniciar();
+        while (!parser.terminada() && parser.error() == 0) {
+            if (!llenar()) {
+                return false;
+            }
+            pos += parser.alimentar(buffer, pos, lim);
+        }
+        return true;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return llenar() ? buffer[pos++] & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (pos < lim) {
+            int n = Math.min(len, lim - pos);
+            System.arraycopy(buffer, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+        // Lecturas grandes van directo del socket al destino
+        if (len >= buffer.length) {
+            return in.read(b, off, len);
+        }
+        return llenar() ? read(b, off, len) : -1;
+    }
+
+    // Hay otra peticion esperando (pipelining): no hace falta vaciar la salida aun
+    public boolean hayDatos() throws IOException {
+        return pos < lim || in.available() > 0;
+    }
+}
@@ -0,0 +1,397 @@
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+// Generador de carga estilo wrk contra los servidores en loopback: N
+// conexiones, cada una en su hilo, mandando GET y leyendo la respuesta
+// completa. Al final imprime throughput y percentiles de latencia
+// (Histograma, en microsegundos).
+//  - Lazo cerrado (por defecto): cada conexion manda la siguiente peticion
+//    en cuanto termina la anterior; mide la capacidad maxima.
+//  - Lazo abierto (--tasa=N peticiones/s en total): las peticiones se
+//    programan a ritmo fijo y la latencia se cuenta desde el momento en
+//    que debio salir cada una, no desde que salio. Si el servidor se
+//    atrasa, la espera acumulada aparece en los percentiles (sin la
+//    "omision coordinada" del lazo cerrado).
+//   java GeneradorCarga [--puerto=8000] [--rutas=/index.htm,/Hola.txt]
+//        [--conexiones=16] [--duracion=10] [--calentamiento=2] [--tasa=N]
+//        [--keep-alive=false] [--tamanos=1k,64k,1m --raiz=.]
+//        [--max-p99-ms=N] [--min-rps=N] [--estado=N] [--tls]
+//        [--headers="If-Modified-Since: ...|Accept: ..."]
+// Con --tamanos se crean en --raiz (la carpeta que sirve el servidor)
+// archivos carga-<tamano>.bin y se piden en lugar de --rutas. Con
+// --max-p99-ms / --min-rps la salida es 1 si no se cumplen: sirve para
+// detectar regresiones antes de desplegar; --estado=N ademas exige que
+// todas las respuestas tengan ese codigo. --headers agrega headers a cada
+// peticion (separados por '|'), p. ej. un If-Modified-Since futuro para
+// medir 304 por el proxy:
+//   java GeneradorCarga --headers="If-Modified-Since: Fri, 01 Jan 2100 00:00:00 GMT"
+//        --estado=304 --max-p99-ms=100
+// --tls habla HTTPS (ServidorTLS)
+// aceptando cualquier certificado, para el autofirmado de las pruebas; sin
+// keep-alive cada conexion nueva reanuda la sesion TLS anterior.
+public class GeneradorCarga {
+
+    private static final int TIEMPO_ESPERA = 10_000;
+
+    private final String host;
+    private final int puerto;
+    private final String[] rutas;
+    private final boolean keepAlive;
+    // Nanos entre peticiones de una misma conexion; 0 = lazo cerrado
+    private final long intervalo;
+    // null = en claro
+    private SSLSocketFactory fabricaTLS;
+    // Headers extra ya con su fin de linea
+    private String headers = "";
+
+    private final Histograma latencia = new Histograma();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder errores = new LongAdder();
+    private final Map<Integer, LongAdder> porEstado = new ConcurrentHashMap<>();
+
+    private volatile boolean midiendo = false;
+    private volatile boolean terminar = false;
+
+    GeneradorCarga(String host, int puerto, String[] rutas, boolean keepAlive, long intervalo) {
+        this.host = host;
+        this.puerto = puerto;
+        this.rutas = rutas;
+        this.keepAlive = keepAlive;
+        this.intervalo = intervalo;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Opciones opciones = new Opciones(args);
+        int conexiones = opciones.entero("conexiones", 16);
+        int duracion = opciones.entero("duracion", 10);
+        int calentamiento = opciones.entero("calentamiento", 2);
+        int tasa = opciones.entero("tasa", 0);
+
+        String[] rutas = opciones.texto("rutas", "/index.htm").split(",");
+        String tamanos = opciones.texto("tamanos", null);
+        if (tamanos != null) {
+            rutas = crearArchivos(Paths.get(opciones.texto("raiz", ".")), tamanos.split(","));
+        }
+
+        GeneradorCarga carga = new GeneradorCarga(opciones.texto("host", "localhost"),
+                opciones.entero("puerto", 8000), rutas,
+                Boolean.parseBoolean(opciones.texto("keep-alive", "true")),
+                tasa > 0 ? TimeUnit.SECONDS.toNanos(conexiones) / tasa : 0);
+        if (opciones.texto("tls", null) != null) {
+            carga.fabricaTLS = confiarEnTodo();
+        }
+        String headers = opciones.texto("headers", null);
+        if (headers != null) {
+            for (String h : headers.split("\\|")) {
+                carga.headers += h.trim() + "\r\n";
+            }
+        }
+
+        System.out.println(conexiones + " conexiones, " + duracion + " s"
+                + (tasa > 0 ? ", lazo abierto a " + tasa + " pet/s" : ", lazo cerrado")
+                + (carga.keepAlive ? ", keep-alive" : ", una conexion por peticion")
+                + (carga.fabricaTLS != null ? ", TLS" : "")
+                + ", rutas " + String.join(" ", rutas));
+
+        List<Thread> hilos = new ArrayList<>();
+        for (int i = 0; i < conexiones; i++) {
+            // Las conexiones arrancan escalonadas para no mandar rafagas juntas
+            long desfase = carga.intervalo * i / conexiones;
+            Thread t = new Thread(() -> carga.conexion(desfase), "carga-" + i);
+            t.setDaemon(true);
+            t.start();
+            hilos.add(t);
+        }
+
+        Thread.sleep(TimeUnit.SECONDS.toMillis(calentamiento));
+        carga.midiendo = true;
+        long inicio = System.nanoTime();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(duracion));
+        carga.midiendo = false;
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+        carga.terminar = true;
+        for (Thread t : hilos) {
+            t.join(1000);
+        }
+
+        double rps = carga.latencia.cuenta() / segundos;
+        long p99 = carga.latencia.percentil(0.99);
+        carga.reporte(segundos, rps);
+
+        int salida = 0;
+        int maxP99 = opciones.entero("max-p99-ms", 0);
+        if (maxP99 > 0 && p99 > maxP99 * 1000L) {
+            System.out.println("REGRESION: p99 " + p99 / 1000.0 + " ms > " + maxP99 + " ms");
+            salida = 1;
+        }
+        int minRps = opciones.entero("min-rps", 0);
+        if (minRps > 0 && rps < minRps) {
+            System.out.printf("REGRESION: %.0f pet/s < %d pet/s%n", rps, minRps);
+            salida = 1;
+        }
+        int estado = opciones.entero("estado", 0);
+        if (estado > 0) {
+            long otros = carga.errores.sum();
+            for (Map.Entry<Integer, LongAdder> e : carga.porEstado.entrySet()) {
+                if (e.getKey() != estado) {
+                    otros += e.getValue().sum();
+                }
+            }
+            if (otros > 0 || carga.latencia.cuenta() == 0) {
+                System.out.println("REGRESION: " + otros + " respuestas distintas de " + estado);
+                salida = 1;
+            }
+        }
+        System.exit(salida);
+    }
+
+    // ==========================
+    // CONEXION
+    // ==========================
+    private void conexion(long desfase) {
+        byte[][] peticiones = new byte[rutas.length][];
+        for (int i = 0; i < rutas.length; i++) {
+            peticiones[i] = ("GET " + rutas[i] + " HTTP/1.1\r\nHost: " + host + ":" + puerto
+                    + "\r\nAccept-Encoding: identity\r\n" + headers
+                    + (keepAlive ? "" : "Connection: close\r\n") + "\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1);
+        }
+        byte[] buffer = new byte[64 * 1024];
+        Socket socket = null;
+        InputStream in = null;
+        OutputStream out = null;
+        long programada = System.nanoTime() + desfase;
+        int siguiente = 0;
+
+        while (!terminar) {
+            if (intervalo > 0) {
+                long espera = programada - System.nanoTime();
+                if (espera > 0) {
+                    LockSupport.parkNanos(espera);
+                    continue;
+                }
+            } else {
+                programada = System.nanoTime();
+            }
+
+            try {
+                if (socket == null) {
+                    socket = new Socket();
+                    socket.setTcpNoDelay(true);
+                    socket.setSoTimeout(TIEMPO_ESPERA);
+                    socket.connect(new InetSocketAddress(host, puerto), TIEMPO_ESPERA);
+                    if (fabricaTLS != null) {
+                        socket = fabricaTLS.createSocket(socket, host, puerto, true);
+                    }
+                    in = new BufferedInputStream(socket.getInputStream(), buffer.length);
+                    out = socket.getOutputStream();
+                }
+                out.write(peticiones[siguiente]);
+                siguiente = (siguiente + 1) % peticiones.length;
+                boolean cerrar = leerRespuesta(in, buffer, programada);
+                if (cerrar || !keepAlive) {
+                    socket.close();
+                    socket = null;
+                }
+            } catch (IOException e) {
+                if (midiendo) {
+                    errores.increment();
+                }
+                cerrar(socket);
+                socket = null;
+            }
+            programada += intervalo;
+        }
+        cerrar(socket);
+    }
+
+    // Lee status, headers y cuerpo (Content-Length o chunked); true si el
+    // servidor va a cerrar la conexion
+    private boolean leerRespuesta(InputStream in, byte[] buffer, long programada)
+            throws IOException {
+        String estado = leerLinea(in);
+        int codigo = Integer.parseInt(estado.substring(9, 12));
+        long largo = -1;
+        boolean chunked = false;
+        boolean cerrar = false;
+        String linea;
+        while (!(linea = leerLinea(in)).isEmpty()) {
+            int dosPuntos = linea.indexOf(':');
+            if (dosPuntos < 0) {
+                continue;
+            }
+            String nombre = linea.substring(0, dosPuntos).trim();
+            String valor = linea.substring(dosPuntos + 1).trim();
+            if (nombre.equalsIgnoreCase("Content-Length")) {
+                largo = Long.parseLong(valor);
+            } else if (nombre.equalsIgnoreCase("Transfer-Encoding")) {
+                chunked = valor.equalsIgnoreCase("chunked");
+            } else if (nombre.equalsIgnoreCase("Connection")) {
+                cerrar = valor.equalsIgnoreCase("close");
+            }
+        }
+
+        long leidos = 0;
+        if (chunked) {
+            long trozo;
+            while ((trozo = Long.parseLong(leerLinea(in).split(";")[0].trim(), 16)) > 0) {
+                leidos += saltar(in, buffer, trozo);
+                leerLinea(in);
+            }
+            while (!leerLinea(in).isEmpty()) {
+                // trailers
+            }
+        } else if (largo >= 0) {
+            leidos = saltar(in, buffer, largo);
+        } else if (codigo != 304 && codigo != 204) {
+            // Delimitada por el cierre
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                leidos += n;
+            }
+            cerrar = true;
+        }
+
+        if (midiendo) {
+            latencia.registrar((System.nanoTime() - programada) / 1000);
+            bytes.add(leidos);
+            porEstado.computeIfAbsent(codigo, k -> new LongAdder()).increment();
+        }
+        return cerrar;
+    }
+
+    private static long saltar(InputStream in, byte[] buffer, long largo) throws IOException {
+        long restante = largo;
+        while (restante > 0) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, restante));
+            if (n < 0) {
+                throw new EOFException("Cuerpo incompleto");
+            }
+            restante -= n;
+        }
+        return largo;
+    }
+
+    private static String leerLinea(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder(64);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                throw new EOFException("Conexion cerrada por el servidor");
+            }
+            if (b != '\r') {
+                sb.append((char) b);
+            }
+        }
+        return sb.toString();
+    }
+
+    // Solo para loopback con el certificado autofirmado de las pruebas
+    private static SSLSocketFactory confiarEnTodo() throws GeneralSecurityException {
+        TrustManager[] todos = {new X509TrustManager() {
+            @Override
+            public void checkClientTrusted(X509Certificate[] cadena, String tipo) {
+            }
+
+            @Override
+            public void checkServerTrusted(X509Certificate[] cadena, String tipo) {
+            }
+
+            @Override
+            public X509Certificate[] getAcceptedIssuers() {
+                return new X509Certificate[0];
+            }
+        }};
+        SSLContext contexto = SSLContext.getInstance("TLS");
+        contexto.init(null, todos, null);
+        return contexto.getSocketFactory();
+    }
+
+    private static void cerrar(Socket socket) {
+        if (socket != null) {
+            try { socket.close(); } catch (IOException ignored) {}
+        }
+    }
+
+    // ==========================
+    // REPORTE
+    // ==========================
+    private void reporte(double segundos, double rps) {
+        System.out.printf("%d peticiones en %.1f s: %.0f pet/s, %.1f MB/s, %d errores%n",
+                latencia.cuenta(), segundos, rps, bytes.sum() / segundos / (1024 * 1024),
+                errores.sum());
+        StringBuilder estados = new StringBuilder("Estados:");
+        for (Map.Entry<Integer, LongAdder> e : new TreeMap<>(porEstado).entrySet()) {
+            estados.append(' ').append(e.getKey()).append('=').append(e.getValue().sum());
+        }
+        System.out.println(estados);
+        System.out.println("Latencia (ms):");
+        for (double p : new double[]{0.5, 0.75, 0.9, 0.99, 0.999}) {
+            System.out.printf("  p%-6s %10.3f%n", sinDecimales(p * 100), latencia.percentil(p) / 1000.0);
+        }
+        System.out.printf("  max     %10.3f%n", latencia.maximo() / 1000.0);
+        if (latencia.cuenta() > 0) {
+            System.out.printf("  media   %10.3f%n", latencia.suma() / 1000.0 / latencia.cuenta());
+        }
+    }
+
+    private static String sinDecimales(double valor) {
+        return valor == Math.floor(valor) ? String.valueOf((long) valor) : String.valueOf(valor);
+    }
+
+    // ==========================
+    // ARCHIVOS DE PRUEBA
+    // ==========================
+
+    // "1k", "64k", "1m" -> carga-1k.bin, ... en la raiz del servidor
+    private static String[] crearArchivos(Path raiz, String[] tamanos) throws IOException {
+        String[] rutas = new String[tamanos.length];
+        for (int i = 0; i < tamanos.length; i++) {
+            String t = tamanos[i].trim().toLowerCase();
+            long bytes = Long.parseLong(t.replaceAll("[km]$", ""));
+            if (t.endsWith("k")) {
+                bytes *= 1024;
+            } else if (t.endsWith("m")) {
+                bytes *= 1024 * 1024;
+            }
+            String nombre = "carga-" + t + ".bin";
+            Path archivo = raiz.resolve(nombre);
+            if (!Files.exists(archivo) || Files.size(archivo) != bytes) {
+                byte[] bloque = new byte[8192];
+                for (int j = 0; j < bloque.length; j++) {
+                    bloque[j] = (byte) (j * 31 + 7);
+                }
+                try (OutputStream out = Files.newOutputStream(archivo)) {
+                    for (long escrito = 0; escrito < bytes; escrito += bloque.length) {
+                        out.write(bloque, 0, (int) Math.min(bloque.length, bytes - escrito));
+                    }
+                }
+            }
+            rutas[i] = "/" + nombre;
+        }
+        return rutas;
+    }
+}
@@ -0,0 +1,357 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Compresion de headers de HTTP/2 (RFC 7541). Cada conexion tiene un
+// Decodificador para lo que manda el cliente y un Codificador para las
+// respuestas; los dos llevan su propia tabla dinamica y no son thread-safe
+// (ConexionHTTP2 codifica bajo el lock de escritura).
+public class HPACK {
+
+    // Tamano de la tabla dinamica por defecto (SETTINGS_HEADER_TABLE_SIZE)
+    public static final int TAM_TABLA = 4096;
+
+    // Cada entrada cuenta 32 octetos ademas del nombre y el valor
+    private static final int SOBRECARGA_ENTRADA = 32;
+
+    private static final String[][] ESTATICA = {
+        {":authority", ""}, {":method", "GET"}, {":method", "POST"}, {":path", "/"},
+        {":path", "/index.html"}, {":scheme", "http"}, {":scheme", "https"},
+        {":status", "200"}, {":status", "204"}, {":status", "206"}, {":status", "304"},
+        {":status", "400"}, {":status", "404"}, {":status", "500"},
+        {"accept-charset", ""}, {"accept-encoding", "gzip, deflate"},
+        {"accept-language", ""}, {"accept-ranges", ""}, {"accept", ""},
+        {"access-control-allow-origin", ""}, {"age", ""}, {"allow", ""},
+        {"authorization", ""}, {"cache-control", ""}, {"content-disposition", ""},
+        {"content-encoding", ""}, {"content-language", ""}, {"content-length", ""},
+        {"content-location", ""}, {"content-range", ""}, {"content-type", ""},
+        {"cookie", ""}, {"date", ""}, {"etag", ""}, {"expect", ""}, {"expires", ""},
+        {"from", ""}, {"host", ""}, {"if-match", ""}, {"if-modified-since", ""},
+        {"if-none-match", ""}, {"if-range", ""}, {"if-unmodified-since", ""},
+        {"last-modified", ""}, {"link", ""}, {"location", ""}, {"max-forwards", ""},
+        {"proxy-authenticate", ""}, {"proxy-authorization", ""}, {"range", ""},
+        {"referer", ""}, {"refresh", ""}, {"retry-after", ""}, {"server", ""},
+        {"set-cookie", ""}, {"strict-transport-security", ""},
+        {"transfer-encoding", ""}, {"user-agent", ""}, {"vary", ""}, {"via", ""},
+        {"www-authenticate", ""}
+    };
+
+    // "nombre\0valor" -> indice y nombre -> primer indice, para el codificador
+    private static final Map<String, Integer> ESTATICA_COMPLETA = new HashMap<>();
+    private static final Map<String, Integer> ESTATICA_NOMBRE = new HashMap<>();
+
+    static {
+        for (int i = ESTATICA.length - 1; i >= 0; i--) {
+            ESTATICA_NOMBRE.put(ESTATICA[i][0], i + 1);
+            if (!ESTATICA[i][1].isEmpty()) {
+                ESTATICA_COMPLETA.put(ESTATICA[i][0] + '\0' + ESTATICA[i][1], i + 1);
+            }
+        }
+    }
+
+    // ==========================
+    // TABLA DINAMICA
+    // ==========================
+
+    // Anillo de entradas, la mas nueva es el indice 62 del espacio de HPACK.
+    // Al superar el tamano maximo se desalojan las mas viejas
+    private static class Tabla {
+        private String[] nombres = new String[16];
+        private String[] valores = new String[16];
+        private int primera;        // posicion de la mas nueva en el anillo
+        private int cantidad;
+        private int tamano;
+        private int maximo = TAM_TABLA;
+
+        int cantidad() {
+            return cantidad;
+        }
+
+        // i = 0 es la entrada mas nueva
+        String nombre(int i) {
+            return nombres[(primera + i) % nombres.length];
+        }
+
+        String valor(int i) {
+            return valores[(primera + i) % valores.length];
+        }
+
+        void agregar(String nombre, String valor) {
+            int largo = tamano(nombre, valor);
+            if (largo > maximo) {
+                // Una entrada mas grande que la tabla la deja vacia
+                cantidad = 0;
+                tamano = 0;
+                return;
+            }
+            desalojar(maximo - largo);
+            if (cantidad == nombres.length) {
+                crecer();
+            }
+            primera = (primera - 1 + nombres.length) % nombres.length;
+            nombres[primera] = nombre;
+            valores[primera] = valor;
+            cantidad++;
+            tamano += largo;
+        }
+
+        void maximo(int maximo) {
+            this.maximo = maximo;
+            desalojar(maximo);
+        }
+
+        private void desalojar(int hasta) {
+            while (tamano > hasta && cantidad > 0) {
+                int ultima = (primera + cantidad - 1) % nombres.length;
+                tamano -= tamano(nombres[ultima], valores[ultima]);
+                nombres[ultima] = null;
+                valores[ultima] = null;
+                cantidad--;
+            }
+        }
+
+        private void crecer() {
+            String[] n = new String[nombres.length * 2];
+            String[] v = new String[valores.length * 2];
+            for (int i = 0; i < cantidad; i++) {
+                n[i] = nombre(i);
+                v[i] = valor(i);
+            }
+            nombres = n;
+            valores = v;
+            primera = 0;
+        }
+
+        static int tamano(String nombre, String valor) {
+            return nombre.length() + valor.length() + SOBRECARGA_ENTRADA;
+        }
+    }
+
+    // ==========================
+    // DECODIFICADOR
+    // ==========================
+    public static class Decodificador {
+
+        private final Tabla tabla = new Tabla();
+        // Lo que anunciamos en SETTINGS; el cliente no puede pedir mas
+        private final int limite = TAM_TABLA;
+        private int tamanoLista;
+
+        // Headers del bloque en orden, como pares {nombre, valor}.
+        // IOException = error de compresion (la conexion no puede seguir)
+        public List<String[]> decodificar(byte[] bloque, int largo) throws IOException {
+            List<String[]> headers = new ArrayList<>();
+            tamanoLista = 0;
+            int[] pos = {0};
+            boolean alInicio = true;
+            while (pos[0] < largo) {
+                int b = bloque[pos[0]] & 0xff;
+                if ((b & 0x80) != 0) {
+                    // Indexado: 1xxxxxxx
+                    int indice = entero(bloque, largo, pos, 7);
+                    agregar(headers, nombre(indice), valor(indice));
+                } else if ((b & 0x40) != 0) {
+                    // Literal con indexado incremental: 01xxxxxx
+                    int indice = entero(bloque, largo, pos, 6);
+                    String nombre = indice == 0 ? texto(bloque, largo, pos) : nombre(indice);
+                    String valor = texto(bloque, largo, pos);
+                    tabla.agregar(nombre, valor);
+                    agregar(headers, nombre, valor);
+                } else if ((b & 0x20) != 0) {
+                    // Cambio de tamano de la tabla: 001xxxxx, solo al inicio
+                    int maximo = entero(bloque, largo, pos, 5);
+                    if (!alInicio || maximo > limite) {
+                        throw new IOException("Cambio de tamano de tabla invalido");
+                    }
+                    tabla.maximo(maximo);
+                    continue;
+                } else {
+                    // Literal sin indexar (0000xxxx) o nunca indexado (0001xxxx)
+                    int indice = entero(bloque, largo, pos, 4);
+                    String nombre = indice == 0 ? texto(bloque, largo, pos) : nombre(indice);
+                    agregar(headers, nombre, texto(bloque, largo, pos));
+                }
+                alInicio = false;
+            }
+            return headers;
+        }
+
+        // Tamano del ultimo bloque segun SETTINGS_MAX_HEADER_LIST_SIZE
+        public int tamanoLista() {
+            return tamanoLista;
+        }
+
+        private void agregar(List<String[]> headers, String nombre, String valor) {
+            tamanoLista += Tabla.tamano(nombre, valor);
+            headers.add(new String[]{nombre, valor});
+        }
+
+        private String nombre(int indice) throws IOException {
+            if (indice >= 1 && indice <= ESTATICA.length) {
+                return ESTATICA[indice - 1][0];
+            }
+            return tabla.nombre(dinamico(indice));
+        }
+
+        private String valor(int indice) throws IOException {
+            if (indice >= 1 && indice <= ESTATICA.length) {
+                return ESTATICA[indice - 1][1];
+            }
+            return tabla.valor(dinamico(indice));
+        }
+
+        private int dinamico(int indice) throws IOException {
+            int i = indice - ESTATICA.length - 1;
+            if (i < 0 || i >= tabla.cantidad()) {
+                throw new IOException("Indice HPACK fuera de rango: " + indice);
+            }
+            return i;
+        }
+    }
+
+    // Entero con prefijo de n bits (RFC 7541, 5.1)
+    static int entero(byte[] datos, int largo, int[] pos, int n) throws IOException {
+        int maximo = (1 << n) - 1;
+        int valor = datos[pos[0]++] & maximo;
+        if (valor < maximo) {
+            return valor;
+        }
+        int desplazamiento = 0;
+        while (true) {
+            if (pos[0] >= largo || desplazamiento > 21) {
+                throw new IOException("Entero HPACK invalido");
+            }
+            int b = datos[pos[0]++] & 0xff;
+            valor += (b & 0x7f) << desplazamiento;
+            desplazamiento += 7;
+            if ((b & 0x80) == 0) {
+                return valor;
+            }
+        }
+    }
+
+    // String literal, con o sin Huffman (RFC 7541, 5.2)
+    static String texto(byte[] datos, int largo, int[] pos) throws IOException {
+        if (pos[0] >= largo) {
+            throw new IOException("String HPACK truncado");
+        }
+        boolean huffman = (datos[pos[0]] & 0x80) != 0;
+        int n = entero(datos, largo, pos, 7);
+        if (n > largo - pos[0]) {
+            throw new IOException("String HPACK truncado");
+        }
+        int desde = pos[0];
+        pos[0] += n;
+        if (huffman) {
+            return new String(Huffman.decodificar(datos, desde, n), StandardCharsets.ISO_8859_1);
+        }
+        return new String(datos, desde, n, StandardCharsets.ISO_8859_1);
+    }
+
+    // ==========================
+    // CODIFICADOR
+    // ==========================
+    public static class Codificador {
+
+        private final Tabla tabla = new Tabla();
+        // Cambio de tamano pedido por el cliente que se avisa en el proximo bloque
+        private int maximoPendiente = -1;
+
+        // SETTINGS_HEADER_TABLE_SIZE del cliente; nunca se usa mas de TAM_TABLA
+        public void limite(int limite) {
+            int maximo = Math.min(limite, TAM_TABLA);
+            if (maximo != tabla.maximo) {
+                tabla.maximo(maximo);
+                maximoPendiente = maximo;
+            }
+        }
+
+        public void codificar(String nombre, String valor, ByteArrayOutputStream salida) {
+            if (maximoPendiente >= 0) {
+                escribirEntero(salida, 0x20, 5, maximoPendiente);
+                maximoPendiente = -1;
+            }
+
+            Integer completo = ESTATICA_COMPLETA.get(nombre + '\0' + valor);
+            if (completo != null) {
+                escribirEntero(salida, 0x80, 7, completo);
+                return;
+            }
+
+            int indiceNombre = 0;
+            for (int i = 0; i < tabla.cantidad(); i++) {
+                if (tabla.nombre(i).equals(nombre)) {
+                    if (tabla.valor(i).equals(valor)) {
+                        escribirEntero(salida, 0x80, 7, ESTATICA.length + 1 + i);
+                        return;
+                    }
+                    if (indiceNombre == 0) {
+                        indiceNombre = ESTATICA.length + 1 + i;
+                    }
+                }
+            }
+            Integer estatico = ESTATICA_NOMBRE.get(nombre);
+            if (estatico != null) {
+                indiceNombre = estatico;
+            }
+
+            // Lo que cambia en cada respuesta no se guarda en la tabla: solo
+            // desalojaria a los headers que si se repiten (CORS, servidor, tipo)
+            if (varia(nombre)) {
+                escribirEntero(salida, 0x00, 4, indiceNombre);
+            } else {
+                escribirEntero(salida, 0x40, 6, indiceNombre);
+                tabla.agregar(nombre, valor);
+            }
+            if (indiceNombre == 0) {
+                escribirTexto(salida, nombre);
+            }
+            escribirTexto(salida, valor);
+        }
+
+        private static boolean varia(String nombre) {
+            switch (nombre) {
+                case "content-length":
+                case "content-range":
+                case "etag":
+                case "last-modified":
+                case "date":
+                    return true;
+                default:
+                    return false;
+            }
+        }
+    }
+
+    static void escribirEntero(ByteArrayOutputStream salida, int marca, int n, int valor) {
+        int maximo = (1 << n) - 1;
+        if (valor < maximo) {
+            salida.write(marca | valor);
+            return;
+        }
+        salida.write(marca | maximo);
+        valor -= maximo;
+        while (valor >= 0x80) {
+            salida.write((valor & 0x7f) | 0x80);
+            valor >>>= 7;
+        }
+        salida.write(valor);
+    }
+
+    // Huffman solo si de verdad ocupa menos
+    static void escribirTexto(ByteArrayOutputStream salida, String texto) {
+        byte[] datos = texto.getBytes(StandardCharsets.ISO_8859_1);
+        int comprimido = Huffman.largo(datos);
+        if (comprimido < datos.length) {
+            escribirEntero(salida, 0x80, 7, comprimido);
+            Huffman.codificar(datos, salida);
+        } else {
+            escribirEntero(salida, 0x00, 7, datos.length);
+            salida.write(datos, 0, datos.length);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Histograma log-lineal al estilo HDR: valores exactos hasta 32 y despues
+// 16 cubetas por cada potencia de 2 (error relativo < 6.25%). Registrar es
+// un incremento atomico sin locks; los percentiles se calculan al leer.
+public class Histograma {
+
+    private static final int EXACTOS = 32;       // 2^5
+    private static final int SUB_BITS = 4;       // 16 cubetas por octava
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int CUBETAS = EXACTOS + (63 - 5) * SUB;
+
+    private final AtomicLongArray cuentas = new AtomicLongArray(CUBETAS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder suma = new LongAdder();
+
+    public void registrar(long valor) {
+        if (valor < 0) {
+            valor = 0;
+        }
+        cuentas.incrementAndGet(indice(valor));
+        total.increment();
+        suma.add(valor);
+    }
+
+    static int indice(long valor) {
+        if (valor < EXACTOS) {
+            return (int) valor;
+        }
+        int exponente = 63 - Long.numberOfLeadingZeros(valor);   // >= 5
+        int mantisa = (int) (valor >>> (exponente - SUB_BITS)) & (SUB - 1);
+        return EXACTOS + (exponente - 5) * SUB + mantisa;
+    }
+
+    // Mayor valor que cae en la cubeta (el percentil se reporta por arriba)
+    static long limiteSuperior(int indice) {
+        if (indice < EXACTOS) {
+            return indice;
+        }
+        int exponente = (indice - EXACTOS) / SUB + 5;
+        int mantisa = (indice - EXACTOS) % SUB;
+        long inicio = (long) (SUB + mantisa) << (exponente - SUB_BITS);
+        return inicio + (1L << (exponente - SUB_BITS)) - 1;
+    }
+
+    public long cuenta() {
+        return total.sum();
+    }
+
+    public long suma() {
+        return suma.sum();
+    }
+
+    // p entre 0 y 1 (0.5, 0.99, 0.999)
+    public long percentil(double p) {
+        long n = 0;
+        long[] copia = new long[CUBETAS];
+        for (int i = 0; i < CUBETAS; i++) {
+            copia[i] = cuentas.get(i);
+            n += copia[i];
+        }
+        if (n == 0) {
+            return 0;
+        }
+        long objetivo = (long) Math.ceil(p * n);
+        long acumulado = 0;
+        for (int i = 0; i < CUBETAS; i++) {
+            acumulado += copia[i];
+            if (acumulado >= objetivo) {
+                return limiteSuperior(i);
+            }
+        }
+        return limiteSuperior(CUBETAS - 1);
+    }
+
+    public long maximo() {
+        for (int i = CUBETAS - 1; i >= 0; i--) {
+            if (cuentas.get(i) > 0) {
+                return limiteSuperior(i);
+            }
+        }
+        return 0;
+    }
+}
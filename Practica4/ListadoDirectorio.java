@@ -0,0 +1,123 @@
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+// Contenido de un directorio para GET /dir/: HTML navegable o JSON
+// (?formato=json o Accept: application/json). Los directorios van
+// primero y los archivos ocultos no se muestran.
+public class ListadoDirectorio {
+
+    private final String ruta;
+    private final List<File> entradas = new ArrayList<>();
+
+    public ListadoDirectorio(String ruta, File directorio) {
+        this.ruta = ruta;
+        File[] hijos = directorio.listFiles();
+        if (hijos != null) {
+            for (File f : hijos) {
+                if (!f.getName().startsWith(".")) {
+                    entradas.add(f);
+                }
+            }
+        }
+        entradas.sort(Comparator.comparing((File f) -> !f.isDirectory())
+                .thenComparing(File::getName, String.CASE_INSENSITIVE_ORDER));
+    }
+
+    public byte[] html() {
+        String titulo = escaparHTML(ruta);
+        StringBuilder sb = new StringBuilder(256 + entradas.size() * 160)
+                .append("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\">")
+                .append("<title>Indice de ").append(titulo).append("</title></head>\n<body>\n")
+                .append("<h1>Indice de ").append(titulo).append("</h1>\n")
+                .append("<p><a href=\"?zip\">Descargar todo (.zip)</a></p>\n")
+                .append("<table>\n<tr><th>Nombre</th><th>Tamano</th><th>Modificado</th></tr>\n");
+        if (!ruta.equals("/")) {
+            sb.append("<tr><td><a href=\"../\">../</a></td><td></td><td></td></tr>\n");
+        }
+        for (File f : entradas) {
+            String nombre = f.getName() + (f.isDirectory() ? "/" : "");
+            sb.append("<tr><td><a href=\"").append(escaparHTML(codificarURL(nombre))).append("\">")
+              .append(escaparHTML(nombre)).append("</a></td><td>")
+              .append(f.isDirectory() ? "-" : String.valueOf(f.length())).append("</td><td>")
+              .append(Instant.ofEpochMilli(f.lastModified())).append("</td></tr>\n");
+        }
+        return sb.append("</table>\n</body></html>\n").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    public byte[] json() {
+        StringBuilder sb = new StringBuilder(64 + entradas.size() * 120)
+                .append("{\"ruta\":").append(textoJSON(ruta)).append(",\"entradas\":[");
+        for (int i = 0; i < entradas.size(); i++) {
+            File f = entradas.get(i);
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append("{\"nombre\":").append(textoJSON(f.getName()))
+              .append(",\"directorio\":").append(f.isDirectory())
+              .append(",\"tamano\":").append(f.isDirectory() ? 0 : f.length())
+              .append(",\"modificado\":\"").append(Instant.ofEpochMilli(f.lastModified()))
+              .append("\"}");
+        }
+        return sb.append("]}\n").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // ==========================
+    // UTILIDADES
+    // ==========================
+
+    private static String escaparHTML(String texto) {
+        StringBuilder sb = new StringBuilder(texto.length());
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            switch (c) {
+                case '<': sb.append("&lt;"); break;
+                case '>': sb.append("&gt;"); break;
+                case '&': sb.append("&amp;"); break;
+                case '"': sb.append("&quot;"); break;
+                case '\'': sb.append("&#39;"); break;
+                default: sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    // Tambien lo usa RegistroAccesos
+    static String textoJSON(String texto) {
+        StringBuilder sb = new StringBuilder(texto.length() + 2).append('"');
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    // Todo lo que no es "no reservado" (RFC 3986) va como %XX de UTF-8;
+    // la '/' final de los directorios se conserva
+    private static String codificarURL(String nombre) {
+        StringBuilder sb = new StringBuilder(nombre.length());
+        byte[] bytes = nombre.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < bytes.length; i++) {
+            int b = bytes[i] & 0xff;
+            boolean libre = (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z')
+                    || (b >= '0' && b <= '9') || b == '-' || b == '.' || b == '_' || b == '~'
+                    || (b == '/' && i == bytes.length - 1);
+            if (libre) {
+                sb.append((char) b);
+            } else {
+                sb.append('%').append(Character.toUpperCase(Character.forDigit(b >> 4, 16)))
+                  .append(Character.toUpperCase(Character.forDigit(b & 0xf, 16)));
+            }
+        }
+        return sb.toString();
+    }
+}
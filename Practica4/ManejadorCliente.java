@@ -1,181 +1,740 @@
 import java.io.*;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Locale;
 
 public class ManejadorCliente implements Runnable {
 
+    // Keep-alive: tiempo maximo esperando la siguiente peticion y
+    // cuantas peticiones se atienden por conexion antes de cerrarla
+    static final int TIEMPO_INACTIVO = 5000;
+    static final int MAX_PETICIONES = 100;
+
+    // Cuerpo sin leer que se descarta para reutilizar la conexion
+    private static final long MAX_DESCARTE = 1024 * 1024;
+    // POST con cuerpo hasta este tamano se arma en memoria; mas grande va a disco
+    private static final long MAX_POST_MEMORIA = 64 * 1024;
+
+    private static final long BLOQUE_VOLCADO = 256 * 1024;
+
+    private static final byte[] CONTINUAR = "HTTP/1.1 100 Continue\r\n\r\n".getBytes();
+    private static final byte[] CAMBIO_H2C = ("HTTP/1.1 101 Switching Protocols\r\n"
+            + "Connection: Upgrade\r\nUpgrade: h2c\r\n\r\n").getBytes();
+
+    // Formato IMF-fixdate de HTTP: "Sun, 06 Nov 1994 08:49:37 GMT"
+    private static final DateTimeFormatter FECHA_HTTP = DateTimeFormatter
+            .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US)
+            .withZone(ZoneOffset.UTC);
+
     private Socket cliente;
     private String nombreServidor;
+    // Si no es null las peticiones se reenvian a un backend (proxy inverso)
+    private Balanceador balanceador;
+    private CacheArchivos cache = CacheArchivos.compartida();
+    // CORS + X-Servidor ya codificados
+    private final byte[] comunes;
+
+    private int atendidas = 0;
+    // Momento del accept(), para medir cuanto espero la conexion en la cola
+    private final long aceptado = System.nanoTime();
 
     public ManejadorCliente(Socket cliente, String nombreServidor) {
         this.cliente = cliente;
         this.nombreServidor = nombreServidor;
+        this.comunes = headersComunes(nombreServidor);
     }
 
-    @Override
-    public void run() {
-        try {
-            BufferedReader in = new BufferedReader(
-                    new InputStreamReader(cliente.getInputStream()));
-            OutputStream out = cliente.getOutputStream();
-
-            // Leer request line
-            String requestLine = in.readLine();
-            if (requestLine == null || requestLine.isEmpty()) {
-                cliente.close();
-                return;
-            }
-
-            String[] partes = requestLine.split(" ");
-            String metodo = partes[0];
-            String recurso = partes[1];
+    public ManejadorCliente(Socket cliente, String nombreServidor, Balanceador balanceador) {
+        this(cliente, nombreServidor);
+        this.balanceador = balanceador;
+    }
 
-            if (metodo.equals("OPTIONS")) {
-                String respuesta =
-                    "HTTP/1.1 200 OK\r\n" +
-                    headersCORS() +
-                    "\r\n";
-                out.write(respuesta.getBytes());
-                cliente.close();
-                return;
-            }
+    // Para motores que no tienen un Socket por peticion (ServidorNIO)
+    public ManejadorCliente(String nombreServidor) {
+        this(null, nombreServidor);
+    }
 
+    // Oyentes con SO_REUSEPORT: cada uno usa su propia cache
+    public ManejadorCliente(Socket cliente, String nombreServidor, CacheArchivos cache) {
+        this(cliente, nombreServidor);
+        this.cache = cache;
+    }
 
-            switch (metodo) {
-                case "GET":
-                    manejarGET(out, recurso);
+    @Override
+    public void run() {
+        Metricas.global().esperaEnCola(System.nanoTime() - aceptado);
+        // El socket paso al Notificador: no se cierra al salir
+        boolean entregado = false;
+        try {
+            cliente.setSoTimeout(TIEMPO_INACTIVO);
+            EntradaHTTP in = new EntradaHTTP(cliente.getInputStream());
+            OutputStream out = new BufferedOutputStream(cliente.getOutputStream());
+
+            // Una peticion tras otra sobre el mismo socket. Las respuestas
+            // salen en el mismo orden en que llegan las peticiones (pipelining)
+            ParserHTTP parser = new ParserHTTP();
+            while (true) {
+                if (!in.leerCabecera(parser)) {
+                    break;
+                }
+                if (parser.error() != 0) {
+                    responderError(out, parser.error());
                     break;
-                case "POST":
-                    manejarPOST(in, out);
+                }
+
+                // HTTP/2 con conocimiento previo: "PRI * HTTP/2.0" y el resto
+                // del prefacio; desde aqui el socket habla en frames
+                if (parser.version().equals(ConexionHTTP2.VERSION)) {
+                    if (parser.metodo().equals("PRI")) {
+                        new ConexionHTTP2(cliente, in, out, this).servir(null, null);
+                    }
                     break;
-                case "PUT":
-                    manejarPUT(in, out, recurso);
+                }
+
+                long inicio = System.nanoTime();
+                Peticion peticion = new Peticion(parser);
+                CuerpoPeticion cuerpo;
+                try {
+                    cuerpo = CuerpoPeticion.de(peticion, in);
+                } catch (NumberFormatException e) {
+                    // Sin saber donde termina el cuerpo no se puede seguir
+                    responderError(out, ParserHTTP.MAL_FORMADA);
                     break;
-                case "DELETE":
-                    manejarDELETE(out, recurso);
+                }
+                peticion.setCuerpo(cuerpo);
+                if (!cuerpo.estaVacio() && parser.valorEs("expect", "100-continue")) {
+                    out.write(CONTINUAR);
+                    out.flush();
+                }
+
+                // Upgrade: h2c. Solo sin cuerpo (si no habria que leerlo
+                // entero antes del 101); la peticion pasa a ser el flujo 1
+                if (cuerpo.estaVacio() && parser.valorEs("upgrade", "h2c")
+                        && parser.buscar("http2-settings") >= 0) {
+                    out.write(CAMBIO_H2C);
+                    new ConexionHTTP2(cliente, in, out, this)
+                            .servir(peticion, parser.valor("http2-settings"));
                     break;
-                default:
-                    enviarTexto(out, "Metodo HTTP no soportado");
+                }
+
+                // Solo HTTP/1.1 puede pasar el socket al Notificador; SSLSocket no tiene canal
+                peticion.setCanal(cliente.getChannel());
+                atendidas++;
+                Respuesta respuesta;
+                try {
+                    respuesta = atender(peticion);
+                } catch (CuerpoPeticion.Malformado e) {
+                    responderError(out, ParserHTTP.MAL_FORMADA);
+                    break;
+                }
+
+                // Lo que el manejador no leyo del cuerpo se descarta; si es
+                // demasiado, sale mas barato cerrar la conexion
+                boolean mantenerConexion = peticion.aceptaKeepAlive()
+                        && !respuesta.isCerrarConexion()
+                        && atendidas < MAX_PETICIONES
+                        && cuerpo.descartar(MAX_DESCARTE);
+                headersConexion(respuesta, mantenerConexion, atendidas);
+
+                try {
+                    respuesta.escribir(out, cliente.getChannel());
+                } finally {
+                    respuesta.cerrar();
+                }
+                registrar(peticion, respuesta, System.nanoTime() - inicio);
+
+                // El socket queda en manos del Notificador y este hilo, libre
+                if (respuesta.getSuscripcion() != null) {
+                    out.flush();
+                    Notificador.global().suscribir(cliente.getChannel(), respuesta.getSuscripcion());
+                    entregado = true;
+                    return;
+                }
+
+                // Solo se vacia el buffer cuando no hay otra peticion
+                // en cola: las respuestas en pipeline salen juntas
+                if (!in.hayDatos()) {
+                    out.flush();
+                }
+                if (!mantenerConexion) {
+                    break;
+                }
             }
 
-            cliente.close();
+            out.flush();
 
+        } catch (SocketTimeoutException e) {
+            // Conexion inactiva: se cierra sin mas
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            if (!entregado) {
+                try { cliente.close(); } catch (IOException ignored) {}
+            }
+        }
+    }
+
+    // Cabecera invalida o demasiado grande: se responde y se cierra
+    private void responderError(OutputStream out, int estado) throws IOException {
+        Respuesta r = respuestaError(estado);
+        headersConexion(r, false, atendidas);
+        r.escribir(out, cliente.getChannel());
+        registrar(null, r, 0);
+    }
+
+    // Una peticion ya respondida: metricas y registro de accesos. Sin
+    // peticion cuando la cabecera no se pudo parsear
+    void registrar(Peticion peticion, Respuesta respuesta, long nanos) {
+        String metodo = peticion == null ? "" : peticion.getMetodo();
+        Metricas.global().peticion(metodo, respuesta.getEstado(), respuesta.getLongitud(), nanos);
+        RegistroAccesos registro = RegistroAccesos.global();
+        if (registro != null) {
+            // Lo reenviado lleva el X-Servidor del backend que respondio
+            String servidor = respuesta.getHeader("X-Servidor");
+            registro.registrar(servidor != null ? servidor : nombreServidor, metodo,
+                    peticion == null ? "" : peticion.getRecurso(),
+                    peticion == null ? "" : peticion.getVersion(),
+                    respuesta.getEstado(), respuesta.getLongitud(), nanos);
+        }
+    }
+
+    Respuesta respuestaError(int estado) {
+        return nuevaRespuesta(estado, ParserHTTP.razon(estado));
+    }
+
+    // Punto de entrada comun a todos los motores: peticion -> respuesta
+    public Respuesta atender(Peticion peticion) throws IOException {
+
+        // Las metricas son de este proceso: nunca se reenvian
+        if (peticion.getRecurso().equals("/metrics") && peticion.getMetodo().equals("GET")) {
+            return nuevaRespuesta(200, "OK")
+                    .header("Content-Type", "text/plain; version=0.0.4")
+                    .cuerpo(Metricas.global().texto().getBytes());
+        }
+        // Los archivos son los mismos en todos los backends: tampoco se reenvia
+        if (peticion.getRuta().equals(Notificador.RUTA) && peticion.getMetodo().equals("GET")) {
+            return manejarEventos(peticion);
+        }
+
+        if (balanceador != null) {
+            Respuesta r = balanceador.reenviar(peticion);
+            if (r != null) {
+                Metricas.global().reenvio();
+                return r;
+            }
+            // Ningun backend disponible: se atiende aqui
+        }
+
+        if (peticion.getMetodo().equals("OPTIONS")) {
+            return nuevaRespuesta(200, "OK");
+        }
+
+        switch (peticion.getMetodo()) {
+            case "GET":
+                return manejarGET(peticion);
+            case "POST":
+                return manejarPOST(peticion);
+            case "PUT":
+                return manejarPUT(peticion);
+            case "DELETE":
+                return manejarDELETE(peticion);
+            default:
+                // No se sabe si trae cuerpo: no se puede seguir leyendo
+                Respuesta r = respuestaTexto("Metodo HTTP no soportado");
+                r.setCerrarConexion(true);
+                return r;
         }
     }
 
     // ==========================
     // GET → servir archivos
     // ==========================
-    private void manejarGET(OutputStream out, String recurso) throws IOException {
+    private Respuesta manejarGET(Peticion peticion) throws IOException {
 
-        File archivo = new File("." + recurso);
+        File archivo = resolver(peticion.getRuta());
+        if (archivo == null) {
+            return respuestaTexto("Archivo no encontrado");
+        }
+        if (archivo.isDirectory()) {
+            return manejarDirectorio(peticion, archivo);
+        }
+        Path ruta = rutaCache(archivo);
+        String mime = obtenerMime(archivo.getName());
 
-        if (!archivo.exists() || archivo.isDirectory()) {
-            enviarTexto(out, "Archivo no encontrado");
-            return;
+        // Los rangos siempre se sirven sobre el archivo sin comprimir
+        if (peticion.getHeader("range") == null && Compresion.esComprimible(mime)) {
+            Respuesta comprimida = manejarComprimido(peticion, archivo, ruta, mime);
+            if (comprimida != null) {
+                return comprimida;
+            }
         }
 
-        byte[] datos = new FileInputStream(archivo).readAllBytes();
-        String mime = obtenerMime(archivo.getName());
+        return servirArchivo(peticion, archivo, ruta, mime, null);
+    }
+
+    // Listado (HTML o JSON) o, con ?zip, el arbol completo en un ZIP que
+    // se genera mientras se envia
+    private Respuesta manejarDirectorio(Peticion peticion, File directorio) throws IOException {
+        String ruta = peticion.getRuta();
+        if (!ruta.endsWith("/")) {
+            // Con la '/' final los enlaces relativos del listado funcionan
+            String recurso = peticion.getRecurso();
+            int q = recurso.indexOf('?');
+            return nuevaRespuesta(301, "Moved Permanently")
+                    .header("Location", q < 0 ? recurso + "/"
+                            : recurso.substring(0, q) + "/" + recurso.substring(q));
+        }
+
+        if (peticion.getParametro("zip") != null) {
+            String nombre = directorio.getCanonicalFile().getName();
+            Respuesta r = nuevaRespuesta(200, "OK")
+                    .header("Content-Type", "application/zip")
+                    .header("Content-Disposition", "attachment; filename=\""
+                            + (nombre.isEmpty() ? "raiz" : nombre) + ".zip\"")
+                    .generado(new ZipDirectorio(directorio.toPath()));
+            if (peticion.getVersion().equals("HTTP/1.0")) {
+                r.delimitarPorCierre();
+            }
+            return r;
+        }
+
+        ListadoDirectorio listado = new ListadoDirectorio(ruta, directorio);
+        String formato = peticion.getParametro("formato");
+        String accept = peticion.getHeader("accept");
+        if ("json".equals(formato)
+                || (formato == null && accept != null && accept.contains("application/json"))) {
+            return nuevaRespuesta(200, "OK")
+                    .header("Content-Type", "application/json; charset=utf-8")
+                    .header("Vary", "Accept")
+                    .cuerpo(listado.json());
+        }
+        return nuevaRespuesta(200, "OK")
+                .header("Content-Type", "text/html; charset=utf-8")
+                .header("Vary", "Accept")
+                .cuerpo(listado.html());
+    }
+
+    // codificacion != null cuando el archivo es un hermano precomprimido; se
+    // guarda como variante para no mezclarlo con un GET directo al .gz
+    private Respuesta servirArchivo(Peticion peticion, File archivo, Path ruta,
+                                    String mime, String codificacion) throws IOException {
+
+        String variante = codificacion == null ? "" : codificacion;
+
+        // Archivo caliente: headers ya renderizados y cuerpo en memoria
+        return servirArchivo(peticion, archivo, ruta, mime, codificacion,
+                cache.obtener(ruta, variante));
+    }
+
+    // enCache: la entrada ya validada, o null para abrir el archivo
+    private Respuesta servirArchivo(Peticion peticion, File archivo, Path ruta, String mime,
+                                    String codificacion, CacheArchivos.Entrada enCache)
+            throws IOException {
+
+        String variante = codificacion == null ? "" : codificacion;
+
+        if (enCache == null) {
+            if (!archivo.exists() || archivo.isDirectory()) {
+                return respuestaTexto("Archivo no encontrado");
+            }
+
+            // El canal queda abierto hasta que el motor termina de enviar
+            // (Respuesta.cerrar); el cuerpo nunca se copia completo al heap
+            FileChannel canal = FileChannel.open(archivo.toPath(), StandardOpenOption.READ);
+            long modificado = archivo.lastModified();
+            long tamano = canal.size();
+            byte[] headers = headersEntidad(mime, modificado, tamano, codificacion);
+
+            if (!cache.admite(tamano)) {
+                return responderArchivo(peticion, null, canal, mime, modificado, tamano,
+                        headers, codificacion);
+            }
+            try {
+                enCache = cache.cargar(ruta, variante, canal, mime, modificado, headers);
+            } finally {
+                canal.close();
+            }
+        }
+
+        return responderArchivo(peticion, enCache, null, mime, enCache.getModificado(),
+                enCache.getTamano(), enCache.getHeaders(), codificacion);
+    }
+
+    // Primero un hermano precomprimido (.br, .gz) al menos tan nuevo como el
+    // original; si no hay, gzip/deflate al vuelo guardado en la cache.
+    // null = el cliente no acepta nada que se pueda ofrecer, o no existe el
+    // original (un .gz que quedo suelto no se sirve en su lugar)
+    private Respuesta manejarComprimido(Peticion peticion, File archivo, Path ruta,
+                                        String mime) throws IOException {
+
+        String aceptadas = peticion.getHeader("accept-encoding");
+        if (aceptadas == null) {
+            return null;
+        }
+        BasicFileAttributes original = CacheArchivos.atributos(archivo.toPath());
+        if (original == null) {
+            return null;
+        }
+        long modificadoOriginal = original.lastModifiedTime().toMillis();
+
+        for (String codificacion : Compresion.PRECOMPRIMIDAS) {
+            if (!Compresion.acepta(aceptadas, codificacion)) {
+                continue;
+            }
+            File hermano = new File(archivo.getPath() + Compresion.extension(codificacion));
+            Path rutaHermano = rutaCache(hermano);
+            // Si ya esta en cache, obtener() lo valida y trae su fecha
+            CacheArchivos.Entrada enCache = cache.obtener(rutaHermano, codificacion);
+            long modificado;
+            if (enCache != null) {
+                modificado = enCache.getModificado();
+            } else {
+                BasicFileAttributes attrs = CacheArchivos.atributos(hermano.toPath());
+                modificado = attrs == null ? -1 : attrs.lastModifiedTime().toMillis();
+            }
+            if (modificado >= modificadoOriginal) {
+                return servirArchivo(peticion, hermano, rutaHermano, mime, codificacion, enCache);
+            }
+        }
+
+        for (String codificacion : Compresion.AL_VUELO) {
+            if (!Compresion.acepta(aceptadas, codificacion)) {
+                continue;
+            }
+            CacheArchivos.Entrada variante = cache.obtener(ruta, codificacion);
+            if (variante == null) {
+                long tamano = original.size();
+                if (tamano < Compresion.MIN_TAMANO || tamano > Compresion.MAX_AL_VUELO) {
+                    return null;
+                }
+                long modificado = modificadoOriginal;
+                byte[] datos = Compresion.comprimir(archivo.toPath(), codificacion);
+                variante = cache.guardarVariante(ruta, codificacion, datos,
+                        headersEntidad(mime, modificado, tamano, codificacion),
+                        mime, modificado, tamano);
+            }
+            return responderArchivo(peticion, variante, null, mime, variante.getModificado(),
+                    variante.getTamano(), variante.getHeaders(), codificacion);
+        }
+        return null;
+    }
+
+    // Decide entre 304, 200, 206 o 416. El cuerpo sale de la cache
+    // (entrada != null) o del canal del archivo. Las variantes comprimidas
+    // nunca llegan con Range, solo pasan por el 304 o el 200
+    private Respuesta responderArchivo(Peticion peticion, CacheArchivos.Entrada entrada,
+                                       FileChannel canal, String mime, long modificado,
+                                       long tamano, byte[] headers, String codificacion)
+            throws IOException {
+
+        String etag = etag(modificado, tamano, codificacion);
+
+        if (noModificado(peticion, etag, modificado)) {
+            cerrarCanal(canal);
+            Respuesta r = nuevaRespuesta(304, "Not Modified")
+                    .header("ETag", etag)
+                    .header("Last-Modified", fechaHTTP(modificado));
+            if (Compresion.esComprimible(mime)) {
+                r.header("Vary", "Accept-Encoding");
+            }
+            return r;
+        }
+
+        // If-Range: solo se respetan los rangos si el cliente tiene esta version
+        String ifRange = peticion.getHeader("if-range");
+        List<RangoBytes> rangos = null;
+        if (ifRange == null || ifRange.equals(etag) || ifRange.equals(fechaHTTP(modificado))) {
+            rangos = RangoBytes.parsear(peticion.getHeader("range"), tamano);
+        }
+
+        if (rangos == null) {
+            Respuesta r = nuevaRespuesta(200, "OK").headers(headers);
+            return entrada != null
+                    ? r.cuerpo(entrada.cuerpo())
+                    : r.archivo(canal, 0, tamano);
+        }
+
+        if (rangos.isEmpty()) {
+            cerrarCanal(canal);
+            return nuevaRespuesta(416, "Range Not Satisfiable")
+                    .header("Content-Range", "bytes */" + tamano);
+        }
+
+        if (rangos.size() == 1) {
+            RangoBytes rango = rangos.get(0);
+            Respuesta r = nuevaRespuesta(206, "Partial Content")
+                    .headers(headers)
+                    .header("Content-Range", rango.contentRange(tamano));
+            return agregarCuerpo(r, entrada, canal, rango.inicio, rango.longitud());
+        }
+
+        // Varios rangos: multipart/byteranges, cada parte con su Content-Range
+        String frontera = Long.toHexString(System.nanoTime()) + Long.toHexString(tamano);
+        Respuesta r = nuevaRespuesta(206, "Partial Content")
+                .header("Content-Type", "multipart/byteranges; boundary=" + frontera)
+                .header("ETag", etag)
+                .header("Last-Modified", fechaHTTP(modificado))
+                .header("Accept-Ranges", "bytes");
+        for (RangoBytes rango : rangos) {
+            r.cuerpo(("\r\n--" + frontera + "\r\n" +
+                      "Content-Type: " + mime + "\r\n" +
+                      "Content-Range: " + rango.contentRange(tamano) + "\r\n\r\n").getBytes());
+            agregarCuerpo(r, entrada, canal, rango.inicio, rango.longitud());
+        }
+        return r.cuerpo(("\r\n--" + frontera + "--\r\n").getBytes());
+    }
+
+    private Respuesta agregarCuerpo(Respuesta r, CacheArchivos.Entrada entrada,
+                                    FileChannel canal, long desde, long largo) {
+        if (entrada != null) {
+            ByteBuffer trozo = entrada.cuerpo();
+            trozo.position((int) desde);
+            trozo.limit((int) (desde + largo));
+            return r.cuerpo(trozo);
+        }
+        return r.archivo(canal, desde, largo);
+    }
+
+    // If-None-Match tiene prioridad; If-Modified-Since solo si no viene
+    private boolean noModificado(Peticion peticion, String etag, long modificado) {
+        String ifNoneMatch = peticion.getHeader("if-none-match");
+        if (ifNoneMatch != null) {
+            for (String candidato : ifNoneMatch.split(",")) {
+                candidato = candidato.trim();
+                if (candidato.startsWith("W/")) {
+                    candidato = candidato.substring(2);
+                }
+                if (candidato.equals("*") || candidato.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        String ifModifiedSince = peticion.getHeader("if-modified-since");
+        if (ifModifiedSince != null) {
+            try {
+                long desde = ZonedDateTime.parse(ifModifiedSince,
+                        DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+                return modificado / 1000 <= desde;
+            } catch (DateTimeParseException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    // Headers que describen al archivo y no cambian mientras no se modifique;
+    // CacheArchivos los guarda ya renderizados
+    private byte[] headersEntidad(String mime, long modificado, long tamano,
+                                  String codificacion) {
         String disposition = esInline(mime) ? "inline" : "attachment";
+        StringBuilder sb = new StringBuilder(256)
+                .append("Content-Type: ").append(mime).append("\r\n")
+                .append("Content-Disposition: ").append(disposition).append("\r\n")
+                .append("ETag: ").append(etag(modificado, tamano, codificacion)).append("\r\n")
+                .append("Last-Modified: ").append(fechaHTTP(modificado)).append("\r\n");
+        if (codificacion != null) {
+            sb.append("Content-Encoding: ").append(codificacion).append("\r\n");
+        } else {
+            sb.append("Accept-Ranges: bytes\r\n");
+        }
+        if (Compresion.esComprimible(mime)) {
+            sb.append("Vary: Accept-Encoding\r\n");
+        }
+        return sb.toString().getBytes();
+    }
 
-        String header =
-                "HTTP/1.1 200 OK\r\n" +
-                headersCORS() +
-                "Content-Type: " + mime + "\r\n" +
-                "Content-Disposition: " + disposition + "\r\n" +
-                "X-Servidor: " + nombreServidor + "\r\n" +
-                "Content-Length: " + datos.length + "\r\n\r\n";
+    // Cada codificacion es una representacion distinta y lleva su propio ETag
+    private static String etag(long modificado, long tamano, String codificacion) {
+        return "\"" + Long.toHexString(tamano) + "-" + Long.toHexString(modificado)
+                + (codificacion == null ? "" : "-" + codificacion) + "\"";
+    }
 
-        out.write(header.getBytes());
-        out.write(datos);
+    private static String fechaHTTP(long millis) {
+        return FECHA_HTTP.format(Instant.ofEpochMilli(millis));
+    }
+
+    private static void cerrarCanal(FileChannel canal) throws IOException {
+        if (canal != null) {
+            canal.close();
+        }
     }
 
     // ==========================
     // POST → procesar datos
     // ==========================
-    private void manejarPOST(BufferedReader in, OutputStream out) throws IOException {
+    private Respuesta manejarPOST(Peticion peticion) throws IOException {
 
-        int contentLength = 0;
-        String linea;
+        InputStream body = peticion.getCuerpo();
 
-        // Leer headers
-        while (!(linea = in.readLine()).isEmpty()) {
-            if (linea.startsWith("Content-Length")) {
-                contentLength = Integer.parseInt(linea.split(":")[1].trim());
-            }
+        if (!peticion.esChunked() && peticion.getContentLength() <= MAX_POST_MEMORIA) {
+            return nuevaRespuesta(200, "OK")
+                    .headers(TEXTO_PLANO)
+                    .cuerpo(POST_RECIBIDO)
+                    .cuerpo(body.readAllBytes());
         }
 
-        char[] buffer = new char[contentLength];
-        in.read(buffer);
-        String body = new String(buffer);
+        // Cuerpo grande o de largo desconocido: se vuelca a un temporal que
+        // se borra solo cuando la respuesta cierra el canal
+        Path temporal = Files.createTempFile("post-", ".tmp");
+        FileChannel canal = FileChannel.open(temporal, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        try {
+            long largo = volcar(body, canal);
+            return nuevaRespuesta(200, "OK")
+                    .headers(TEXTO_PLANO)
+                    .cuerpo(POST_RECIBIDO)
+                    .archivo(canal, 0, largo);
+        } catch (IOException e) {
+            canal.close();
+            throw e;
+        }
+    }
 
-        enviarTexto(out, "POST recibido:\n" + body);
+    // ==========================
+    // GET /eventos → cambios en los archivos (Server-Sent Events)
+    // ==========================
+    private Respuesta manejarEventos(Peticion peticion) throws IOException {
+        // El repartidor escribe en el socket sin cifrar ni enmarcar
+        if (peticion.getCanal() == null) {
+            return nuevaRespuesta(501, "Not Implemented")
+                    .headers(TEXTO_PLANO)
+                    .cuerpo("Eventos solo por HTTP/1.1 sin TLS".getBytes());
+        }
+        Notificador notificador = Notificador.global();
+        return nuevaRespuesta(200, "OK")
+                .header("Content-Type", "text/event-stream; charset=utf-8")
+                .header("Cache-Control", "no-cache")
+                .cuerpo(REINTENTO_EVENTOS)
+                .suscripcion(notificador.suscripcion(peticion));
     }
 
     // ==========================
     // PUT → crear / sobrescribir archivo
     // ==========================
-    private void manejarPUT(BufferedReader in, OutputStream out, String recurso)
-            throws IOException {
+    private Respuesta manejarPUT(Peticion peticion) throws IOException {
 
-        int contentLength = 0;
-        String linea;
-
-        while (!(linea = in.readLine()).isEmpty()) {
-            if (linea.startsWith("Content-Length")) {
-                contentLength = Integer.parseInt(linea.split(":")[1].trim());
-            }
+        // Misma raiz que el GET: "/../x" no sale del directorio servido
+        File archivo = resolver(peticion.getRuta());
+        if (archivo == null) {
+            return respuestaTexto(403, "Forbidden", "Ruta fuera del directorio del servidor");
+        }
+        if (archivo.isDirectory()) {
+            return respuestaTexto(409, "Conflict", "El recurso es un directorio");
+        }
+        Path destino = archivo.toPath();
+        if (!Files.isDirectory(destino.getParent())) {
+            return respuestaTexto(409, "Conflict", "No existe el directorio del recurso");
         }
 
-        char[] buffer = new char[contentLength];
-        in.read(buffer);
-        String body = new String(buffer);
-
-        File archivo = new File("." + recurso);
-        try (FileWriter fw = new FileWriter(archivo)) {
-            fw.write(body);
+        // Se escribe a un temporal en el mismo directorio y se renombra: un
+        // GET concurrente ve el archivo viejo o el nuevo, nunca uno a medias
+        Path temporal;
+        try {
+            temporal = Files.createTempFile(destino.getParent(), ".put-", ".tmp");
+        } catch (IOException e) {
+            return respuestaTexto(500, "Internal Server Error", "No se pudo escribir el archivo");
         }
+        try {
+            try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.WRITE)) {
+                volcar(peticion.getCuerpo(), canal);
+            }
+            Files.move(temporal, destino, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(temporal);
+            throw e;
+        }
+        cache.invalidar(rutaCache(archivo));
 
-        enviarTexto(out, "Archivo creado o actualizado: " + recurso);
+        return respuestaTexto("Archivo creado o actualizado: " + peticion.getRuta());
     }
 
     // ==========================
     // DELETE → eliminar archivo real
     // ==========================
-    private void manejarDELETE(OutputStream out, String recurso) throws IOException {
+    private Respuesta manejarDELETE(Peticion peticion) {
 
-        File archivo = new File("." + recurso);
+        File archivo = resolver(peticion.getRuta());
+        if (archivo == null) {
+            return respuestaTexto(403, "Forbidden", "Ruta fuera del directorio del servidor");
+        }
 
         if (!archivo.exists()) {
-            enviarTexto(out, "Archivo no encontrado");
-            return;
+            return respuestaTexto(404, "Not Found", "Archivo no encontrado");
         }
 
         if (archivo.delete()) {
-            enviarTexto(out, "Archivo eliminado correctamente");
+            cache.invalidar(rutaCache(archivo));
+            return respuestaTexto("Archivo eliminado correctamente");
         } else {
-            enviarTexto(out, "No se pudo eliminar el archivo");
+            return respuestaTexto(409, "Conflict", "No se pudo eliminar el archivo");
         }
     }
 
     // ==========================
     // UTILIDADES
     // ==========================
-    private void enviarTexto(OutputStream out, String mensaje) throws IOException {
 
-        String respuesta =
-            "HTTP/1.1 200 OK\r\n" +
-            headersCORS() +
-            "Content-Type: text/plain\r\n" +
-            "X-Servidor: " + nombreServidor + "\r\n" +
-            "Content-Length: " + mensaje.length() + "\r\n\r\n" +
-            mensaje;
+    // Copia el cuerpo al canal por bloques, sin tenerlo completo en memoria
+    private static long volcar(InputStream cuerpo, FileChannel canal) throws IOException {
+        ReadableByteChannel origen = Channels.newChannel(cuerpo);
+        long escritos = 0;
+        long n;
+        while ((n = canal.transferFrom(origen, escritos, BLOQUE_VOLCADO)) > 0) {
+            escritos += n;
+        }
+        return escritos;
+    }
+
+    // Archivo de la ruta dentro del directorio del servidor; null si la
+    // ruta sale de el ("/../") o no es valida
+    private static File resolver(String ruta) {
+        try {
+            Path base = Paths.get("").toAbsolutePath().normalize();
+            Path destino = base.resolve("." + ruta).normalize();
+            return destino.startsWith(base) ? destino.toFile() : null;
+        } catch (InvalidPathException e) {
+            return null;
+        }
+    }
 
-        out.write(respuesta.getBytes());
+    private Path rutaCache(File archivo) {
+        return archivo.toPath().toAbsolutePath().normalize();
     }
 
+    private Respuesta respuestaTexto(String mensaje) {
+        return respuestaTexto(200, "OK", mensaje);
+    }
+
+    private Respuesta respuestaTexto(int estado, String razon, String mensaje) {
+        return nuevaRespuesta(estado, razon)
+                .headers(TEXTO_PLANO)
+                .cuerpo(mensaje.getBytes());
+    }
+
+    // Toda respuesta lleva CORS y el nombre del servidor que la atendio
+    private Respuesta nuevaRespuesta(int estado, String razon) {
+        return new Respuesta(estado, razon).headers(comunes);
+    }
 
     private boolean esInline(String mime) {
         return mime.startsWith("text/")
@@ -184,36 +743,40 @@ public class ManejadorCliente implements Runnable {
     }
 
     private String obtenerMime(String nombre) {
+        return TiposMime.compartido().buscar(nombre);
+    }
 
-        nombre = nombre.toLowerCase();
+    // Connection / Keep-Alive segun lo que decidio el motor
+    static void headersConexion(Respuesta r, boolean mantener, int atendidas) {
+        r.headers(mantener ? KEEP_ALIVE[MAX_PETICIONES - atendidas] : CONEXION_CERRAR);
+    }
 
-        if (nombre.endsWith(".html") || nombre.endsWith(".htm"))
-            return "text/html";
-        if (nombre.endsWith(".txt"))
-            return "text/plain";
-        if (nombre.endsWith(".jpg") || nombre.endsWith(".jpeg"))
-            return "image/jpeg";
-        if (nombre.endsWith(".png"))
-            return "image/png";
-        if (nombre.endsWith(".ico"))
-            return "image/x-icon";
-        if (nombre.endsWith(".pdf"))
-            return "application/pdf";
-        if (nombre.endsWith(".doc"))
-            return "application/msword";
-        if (nombre.endsWith(".class"))
-            return "application/java-vm";
+    // Bloques que se repiten en cada respuesta, codificados una sola vez
 
-        return "application/octet-stream";
-    }
+    private static final byte[] CONEXION_CERRAR = "Connection: close\r\n".getBytes();
+
+    // Indice = peticiones que aun se aceptan en la conexion
+    private static final byte[][] KEEP_ALIVE = new byte[MAX_PETICIONES + 1][];
 
-    private String headersCORS() {
-    return
-        "Access-Control-Allow-Origin: *\r\n" +
-        "Access-Control-Allow-Methods: GET, POST, PUT, DELETE, OPTIONS\r\n" +
-        "Access-Control-Allow-Headers: Content-Type\r\n";
+    static {
+        for (int max = 0; max <= MAX_PETICIONES; max++) {
+            KEEP_ALIVE[max] = ("Connection: keep-alive\r\n"
+                    + "Keep-Alive: timeout=" + (TIEMPO_INACTIVO / 1000) + ", max=" + max + "\r\n")
+                    .getBytes();
+        }
     }
 
-    
+    private static final byte[] POST_RECIBIDO = "POST recibido:\n".getBytes();
+
+    private static final byte[] TEXTO_PLANO = "Content-Type: text/plain\r\n".getBytes();
 
+    // Pausa antes de que EventSource reconecte
+    private static final byte[] REINTENTO_EVENTOS = "retry: 3000\n\n".getBytes();
+
+    private static byte[] headersComunes(String nombreServidor) {
+        return ("Access-Control-Allow-Origin: *\r\n"
+                + "Access-Control-Allow-Methods: GET, POST, PUT, DELETE, OPTIONS\r\n"
+                + "Access-Control-Allow-Headers: Content-Type\r\n"
+                + "X-Servidor: " + nombreServidor + "\r\n").getBytes();
+    }
 }
@@ -0,0 +1,177 @@
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+// Contadores del servidor para GET /metrics (formato de texto de
+// Prometheus). Todo lo que se toca por peticion es LongAdder o un
+// Histograma, sin locks; el costo de juntar los numeros lo paga quien
+// consulta el endpoint.
+public class Metricas {
+
+    private static final String[] METODOS = {"GET", "POST", "PUT", "DELETE", "OPTIONS", "otro"};
+
+    private static final Metricas global = new Metricas();
+
+    private final LongAdder[] porMetodo = new LongAdder[METODOS.length];
+    private final ConcurrentHashMap<Integer, LongAdder> porEstado = new ConcurrentHashMap<>();
+    private final LongAdder bytesEnviados = new LongAdder();
+    private final LongAdder conexiones = new LongAdder();
+    private final LongAdder conexionesHTTP2 = new LongAdder();
+    private final LongAdder redirecciones = new LongAdder();
+    private final LongAdder reenviadas = new LongAdder();
+    private final LongAdder saturaciones = new LongAdder();
+    private final LongAdder rechazos = new LongAdder();    // cola llena
+    private final LongAdder descartes = new LongAdder();   // CoDel
+    private final LongAdder handshakesCompletos = new LongAdder();
+    private final LongAdder handshakesReanudados = new LongAdder();
+    private final LongAdder erroresTLS = new LongAdder();
+
+    // Microsegundos
+    private final Histograma latencia = new Histograma();
+    private final Histograma esperaCola = new Histograma();
+    private final Histograma handshakeTLS = new Histograma();
+
+    // Valores instantaneos que publica cada servidor (activos, cola, ...)
+    private final Map<String, LongSupplier> indicadores = new ConcurrentSkipListMap<>();
+
+    private Metricas() {
+        for (int i = 0; i < porMetodo.length; i++) {
+            porMetodo[i] = new LongAdder();
+        }
+    }
+
+    public static Metricas global() {
+        return global;
+    }
+
+    // ==========================
+    // REGISTRO (camino caliente)
+    // ==========================
+
+    // Una peticion atendida completa: desde que se parseo hasta que se envio
+    public void peticion(String metodo, int estado, long bytes, long nanos) {
+        porMetodo[indiceMetodo(metodo)].increment();
+        LongAdder e = porEstado.get(estado);
+        if (e == null) {
+            e = porEstado.computeIfAbsent(estado, k -> new LongAdder());
+        }
+        e.increment();
+        bytesEnviados.add(bytes);
+        latencia.registrar(nanos / 1000);
+    }
+
+    // Tiempo entre accept() y que un hilo empezo a atender la conexion
+    public void esperaEnCola(long nanos) {
+        conexiones.increment();
+        esperaCola.registrar(nanos / 1000);
+    }
+
+    public void conexionHTTP2() {
+        conexionesHTTP2.increment();
+    }
+
+    public void redireccion() {
+        redirecciones.increment();
+    }
+
+    public void reenvio() {
+        reenviadas.increment();
+    }
+
+    public void saturacion() {
+        saturaciones.increment();
+    }
+
+    public void rechazo() {
+        rechazos.increment();
+    }
+
+    public void descarte() {
+        descartes.increment();
+    }
+
+    // Handshake TLS terminado; reanudado = sin intercambio de claves completo
+    public void handshakeTLS(boolean reanudado, long nanos) {
+        (reanudado ? handshakesReanudados : handshakesCompletos).increment();
+        handshakeTLS.registrar(nanos / 1000);
+    }
+
+    public void errorTLS() {
+        erroresTLS.increment();
+    }
+
+    public void indicador(String nombre, LongSupplier valor) {
+        indicadores.put(nombre, valor);
+    }
+
+    private static int indiceMetodo(String metodo) {
+        for (int i = 0; i < METODOS.length - 1; i++) {
+            if (METODOS[i].equals(metodo)) {
+                return i;
+            }
+        }
+        return METODOS.length - 1;
+    }
+
+    // ==========================
+    // EXPOSICION
+    // ==========================
+    public String texto() {
+        StringBuilder sb = new StringBuilder(2048);
+
+        sb.append("# TYPE http_peticiones_total counter\n");
+        for (int i = 0; i < METODOS.length; i++) {
+            sb.append("http_peticiones_total{metodo=\"").append(METODOS[i]).append("\"} ")
+              .append(porMetodo[i].sum()).append('\n');
+        }
+
+        sb.append("# TYPE http_respuestas_total counter\n");
+        for (Map.Entry<Integer, LongAdder> e : new TreeMap<>(porEstado).entrySet()) {
+            sb.append("http_respuestas_total{estado=\"").append(e.getKey()).append("\"} ")
+              .append(e.getValue().sum()).append('\n');
+        }
+
+        contador(sb, "http_bytes_enviados_total", bytesEnviados);
+        contador(sb, "http_conexiones_total", conexiones);
+        contador(sb, "http2_conexiones_total", conexionesHTTP2);
+        contador(sb, "http_redirecciones_total", redirecciones);
+        contador(sb, "http_reenviadas_backend_total", reenviadas);
+        contador(sb, "http_saturaciones_total", saturaciones);
+        contador(sb, "http_rechazos_cola_llena_total", rechazos);
+        contador(sb, "http_descartes_codel_total", descartes);
+
+        sb.append("# TYPE tls_handshakes_total counter\n")
+          .append("tls_handshakes_total{tipo=\"completo\"} ").append(handshakesCompletos.sum()).append('\n')
+          .append("tls_handshakes_total{tipo=\"reanudado\"} ").append(handshakesReanudados.sum()).append('\n');
+        contador(sb, "tls_errores_total", erroresTLS);
+
+        resumen(sb, "http_latencia_us", latencia);
+        resumen(sb, "http_espera_cola_us", esperaCola);
+        resumen(sb, "tls_handshake_us", handshakeTLS);
+
+        for (Map.Entry<String, LongSupplier> e : indicadores.entrySet()) {
+            sb.append("# TYPE ").append(e.getKey()).append(" gauge\n")
+              .append(e.getKey()).append(' ').append(e.getValue().getAsLong()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void contador(StringBuilder sb, String nombre, LongAdder valor) {
+        sb.append("# TYPE ").append(nombre).append(" counter\n")
+          .append(nombre).append(' ').append(valor.sum()).append('\n');
+    }
+
+    private static void resumen(StringBuilder sb, String nombre, Histograma h) {
+        sb.append("# TYPE ").append(nombre).append(" summary\n");
+        for (String q : new String[]{"0.5", "0.99", "0.999"}) {
+            sb.append(nombre).append("{quantile=\"").append(q).append("\"} ")
+              .append(h.percentil(Double.parseDouble(q))).append('\n');
+        }
+        sb.append(nombre).append("_max ").append(h.maximo()).append('\n');
+        sb.append(nombre).append("_sum ").append(h.suma()).append('\n');
+        sb.append(nombre).append("_count ").append(h.cuenta()).append('\n');
+    }
+}
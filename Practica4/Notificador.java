@@ -0,0 +1,426 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+// Canal de eventos GET /eventos (Server-Sent Events): avisa a los clientes
+// de los archivos creados, modificados o eliminados bajo el directorio
+// servido, asi el cliente React no tiene que volver a pedirlos para
+// enterarse. Los cambios salen de un WatchService (inotify en Linux), no de
+// manejarPUT/manejarDELETE, y se ven tambien los hechos por fuera del
+// servidor.
+// Dos hilos para todos los suscriptores: el vigilante, que agrupa las
+// rafagas de eventos de una misma escritura, y el repartidor, un Selector
+// con los sockets ya en modo no bloqueante. Despues de mandar la cabecera
+// el motor entrega el socket y su hilo queda libre; un suscriptor inactivo
+// solo cuesta un descriptor y una entrada en el Selector.
+//   /eventos?ruta=/sub/    solo cambios bajo /sub/
+// Cada evento lleva id; con Last-Event-ID (EventSource lo manda solo al
+// reconectar) se reenvia lo que haya quedado en el historial.
+public class Notificador {
+
+    public static final String RUTA = "/eventos";
+
+    private static final int HISTORIAL = 256;
+    // Rafaga de una misma escritura (CREATE + MODIFY...) que sale como un evento
+    private static final long AGRUPAR_MS = 50;
+    // Comentario periodico: mantiene vivos los proxies y descubre clientes caidos
+    private static final long LATIDO_MS = 15_000;
+    // Un suscriptor que no lee y acumula mas que esto se desconecta; al
+    // reconectar recupera lo perdido con Last-Event-ID
+    private static final int MAX_PENDIENTE = 64 * 1024;
+
+    private static final byte[] LATIDO = ":\n\n".getBytes(StandardCharsets.UTF_8);
+
+    // Temporales de PUT (.put-*.tmp) y el registro de accesos, que cambian
+    // solos todo el tiempo
+    private static final Pattern IGNORAR = Pattern.compile("^\\..*|^accesos-.*\\.log(\\.\\d+)?$");
+
+    private static Notificador global;
+
+    // Lo que se pidio en /eventos; el repartidor lo usa al recibir el socket
+    public static class Suscripcion {
+        private final String prefijo;
+        private final long desde;
+
+        private Suscripcion(String prefijo, long desde) {
+            this.prefijo = prefijo;
+            this.desde = desde;
+        }
+    }
+
+    private static class Evento {
+        final long id;
+        final String ruta;
+        // "id:/event:/data:" ya codificado, compartido por todos
+        final byte[] bytes;
+
+        Evento(long id, String ruta, byte[] bytes) {
+            this.id = id;
+            this.ruta = ruta;
+            this.bytes = bytes;
+        }
+    }
+
+    private static class Suscriptor {
+        final SocketChannel canal;
+        final String prefijo;
+        final ArrayDeque<ByteBuffer> pendientes = new ArrayDeque<>();
+        int bytesPendientes;
+        // Id del ultimo evento encolado: lo reenviado en el alta no se repite
+        long ultimo;
+        SelectionKey key;
+
+        Suscriptor(SocketChannel canal, String prefijo) {
+            this.canal = canal;
+            this.prefijo = prefijo;
+        }
+    }
+
+    private final Path raiz;
+    private final WatchService vigilante;
+    private final Map<WatchKey, Path> directorios = new HashMap<>();   // solo el vigilante
+    private final Selector selector;
+
+    // Del vigilante y los motores al repartidor
+    private final ConcurrentLinkedQueue<Evento> publicados = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Object[]> entregados = new ConcurrentLinkedQueue<>();
+
+    // Ultimos eventos para Last-Event-ID; protegido por si mismo
+    private final ArrayDeque<Evento> historial = new ArrayDeque<>();
+    private long ultimoId = 0;
+
+    // Solo lo cambia el repartidor
+    private volatile int suscriptores = 0;
+    private final LongAdder lentos = new LongAdder();
+
+    private Notificador(Path raiz) throws IOException {
+        this.raiz = raiz;
+        this.vigilante = FileSystems.getDefault().newWatchService();
+        this.selector = Selector.open();
+        registrarArbol(raiz);
+
+        Thread hiloVigilante = new Thread(this::vigilar, "vigilante-archivos");
+        hiloVigilante.setDaemon(true);
+        hiloVigilante.start();
+        Thread repartidor = new Thread(this::repartir, "notificador");
+        repartidor.setDaemon(true);
+        repartidor.start();
+
+        Metricas metricas = Metricas.global();
+        metricas.indicador("sse_suscriptores", () -> suscriptores);
+        metricas.indicador("sse_eventos", () -> {
+            synchronized (historial) {
+                return ultimoId;
+            }
+        });
+        metricas.indicador("sse_desconectados_lentos", lentos::sum);
+    }
+
+    // Se arranca con el primer suscriptor; vigila el directorio de trabajo,
+    // que es la raiz que sirve ManejadorCliente
+    public static synchronized Notificador global() throws IOException {
+        if (global == null) {
+            global = new Notificador(Paths.get(".").toAbsolutePath().normalize());
+        }
+        return global;
+    }
+
+    // ?ruta= y Last-Event-ID de la peticion. Sin Last-Event-ID empieza por
+    // lo que pase de aqui en adelante
+    public Suscripcion suscripcion(Peticion peticion) {
+        String prefijo = peticion.getParametro("ruta");
+        long desde;
+        synchronized (historial) {
+            desde = ultimoId;
+        }
+        String ultimo = peticion.getHeader("last-event-id");
+        if (ultimo != null) {
+            try {
+                desde = Math.min(desde, Long.parseLong(ultimo.trim()));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return new Suscripcion(prefijo == null ? "/" : prefijo, desde);
+    }
+
+    // El motor ya mando la cabecera; desde aqui el socket es del repartidor
+    public void suscribir(SocketChannel canal, Suscripcion suscripcion) {
+        entregados.add(new Object[]{canal, suscripcion});
+        selector.wakeup();
+    }
+
+    // ==========================
+    // VIGILANTE
+    // ==========================
+
+    private void vigilar() {
+        try {
+            while (true) {
+                Map<Path, String> cambios = new LinkedHashMap<>();
+                WatchKey key = vigilante.take();
+                // Ventana fija: el registro de accesos escribe cada pocos ms y
+                // una espera que se renovara con cada evento no terminaria
+                long fin = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(AGRUPAR_MS);
+                do {
+                    recoger(key, cambios);
+                    key = vigilante.poll(Math.max(0, fin - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } while (key != null);
+
+                for (Map.Entry<Path, String> c : cambios.entrySet()) {
+                    publicar(c.getValue(), c.getKey());
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Fin del proceso
+        }
+    }
+
+    private void recoger(WatchKey key, Map<Path, String> cambios) {
+        Path directorio = directorios.get(key);
+        for (WatchEvent<?> evento : key.pollEvents()) {
+            WatchEvent.Kind<?> tipo = evento.kind();
+            if (tipo == StandardWatchEventKinds.OVERFLOW) {
+                // Se perdieron eventos: que el cliente recargue todo
+                cambios.put(raiz, "desbordado");
+                continue;
+            }
+            if (directorio == null) {
+                continue;
+            }
+            Path ruta = directorio.resolve((Path) evento.context());
+            if (IGNORAR.matcher(ruta.getFileName().toString()).matches()) {
+                continue;
+            }
+            boolean esDirectorio = Files.isDirectory(ruta, LinkOption.NOFOLLOW_LINKS);
+            if (tipo == StandardWatchEventKinds.ENTRY_DELETE) {
+                cambios.put(ruta, "eliminado");
+            } else if (tipo == StandardWatchEventKinds.ENTRY_CREATE) {
+                if (esDirectorio) {
+                    // Lo que se copie dentro antes de registrarlo no genera eventos
+                    registrarArbol(ruta);
+                }
+                cambios.put(ruta, "cambio");
+            } else if (!esDirectorio) {
+                cambios.put(ruta, "cambio");
+            }
+        }
+        if (!key.reset()) {
+            // Directorio borrado
+            directorios.remove(key);
+        }
+    }
+
+    private void registrarArbol(Path inicio) {
+        try {
+            Files.walkFileTree(inicio, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+                        throws IOException {
+                    if (!dir.equals(raiz) && dir.getFileName().toString().startsWith(".")) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    directorios.put(dir.register(vigilante,
+                            StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE,
+                            StandardWatchEventKinds.ENTRY_MODIFY), dir);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path archivo, IOException e) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            // Sin permisos o ya borrado: ese subarbol queda sin vigilar
+            e.printStackTrace();
+        }
+    }
+
+    // Formato text/event-stream: un campo por linea y una linea vacia al final
+    private void publicar(String tipo, Path archivo) {
+        String ruta = "/" + raiz.relativize(archivo).toString().replace('\\', '/');
+        Evento evento;
+        synchronized (historial) {
+            long id = ++ultimoId;
+            String texto = "id: " + id + "\nevent: " + tipo + "\ndata: {\"ruta\":"
+                    + ListadoDirectorio.textoJSON(ruta) + "}\n\n";
+            evento = new Evento(id, ruta, texto.getBytes(StandardCharsets.UTF_8));
+            historial.addLast(evento);
+            if (historial.size() > HISTORIAL) {
+                historial.removeFirst();
+            }
+        }
+        publicados.add(evento);
+        selector.wakeup();
+    }
+
+    // ==========================
+    // REPARTIDOR
+    // ==========================
+
+    private void repartir() {
+        long ultimoLatido = System.currentTimeMillis();
+        while (true) {
+            try {
+                selector.select(LATIDO_MS);
+
+                Object[] entregado;
+                while ((entregado = entregados.poll()) != null) {
+                    alta((SocketChannel) entregado[0], (Suscripcion) entregado[1]);
+                }
+
+                Evento evento;
+                while ((evento = publicados.poll()) != null) {
+                    for (SelectionKey key : selector.keys()) {
+                        Suscriptor s = (Suscriptor) key.attachment();
+                        if (key.isValid() && evento.id > s.ultimo && coincide(s, evento)) {
+                            s.ultimo = evento.id;
+                            encolar(s, evento.bytes);
+                        }
+                    }
+                }
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    Suscriptor s = (Suscriptor) key.attachment();
+                    if (key.isValid() && key.isReadable()) {
+                        descartarEntrada(s);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        vaciar(s);
+                    }
+                }
+
+                long ahora = System.currentTimeMillis();
+                if (ahora - ultimoLatido >= LATIDO_MS) {
+                    ultimoLatido = ahora;
+                    for (SelectionKey key : selector.keys()) {
+                        if (key.isValid()) {
+                            encolar((Suscriptor) key.attachment(), LATIDO);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Registra el socket y le reenvia lo del historial posterior a 'desde'
+    // (incluye lo publicado mientras el motor mandaba la cabecera)
+    private void alta(SocketChannel canal, Suscripcion suscripcion) {
+        Suscriptor s = new Suscriptor(canal, suscripcion.prefijo);
+        s.ultimo = suscripcion.desde;
+        try {
+            canal.configureBlocking(false);
+            s.key = canal.register(selector, SelectionKey.OP_READ, s);
+        } catch (IOException e) {
+            try { canal.close(); } catch (IOException ignored) {}
+            return;
+        }
+        suscriptores++;
+
+        synchronized (historial) {
+            for (Evento evento : historial) {
+                if (evento.id > s.ultimo && coincide(s, evento)) {
+                    s.ultimo = evento.id;
+                    s.pendientes.add(ByteBuffer.wrap(evento.bytes));
+                    s.bytesPendientes += evento.bytes.length;
+                }
+            }
+        }
+        vaciar(s);
+    }
+
+    private static boolean coincide(Suscriptor s, Evento evento) {
+        return evento.ruta.startsWith(s.prefijo) || evento.ruta.equals("/");
+    }
+
+    private void encolar(Suscriptor s, byte[] bytes) {
+        if (s.bytesPendientes + bytes.length > MAX_PENDIENTE) {
+            lentos.increment();
+            baja(s);
+            return;
+        }
+        s.pendientes.add(ByteBuffer.wrap(bytes));
+        s.bytesPendientes += bytes.length;
+        vaciar(s);
+    }
+
+    // Escribe lo que el socket acepte sin bloquear; el resto espera OP_WRITE
+    private void vaciar(Suscriptor s) {
+        try {
+            ByteBuffer b;
+            while ((b = s.pendientes.peek()) != null) {
+                int n = s.canal.write(b);
+                s.bytesPendientes -= n;
+                if (b.hasRemaining()) {
+                    s.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    return;
+                }
+                s.pendientes.poll();
+            }
+            s.key.interestOps(SelectionKey.OP_READ);
+        } catch (IOException e) {
+            baja(s);
+        }
+    }
+
+    // El cliente no deberia mandar nada; solo interesa ver el cierre
+    private final ByteBuffer descarte = ByteBuffer.allocate(1024);
+
+    private void descartarEntrada(Suscriptor s) {
+        try {
+            int n;
+            do {
+                descarte.clear();
+                n = s.canal.read(descarte);
+            } while (n > 0);
+            if (n < 0) {
+                baja(s);
+            }
+        } catch (IOException e) {
+            baja(s);
+        }
+    }
+
+    private void baja(Suscriptor s) {
+        if (s.key.isValid()) {
+            suscriptores--;
+        }
+        s.key.cancel();
+        s.pendientes.clear();
+        try {
+            s.canal.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,32 @@
+import java.util.HashMap;
+import java.util.Map;
+
+// Opciones de arranque en la forma --clave=valor, por ejemplo:
+//   java ServidorHTTP --motor=nio --trabajadores=4
+public class Opciones {
+
+    private final Map<String, String> valores = new HashMap<>();
+
+    public Opciones(String[] args) {
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                continue;
+            }
+            int igual = arg.indexOf('=');
+            if (igual < 0) {
+                valores.put(arg.substring(2), "true");
+            } else {
+                valores.put(arg.substring(2, igual), arg.substring(igual + 1));
+            }
+        }
+    }
+
+    public String texto(String clave, String porDefecto) {
+        return valores.getOrDefault(clave, porDefecto);
+    }
+
+    public int entero(String clave, int porDefecto) {
+        String valor = valores.get(clave);
+        return valor == null ? porDefecto : Integer.parseInt(valor);
+    }
+}
@@ -0,0 +1,313 @@
+import java.nio.charset.StandardCharsets;
+
+// Parser incremental de la cabecera HTTP/1.x sobre un buffer reutilizable.
+// Los bytes se copian tal cual a ese buffer y solo se guardan posiciones
+// (inicio/fin de cada nombre y valor); las busquedas de headers comparan
+// bytes sin crear Strings. Un parser por conexion (o por hilo) se reinicia
+// entre peticiones y no vuelve a reservar memoria.
+public class ParserHTTP {
+
+    public static final int MAX_LINEA_PETICION = 8 * 1024;
+    public static final int MAX_CABECERA = 16 * 1024;
+    public static final int MAX_HEADERS = 100;
+
+    // Codigos de error que deja el parser
+    public static final int MAL_FORMADA = 400;
+    // Este lo deja el motor, no el parser: cuerpo mayor que su limite
+    public static final int CUERPO_GRANDE = 413;
+    public static final int URI_LARGA = 414;
+    public static final int CABECERA_GRANDE = 431;
+
+    private static final String[] METODOS = {"GET", "POST", "PUT", "DELETE", "OPTIONS", "HEAD"};
+    private static final String[] VERSIONES = {"HTTP/1.1", "HTTP/1.0"};
+
+    private byte[] datos = new byte[1024];
+    private int largo;          // bytes de cabecera guardados
+    private int inicioLinea;    // linea que se esta leyendo
+    private boolean terminada;
+    private int error;
+
+    // Linea de peticion
+    private int finMetodo, inicioRecurso, finRecurso, inicioVersion, finVersion;
+    private String recurso;     // se crea a lo sumo una vez por peticion
+
+    // [nombreIni, nombreFin, valorIni, valorFin] por header
+    private final int[] headers = new int[MAX_HEADERS * 4];
+    private int numHeaders;
+
+    public void reiniciar() {
+        largo = 0;
+        inicioLinea = 0;
+        terminada = false;
+        error = 0;
+        recurso = null;
+        numHeaders = 0;
+    }
+
+    public boolean terminada() {
+        return terminada;
+    }
+
+    // 0 si no hay error; si no, el estado HTTP con el que hay que responder
+    public int error() {
+        return error;
+    }
+
+    // Consume bytes de entrada hasta completar la cabecera (linea vacia) o
+    // agotarlos. Devuelve cuantos consumio; lo que sigue es el cuerpo o la
+    // siguiente peticion y queda en el buffer del llamador
+    public int alimentar(byte[] entrada, int desde, int hasta) {
+        int i = desde;
+
+        // CRLF sobrantes entre peticiones
+        while (largo == 0 && i < hasta && (entrada[i] == '\r' || entrada[i] == '\n')) {
+            i++;
+        }
+
+        while (i < hasta && !terminada && error == 0) {
+            // Se copia hasta el siguiente LF (o lo que haya) de una vez
+            int lf = i;
+            while (lf < hasta && entrada[lf] != '\n') {
+                lf++;
+            }
+            int fin = lf < hasta ? lf + 1 : hasta;
+            int n = fin - i;
+
+            if (largo + n > MAX_CABECERA) {
+                error = inicioLinea == 0 ? URI_LARGA : CABECERA_GRANDE;
+                break;
+            }
+            if (largo + n > datos.length) {
+                byte[] mayor = new byte[Math.min(Math.max(datos.length * 2, largo + n), MAX_CABECERA)];
+                System.arraycopy(datos, 0, mayor, 0, largo);
+                datos = mayor;
+            }
+            System.arraycopy(entrada, i, datos, largo, n);
+            largo += n;
+            i = fin;
+
+            if (lf < hasta) {
+                int finLinea = largo - 1;
+                if (finLinea > inicioLinea && datos[finLinea - 1] == '\r') {
+                    finLinea--;
+                }
+                terminarLinea(inicioLinea, finLinea);
+                inicioLinea = largo;
+            } else if (inicioLinea == 0 && largo > MAX_LINEA_PETICION) {
+                error = URI_LARGA;
+            }
+        }
+        return i - desde;
+    }
+
+    private void terminarLinea(int ini, int fin) {
+        if (ini == 0) {
+            lineaPeticion(fin);
+        } else if (ini == fin) {
+            terminada = true;
+        } else if (numHeaders == MAX_HEADERS) {
+            error = CABECERA_GRANDE;
+        } else {
+            header(ini, fin);
+        }
+    }
+
+    // "METODO SP recurso SP version"
+    private void lineaPeticion(int fin) {
+        if (fin > MAX_LINEA_PETICION) {
+            error = URI_LARGA;
+            return;
+        }
+        int sp1 = indice(0, fin, (byte) ' ');
+        int sp2 = sp1 < 0 ? -1 : indice(sp1 + 1, fin, (byte) ' ');
+        if (sp1 <= 0) {
+            error = MAL_FORMADA;
+            return;
+        }
+        finMetodo = sp1;
+        inicioRecurso = sp1 + 1;
+        if (sp2 < 0) {
+            // HTTP/0.9 / linea sin version: se trata como HTTP/1.0
+            finRecurso = fin;
+            inicioVersion = finVersion = fin;
+        } else {
+            finRecurso = sp2;
+            inicioVersion = sp2 + 1;
+            finVersion = fin;
+        }
+        if (finRecurso == inicioRecurso) {
+            error = MAL_FORMADA;
+        }
+    }
+
+    // "Nombre: valor" con espacios opcionales alrededor del valor. No se
+    // aceptan espacios antes de ':' ni lineas plegadas (RFC 7230, 3.2.4)
+    private void header(int ini, int fin) {
+        int dosPuntos = indice(ini, fin, (byte) ':');
+        if (dosPuntos <= ini || datos[ini] == ' ' || datos[ini] == '\t'
+                || datos[dosPuntos - 1] == ' ' || datos[dosPuntos - 1] == '\t') {
+            error = MAL_FORMADA;
+            return;
+        }
+        int vIni = dosPuntos + 1;
+        int vFin = fin;
+        while (vIni < vFin && (datos[vIni] == ' ' || datos[vIni] == '\t')) {
+            vIni++;
+        }
+        while (vFin > vIni && (datos[vFin - 1] == ' ' || datos[vFin - 1] == '\t')) {
+            vFin--;
+        }
+        int k = numHeaders++ * 4;
+        headers[k] = ini;
+        headers[k + 1] = dosPuntos;
+        headers[k + 2] = vIni;
+        headers[k + 3] = vFin;
+    }
+
+    private int indice(int desde, int hasta, byte b) {
+        for (int i = desde; i < hasta; i++) {
+            if (datos[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // ==========================
+    // CONSULTAS
+    // ==========================
+
+    // Los metodos y versiones conocidos devuelven la constante, sin copiar
+    public String metodo() {
+        return constante(0, finMetodo, METODOS);
+    }
+
+    public String version() {
+        if (inicioVersion == finVersion) {
+            return "HTTP/1.0";
+        }
+        return constante(inicioVersion, finVersion, VERSIONES);
+    }
+
+    public String recurso() {
+        if (recurso == null) {
+            recurso = new String(datos, inicioRecurso, finRecurso - inicioRecurso,
+                    StandardCharsets.UTF_8);
+        }
+        return recurso;
+    }
+
+    private String constante(int ini, int fin, String[] conocidas) {
+        for (String c : conocidas) {
+            if (iguales(ini, fin, c, false)) {
+                return c;
+            }
+        }
+        return new String(datos, ini, fin - ini, StandardCharsets.ISO_8859_1);
+    }
+
+    public int numHeaders() {
+        return numHeaders;
+    }
+
+    // Posicion del header (nombre sin distinguir mayusculas) o -1
+    public int buscar(String nombre) {
+        for (int h = 0; h < numHeaders; h++) {
+            int k = h * 4;
+            if (iguales(headers[k], headers[k + 1], nombre, true)) {
+                return h;
+            }
+        }
+        return -1;
+    }
+
+    public String nombre(int h) {
+        return new String(datos, headers[h * 4], headers[h * 4 + 1] - headers[h * 4],
+                StandardCharsets.ISO_8859_1);
+    }
+
+    public String valor(int h) {
+        return new String(datos, headers[h * 4 + 2], headers[h * 4 + 3] - headers[h * 4 + 2],
+                StandardCharsets.ISO_8859_1);
+    }
+
+    public String valor(String nombre) {
+        int h = buscar(nombre);
+        return h < 0 ? null : valor(h);
+    }
+
+    // Valor numerico leido directo de los bytes; NumberFormatException si no lo es
+    public long valorLong(String nombre, long defecto) {
+        int h = buscar(nombre);
+        if (h < 0) {
+            return defecto;
+        }
+        int ini = headers[h * 4 + 2];
+        int fin = headers[h * 4 + 3];
+        if (ini == fin || fin - ini > 18) {
+            throw new NumberFormatException("Valor numerico invalido en " + nombre);
+        }
+        long n = 0;
+        for (int i = ini; i < fin; i++) {
+            int d = datos[i] - '0';
+            if (d < 0 || d > 9) {
+                throw new NumberFormatException("Valor numerico invalido en " + nombre);
+            }
+            n = n * 10 + d;
+        }
+        return n;
+    }
+
+    // El valor completo es igual a texto, sin distinguir mayusculas
+    public boolean valorEs(String nombre, String texto) {
+        int h = buscar(nombre);
+        return h >= 0 && iguales(headers[h * 4 + 2], headers[h * 4 + 3], texto, true);
+    }
+
+    // El valor contiene texto (p. ej. "chunked" en Transfer-Encoding)
+    public boolean valorContiene(String nombre, String texto) {
+        int h = buscar(nombre);
+        if (h < 0) {
+            return false;
+        }
+        int ini = headers[h * 4 + 2];
+        int fin = headers[h * 4 + 3] - texto.length();
+        for (int i = ini; i <= fin; i++) {
+            if (iguales(i, i + texto.length(), texto, true)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean iguales(int ini, int fin, String texto, boolean sinMayusculas) {
+        if (fin - ini != texto.length()) {
+            return false;
+        }
+        for (int i = 0; i < texto.length(); i++) {
+            int a = datos[ini + i];
+            int b = texto.charAt(i);
+            if (a != b && !(sinMayusculas && minuscula(a) == minuscula(b))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int minuscula(int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+    public static String razon(int estado) {
+        switch (estado) {
+            case CUERPO_GRANDE:
+                return "Content Too Large";
+            case URI_LARGA:
+                return "URI Too Long";
+            case CABECERA_GRANDE:
+                return "Request Header Fields Too Large";
+            default:
+                return "Bad Request";
+        }
+    }
+}
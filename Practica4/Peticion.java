@@ -0,0 +1,178 @@
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+// Peticion HTTP ya leida, sin importar el motor que la recibio
+// (socket bloqueante en ManejadorCliente o ServidorNIO). Los headers
+// vienen de un ParserHTTP (consultas sobre sus bytes, valido hasta que
+// el parser se reinicie) o de un mapa con los headers que decodifico
+// ConexionHTTP2.
+public class Peticion {
+
+    private final String metodo;
+    private final String recurso;
+    private final String version;
+    private final Map<String, String> headers;
+    private final ParserHTTP parser;
+    // Se lee bajo demanda desde la conexion (o desde memoria en ServidorNIO)
+    private InputStream cuerpo = InputStream.nullInputStream();
+    // Parametros de la query string, separados la primera vez que se piden
+    private Map<String, String> parametros;
+    // Socket en claro que se puede entregar al Notificador; null en TLS y HTTP/2
+    private SocketChannel canal;
+
+    public Peticion(String metodo, String recurso, String version) {
+        this.metodo = metodo;
+        this.recurso = recurso;
+        this.version = version;
+        this.headers = new HashMap<>();
+        this.parser = null;
+    }
+
+    // Vista sobre la cabecera ya parseada; no copia los headers
+    public Peticion(ParserHTTP parser) {
+        this.metodo = parser.metodo();
+        this.recurso = parser.recurso();
+        this.version = parser.version();
+        this.headers = null;
+        this.parser = parser;
+    }
+
+    // Header ya separado (HTTP/2). Si se repite, los valores se unen como
+    // en HTTP/1.1: con ", " y las cookies con "; "
+    public void agregarHeader(String nombre, String valor) {
+        nombre = nombre.toLowerCase();
+        String anterior = headers.get(nombre);
+        if (anterior != null) {
+            valor = anterior + (nombre.equals("cookie") ? "; " : ", ") + valor;
+        }
+        headers.put(nombre, valor);
+    }
+
+    public String getMetodo() {
+        return metodo;
+    }
+
+    public String getRecurso() {
+        return recurso;
+    }
+
+    // Recurso sin la query string y con los %XX decodificados
+    public String getRuta() {
+        int q = recurso.indexOf('?');
+        return decodificar(q < 0 ? recurso : recurso.substring(0, q), false);
+    }
+
+    // Valor del parametro ("" si viene sin '=', como en "?zip") o null
+    public String getParametro(String nombre) {
+        if (parametros == null) {
+            parametros = new HashMap<>();
+            int q = recurso.indexOf('?');
+            if (q >= 0) {
+                for (String par : recurso.substring(q + 1).split("&")) {
+                    int igual = par.indexOf('=');
+                    if (igual < 0) {
+                        parametros.putIfAbsent(decodificar(par, true), "");
+                    } else {
+                        parametros.putIfAbsent(decodificar(par.substring(0, igual), true),
+                                decodificar(par.substring(igual + 1), true));
+                    }
+                }
+            }
+        }
+        return parametros.get(nombre);
+    }
+
+    // %XX como bytes UTF-8; '+' es espacio solo en la query string.
+    // Una secuencia invalida se deja tal cual
+    private static String decodificar(String texto, boolean query) {
+        if (texto.indexOf('%') < 0 && !(query && texto.indexOf('+') >= 0)) {
+            return texto;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(texto.length());
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            int alto = i + 2 < texto.length() ? Character.digit(texto.charAt(i + 1), 16) : -1;
+            int bajo = alto >= 0 ? Character.digit(texto.charAt(i + 2), 16) : -1;
+            if (c == '%' && bajo >= 0) {
+                bytes.write(alto << 4 | bajo);
+                i += 2;
+            } else if (c == '+' && query) {
+                bytes.write(' ');
+            } else {
+                int punto = texto.codePointAt(i);
+                byte[] b = new String(Character.toChars(punto)).getBytes(StandardCharsets.UTF_8);
+                bytes.write(b, 0, b.length);
+                i += Character.charCount(punto) - 1;
+            }
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public String getHeader(String nombre) {
+        if (parser != null) {
+            return parser.valor(nombre);
+        }
+        return headers.get(nombre.toLowerCase());
+    }
+
+    public long getContentLength() {
+        if (parser != null) {
+            return parser.valorLong("content-length", 0);
+        }
+        String valor = headers.get("content-length");
+        return valor == null ? 0 : Long.parseLong(valor);
+    }
+
+    // Transfer-Encoding: chunked tiene prioridad sobre Content-Length
+    public boolean esChunked() {
+        if (parser != null) {
+            return parser.valorContiene("transfer-encoding", "chunked");
+        }
+        String te = headers.get("transfer-encoding");
+        return te != null && te.toLowerCase().contains("chunked");
+    }
+
+    public boolean tieneCuerpo() {
+        return esChunked() || getContentLength() > 0;
+    }
+
+    public InputStream getCuerpo() {
+        return cuerpo;
+    }
+
+    public void setCuerpo(InputStream cuerpo) {
+        this.cuerpo = cuerpo;
+    }
+
+    public SocketChannel getCanal() {
+        return canal;
+    }
+
+    public void setCanal(SocketChannel canal) {
+        this.canal = canal;
+    }
+
+    // HTTP/1.1 mantiene la conexion salvo "Connection: close";
+    // HTTP/1.0 solo si el cliente pide "Connection: keep-alive"
+    public boolean aceptaKeepAlive() {
+        if (version.equals("HTTP/1.1")) {
+            return !conexionEs("close");
+        }
+        return conexionEs("keep-alive");
+    }
+
+    private boolean conexionEs(String valor) {
+        if (parser != null) {
+            return parser.valorEs("connection", valor);
+        }
+        return headers.getOrDefault("connection", "").equalsIgnoreCase(valor);
+    }
+}
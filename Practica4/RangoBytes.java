@@ -0,0 +1,79 @@
+import java.util.ArrayList;
+import java.util.List;
+
+// Interpreta el header "Range: bytes=..." (RFC 7233) contra el tamano del
+// recurso. Soporta "a-b", "a-" y "-n" separados por comas.
+public class RangoBytes {
+
+    // Evita que un cliente pida miles de trozos de un mismo archivo
+    private static final int MAX_RANGOS = 16;
+
+    public final long inicio;
+    public final long fin;   // inclusivo
+
+    private RangoBytes(long inicio, long fin) {
+        this.inicio = inicio;
+        this.fin = fin;
+    }
+
+    public long longitud() {
+        return fin - inicio + 1;
+    }
+
+    public String contentRange(long tamano) {
+        return "bytes " + inicio + "-" + fin + "/" + tamano;
+    }
+
+    // null: header ausente o mal formado (se ignora y se manda todo)
+    // lista vacia: ningun rango se puede satisfacer (416)
+    public static List<RangoBytes> parsear(String header, long tamano) {
+        if (header == null || !header.startsWith("bytes=")) {
+            return null;
+        }
+
+        String[] especificaciones = header.substring(6).split(",");
+        if (especificaciones.length > MAX_RANGOS) {
+            return null;
+        }
+
+        List<RangoBytes> rangos = new ArrayList<>();
+        for (String spec : especificaciones) {
+            spec = spec.trim();
+            int guion = spec.indexOf('-');
+            if (guion < 0) {
+                return null;
+            }
+            try {
+                String a = spec.substring(0, guion).trim();
+                String b = spec.substring(guion + 1).trim();
+                long inicio, fin;
+                if (a.isEmpty()) {
+                    // "-n": los ultimos n bytes
+                    long n = Long.parseLong(b);
+                    if (n <= 0) {
+                        continue;
+                    }
+                    inicio = Math.max(0, tamano - n);
+                    fin = tamano - 1;
+                } else {
+                    inicio = Long.parseLong(a);
+                    if (b.isEmpty()) {
+                        fin = tamano - 1;
+                    } else {
+                        long ultimo = Long.parseLong(b);
+                        if (ultimo < inicio) {
+                            return null; // sintacticamente invalido
+                        }
+                        fin = Math.min(ultimo, tamano - 1);
+                    }
+                }
+                if (inicio < tamano && inicio <= fin) {
+                    rangos.add(new RangoBytes(inicio, fin));
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return rangos;
+    }
+}
@@ -0,0 +1,271 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Registro de accesos: una linea JSON por peticion respondida (fecha,
+// servidor, metodo, ruta, version, estado, bytes, duracion en us).
+// Los hilos que atienden solo copian los campos a una ranura de un buffer
+// circular sin locks (cola acotada de Vyukov: un CAS para reservar y una
+// escritura ordenada para publicar). Un unico hilo escritor vacia el buffer
+// por lotes al archivo y lo rota por tamano. Si el buffer esta lleno la
+// linea se descarta y se cuenta: atender nunca espera al disco.
+//   --log=archivo (no para desactivarlo)  --log-mb=N  --log-archivos=N
+public class RegistroAccesos {
+
+    private static final int CAPACIDAD = 8192;             // potencia de 2
+    private static final int TAM_LOTE = 64 * 1024;
+    // Cuanto duerme el escritor con el buffer vacio: acota el retraso
+    // con que aparece una linea y agrupa las escrituras al disco
+    private static final long ESPERA_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private static volatile RegistroAccesos global;
+
+    // Una ranura se reutiliza vuelta tras vuelta: no hay objetos por peticion
+    private static final class Ranura {
+        long fecha;
+        String servidor;
+        String metodo;
+        String ruta;
+        String version;
+        int estado;
+        long bytes;
+        long micros;
+    }
+
+    private final Ranura[] ranuras = new Ranura[CAPACIDAD];
+    // secuencias[i] == pos: libre para el productor de la posicion pos;
+    // pos + 1: publicada y lista para el escritor
+    private final AtomicLongArray secuencias = new AtomicLongArray(CAPACIDAD);
+    private final AtomicLong siguiente = new AtomicLong();
+    private long leida = 0;                                 // solo el escritor
+
+    private final LongAdder descartadas = new LongAdder();
+
+    private final Path archivo;
+    private final long maxBytes;
+    private final int maxArchivos;
+    private FileChannel canal;
+    private long tamano;
+    private final StringBuilder linea = new StringBuilder(256);
+    private final ByteBuffer lote = ByteBuffer.allocate(TAM_LOTE);
+
+    private final Thread escritor;
+    private volatile boolean detenido = false;
+
+    RegistroAccesos(Path archivo, long maxBytes, int maxArchivos) throws IOException {
+        this.archivo = archivo;
+        this.maxBytes = maxBytes;
+        this.maxArchivos = maxArchivos;
+        for (int i = 0; i < CAPACIDAD; i++) {
+            ranuras[i] = new Ranura();
+            secuencias.set(i, i);
+        }
+        abrir();
+        escritor = new Thread(this::escribirSiempre, "registro-accesos");
+        escritor.setDaemon(true);
+        escritor.start();
+        // Al cerrar el servidor (Ctrl+C) se vacia lo que quede en el buffer
+        Runtime.getRuntime().addShutdownHook(new Thread(this::detener));
+    }
+
+    public static void configurar(String porDefecto, Opciones opciones) {
+        String ruta = opciones.texto("log", porDefecto);
+        if (ruta.equals("no")) {
+            return;
+        }
+        try {
+            global = new RegistroAccesos(Paths.get(ruta),
+                    opciones.entero("log-mb", 10) * 1024L * 1024,
+                    opciones.entero("log-archivos", 5));
+            Metricas.global().indicador("http_log_descartadas",
+                    () -> global.descartadas.sum());
+        } catch (IOException e) {
+            System.out.println("No se pudo abrir el registro " + ruta + ": " + e.getMessage());
+        }
+    }
+
+    // null si no se configuro (o no se pudo abrir el archivo)
+    public static RegistroAccesos global() {
+        return global;
+    }
+
+    // ==========================
+    // REGISTRO (camino caliente)
+    // ==========================
+    public void registrar(String servidor, String metodo, String ruta, String version,
+                          int estado, long bytes, long nanos) {
+        long pos = siguiente.get();
+        int i;
+        while (true) {
+            i = (int) pos & (CAPACIDAD - 1);
+            long diferencia = secuencias.get(i) - pos;
+            if (diferencia == 0) {
+                if (siguiente.compareAndSet(pos, pos + 1)) {
+                    break;
+                }
+                pos = siguiente.get();
+            } else if (diferencia < 0) {
+                // El escritor no alcanza a vaciar: se pierde la linea
+                descartadas.increment();
+                return;
+            } else {
+                // Otro hilo ya tomo esta posicion
+                pos = siguiente.get();
+            }
+        }
+        Ranura r = ranuras[i];
+        r.fecha = System.currentTimeMillis();
+        r.servidor = servidor;
+        r.metodo = metodo;
+        r.ruta = ruta;
+        r.version = version;
+        r.estado = estado;
+        r.bytes = bytes;
+        r.micros = nanos / 1000;
+        secuencias.setRelease(i, pos + 1);
+    }
+
+    // ==========================
+    // ESCRITOR
+    // ==========================
+
+    private void escribirSiempre() {
+        while (true) {
+            boolean ultimaVuelta = detenido;
+            try {
+                if (!vaciar() && !ultimaVuelta) {
+                    LockSupport.parkNanos(ESPERA_NANOS);
+                }
+            } catch (IOException e) {
+                System.out.println("Error escribiendo " + archivo + ": " + e.getMessage());
+                lote.clear();
+                LockSupport.parkNanos(ESPERA_NANOS);
+            }
+            if (ultimaVuelta) {
+                return;
+            }
+        }
+    }
+
+    // Pasa al archivo todo lo publicado; false si no habia nada
+    private boolean vaciar() throws IOException {
+        boolean hubo = false;
+        while (true) {
+            int i = (int) leida & (CAPACIDAD - 1);
+            if (secuencias.getAcquire(i) != leida + 1) {
+                break;
+            }
+            formatear(ranuras[i]);
+            // La ranura vuelve a estar libre para la siguiente vuelta
+            secuencias.setRelease(i, leida + CAPACIDAD);
+            leida++;
+            hubo = true;
+
+            byte[] bytes = linea.toString().getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > lote.remaining()) {
+                escribirLote();
+            }
+            if (bytes.length > lote.remaining()) {
+                continue;       // una ruta absurda que no entra ni en un lote vacio
+            }
+            lote.put(bytes);
+        }
+        if (lote.position() > 0) {
+            escribirLote();
+        }
+        return hubo;
+    }
+
+    private void formatear(Ranura r) {
+        linea.setLength(0);
+        linea.append("{\"fecha\":\"").append(Instant.ofEpochMilli(r.fecha)).append("\",\"servidor\":");
+        textoJSON(r.servidor);
+        linea.append(",\"metodo\":");
+        textoJSON(r.metodo);
+        linea.append(",\"ruta\":");
+        textoJSON(r.ruta);
+        linea.append(",\"version\":");
+        textoJSON(r.version);
+        linea.append(",\"estado\":").append(r.estado)
+             .append(",\"bytes\":").append(r.bytes)
+             .append(",\"us\":").append(r.micros)
+             .append("}\n");
+    }
+
+    // Cadena JSON escrita directo en 'linea', sin un String intermedio por campo
+    private void textoJSON(String texto) {
+        linea.append('"');
+        for (int i = 0; i < texto.length(); i++) {
+            char c = texto.charAt(i);
+            if (c == '"' || c == '\\') {
+                linea.append('\\').append(c);
+            } else if (c < 0x20) {
+                linea.append("\\u00").append(Character.forDigit(c >> 4, 16))
+                     .append(Character.forDigit(c & 0xf, 16));
+            } else {
+                linea.append(c);
+            }
+        }
+        linea.append('"');
+    }
+
+    private void escribirLote() throws IOException {
+        if (tamano + lote.position() > maxBytes && tamano > 0) {
+            rotar();
+        }
+        lote.flip();
+        while (lote.hasRemaining()) {
+            tamano += canal.write(lote);
+        }
+        lote.clear();
+    }
+
+    // accesos.log -> accesos.log.1 -> ... -> accesos.log.N (se borra)
+    private void rotar() throws IOException {
+        canal.close();
+        Files.deleteIfExists(numerado(maxArchivos));
+        for (int n = maxArchivos - 1; n >= 1; n--) {
+            Path viejo = numerado(n);
+            if (Files.exists(viejo)) {
+                Files.move(viejo, numerado(n + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (maxArchivos > 0) {
+            Files.move(archivo, numerado(1), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.deleteIfExists(archivo);
+        }
+        abrir();
+    }
+
+    private Path numerado(int n) {
+        return archivo.resolveSibling(archivo.getFileName() + "." + n);
+    }
+
+    private void abrir() throws IOException {
+        canal = FileChannel.open(archivo, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        tamano = canal.size();
+    }
+
+    private void detener() {
+        detenido = true;
+        LockSupport.unpark(escritor);
+        try {
+            escritor.join(1000);
+        } catch (InterruptedException ignored) {
+        }
+    }
+}
@@ -0,0 +1,418 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+// Respuesta HTTP armada por ManejadorCliente. No sabe como se va a enviar:
+// el motor bloqueante usa escribir() y ServidorNIO recorre las partes.
+// El cuerpo es una lista de partes: bytes en memoria, regiones de archivo,
+// flujos de longitud conocida (el cuerpo que llega de un backend) o, al
+// final, un Generador de largo desconocido que sale en chunks
+public class Respuesta {
+
+    // Trozo de archivo que se manda con FileChannel.transferTo
+    public static class Region {
+        final FileChannel canal;
+        final long posicion;
+        final long longitud;
+
+        Region(FileChannel canal, long posicion, long longitud) {
+            this.canal = canal;
+            this.posicion = posicion;
+            this.longitud = longitud;
+        }
+    }
+
+    // Flujo del que se copian exactamente 'longitud' bytes
+    public static class Flujo {
+        final InputStream entrada;
+        final long longitud;
+
+        Flujo(InputStream entrada, long longitud) {
+            this.entrada = entrada;
+            this.longitud = longitud;
+        }
+    }
+
+    // Cuerpo que se produce por trozos mientras se envia (un ZIP armado al
+    // vuelo). Cada trozo es valido hasta la siguiente llamada; null = fin
+    public interface Generador extends Closeable {
+        ByteBuffer siguiente() throws IOException;
+    }
+
+    private static final byte[] FIN_CABECERA = "\r\n".getBytes();
+    private static final byte[] CHUNKED = "Transfer-Encoding: chunked\r\n\r\n".getBytes();
+    private static final byte[] ULTIMO_CHUNK = "0\r\n\r\n".getBytes();
+
+    // Razones estandar; su status line se codifica una sola vez
+    private static final Map<Integer, String> RAZONES = new HashMap<>();
+    private static final Map<Integer, byte[]> LINEAS_ESTADO = new HashMap<>();
+
+    static {
+        RAZONES.put(200, "OK");
+        RAZONES.put(206, "Partial Content");
+        RAZONES.put(301, "Moved Permanently");
+        RAZONES.put(302, "Found");
+        RAZONES.put(304, "Not Modified");
+        RAZONES.put(400, "Bad Request");
+        RAZONES.put(403, "Forbidden");
+        RAZONES.put(404, "Not Found");
+        RAZONES.put(409, "Conflict");
+        RAZONES.put(413, "Content Too Large");
+        RAZONES.put(414, "URI Too Long");
+        RAZONES.put(416, "Range Not Satisfiable");
+        RAZONES.put(431, "Request Header Fields Too Large");
+        RAZONES.put(500, "Internal Server Error");
+        RAZONES.put(502, "Bad Gateway");
+        RAZONES.put(503, "Service Unavailable");
+        for (Map.Entry<Integer, String> e : RAZONES.entrySet()) {
+            LINEAS_ESTADO.put(e.getKey(), ("HTTP/1.1 " + e.getKey() + " " + e.getValue() + "\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    private final int estado;
+    private final String razon;
+    private final Map<String, String> headers = new LinkedHashMap<>();
+    // Headers ya renderizados ("Nombre: valor\r\n..."), p. ej. de CacheArchivos
+    // o los bloques constantes de ManejadorCliente
+    private final List<byte[]> bloques = new ArrayList<>();
+    private final List<Object> partes = new ArrayList<>();
+    private long longitud = 0;
+    private boolean cerrarConexion = false;
+    // Con un Generador: chunked o, para HTTP/1.0, hasta cerrar la conexion
+    private boolean largoConocido = true;
+    private boolean chunked = true;
+    private Notificador.Suscripcion suscripcion;
+
+    public Respuesta(int estado, String razon) {
+        this.estado = estado;
+        this.razon = razon;
+    }
+
+    public Respuesta header(String nombre, String valor) {
+        headers.put(nombre, valor);
+        return this;
+    }
+
+    public Respuesta headers(byte[] bloque) {
+        bloques.add(bloque);
+        return this;
+    }
+
+    public String getHeader(String nombre) {
+        return headers.get(nombre);
+    }
+
+    // Headers del mapa y de los bloques ya renderizados, en orden. Lo usa
+    // ConexionHTTP2, que los vuelve a codificar con HPACK
+    public void recorrerHeaders(BiConsumer<String, String> destino) {
+        for (Map.Entry<String, String> h : headers.entrySet()) {
+            destino.accept(h.getKey(), h.getValue());
+        }
+        for (byte[] bloque : bloques) {
+            String texto = new String(bloque, StandardCharsets.ISO_8859_1);
+            int inicio = 0;
+            int fin;
+            while ((fin = texto.indexOf("\r\n", inicio)) > inicio) {
+                int dosPuntos = texto.indexOf(':', inicio);
+                if (dosPuntos > inicio && dosPuntos < fin) {
+                    destino.accept(texto.substring(inicio, dosPuntos),
+                            texto.substring(dosPuntos + 1, fin).trim());
+                }
+                inicio = fin + 2;
+            }
+        }
+    }
+
+    public Respuesta cuerpo(byte[] datos) {
+        partes.add(ByteBuffer.wrap(datos));
+        longitud += datos.length;
+        return this;
+    }
+
+    public Respuesta cuerpo(ByteBuffer datos) {
+        partes.add(datos);
+        longitud += datos.remaining();
+        return this;
+    }
+
+    public Respuesta archivo(FileChannel canal, long posicion, long bytes) {
+        partes.add(new Region(canal, posicion, bytes));
+        longitud += bytes;
+        return this;
+    }
+
+    public Respuesta flujo(InputStream entrada, long bytes) {
+        partes.add(new Flujo(entrada, bytes));
+        longitud += bytes;
+        return this;
+    }
+
+    // Debe ser la ultima parte; getLongitud() cuenta lo ya generado
+    public Respuesta generado(Generador generador) {
+        partes.add(generador);
+        largoConocido = false;
+        return this;
+    }
+
+    // Para clientes HTTP/1.0, que no entienden chunked
+    public void delimitarPorCierre() {
+        chunked = false;
+        cerrarConexion = true;
+    }
+
+    // Canal de eventos: sin largo ni chunks, el cuerpo sigue hasta que se
+    // cierra la conexion. Despues de la cabecera el motor entrega el socket
+    // al Notificador en lugar de cerrarlo
+    public Respuesta suscripcion(Notificador.Suscripcion suscripcion) {
+        this.suscripcion = suscripcion;
+        largoConocido = false;
+        delimitarPorCierre();
+        return this;
+    }
+
+    public Notificador.Suscripcion getSuscripcion() {
+        return suscripcion;
+    }
+
+    public boolean isLargoConocido() {
+        return largoConocido;
+    }
+
+    public int getEstado() {
+        return estado;
+    }
+
+    public long getLongitud() {
+        return longitud;
+    }
+
+    public List<Object> getPartes() {
+        return partes;
+    }
+
+    public boolean isCerrarConexion() {
+        return cerrarConexion;
+    }
+
+    public void setCerrarConexion(boolean cerrarConexion) {
+        this.cerrarConexion = cerrarConexion;
+    }
+
+    // Status line + headers + Content-Length + linea vacia, como buffers
+    // para una escritura gathering: los bloques ya renderizados y la linea
+    // de estado precalculada no se copian
+    public ByteBuffer[] cabecera() {
+        ByteBuffer[] buffers = new ByteBuffer[bloques.size() + 3];
+        int n = 0;
+        buffers[n++] = lineaEstado();
+
+        StringBuilder sb = new StringBuilder(128);
+        for (Map.Entry<String, String> h : headers.entrySet()) {
+            // Con chunks o hasta el cierre, un Content-Length contradiria el cuerpo
+            if (!largoConocido && h.getKey().equalsIgnoreCase("Content-Length")) {
+                continue;
+            }
+            sb.append(h.getKey()).append(": ").append(h.getValue()).append("\r\n");
+        }
+        if (sb.length() > 0) {
+            buffers[n++] = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+        }
+        for (byte[] bloque : bloques) {
+            buffers[n++] = ByteBuffer.wrap(bloque);
+        }
+
+        // 204 y 304 no llevan cuerpo ni Content-Length
+        if (!largoConocido) {
+            buffers[n++] = ByteBuffer.wrap(chunked ? CHUNKED : FIN_CABECERA);
+        } else if (estado != 304 && estado != 204 && !headers.containsKey("Content-Length")) {
+            buffers[n++] = ByteBuffer.wrap(("Content-Length: " + longitud + "\r\n\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1));
+        } else {
+            buffers[n++] = ByteBuffer.wrap(FIN_CABECERA);
+        }
+        return n == buffers.length ? buffers : Arrays.copyOf(buffers, n);
+    }
+
+    private ByteBuffer lineaEstado() {
+        byte[] linea = LINEAS_ESTADO.get(estado);
+        if (linea != null && razon.equals(RAZONES.get(estado))) {
+            return ByteBuffer.wrap(linea);
+        }
+        return ByteBuffer.wrap(("HTTP/1.1 " + estado + " " + razon + "\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    // Envio bloqueante. Con canal de socket, la cabecera y las partes en
+    // memoria que la siguen salen en una sola escritura gathering; las
+    // regiones de archivo van con transferTo (copia en el kernel, sin heap)
+    public void escribir(OutputStream out, WritableByteChannel canalSocket)
+            throws IOException {
+
+        int desde = 0;
+        if (canalSocket instanceof GatheringByteChannel) {
+            out.flush();
+            desde = escribirJuntos((GatheringByteChannel) canalSocket);
+        } else {
+            for (ByteBuffer b : cabecera()) {
+                escribirBuffer(b, out, canalSocket);
+            }
+        }
+
+        for (int i = desde; i < partes.size(); i++) {
+            Object parte = partes.get(i);
+            if (parte instanceof ByteBuffer) {
+                escribirBuffer(((ByteBuffer) parte).duplicate(), out, canalSocket);
+                continue;
+            }
+            if (parte instanceof Flujo) {
+                copiar((Flujo) parte, out);
+                continue;
+            }
+            if (parte instanceof Generador) {
+                ByteBuffer trozo;
+                do {
+                    trozo = ((Generador) parte).siguiente();
+                    for (ByteBuffer b : enmarcar(trozo)) {
+                        escribirBuffer(b, out, canalSocket);
+                    }
+                } while (trozo != null);
+                continue;
+            }
+
+            Region region = (Region) parte;
+            out.flush();
+            WritableByteChannel destino = canalSocket != null
+                    ? canalSocket
+                    : Channels.newChannel(out);
+
+            long enviado = 0;
+            while (enviado < region.longitud) {
+                long n = region.canal.transferTo(region.posicion + enviado,
+                        region.longitud - enviado, destino);
+                if (n <= 0) {
+                    throw new EOFException("Archivo truncado durante el envio");
+                }
+                enviado += n;
+            }
+        }
+    }
+
+    // Cabecera + partes en memoria iniciales con un solo write(ByteBuffer[]).
+    // Devuelve el indice de la primera parte que falta enviar
+    private int escribirJuntos(GatheringByteChannel canal) throws IOException {
+        int desde = 0;
+        while (desde < partes.size() && partes.get(desde) instanceof ByteBuffer) {
+            desde++;
+        }
+        ByteBuffer[] buffers = buffersEnvio(desde);
+        long total = 0;
+        for (ByteBuffer b : buffers) {
+            total += b.remaining();
+        }
+        while (total > 0) {
+            total -= canal.write(buffers);
+        }
+        return desde;
+    }
+
+    // Cabecera seguida de vistas propias de las primeras 'hasta' partes
+    // (todas ByteBuffer); tambien lo usa ServidorNIO
+    public ByteBuffer[] buffersEnvio(int hasta) {
+        ByteBuffer[] cabecera = cabecera();
+        ByteBuffer[] buffers = Arrays.copyOf(cabecera, cabecera.length + hasta);
+        for (int i = 0; i < hasta; i++) {
+            buffers[cabecera.length + i] = ((ByteBuffer) partes.get(i)).duplicate();
+        }
+        return buffers;
+    }
+
+    // Trozo de un Generador listo para el socket: con su linea de tamano
+    // si va en chunks; null es el fin (el chunk vacio). Lo usa ServidorNIO
+    public ByteBuffer[] enmarcar(ByteBuffer trozo) {
+        if (trozo == null) {
+            return chunked ? new ByteBuffer[]{ByteBuffer.wrap(ULTIMO_CHUNK)} : new ByteBuffer[0];
+        }
+        if (!trozo.hasRemaining()) {
+            // Un chunk vacio terminaria el cuerpo
+            return new ByteBuffer[0];
+        }
+        sumarGenerado(trozo.remaining());
+        if (!chunked) {
+            return new ByteBuffer[]{trozo};
+        }
+        return new ByteBuffer[]{
+            ByteBuffer.wrap((Integer.toHexString(trozo.remaining()) + "\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1)),
+            trozo,
+            ByteBuffer.wrap(FIN_CABECERA)
+        };
+    }
+
+    // Bytes de un Generador ya enviados, para las metricas
+    void sumarGenerado(long bytes) {
+        longitud += bytes;
+    }
+
+    // Los buffers de la cache pueden ser directos o de solo lectura (sin array)
+    private void escribirBuffer(ByteBuffer datos, OutputStream out, WritableByteChannel canalSocket)
+            throws IOException {
+
+        if (datos.hasArray()) {
+            out.write(datos.array(), datos.arrayOffset() + datos.position(), datos.remaining());
+            return;
+        }
+        if (canalSocket != null) {
+            out.flush();
+            while (datos.hasRemaining()) {
+                canalSocket.write(datos);
+            }
+            return;
+        }
+        byte[] trozo = new byte[16 * 1024];
+        while (datos.hasRemaining()) {
+            int n = Math.min(trozo.length, datos.remaining());
+            datos.get(trozo, 0, n);
+            out.write(trozo, 0, n);
+        }
+    }
+
+    private void copiar(Flujo flujo, OutputStream out) throws IOException {
+        byte[] buffer = new byte[16 * 1024];
+        long restante = flujo.longitud;
+        while (restante > 0) {
+            int n = flujo.entrada.read(buffer, 0, (int) Math.min(buffer.length, restante));
+            if (n < 0) {
+                throw new EOFException("Flujo truncado durante el envio");
+            }
+            out.write(buffer, 0, n);
+            restante -= n;
+        }
+    }
+
+    // Libera los archivos y flujos abiertos por las partes
+    public void cerrar() {
+        for (Object parte : partes) {
+            try {
+                if (parte instanceof Region) {
+                    ((Region) parte).canal.close();
+                } else if (parte instanceof Flujo) {
+                    ((Flujo) parte).entrada.close();
+                } else if (parte instanceof Generador) {
+                    ((Generador) parte).close();
+                }
+            } catch (IOException ignored) {}
+        }
+    }
+}
@@ -1,5 +1,8 @@
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Paths;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.awt.Desktop;
 import java.net.URI;
 
@@ -7,26 +10,116 @@ public class ServidorHTTP {
 
     private static final int PUERTO = 8000;
     private static final int TAM_POOL = 4;
+    private static final int TAM_POOL_PROXY = 16;
+    private static final int TAM_COLA = 64;
 
-    private static ThreadPoolExecutor executor =
-            (ThreadPoolExecutor) Executors.newFixedThreadPool(TAM_POOL);
+    private static ExecutorService executor;
+    private static ExecutorService proxy;
+
+    // Manejadores corriendo (lo mismo que getActiveCount()). Con hilos
+    // virtuales no hay ThreadPoolExecutor que consultar, asi que se cuentan aqui
+    private static final AtomicInteger activos = new AtomicInteger();
 
     public static void main(String[] args) {
+        Opciones opciones = new Opciones(args);
+        // --cache-mb=N: tamano de la cache de archivos estaticos
+        CacheArchivos.configurar(opciones.entero("cache-mb", 64) * 1024L * 1024);
+        // --mime=archivo: tabla de tipos con formato mime.types
+        TiposMime.configurar(Paths.get(opciones.texto("mime", "mime.types")));
+        // --log=archivo: registro de accesos (--log=no lo desactiva)
+        RegistroAccesos.configurar("accesos-" + PUERTO + ".log", opciones);
         try {
-            ServerSocket servidor = new ServerSocket(PUERTO);
+            // --oyentes=N: N sockets con SO_REUSEPORT en este mismo puerto, cada
+            // uno con su pool y su cache, en lugar del par PRINCIPAL/SECUNDARIO
+            int oyentes = ServidorOyentes.cantidad(opciones);
+            // --keystore=archivo: HTTPS ademas, en --tls-puerto (por defecto 8443)
+            ServidorTLS tls = ServidorTLS.desdeOpciones(opciones, 8443);
+
+            // --motor=nio: event loop no bloqueante; el pool (--hilos, --cola)
+            // solo corre los manejadores, no espera a conexiones inactivas
+            if (opciones.texto("motor", "hilos").equals("nio")) {
+                new ServidorNIO(PUERTO, "PRINCIPAL", oyentes > 0 ? oyentes
+                        : opciones.entero("trabajadores", Runtime.getRuntime().availableProcessors()),
+                        oyentes > 0).conTLS(tls)
+                        .conEjecutor(Ejecutores.crear(opciones.texto("hilos", "pool"),
+                                TAM_POOL, opciones.entero("cola", TAM_COLA)))
+                        .iniciar();
+                return;
+            }
+            if (oyentes > 0) {
+                new ServidorOyentes(PUERTO, "PRINCIPAL", oyentes, TAM_POOL, TAM_COLA, opciones)
+                        .conTLS(tls).iniciar();
+                return;
+            }
+
+            // --hilos=virtual: un hilo virtual por conexion en lugar del pool fijo.
+            // Sin pool que se sature no se redirige, salvo que se pida --max-activos
+            String hilos = opciones.texto("hilos", "pool");
+            // --cola=N: conexiones que pueden esperar un hilo; el resto recibe 503
+            int cola = opciones.entero("cola", TAM_COLA);
+            executor = Ejecutores.crear(hilos, TAM_POOL, cola);
+            ControlAdmision admision = ControlAdmision.desdeOpciones("PRINCIPAL", opciones);
+            int maxActivos = opciones.entero("max-activos",
+                    executor instanceof ThreadPoolExecutor ? TAM_POOL / 2 : Integer.MAX_VALUE);
+
+            // --balanceo=proxy (por defecto): lo que exceda maxActivos se reenvia
+            // a los backends por conexiones persistentes, sin 302 al cliente.
+            // --balanceo=redireccion conserva el 302 original
+            Balanceador balanceador = null;
+            if (opciones.texto("balanceo", "proxy").equals("proxy")) {
+                balanceador = new Balanceador(
+                        opciones.texto("backends", "localhost:9000"),
+                        opciones.texto("algoritmo", "pendientes"));
+                proxy = Ejecutores.crear(hilos, TAM_POOL_PROXY, cola);
+            }
+
+            // Abierto desde un canal para que cada Socket aceptado tenga
+            // getChannel() y el GET pueda usar FileChannel.transferTo
+            ServerSocket servidor = ServerSocketChannel.open()
+                    .bind(new InetSocketAddress(PUERTO))
+                    .socket();
             System.out.println("Servidor HTTP PRINCIPAL en puerto " + PUERTO);
+            // Lo que llega por HTTPS se atiende siempre aqui, sin reenviar
+            if (tls != null) {
+                tls.escuchar("PRINCIPAL", executor, admision, CacheArchivos.compartida(), false);
+            }
+
+            Metricas metricas = Metricas.global();
+            metricas.indicador("http_manejadores_activos", activos::get);
+            metricas.indicador("http_max_activos", () -> maxActivos);
+            metricas.indicador("http_cola_sobrecargada", () -> admision.isSobrecargado() ? 1 : 0);
+            if (executor instanceof ThreadPoolExecutor) {
+                ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+                metricas.indicador("http_pool_hilos", pool::getPoolSize);
+                metricas.indicador("http_pool_cola", () -> pool.getQueue().size());
+            }
 
             while (true) {
                 Socket cliente = servidor.accept();
 
-                int activos = executor.getActiveCount();
+                boolean saturado = activos.get() > maxActivos;
 
-                if (activos > TAM_POOL / 2) {
+                if (saturado) {
+                    metricas.saturacion();
+                }
+                if (saturado && balanceador == null) {
+                    metricas.redireccion();
                     redirigir(cliente);
+                } else if (saturado && balanceador.hayDisponible()) {
+                    admision.despachar(proxy, cliente,
+                            new ManejadorCliente(cliente, "PRINCIPAL", balanceador));
                 } else {
-                    executor.execute(
-                        new ManejadorCliente(cliente, "PRINCIPAL")
-                    );
+                    // Sin backends sanos se encola aqui en lugar de redirigir
+                    // a un servidor caido
+                    ManejadorCliente manejador = new ManejadorCliente(cliente, "PRINCIPAL");
+                    admision.despachar(executor, cliente, () -> {
+                        activos.incrementAndGet();
+                        try {
+                            manejador.run();
+                        } finally {
+                            activos.decrementAndGet();
+                        }
+                    });
                 }
             }
 
@@ -40,6 +133,8 @@ public class ServidorHTTP {
             String respuesta =
                 "HTTP/1.1 302 Found\r\n" +
                 "Location: http://localhost:9000\r\n" +
+                "Content-Length: 0\r\n" +
+                "Connection: close\r\n" +
                 "X-Servidor: PRINCIPAL\r\n\r\n";
 
             cliente.getOutputStream().write(respuesta.getBytes());
@@ -1,28 +1,81 @@
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Paths;
 import java.util.concurrent.*;
 import java.awt.Desktop;
 import java.net.URI;
 
 public class ServidorHTTP2 {
 
-    private static final int PUERTO = 9000;
+    private static final int PUERTO_DEFECTO = 9000;
     private static final int TAM_POOL = 8;
+    private static final int TAM_COLA = 64;
 
     public static void main(String[] args) {
+        Opciones opciones = new Opciones(args);
+        // --puerto=N para levantar varios backends detras del PRINCIPAL
+        int puerto = opciones.entero("puerto", PUERTO_DEFECTO);
+        // --cache-mb=N: tamano de la cache de archivos estaticos
+        CacheArchivos.configurar(opciones.entero("cache-mb", 64) * 1024L * 1024);
+        // --mime=archivo: tabla de tipos con formato mime.types
+        TiposMime.configurar(Paths.get(opciones.texto("mime", "mime.types")));
+        // --log=archivo: registro de accesos (--log=no lo desactiva)
+        RegistroAccesos.configurar("accesos-" + puerto + ".log", opciones);
         try {
-            ServerSocket servidor = new ServerSocket(PUERTO);
+            // --oyentes=N: N sockets con SO_REUSEPORT en el puerto (ver ServidorOyentes)
+            int oyentes = ServidorOyentes.cantidad(opciones);
+            // --keystore=archivo: HTTPS ademas, en --tls-puerto (por defecto puerto + 443)
+            ServidorTLS tls = ServidorTLS.desdeOpciones(opciones, puerto + 443);
 
-            ExecutorService pool =
-                    Executors.newFixedThreadPool(TAM_POOL);
+            // --motor=nio: event loop no bloqueante; el pool (--hilos, --cola)
+            // solo corre los manejadores, no espera a conexiones inactivas
+            if (opciones.texto("motor", "hilos").equals("nio")) {
+                new ServidorNIO(puerto, "SECUNDARIO", oyentes > 0 ? oyentes
+                        : opciones.entero("trabajadores", Runtime.getRuntime().availableProcessors()),
+                        oyentes > 0).conTLS(tls)
+                        .conEjecutor(Ejecutores.crear(opciones.texto("hilos", "pool"),
+                                TAM_POOL, opciones.entero("cola", TAM_COLA)))
+                        .iniciar();
+                return;
+            }
+            if (oyentes > 0) {
+                new ServidorOyentes(puerto, "SECUNDARIO", oyentes, TAM_POOL, TAM_COLA, opciones)
+                        .conTLS(tls).iniciar();
+                return;
+            }
+
+            // Abierto desde un canal para que cada Socket aceptado tenga
+            // getChannel() y el GET pueda usar FileChannel.transferTo
+            ServerSocket servidor = ServerSocketChannel.open()
+                    .bind(new InetSocketAddress(puerto))
+                    .socket();
+
+            // --hilos=virtual: un hilo virtual por conexion en lugar del pool fijo
+            // --cola=N: conexiones que pueden esperar un hilo; el resto recibe 503
+            ExecutorService pool = Ejecutores.crear(opciones.texto("hilos", "pool"),
+                    TAM_POOL, opciones.entero("cola", TAM_COLA));
+            ControlAdmision admision = ControlAdmision.desdeOpciones("SECUNDARIO", opciones);
 
-            System.out.println("Servidor HTTP SECUNDARIO en puerto " + PUERTO);
+            System.out.println("Servidor HTTP SECUNDARIO en puerto " + puerto);
+            if (tls != null) {
+                tls.escuchar("SECUNDARIO", pool, admision, CacheArchivos.compartida(), false);
+            }
+
+            if (pool instanceof ThreadPoolExecutor) {
+                ThreadPoolExecutor tpe = (ThreadPoolExecutor) pool;
+                Metricas.global().indicador("http_manejadores_activos", tpe::getActiveCount);
+                Metricas.global().indicador("http_pool_hilos", tpe::getPoolSize);
+                Metricas.global().indicador("http_pool_cola", () -> tpe.getQueue().size());
+            }
+            Metricas.global().indicador("http_cola_sobrecargada",
+                    () -> admision.isSobrecargado() ? 1 : 0);
 
             // 🟢 ABRIR NAVEGADOR (solo para pruebas locales)
-            abrirNavegador("http://localhost:" + PUERTO + "/archivo.txt");
+            abrirNavegador("http://localhost:" + puerto + "/archivo.txt");
 
             while (true) {
                 Socket cliente = servidor.accept();
-                pool.execute(
+                admision.despachar(pool, cliente,
                     new ManejadorCliente(cliente, "SECUNDARIO")
                 );
             }
@@ -0,0 +1,758 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+// Motor no bloqueante: un hilo acepta conexiones con un Selector y las
+// reparte entre N trabajadores, cada uno con su propio Selector. Una
+// conexion inactiva solo cuesta su SelectionKey, no un hilo del pool.
+// La logica de GET/POST/PUT/DELETE es la misma de ManejadorCliente.
+// Con --oyentes no hay hilo que acepte: cada trabajador abre su propio
+// socket en el puerto con SO_REUSEPORT, acepta en su Selector y usa su
+// propia cache (ver ServidorOyentes).
+// Con TLS (ServidorTLS) se escucha ademas en el puerto HTTPS; esas
+// conexiones leen y escriben a traves de un CanalTLS.
+// El Selector solo lee, parsea y escribe: atender() (disco, proxy) corre
+// en el executor de conEjecutor() y la respuesta vuelve al trabajador por
+// una cola, igual que las conexiones nuevas.
+public class ServidorNIO {
+
+    private static final int TAM_ENTRADA = 4 * 1024;
+    // El cuerpo se junta en memoria antes de atender: mas grande es 413
+    private static final int MAX_CUERPO = 8 * 1024 * 1024;
+
+    private static final byte[] CONTINUAR = "HTTP/1.1 100 Continue\r\n\r\n".getBytes();
+
+    private final int puerto;
+    private final String nombreServidor;
+    private final Trabajador[] trabajadores;
+    private final boolean oyentesPropios;
+    private ServidorTLS tls;
+    private ExecutorService ejecutor;
+
+    public ServidorNIO(int puerto, String nombreServidor, int numTrabajadores) {
+        this(puerto, nombreServidor, numTrabajadores, false);
+    }
+
+    public ServidorNIO(int puerto, String nombreServidor, int numTrabajadores,
+                       boolean oyentesPropios) {
+        this.puerto = puerto;
+        this.nombreServidor = nombreServidor;
+        this.trabajadores = new Trabajador[numTrabajadores];
+        this.oyentesPropios = oyentesPropios;
+    }
+
+    // HTTPS en tls.getPuerto(), ademas del puerto en claro
+    public ServidorNIO conTLS(ServidorTLS tls) {
+        this.tls = tls;
+        return this;
+    }
+
+    // Hilos que corren atender(); sin ejecutor se atiende en el propio
+    // trabajador (cada peticion lenta detiene a todas sus conexiones)
+    public ServidorNIO conEjecutor(ExecutorService ejecutor) {
+        this.ejecutor = ejecutor;
+        return this;
+    }
+
+    public void iniciar() throws IOException {
+        if (oyentesPropios && ServidorOyentes.admiteReusePort()) {
+            iniciarOyentes();
+            return;
+        }
+        for (int i = 0; i < trabajadores.length; i++) {
+            trabajadores[i] = new Trabajador(new ManejadorCliente(nombreServidor));
+            Thread hilo = new Thread(trabajadores[i], "nio-" + nombreServidor + "-" + i);
+            hilo.start();
+        }
+
+        ServerSocketChannel servidor = ServerSocketChannel.open();
+        servidor.bind(new InetSocketAddress(puerto), 1024);
+        servidor.configureBlocking(false);
+
+        Selector aceptador = Selector.open();
+        servidor.register(aceptador, SelectionKey.OP_ACCEPT);
+        if (tls != null) {
+            abrirTLS(false).register(aceptador, SelectionKey.OP_ACCEPT, tls);
+        }
+
+        System.out.println("Motor NIO con " + trabajadores.length
+                + " trabajadores en puerto " + puerto
+                + (tls != null ? " y HTTPS en " + tls.getPuerto() : ""));
+
+        int siguiente = 0;
+        while (true) {
+            aceptador.select();
+            for (SelectionKey key : aceptador.selectedKeys()) {
+                ServerSocketChannel escucha = (ServerSocketChannel) key.channel();
+                SocketChannel canal;
+                while ((canal = escucha.accept()) != null) {
+                    trabajadores[siguiente].asignar(nuevaConexion(canal, key.attachment() != null));
+                    siguiente = (siguiente + 1) % trabajadores.length;
+                }
+            }
+            aceptador.selectedKeys().clear();
+        }
+    }
+
+    private ServerSocketChannel abrirTLS(boolean reusePort) throws IOException {
+        ServerSocketChannel servidor = ServerSocketChannel.open();
+        if (reusePort) {
+            servidor.setOption(java.net.StandardSocketOptions.SO_REUSEPORT, true);
+        }
+        servidor.bind(new InetSocketAddress(tls.getPuerto()), 1024);
+        servidor.configureBlocking(false);
+        return servidor;
+    }
+
+    private Conexion nuevaConexion(SocketChannel canal, boolean conTLS) throws IOException {
+        canal.configureBlocking(false);
+        canal.setOption(java.net.StandardSocketOptions.TCP_NODELAY, true);
+        Conexion con = new Conexion(canal);
+        if (conTLS) {
+            con.tls = new CanalTLS(canal, tls.motor());
+        }
+        return con;
+    }
+
+    // Un socket por trabajador en el mismo puerto: el kernel reparte las
+    // conexiones y ningun hilo toca el Selector de otro
+    private void iniciarOyentes() throws IOException {
+        CacheArchivos compartida = CacheArchivos.compartida();
+        for (int i = 0; i < trabajadores.length; i++) {
+            ServerSocketChannel servidor = ServerSocketChannel.open();
+            servidor.setOption(java.net.StandardSocketOptions.SO_REUSEPORT, true);
+            servidor.bind(new InetSocketAddress(puerto), 1024);
+            servidor.configureBlocking(false);
+
+            trabajadores[i] = new Trabajador(new ManejadorCliente(null, nombreServidor,
+                    compartida.particion(trabajadores.length)));
+            servidor.register(trabajadores[i].selector, SelectionKey.OP_ACCEPT);
+            if (tls != null) {
+                abrirTLS(true).register(trabajadores[i].selector, SelectionKey.OP_ACCEPT, tls);
+            }
+            new Thread(trabajadores[i], "nio-" + nombreServidor + "-" + i).start();
+        }
+        Metricas.global().indicador("http_oyentes", () -> trabajadores.length);
+        System.out.println("Motor NIO con " + trabajadores.length
+                + " oyentes (SO_REUSEPORT) en puerto " + puerto);
+    }
+
+    // ==========================
+    // TRABAJADOR (un Selector por hilo)
+    // ==========================
+    private class Trabajador implements Runnable {
+
+        private final Selector selector;
+        private final Queue<Conexion> nuevas = new ConcurrentLinkedQueue<>();
+        // Conexiones cuya respuesta ya armo el executor
+        private final Queue<Conexion> listas = new ConcurrentLinkedQueue<>();
+        private final ManejadorCliente manejador;
+        // La Peticion es una vista sobre el parser: mientras el executor la
+        // atiende ese parser queda en la conexion y el trabajador toma otro
+        private ParserHTTP parser = new ParserHTTP();
+        private final ArrayDeque<ParserHTTP> libres = new ArrayDeque<>();
+        private int estadoInvalido;
+
+        private long ultimaRevision = System.currentTimeMillis();
+
+        Trabajador(ManejadorCliente manejador) throws IOException {
+            this.selector = Selector.open();
+            this.manejador = manejador;
+        }
+
+        void asignar(Conexion con) {
+            nuevas.add(con);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    selector.select(1000);
+                    registrarNuevas();
+                    enviarListas();
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        if (key.isValid() && key.isAcceptable()) {
+                            aceptar((ServerSocketChannel) key.channel(), key.attachment() != null);
+                            continue;
+                        }
+                        Conexion con = (Conexion) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) {
+                                leer(con);
+                            }
+                            if (key.isValid() && key.isWritable() && escribir(con)) {
+                                procesar(con);
+                            }
+                        } catch (IOException e) {
+                            cerrar(con);
+                        }
+                    }
+
+                    cerrarInactivas();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        // Solo con oyentes propios: el socket de escucha es de este Selector
+        private void aceptar(ServerSocketChannel servidor, boolean conTLS) throws IOException {
+            SocketChannel canal;
+            while ((canal = servidor.accept()) != null) {
+                nuevas.add(nuevaConexion(canal, conTLS));
+            }
+            registrarNuevas();
+        }
+
+        private void registrarNuevas() throws IOException {
+            Conexion con;
+            while ((con = nuevas.poll()) != null) {
+                Metricas.global().esperaEnCola(System.nanoTime() - con.aceptada);
+                con.key = con.canal.register(selector, SelectionKey.OP_READ, con);
+            }
+        }
+
+        // ==========================
+        // LECTURA Y PARSEO
+        // ==========================
+        private void leer(Conexion con) throws IOException {
+            if (con.entrada == null) {
+                con.entrada = ByteBuffer.allocate(TAM_ENTRADA);
+            }
+            if (!con.entrada.hasRemaining()) {
+                con.entrada = crecer(con.entrada);
+            }
+
+            int n;
+            if (con.tls == null) {
+                n = con.canal.read(con.entrada);
+            } else {
+                n = leerTLS(con);
+                if (con.tls.haySalida()) {
+                    // Registros del handshake que el socket no acepto todavia
+                    esperarEscritura(con);
+                }
+            }
+            if (n < 0) {
+                cerrar(con);
+                return;
+            }
+            con.ultimaActividad = System.currentTimeMillis();
+            procesar(con);
+        }
+
+        // Descifra todo lo que CanalTLS tenga a mano: lo que quede adentro no
+        // volveria a despertar al Selector
+        private int leerTLS(Conexion con) throws IOException {
+            int n = con.tls.read(con.entrada);
+            while (n >= 0 && !con.entrada.hasRemaining() && con.tls.hayDatos()) {
+                con.entrada = crecer(con.entrada);
+                int m = con.tls.read(con.entrada);
+                n = m < 0 ? m : n + m;
+            }
+            return n;
+        }
+
+        // Atiende todas las peticiones completas que haya en el buffer,
+        // una a la vez: la siguiente se parsea hasta terminar de enviar
+        // la anterior, asi las respuestas en pipeline salen en orden
+        private void procesar(Conexion con) throws IOException {
+            while (con.respuesta == null && !con.enProceso
+                    && con.entrada != null && con.canal.isOpen()) {
+                Peticion peticion = parsear(con);
+                if (peticion == null) {
+                    return;
+                }
+
+                con.atendidas++;
+                con.inicioPeticion = System.nanoTime();
+                con.peticion = peticion;
+                Respuesta respuesta;
+                if (peticion == PETICION_INVALIDA) {
+                    respuesta = new Respuesta(estadoInvalido, ParserHTTP.razon(estadoInvalido));
+                    respuesta.setCerrarConexion(true);
+                } else {
+                    if (con.tls == null) {
+                        peticion.setCanal(con.canal);
+                    }
+                    if (ejecutor != null) {
+                        despachar(con, peticion);
+                        return;
+                    }
+                    respuesta = manejador.atender(peticion);
+                }
+
+                responder(con, respuesta);
+                escribir(con);
+            }
+        }
+
+        private void responder(Conexion con, Respuesta respuesta) {
+            con.mantener = con.peticion != PETICION_INVALIDA
+                    && con.peticion.aceptaKeepAlive()
+                    && !respuesta.isCerrarConexion()
+                    && con.atendidas < ManejadorCliente.MAX_PETICIONES;
+            ManejadorCliente.headersConexion(respuesta, con.mantener, con.atendidas);
+            iniciarEnvio(con, respuesta);
+        }
+
+        // Pasa la peticion al executor. La conexion deja de leer hasta que
+        // vuelva la respuesta: las que vengan en pipeline esperan en el buffer
+        private void despachar(Conexion con, Peticion peticion) {
+            con.enProceso = true;
+            con.parser = parser;
+            parser = libres.isEmpty() ? new ParserHTTP() : libres.pop();
+            con.key.interestOps(0);
+            try {
+                ejecutor.execute(() -> {
+                    Respuesta respuesta;
+                    try {
+                        respuesta = manejador.atender(peticion);
+                    } catch (Exception e) {
+                        respuesta = manejador.respuestaError(500);
+                        respuesta.setCerrarConexion(true);
+                    }
+                    con.lista = respuesta;
+                    listas.add(con);
+                    selector.wakeup();
+                });
+            } catch (RejectedExecutionException e) {
+                // Executor saturado: 503 desde aqui, como ControlAdmision
+                Metricas.global().rechazo();
+                Respuesta respuesta = manejador.respuestaError(503);
+                respuesta.setCerrarConexion(true);
+                con.lista = respuesta;
+                listas.add(con);
+            }
+        }
+
+        // Respuestas que termino el executor: se envian desde el Selector
+        private void enviarListas() throws IOException {
+            Conexion con;
+            while ((con = listas.poll()) != null) {
+                Respuesta respuesta = con.lista;
+                con.lista = null;
+                con.enProceso = false;
+                if (!con.canal.isOpen()) {
+                    respuesta.cerrar();
+                    liberarParser(con);
+                    continue;
+                }
+                responder(con, respuesta);
+                try {
+                    if (escribir(con)) {
+                        procesar(con);
+                    }
+                } catch (IOException e) {
+                    cerrar(con);
+                }
+            }
+        }
+
+        private void liberarParser(Conexion con) {
+            if (con.parser != null) {
+                libres.push(con.parser);
+                con.parser = null;
+            }
+        }
+
+        // Parsea la cabecera sobre el buffer de la conexion y, si ya llego
+        // todo el cuerpo, arma la Peticion y recorta el buffer. null = faltan
+        // bytes. La Peticion lee del parser actual del trabajador; si va al
+        // executor, despachar() le deja ese parser a la conexion
+        private Peticion parsear(Conexion con) {
+            ByteBuffer buf = con.entrada;
+            int limite = buf.position();
+
+            parser.reiniciar();
+            int fin = parser.alimentar(buf.array(), 0, limite);
+            if (parser.error() != 0) {
+                return invalida(parser.error());
+            }
+            if (!parser.terminada()) {
+                return null;
+            }
+
+            Peticion peticion = new Peticion(parser);
+            if (peticion.esChunked()) {
+                return parsearChunked(con, peticion, fin);
+            }
+
+            long largo;
+            try {
+                largo = peticion.getContentLength();
+            } catch (NumberFormatException e) {
+                return invalida(ParserHTTP.MAL_FORMADA);
+            }
+            if (largo < 0) {
+                return invalida(ParserHTTP.MAL_FORMADA);
+            }
+            if (largo > MAX_CUERPO) {
+                return invalida(ParserHTTP.CUERPO_GRANDE);
+            }
+            if (limite - fin < largo) {
+                // leer() agranda el buffer a medida que llegan los bytes: el
+                // Content-Length declarado no reserva memoria por adelantado
+                continuar(con, peticion);
+                return null;
+            }
+
+            // El cuerpo ya esta completo en memoria (hasta MAX_CUERPO)
+            peticion.setCuerpo(new ByteArrayInputStream(
+                    Arrays.copyOfRange(buf.array(), fin, (int) (fin + largo))));
+            con.continuarEnviado = false;
+            descartar(con, (int) (fin + largo));
+            return peticion;
+        }
+
+        // Decodifica los chunks completos que ya llegaron y los saca del
+        // buffer: lo decodificado se junta en con.cuerpo y la siguiente
+        // lectura sigue desde el chunk a medias, sin repasar los anteriores.
+        // En el buffer quedan solo la cabecera y lo que falta decodificar
+        private Peticion parsearChunked(Conexion con, Peticion peticion, int fin) {
+            ByteBuffer buf = con.entrada;
+            byte[] datos = buf.array();
+            int limite = buf.position();
+            if (con.cuerpo == null) {
+                con.cuerpo = new ByteArrayOutputStream();
+            }
+            ByteArrayOutputStream cuerpo = con.cuerpo;
+
+            int i = fin;
+            // Hasta donde ya se decodifico (chunks completos)
+            int consumido = fin;
+            while (true) {
+                int finLinea = buscarLF(datos, i, limite);
+                if (finLinea < 0) {
+                    break;
+                }
+                String linea = new String(datos, i, finLinea - i, StandardCharsets.ISO_8859_1).trim();
+                int puntoComa = linea.indexOf(';');
+                long tamano;
+                try {
+                    tamano = Long.parseLong(puntoComa < 0 ? linea : linea.substring(0, puntoComa).trim(), 16);
+                } catch (NumberFormatException e) {
+                    return invalida(ParserHTTP.MAL_FORMADA);
+                }
+                if (tamano < 0) {
+                    return invalida(ParserHTTP.MAL_FORMADA);
+                }
+                if (cuerpo.size() + tamano > MAX_CUERPO) {
+                    return invalida(ParserHTTP.CUERPO_GRANDE);
+                }
+                i = finLinea + 1;
+
+                if (tamano == 0) {
+                    // Trailers hasta una linea vacia
+                    while ((finLinea = buscarLF(datos, i, limite)) >= 0) {
+                        boolean vacia = finLinea == i || (finLinea == i + 1 && datos[i] == '\r');
+                        i = finLinea + 1;
+                        if (vacia) {
+                            peticion.setCuerpo(new ByteArrayInputStream(cuerpo.toByteArray()));
+                            con.cuerpo = null;
+                            con.continuarEnviado = false;
+                            descartar(con, i);
+                            return peticion;
+                        }
+                    }
+                    break;
+                }
+                if (limite - i < tamano + 2) {
+                    break;
+                }
+                cuerpo.write(datos, i, (int) tamano);
+                i += (int) tamano + 2; // datos + CRLF
+                consumido = i;
+            }
+
+            if (consumido > fin) {
+                System.arraycopy(datos, consumido, datos, fin, limite - consumido);
+                buf.position(fin + limite - consumido);
+                limite = buf.position();
+            }
+            // Un chunk a medias no puede pasar de lo que aun cabe en el cuerpo
+            if (cuerpo.size() + (limite - fin) > MAX_CUERPO + ParserHTTP.MAX_CABECERA) {
+                return invalida(ParserHTTP.CUERPO_GRANDE);
+            }
+            continuar(con, peticion);
+            return null;
+        }
+
+        private Peticion invalida(int estado) {
+            estadoInvalido = estado;
+            return PETICION_INVALIDA;
+        }
+
+        private int buscarLF(byte[] datos, int desde, int limite) {
+            for (int i = desde; i < limite; i++) {
+                if (datos[i] == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        // "Expect: 100-continue": el cliente espera permiso antes de mandar
+        // el cuerpo. Aqui no hay otra respuesta pendiente, asi que se escribe directo
+        private void continuar(Conexion con, Peticion peticion) {
+            if (con.continuarEnviado
+                    || !"100-continue".equalsIgnoreCase(peticion.getHeader("expect"))) {
+                return;
+            }
+            con.continuarEnviado = true;
+            try {
+                salida(con).write(ByteBuffer.wrap(CONTINUAR));
+            } catch (IOException e) {
+                // se detecta en la siguiente lectura
+            }
+        }
+
+        // Quita los primeros n bytes ya consumidos
+        private void descartar(Conexion con, int n) {
+            ByteBuffer buf = con.entrada;
+            buf.flip();
+            buf.position(n);
+            buf.compact();
+            if (buf.position() == 0) {
+                con.entrada = null; // conexion ociosa: no retiene memoria
+            }
+        }
+
+        private ByteBuffer crecer(ByteBuffer buf) {
+            ByteBuffer nuevo = ByteBuffer.allocate(buf.capacity() * 2);
+            buf.flip();
+            nuevo.put(buf);
+            return nuevo;
+        }
+
+        // ==========================
+        // ESCRITURA
+        // ==========================
+        private void iniciarEnvio(Conexion con, Respuesta respuesta) {
+            con.respuesta = respuesta;
+            con.parte = inicialesEnMemoria(respuesta, 0);
+            con.enviadoParte = 0;
+            con.pendientes = respuesta.buffersEnvio(con.parte);
+        }
+
+        // Cuantas partes seguidas desde 'desde' son bytes en memoria
+        private int inicialesEnMemoria(Respuesta r, int desde) {
+            java.util.List<Object> partes = r.getPartes();
+            int i = desde;
+            while (i < partes.size() && partes.get(i) instanceof ByteBuffer) {
+                i++;
+            }
+            return i;
+        }
+
+        // Avanza lo que el socket acepte sin bloquear. La cabecera y los
+        // bytes en memoria salen con escrituras gathering (sin copiarlos a
+        // otro buffer); los archivos van con transferTo.
+        // Devuelve true cuando la respuesta termino de enviarse
+        private boolean escribir(Conexion con) throws IOException {
+            if (con.tls != null && !con.tls.vaciar()) {
+                esperarEscritura(con);
+                return false;
+            }
+            Respuesta r = con.respuesta;
+            if (r == null) {
+                // Solo quedaba cifrado del handshake por mandar
+                con.key.interestOps(con.enProceso ? 0 : SelectionKey.OP_READ);
+                return false;
+            }
+            java.util.List<Object> partes = r.getPartes();
+
+            while (true) {
+                if (con.pendientes != null) {
+                    salida(con).write(con.pendientes, con.primerPendiente,
+                            con.pendientes.length - con.primerPendiente);
+                    while (con.primerPendiente < con.pendientes.length
+                            && !con.pendientes[con.primerPendiente].hasRemaining()) {
+                        con.primerPendiente++;
+                    }
+                    if (con.primerPendiente < con.pendientes.length) {
+                        esperarEscritura(con);
+                        return false;
+                    }
+                    con.pendientes = null;
+                    con.primerPendiente = 0;
+                }
+
+                if (con.parte >= partes.size()) {
+                    if (con.tls != null && !con.tls.vaciar()) {
+                        esperarEscritura(con);
+                        return false;
+                    }
+                    terminarEnvio(con);
+                    return true;
+                }
+
+                if (partes.get(con.parte) instanceof ByteBuffer) {
+                    // Bytes en memoria despues de una region de archivo
+                    int hasta = inicialesEnMemoria(r, con.parte);
+                    con.pendientes = new ByteBuffer[hasta - con.parte];
+                    for (int i = con.parte; i < hasta; i++) {
+                        con.pendientes[i - con.parte] = ((ByteBuffer) partes.get(i)).duplicate();
+                    }
+                    con.parte = hasta;
+                    continue;
+                }
+
+                if (partes.get(con.parte) instanceof Respuesta.Generador) {
+                    // Cuerpo generado: un trozo a la vez, con su marco de chunk
+                    ByteBuffer trozo = ((Respuesta.Generador) partes.get(con.parte)).siguiente();
+                    con.pendientes = r.enmarcar(trozo);
+                    if (trozo == null) {
+                        con.parte++;
+                    }
+                    continue;
+                }
+
+                Respuesta.Region region = (Respuesta.Region) partes.get(con.parte);
+                long restante = region.longitud - con.enviadoParte;
+                // Con TLS transferTo copia por el heap: el cifrado no es del kernel
+                long n = region.canal.transferTo(region.posicion + con.enviadoParte,
+                        restante, salida(con));
+                con.enviadoParte += n;
+                if (con.enviadoParte >= region.longitud) {
+                    con.parte++;
+                    con.enviadoParte = 0;
+                } else if (n == 0) {
+                    esperarEscritura(con);
+                    return false;
+                }
+            }
+        }
+
+        private GatheringByteChannel salida(Conexion con) {
+            return con.tls != null ? con.tls : con.canal;
+        }
+
+        private void esperarEscritura(Conexion con) {
+            con.key.interestOps(SelectionKey.OP_WRITE);
+        }
+
+        private void terminarEnvio(Conexion con) {
+            manejador.registrar(con.peticion == PETICION_INVALIDA ? null : con.peticion,
+                    con.respuesta, System.nanoTime() - con.inicioPeticion);
+            Respuesta respuesta = con.respuesta;
+            respuesta.cerrar();
+            con.respuesta = null;
+            con.pendientes = null;
+            con.ultimaActividad = System.currentTimeMillis();
+            liberarParser(con);
+
+            // Canal de eventos: el socket sale de este selector y pasa al
+            // del Notificador, ya en modo no bloqueante
+            if (respuesta.getSuscripcion() != null) {
+                con.key.cancel();
+                con.key.attach(null);
+                con.entrada = null;
+                try {
+                    Notificador.global().suscribir(con.canal, respuesta.getSuscripcion());
+                } catch (IOException e) {
+                    cerrar(con);
+                }
+                return;
+            }
+
+            if (!con.mantener) {
+                cerrar(con);
+                return;
+            }
+            con.key.interestOps(SelectionKey.OP_READ);
+        }
+
+        // ==========================
+        // CIERRE
+        // ==========================
+        private void cerrarInactivas() {
+            long ahora = System.currentTimeMillis();
+            if (ahora - ultimaRevision < 1000) {
+                return;
+            }
+            ultimaRevision = ahora;
+            for (SelectionKey key : selector.keys()) {
+                Conexion con = (Conexion) key.attachment();
+                if (con != null && con.respuesta == null && !con.enProceso
+                        && ahora - con.ultimaActividad > ManejadorCliente.TIEMPO_INACTIVO) {
+                    cerrar(con);
+                }
+            }
+        }
+
+        private void cerrar(Conexion con) {
+            if (con.respuesta != null) {
+                con.respuesta.cerrar();
+                con.respuesta = null;
+            }
+            con.pendientes = null;
+            if (!con.enProceso) {
+                // Si no, el executor aun lee de ese parser: vuelve en enviarListas
+                liberarParser(con);
+            }
+            con.key.cancel();
+            try {
+                if (con.tls != null) {
+                    con.tls.close();
+                } else {
+                    con.canal.close();
+                }
+            } catch (IOException ignored) {}
+        }
+    }
+
+    // Marca de peticion malformada o demasiado grande
+    private static final Peticion PETICION_INVALIDA = new Peticion("", "", "");
+
+    // Estado de una conexion dentro de su trabajador
+    private static class Conexion {
+        final SocketChannel canal;
+        // null en el puerto en claro
+        CanalTLS tls;
+        SelectionKey key;
+        ByteBuffer entrada;
+        // Buffers por escribir con write(ByteBuffer[]) y el primero no vacio
+        ByteBuffer[] pendientes;
+        int primerPendiente;
+        Respuesta respuesta;
+        int parte;
+        long enviadoParte;
+        int atendidas;
+        boolean mantener;
+        boolean continuarEnviado;
+        long ultimaActividad = System.currentTimeMillis();
+        final long aceptada = System.nanoTime();
+        // Peticion en curso, para las metricas y el registro
+        long inicioPeticion;
+        Peticion peticion;
+        // Mientras el executor atiende: el parser de la peticion y, al
+        // terminar, la respuesta que falta enviar
+        boolean enProceso;
+        ParserHTTP parser;
+        Respuesta lista;
+        // Cuerpo chunked decodificado hasta ahora, mientras llega el resto
+        ByteArrayOutputStream cuerpo;
+
+        Conexion(SocketChannel canal) {
+            this.canal = canal;
+        }
+    }
+}
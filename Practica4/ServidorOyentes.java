@@ -0,0 +1,132 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+
+// Modo --oyentes=N (sin valor: uno por nucleo). N sockets escuchan en el
+// mismo puerto con SO_REUSEPORT y el kernel reparte entre ellos las
+// conexiones nuevas (en Linux por hash de la 4-tupla). Cada oyente tiene
+// su hilo que acepta, su pool, su control de admision y su cache: no hay
+// un unico accept() por el que pase todo ni locks compartidos, solo
+// Metricas y el registro de accesos, que no bloquean.
+// Reemplaza al par PRINCIPAL/SECUNDARIO: no se redirige ni se reenvia,
+// cada oyente atiende lo que acepta. Donde no existe SO_REUSEPORT
+// (Windows) los oyentes comparten un solo socket.
+public class ServidorOyentes {
+
+    private static final int BACKLOG = 1024;
+
+    private final int puerto;
+    private final String nombreServidor;
+    private final int numOyentes;
+    private final int tamPool;
+    private final int tamCola;
+    private final Opciones opciones;
+    private ServidorTLS tls;
+
+    public ServidorOyentes(int puerto, String nombreServidor, int numOyentes,
+                           int tamPool, int tamCola, Opciones opciones) {
+        this.puerto = puerto;
+        this.nombreServidor = nombreServidor;
+        this.numOyentes = numOyentes;
+        this.tamPool = tamPool;
+        this.tamCola = tamCola;
+        this.opciones = opciones;
+    }
+
+    // --oyentes=N, o --oyentes solo para uno por nucleo; 0 si no se pidio
+    public static int cantidad(Opciones opciones) {
+        String valor = opciones.texto("oyentes", null);
+        if (valor == null) {
+            return 0;
+        }
+        return valor.equals("true") ? Runtime.getRuntime().availableProcessors()
+                : Integer.parseInt(valor);
+    }
+
+    // HTTPS con el mismo esquema: un socket TLS mas por oyente
+    public ServidorOyentes conTLS(ServidorTLS tls) {
+        this.tls = tls;
+        return this;
+    }
+
+    public void iniciar() throws IOException {
+        String hilos = opciones.texto("hilos", "pool");
+        int cola = opciones.entero("cola", tamCola);
+        boolean reusePort = admiteReusePort();
+
+        List<ExecutorService> pools = new ArrayList<>();
+        List<ControlAdmision> admisiones = new ArrayList<>();
+        ServerSocketChannel compartido = null;
+        for (int i = 0; i < numOyentes; i++) {
+            ServerSocketChannel canal;
+            if (reusePort) {
+                canal = ServerSocketChannel.open();
+                canal.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                canal.bind(new InetSocketAddress(puerto), BACKLOG);
+            } else {
+                if (compartido == null) {
+                    compartido = ServerSocketChannel.open().bind(new InetSocketAddress(puerto), BACKLOG);
+                }
+                canal = compartido;
+            }
+
+            ExecutorService pool = Ejecutores.crear(hilos, tamPool, cola);
+            ControlAdmision admision = ControlAdmision.desdeOpciones(nombreServidor, opciones);
+            CacheArchivos cache = CacheArchivos.compartida().particion(numOyentes);
+            pools.add(pool);
+            admisiones.add(admision);
+
+            Thread hilo = new Thread(() -> aceptar(canal, pool, admision, cache),
+                    "oyente-" + nombreServidor + "-" + i);
+            hilo.start();
+            if (tls != null && (reusePort || i == 0)) {
+                tls.escuchar(nombreServidor, pool, admision, cache, reusePort);
+            }
+        }
+
+        System.out.println("Servidor HTTP " + nombreServidor + " con " + numOyentes
+                + " oyentes en puerto " + puerto
+                + (reusePort ? " (SO_REUSEPORT)" : " (un socket compartido)")
+                + (tls != null ? " y HTTPS en " + tls.getPuerto() : ""));
+
+        Metricas metricas = Metricas.global();
+        metricas.indicador("http_oyentes", () -> numOyentes);
+        metricas.indicador("http_cola_sobrecargada",
+                () -> admisiones.stream().filter(ControlAdmision::isSobrecargado).count());
+        if (pools.get(0) instanceof ThreadPoolExecutor) {
+            metricas.indicador("http_manejadores_activos", () -> pools.stream()
+                    .mapToLong(p -> ((ThreadPoolExecutor) p).getActiveCount()).sum());
+            metricas.indicador("http_pool_cola", () -> pools.stream()
+                    .mapToLong(p -> ((ThreadPoolExecutor) p).getQueue().size()).sum());
+        }
+    }
+
+    static boolean admiteReusePort() throws IOException {
+        try (ServerSocketChannel prueba = ServerSocketChannel.open()) {
+            return prueba.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        }
+    }
+
+    private void aceptar(ServerSocketChannel canal, ExecutorService pool,
+                         ControlAdmision admision, CacheArchivos cache) {
+        while (true) {
+            try {
+                Socket cliente = canal.accept().socket();
+                admision.despachar(pool, cliente,
+                        new ManejadorCliente(cliente, nombreServidor, cache));
+            } catch (ClosedChannelException e) {
+                return;
+            } catch (IOException e) {
+                // Un accept() fallido (p. ej. sin descriptores) no tumba al oyente
+                e.printStackTrace();
+            }
+        }
+    }
+}
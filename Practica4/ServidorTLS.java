@@ -0,0 +1,155 @@
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+
+// HTTPS junto al puerto en claro. El certificado sale de un keystore local
+// (PKCS12 o JKS); para probar en loopback alcanza uno autofirmado:
+//   keytool -genkeypair -alias servidor -keyalg EC -dname CN=localhost \
+//           -ext SAN=dns:localhost,ip:127.0.0.1 -validity 365 \
+//           -keystore servidor.p12 -storepass changeit
+//   --keystore=servidor.p12  --keystore-clave=changeit  --tls-puerto=N
+//   --tls-sesiones=N  --tls-sesion-s=N
+// Reanudacion: la cache de sesiones del contexto y los session tickets
+// (TLS 1.2 y PSK de TLS 1.3) permiten que un cliente que vuelve se salte
+// el intercambio de claves y la verificacion del certificado. ALPN elige
+// h2 o http/1.1; con h2 el cliente manda directo el prefacio y
+// ManejadorCliente pasa la conexion a ConexionHTTP2.
+// El motor de hilos usa SSLSocket (el mismo SSLEngine de JSSE detras de un
+// socket bloqueante); ServidorNIO usa SSLEngine directo via CanalTLS.
+public class ServidorTLS {
+
+    private static final String[] PROTOCOLOS = {"TLSv1.3", "TLSv1.2"};
+    private static final String[] ALPN_H2 = {"h2", "http/1.1"};
+    // ServidorNIO no habla HTTP/2
+    private static final String[] ALPN_HTTP1 = {"http/1.1"};
+
+    private static final int TIEMPO_HANDSHAKE = 10_000;
+
+    private final SSLContext contexto;
+    private final int puerto;
+
+    private ServidorTLS(SSLContext contexto, int puerto) {
+        this.contexto = contexto;
+        this.puerto = puerto;
+    }
+
+    // null si no se paso --keystore
+    public static ServidorTLS desdeOpciones(Opciones opciones, int puertoDefecto)
+            throws IOException, GeneralSecurityException {
+        String archivo = opciones.texto("keystore", null);
+        if (archivo == null) {
+            return null;
+        }
+        // Tickets sin estado en el servidor (ya es el valor por defecto desde
+        // Java 13); se fija antes de crear el primer contexto
+        if (System.getProperty("jdk.tls.server.enableSessionTicketExtension") == null) {
+            System.setProperty("jdk.tls.server.enableSessionTicketExtension", "true");
+        }
+
+        char[] clave = opciones.texto("keystore-clave", "changeit").toCharArray();
+        KeyStore almacen = KeyStore.getInstance(new File(archivo), clave);
+        KeyManagerFactory claves = KeyManagerFactory.getInstance(
+                KeyManagerFactory.getDefaultAlgorithm());
+        claves.init(almacen, clave);
+
+        SSLContext contexto = SSLContext.getInstance("TLS");
+        contexto.init(claves.getKeyManagers(), null, null);
+        SSLSessionContext sesiones = contexto.getServerSessionContext();
+        sesiones.setSessionCacheSize(opciones.entero("tls-sesiones", 20_000));
+        sesiones.setSessionTimeout(opciones.entero("tls-sesion-s", 24 * 3600));
+
+        return new ServidorTLS(contexto, opciones.entero("tls-puerto", puertoDefecto));
+    }
+
+    public int getPuerto() {
+        return puerto;
+    }
+
+    private static SSLParameters parametros(SSLParameters base, String[] alpn) {
+        base.setProtocols(PROTOCOLOS);
+        base.setApplicationProtocols(alpn);
+        return base;
+    }
+
+    // ==========================
+    // MOTOR DE HILOS
+    // ==========================
+
+    // Un hilo acepta en el puerto TLS y manda cada conexion al mismo pool
+    // que el puerto en claro. El handshake corre en el hilo del pool.
+    // Con --oyentes se llama una vez por oyente, con SO_REUSEPORT
+    public void escuchar(String nombreServidor, ExecutorService pool, ControlAdmision admision,
+                         CacheArchivos cache, boolean reusePort) throws IOException {
+        SSLServerSocket servidor = (SSLServerSocket) contexto.getServerSocketFactory()
+                .createServerSocket();
+        if (reusePort) {
+            servidor.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        }
+        servidor.bind(new InetSocketAddress(puerto), 1024);
+        Thread hilo = new Thread(() -> {
+            while (true) {
+                try {
+                    SSLSocket cliente = (SSLSocket) servidor.accept();
+                    cliente.setSSLParameters(parametros(cliente.getSSLParameters(), ALPN_H2));
+                    ManejadorCliente manejador = new ManejadorCliente(cliente, nombreServidor, cache);
+                    admision.despachar(pool, cliente, () -> {
+                        if (handshake(cliente)) {
+                            manejador.run();
+                        }
+                    });
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "tls-" + nombreServidor);
+        hilo.start();
+        if (!reusePort) {
+            System.out.println("HTTPS " + nombreServidor + " en puerto " + puerto);
+        }
+    }
+
+    private static boolean handshake(SSLSocket cliente) {
+        long inicio = System.nanoTime();
+        try {
+            cliente.setSoTimeout(TIEMPO_HANDSHAKE);
+            cliente.startHandshake();
+        } catch (IOException e) {
+            // Cliente que no confia en el certificado, version sin soporte...
+            Metricas.global().errorTLS();
+            try { cliente.close(); } catch (IOException ignored) {}
+            return false;
+        }
+        registrarHandshake(cliente.getSession(), System.nanoTime() - inicio);
+        return true;
+    }
+
+    // ==========================
+    // MOTOR NIO
+    // ==========================
+    public SSLEngine motor() {
+        SSLEngine motor = contexto.createSSLEngine();
+        motor.setUseClientMode(false);
+        motor.setSSLParameters(parametros(motor.getSSLParameters(), ALPN_HTTP1));
+        return motor;
+    }
+
+    // Una sesion reanudada conserva la fecha de creacion de la original,
+    // anterior al inicio de este handshake
+    static void registrarHandshake(SSLSession sesion, long nanos) {
+        long inicio = System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(nanos);
+        Metricas.global().handshakeTLS(sesion.getCreationTime() < inicio - 1, nanos);
+    }
+}
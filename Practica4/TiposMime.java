@@ -0,0 +1,76 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+// Registro extension -> tipo MIME. Se carga de un archivo con el formato de
+// mime.types ("tipo/subtipo ext1 ext2 ...", '#' para comentarios); si no
+// existe quedan los tipos basicos que el servidor siempre conocio.
+public class TiposMime {
+
+    public static final String POR_DEFECTO = "application/octet-stream";
+
+    private static volatile TiposMime compartido = basico();
+
+    private final Map<String, String> porExtension = new HashMap<>();
+
+    public static TiposMime compartido() {
+        return compartido;
+    }
+
+    // --mime=archivo en los servidores; las entradas del archivo se suman a
+    // las basicas y las reemplazan si repiten extension
+    public static void configurar(Path archivo) {
+        TiposMime tipos = basico();
+        if (!Files.isReadable(archivo)) {
+            compartido = tipos;
+            return;
+        }
+        try (BufferedReader in = Files.newBufferedReader(archivo)) {
+            String linea;
+            while ((linea = in.readLine()) != null) {
+                tipos.agregarLinea(linea);
+            }
+            System.out.println("Tipos MIME: " + tipos.porExtension.size() + " extensiones de " + archivo);
+        } catch (IOException e) {
+            System.out.println("No se pudo leer " + archivo + ": " + e.getMessage());
+        }
+        compartido = tipos;
+    }
+
+    private static TiposMime basico() {
+        TiposMime t = new TiposMime();
+        t.agregarLinea("text/html html htm");
+        t.agregarLinea("text/plain txt");
+        t.agregarLinea("image/jpeg jpg jpeg");
+        t.agregarLinea("image/png png");
+        t.agregarLinea("image/x-icon ico");
+        t.agregarLinea("application/pdf pdf");
+        t.agregarLinea("application/msword doc");
+        t.agregarLinea("application/java-vm class");
+        return t;
+    }
+
+    private void agregarLinea(String linea) {
+        int comentario = linea.indexOf('#');
+        if (comentario >= 0) {
+            linea = linea.substring(0, comentario);
+        }
+        String[] campos = linea.trim().split("\\s+");
+        for (int i = 1; i < campos.length; i++) {
+            porExtension.put(campos[i].toLowerCase(), campos[0]);
+        }
+    }
+
+    // Tipo segun la extension del nombre (sin distinguir mayusculas)
+    public String buscar(String nombre) {
+        int punto = nombre.lastIndexOf('.');
+        if (punto < 0 || punto == nombre.length() - 1) {
+            return POR_DEFECTO;
+        }
+        String tipo = porExtension.get(nombre.substring(punto + 1).toLowerCase());
+        return tipo != null ? tipo : POR_DEFECTO;
+    }
+}
@@ -0,0 +1,244 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+// ZIP de un directorio generado mientras se envia (?zip). Cada archivo se
+// comprime por bloques directo al buffer de salida; el CRC y los tamanos
+// van en un descriptor despues de los datos (bit 3), asi nada se arma
+// completo ni en memoria ni en disco. Solo se guarda, por archivo, lo que
+// necesita el directorio central del final.
+// Sin ZIP64: hasta 65535 archivos de menos de 4 GB y 4 GB en total.
+public class ZipDirectorio implements Respuesta.Generador {
+
+    private static final int TAM_BLOQUE = 64 * 1024;
+    private static final long MAX_ZIP = 0xffffffffL;
+    private static final int MAX_ENTRADAS = 0xffff;
+
+    private static final int FIRMA_LOCAL = 0x04034b50;
+    private static final int FIRMA_DESCRIPTOR = 0x08074b50;
+    private static final int FIRMA_CENTRAL = 0x02014b50;
+    private static final int FIRMA_FIN = 0x06054b50;
+    private static final int VERSION = 20;
+    // bit 3: CRC y tamanos en el descriptor; bit 11: nombres en UTF-8
+    private static final int FLAGS = 0x0808;
+    private static final int DEFLATE = 8;
+
+    // Lo que el directorio central necesita de cada entrada
+    private static class Entrada {
+        final byte[] nombre;
+        final int fechaDos;
+        final long desplazamiento;
+        long crc;
+        long comprimido;
+        long original;
+
+        Entrada(byte[] nombre, int fechaDos, long desplazamiento) {
+            this.nombre = nombre;
+            this.fechaDos = fechaDos;
+            this.desplazamiento = desplazamiento;
+        }
+    }
+
+    private final Path raiz;
+    private final List<Path> archivos;
+    private final List<Entrada> escritas = new ArrayList<>();
+    private int siguienteArchivo = 0;
+
+    private final byte[] salida = new byte[TAM_BLOQUE];
+    private final byte[] lectura = new byte[TAM_BLOQUE];
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    private final CRC32 crc = new CRC32();
+
+    // Archivo que se esta comprimiendo
+    private InputStream actual;
+    private Entrada entrada;
+    private boolean finArchivo;
+
+    // Cabeceras pendientes de copiar a la salida. Solo se arma una nueva
+    // cuando la anterior ya se copio, asi 'posicion' es su desplazamiento
+    private ByteBuffer pendiente;
+    private long posicion = 0;       // bytes del ZIP ya producidos
+    private boolean terminado = false;
+
+    // Lista los archivos (no ocultos) del arbol; el contenido se lee despues
+    public ZipDirectorio(Path raiz) throws IOException {
+        this.raiz = raiz;
+        try (Stream<Path> arbol = Files.walk(raiz)) {
+            this.archivos = arbol
+                    .filter(Files::isRegularFile)
+                    .filter(p -> !oculto(raiz.relativize(p)))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        if (archivos.size() > MAX_ENTRADAS) {
+            throw new IOException("Demasiados archivos para un ZIP sin ZIP64");
+        }
+    }
+
+    private static boolean oculto(Path relativa) {
+        for (Path parte : relativa) {
+            if (parte.toString().startsWith(".")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public ByteBuffer siguiente() throws IOException {
+        int n = 0;
+        while (n < salida.length) {
+            if (pendiente != null && pendiente.hasRemaining()) {
+                int k = Math.min(pendiente.remaining(), salida.length - n);
+                pendiente.get(salida, n, k);
+                n += k;
+                posicion += k;
+                continue;
+            }
+            if (actual != null) {
+                int k = comprimir(n);
+                n += k;
+                posicion += k;
+                continue;
+            }
+            if (siguienteArchivo < archivos.size()) {
+                abrir(archivos.get(siguienteArchivo++));
+                continue;
+            }
+            if (!terminado) {
+                pendiente = directorioCentral();
+                terminado = true;
+                continue;
+            }
+            break;
+        }
+        if (posicion > MAX_ZIP) {
+            throw new IOException("El ZIP supera 4 GB");
+        }
+        return n == 0 ? null : ByteBuffer.wrap(salida, 0, n);
+    }
+
+    // Cabecera local de la entrada; el contenido sale en las siguientes vueltas
+    private void abrir(Path archivo) throws IOException {
+        try {
+            actual = Files.newInputStream(archivo);
+        } catch (NoSuchFileException | AccessDeniedException e) {
+            // Borrado (o sin permiso) despues de listar: se omite
+            return;
+        }
+        String relativa = raiz.relativize(archivo).toString().replace('\\', '/');
+        byte[] nombre = relativa.getBytes(StandardCharsets.UTF_8);
+        entrada = new Entrada(nombre, fechaDos(Files.getLastModifiedTime(archivo).toMillis()),
+                posicion);
+        finArchivo = false;
+        crc.reset();
+        deflater.reset();
+        // Lo que ya viene comprimido se guarda sin gastar CPU
+        deflater.setLevel(Compresion.esComprimible(TiposMime.compartido().buscar(relativa))
+                ? Deflater.DEFAULT_COMPRESSION : Deflater.NO_COMPRESSION);
+
+        ByteBuffer b = buffer(30 + nombre.length);
+        b.putInt(FIRMA_LOCAL).putShort((short) VERSION).putShort((short) FLAGS)
+         .putShort((short) DEFLATE).putInt(entrada.fechaDos)
+         .putInt(0).putInt(0).putInt(0)
+         .putShort((short) nombre.length).putShort((short) 0)
+         .put(nombre).flip();
+        pendiente = b;
+    }
+
+    // Datos comprimidos del archivo actual a partir de salida[desde]
+    private int comprimir(int desde) throws IOException {
+        if (!deflater.finished()) {
+            if (deflater.needsInput() && !finArchivo) {
+                int leidos = actual.read(lectura);
+                if (leidos < 0) {
+                    finArchivo = true;
+                    deflater.finish();
+                } else {
+                    crc.update(lectura, 0, leidos);
+                    entrada.original += leidos;
+                    if (entrada.original > MAX_ZIP) {
+                        throw new IOException("Archivo de mas de 4 GB: no entra sin ZIP64");
+                    }
+                    deflater.setInput(lectura, 0, leidos);
+                }
+            }
+            int n = deflater.deflate(salida, desde, salida.length - desde);
+            entrada.comprimido += n;
+            return n;
+        }
+
+        // Fin del archivo: descriptor con el CRC y los tamanos reales
+        actual.close();
+        actual = null;
+        entrada.crc = crc.getValue();
+        escritas.add(entrada);
+        ByteBuffer b = buffer(16);
+        b.putInt(FIRMA_DESCRIPTOR).putInt((int) entrada.crc)
+         .putInt((int) entrada.comprimido).putInt((int) entrada.original).flip();
+        pendiente = b;
+        return 0;
+    }
+
+    private ByteBuffer directorioCentral() {
+        int largo = 22;
+        for (Entrada e : escritas) {
+            largo += 46 + e.nombre.length;
+        }
+        long inicio = posicion;
+        ByteBuffer b = buffer(largo);
+        for (Entrada e : escritas) {
+            b.putInt(FIRMA_CENTRAL).putShort((short) VERSION).putShort((short) VERSION)
+             .putShort((short) FLAGS).putShort((short) DEFLATE).putInt(e.fechaDos)
+             .putInt((int) e.crc).putInt((int) e.comprimido).putInt((int) e.original)
+             .putShort((short) e.nombre.length).putShort((short) 0).putShort((short) 0)
+             .putShort((short) 0).putShort((short) 0).putInt(0)
+             .putInt((int) e.desplazamiento)
+             .put(e.nombre);
+        }
+        int tamano = largo - 22;
+        b.putInt(FIRMA_FIN).putShort((short) 0).putShort((short) 0)
+         .putShort((short) escritas.size()).putShort((short) escritas.size())
+         .putInt(tamano).putInt((int) inicio).putShort((short) 0).flip();
+        return b;
+    }
+
+    private static ByteBuffer buffer(int largo) {
+        return ByteBuffer.allocate(largo).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // Fecha y hora de MS-DOS: resolucion de 2 segundos, desde 1980
+    private static int fechaDos(long millis) {
+        LocalDateTime t = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis),
+                ZoneId.systemDefault());
+        if (t.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return (t.getYear() - 1980) << 25 | t.getMonthValue() << 21 | t.getDayOfMonth() << 16
+                | t.getHour() << 11 | t.getMinute() << 5 | t.getSecond() >> 1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        deflater.end();
+        if (actual != null) {
+            actual.close();
+            actual = null;
+        }
+    }
+}
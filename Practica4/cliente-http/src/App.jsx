@@ -1,4 +1,4 @@
-import { useState } from "react";
+import { useEffect, useState } from "react";
 
 const SERVIDOR = "http://localhost:8000";
 
@@ -7,6 +7,28 @@ function App() {
   const [ruta, setRuta] = useState("");
   const [contenido, setContenido] = useState("");
   const [resultado, setResultado] = useState("");
+  const [cambios, setCambios] = useState([]);
+
+  // ======================
+  // Eventos → cambios en los archivos del servidor
+  // ======================
+  // El servidor avisa por /eventos (Server-Sent Events); EventSource
+  // reconecta solo y recupera lo perdido con Last-Event-ID
+  useEffect(() => {
+    const eventos = new EventSource(SERVIDOR + "/eventos");
+
+    const agregar = (tipo) => (e) => {
+      const { ruta } = JSON.parse(e.data);
+      const hora = new Date().toLocaleTimeString();
+      setCambios(anteriores => [{ id: e.lastEventId, tipo, ruta, hora }, ...anteriores].slice(0, 10));
+    };
+
+    eventos.addEventListener("cambio", agregar("cambio"));
+    eventos.addEventListener("eliminado", agregar("eliminado"));
+    eventos.addEventListener("desbordado", agregar("desbordado"));
+
+    return () => eventos.close();
+  }, []);
 
   // ======================
   // GET → abrir archivo
@@ -112,6 +134,18 @@ function App() {
         <h3>Resultado del Protocolo HTTP</h3>
         <pre>{resultado}</pre>
       </div>
+
+      <div className="card">
+        <h3>Cambios en el servidor</h3>
+        <ul>
+          {cambios.map(c => (
+            <li key={c.id}>
+              {c.hora} — {c.tipo}: {c.ruta}
+              {c.ruta === ruta && " (archivo actual)"}
+            </li>
+          ))}
+        </ul>
+      </div>
     </div>
   );
 }